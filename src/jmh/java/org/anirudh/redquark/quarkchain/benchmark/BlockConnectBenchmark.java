@@ -0,0 +1,110 @@
+package org.anirudh.redquark.quarkchain.benchmark;
+
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.chain.BlockConnector;
+import org.anirudh.redquark.quarkchain.chain.BlockUndo;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.OverlayUTXOStore;
+import org.anirudh.redquark.quarkchain.utxo.UTXOSet;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Connecting a block of independent payments with a {@link BlockConnector},
+ * and disconnecting it again so every invocation starts from the same outputs.
+ * The threads parameter sizes the pool; 1 is the serial cost. Without
+ * signatures only the dependency graph and the lookups are left.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BlockConnectBenchmark {
+
+	@Param({ "1000" })
+	public int transactionCount;
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	@Param({ "true", "false" })
+	public boolean verifySignatures;
+
+	private ForkJoinPool pool;
+
+	private BlockConnector connector;
+
+	private UTXOSet utxos;
+
+	private Block block;
+
+	@Setup
+	public void setup() {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		pool = new ForkJoinPool(threads);
+		connector = new BlockConnector(pool);
+		utxos = new UTXOSet();
+
+		Wallet receiver = new Wallet();
+
+		OverlayUTXOStore replay = new OverlayUTXOStore(utxos);
+
+		block = new Block(Hash256.sha256(new byte[] { 1 }));
+
+		for (int i = 0; i < transactionCount; i++) {
+
+			Wallet sender = new Wallet();
+
+			TransactionOutput funding = new TransactionOutput(sender.publicKey, Amount.coins(10),
+					Hash256.sha256(new byte[] { (byte) (i >>> 8), (byte) i }));
+
+			utxos.put(funding);
+
+			ArrayList<TransactionInput> inputs = new ArrayList<>();
+
+			inputs.add(new TransactionInput(funding.id));
+
+			Transaction transaction = new Transaction(sender.publicKey, receiver.publicKey, Amount.coins(4), inputs);
+
+			transaction.generateSignature(sender.privateKey);
+			transaction.processTransaction(replay);
+
+			block.transactions.add(transaction);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public BlockUndo connect() {
+
+		BlockUndo undo = connector.connect(block, utxos, verifySignatures);
+
+		undo.disconnect(utxos);
+
+		return undo;
+	}
+}
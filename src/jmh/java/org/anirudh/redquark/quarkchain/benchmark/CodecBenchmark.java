@@ -0,0 +1,153 @@
+package org.anirudh.redquark.quarkchain.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.PublicKey;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.crypto.CryptoService;
+import org.anirudh.redquark.quarkchain.store.BlockCodec;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Binary {@link BlockCodec} against Gson JSON, encoding into a reused buffer
+ * and decoding back. The encoded sizes of both are printed during setup.
+ *
+ * Gson gets the same help the codec has for keys: they are written as the
+ * Base64 of their X.509 form and decoded through the key cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CodecBenchmark {
+
+	@Param({ "1", "100" })
+	public int transactionCount;
+
+	private Block block;
+
+	private ByteBuffer buffer;
+
+	private byte[] binary;
+
+	private Gson gson;
+
+	private String json;
+
+	@Setup
+	public void setup() {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		Wallet sender = new Wallet();
+		Wallet receiver = new Wallet();
+
+		Random random = new Random(42);
+
+		ArrayList<Transaction> transactions = new ArrayList<>();
+
+		for (int t = 0; t < transactionCount; t++) {
+
+			Hash256 id = Hash256.sha256(("transaction " + t).getBytes());
+
+			ArrayList<TransactionInput> inputs = new ArrayList<>();
+
+			inputs.add(new TransactionInput(Hash256.sha256(("input " + t).getBytes())));
+
+			ArrayList<TransactionOutput> outputs = new ArrayList<>();
+
+			outputs.add(new TransactionOutput(receiver.publicKey, Amount.coins(40), id));
+			outputs.add(new TransactionOutput(sender.publicKey, Amount.coins(60), id));
+
+			byte[] signature = new byte[56];
+
+			random.nextBytes(signature);
+
+			transactions.add(new Transaction(id, sender.publicKey, receiver.publicKey, Amount.coins(40), signature,
+					inputs, outputs));
+		}
+
+		block = new Block(Hash256.sha256("block".getBytes()), Hash256.sha256("previous".getBytes()),
+				Hash256.sha256("root".getBytes()), System.currentTimeMillis(), 0x1d00ffff, 42, transactions);
+
+		buffer = ByteBuffer.allocate(BlockCodec.encodedSize(block));
+
+		binary = BlockCodec.encode(block);
+
+		gson = new GsonBuilder().registerTypeHierarchyAdapter(PublicKey.class, new KeyAdapter()).create();
+
+		json = gson.toJson(block);
+
+		System.out.println("binary " + binary.length + " bytes, json "
+				+ json.getBytes(StandardCharsets.UTF_8).length + " bytes");
+	}
+
+	@Benchmark
+	public ByteBuffer encodeBinary() {
+
+		buffer.clear();
+
+		BlockCodec.encode(block, buffer);
+
+		return buffer;
+	}
+
+	@Benchmark
+	public Block decodeBinary() {
+
+		return BlockCodec.decode(ByteBuffer.wrap(binary));
+	}
+
+	@Benchmark
+	public String encodeJson() {
+
+		return gson.toJson(block);
+	}
+
+	@Benchmark
+	public Block decodeJson() {
+
+		return gson.fromJson(json, Block.class);
+	}
+
+	private static class KeyAdapter extends TypeAdapter<PublicKey> {
+
+		@Override
+		public void write(JsonWriter out, PublicKey key) throws IOException {
+
+			out.value(CryptoService.getAddress(key));
+		}
+
+		@Override
+		public PublicKey read(JsonReader in) throws IOException {
+
+			return CryptoService.decodePublicKey(Base64.getDecoder().decode(in.nextString()));
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package org.anirudh.redquark.quarkchain.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.wallet.BranchAndBoundSelector;
+import org.anirudh.redquark.quarkchain.wallet.CoinSelector;
+import org.anirudh.redquark.quarkchain.wallet.CoinSet;
+import org.anirudh.redquark.quarkchain.wallet.LargestFirstSelector;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A wallet receiving and paying random amounts in cents, with each coin
+ * selection strategy. Every iteration starts from the same fresh wallet and
+ * runs the same number of steps, so the counters compare: inputs / payments is
+ * the mean number of inputs per transaction, changeOutputs how many outputs
+ * payments added back, and utxos the size of the wallet at the end.
+ *
+ * "arbitrary" is the selection wallets used to make, in hash map order until
+ * the value is covered. "consolidating" adds an idle-time consolidation of the
+ * smallest outputs every 100 steps to branch and bound.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, batchSize = CoinSelectionBenchmark.STEPS)
+@Measurement(iterations = 3, batchSize = CoinSelectionBenchmark.STEPS)
+public class CoinSelectionBenchmark {
+
+	static final int STEPS = 100000;
+
+	private static final long CENT = Amount.coins(1) / 100;
+
+	@Param({ "arbitrary", "largestFirst", "branchAndBound", "consolidating" })
+	public String strategy;
+
+	private CoinSelector selector;
+
+	private CoinSet coins;
+
+	/**
+	 * The same outputs by id, walked by the arbitrary selection
+	 */
+	private HashMap<Hash256, TransactionOutput> byId;
+
+	private Random random;
+
+	private long steps;
+
+	private long outputCount;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+
+		random = new Random(42);
+		coins = new CoinSet();
+		byId = new HashMap<>();
+		steps = 0;
+
+		if ("arbitrary".equals(strategy)) {
+
+			selector = new CoinSelector() {
+
+				@Override
+				public List<TransactionOutput> select(CoinSet coins, long value) {
+
+					List<TransactionOutput> selected = new ArrayList<>();
+
+					long total = 0;
+
+					for (TransactionOutput output : byId.values()) {
+
+						selected.add(output);
+
+						total += output.value;
+
+						if (total >= value) {
+
+							return selected;
+						}
+					}
+
+					return null;
+				}
+			};
+		} else if ("largestFirst".equals(strategy)) {
+
+			selector = new LargestFirstSelector();
+		} else {
+
+			selector = new BranchAndBoundSelector(new LargestFirstSelector());
+		}
+
+		for (int i = 0; i < 20; i++) {
+
+			receive(CENT * (100 + random.nextInt(2000)));
+		}
+	}
+
+	@Benchmark
+	public void step(Counters counters) {
+
+		if (random.nextBoolean()) {
+
+			receive(CENT * (1 + random.nextInt(2000)));
+		}
+
+		pay(CENT * (10 + random.nextInt(990)), counters);
+
+		if ("consolidating".equals(strategy) && ++steps % 100 == 0 && coins.size() > 10) {
+
+			consolidate(10);
+		}
+
+		counters.utxos = coins.size();
+	}
+
+	/**
+	 * Reported next to the time, summed over an iteration
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Counters {
+
+		public long payments;
+
+		public long inputs;
+
+		public long changeOutputs;
+
+		public long utxos;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+
+			payments = 0;
+			inputs = 0;
+			changeOutputs = 0;
+			utxos = 0;
+		}
+	}
+
+	private void pay(long value, Counters counters) {
+
+		List<TransactionOutput> selected = selector.select(coins, value);
+
+		if (selected == null) {
+
+			return;
+		}
+
+		long total = 0;
+
+		for (TransactionOutput output : new ArrayList<>(selected)) {
+
+			total += output.value;
+
+			spend(output);
+		}
+
+		counters.payments++;
+		counters.inputs += selected.size();
+
+		if (total > value) {
+
+			receive(total - value);
+
+			counters.changeOutputs++;
+		}
+	}
+
+	private void consolidate(int maxInputs) {
+
+		List<TransactionOutput> smallest = new ArrayList<>();
+
+		for (TransactionOutput output : coins.smallestFirst()) {
+
+			if (smallest.size() == maxInputs) {
+
+				break;
+			}
+
+			smallest.add(output);
+		}
+
+		long total = 0;
+
+		for (TransactionOutput output : smallest) {
+
+			total += output.value;
+
+			spend(output);
+		}
+
+		receive(total);
+	}
+
+	private void receive(long value) {
+
+		TransactionOutput output = new TransactionOutput(Hash256.sha256(longBytes(++outputCount)), null, value,
+				Hash256.ZERO);
+
+		coins.add(output);
+		byId.put(output.id, output);
+	}
+
+	private void spend(TransactionOutput output) {
+
+		coins.remove(output.id);
+		byId.remove(output.id);
+	}
+
+	private static byte[] longBytes(long value) {
+
+		byte[] bytes = new byte[8];
+
+		for (int i = 0; i < 8; i++) {
+
+			bytes[i] = (byte) (value >>> (56 - 8 * i));
+		}
+
+		return bytes;
+	}
+}
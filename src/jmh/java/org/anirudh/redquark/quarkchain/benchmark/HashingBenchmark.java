@@ -0,0 +1,46 @@
+package org.anirudh.redquark.quarkchain.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.anirudh.redquark.quarkchain.util.StringUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of {@link StringUtil#applySha256(String)} for inputs of the sizes the
+ * chain hashes: a block header string, a transaction payload and a large
+ * message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HashingBenchmark {
+
+	@Param({ "64", "256", "4096" })
+	public int inputLength;
+
+	private String input;
+
+	@Setup
+	public void setup() {
+
+		char[] chars = new char[inputLength];
+
+		Arrays.fill(chars, 'q');
+
+		input = new String(chars);
+	}
+
+	@Benchmark
+	public String applySha256() {
+
+		return StringUtil.applySha256(input);
+	}
+}
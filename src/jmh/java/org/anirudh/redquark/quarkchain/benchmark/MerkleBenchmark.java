@@ -0,0 +1,51 @@
+package org.anirudh.redquark.quarkchain.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.util.StringUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of computing the merkle root of a block for several transaction counts
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MerkleBenchmark {
+
+	@Param({ "1", "16", "256", "2048" })
+	public int transactionCount;
+
+	private ArrayList<Transaction> transactions;
+
+	@Setup
+	public void setup() {
+
+		transactions = new ArrayList<>(transactionCount);
+
+		for (int i = 0; i < transactionCount; i++) {
+
+			Transaction transaction = new Transaction(null, null, i, new ArrayList<>());
+
+			transaction.transactionId = Hash256.sha256(Integer.toString(i).getBytes());
+
+			transactions.add(transaction);
+		}
+	}
+
+	@Benchmark
+	public Hash256 getMerkleRoot() {
+
+		return StringUtil.getMerkleRoot(transactions);
+	}
+}
@@ -0,0 +1,46 @@
+package org.anirudh.redquark.quarkchain.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.anirudh.redquark.quarkchain.block.BlockHeader;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of one nonce attempt, hashing the whole header against resuming from
+ * the precomputed midstate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MidstateBenchmark {
+
+	private BlockHeader header;
+
+	private int nonce;
+
+	@Setup
+	public void setup() {
+
+		header = new BlockHeader(Hash256.sha256("previous".getBytes()), Hash256.sha256("merkle".getBytes()),
+				System.currentTimeMillis(), 0x1d00ffff);
+	}
+
+	@Benchmark
+	public byte[] fullDigest() {
+
+		return header.hashFull(nonce++);
+	}
+
+	@Benchmark
+	public byte[] midstate() {
+
+		return header.hash(nonce++);
+	}
+}
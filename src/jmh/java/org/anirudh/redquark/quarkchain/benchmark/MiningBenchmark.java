@@ -0,0 +1,68 @@
+package org.anirudh.redquark.quarkchain.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.mining.ParallelMiner;
+import org.anirudh.redquark.quarkchain.mining.Target;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Time to mine a block for several difficulties and miner thread counts. Every
+ * invocation mines a fresh block, so the number of nonces tried varies and
+ * enough iterations are needed for a stable average.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MiningBenchmark {
+
+	@Param({ "2", "3", "4" })
+	public int difficulty;
+
+	@Param({ "1", "2", "4" })
+	public int threads;
+
+	private ParallelMiner miner;
+
+	private Hash256 previousHash;
+
+	private Target target;
+
+	@Setup
+	public void setup() {
+
+		miner = new ParallelMiner(threads);
+
+		target = Target.fromLeadingZeros(difficulty);
+
+		previousHash = Hash256.sha256("previous".getBytes());
+	}
+
+	@TearDown
+	public void tearDown() {
+
+		miner.shutdown();
+	}
+
+	@Benchmark
+	public Hash256 mineBlock() {
+
+		Block block = new Block(previousHash);
+
+		block.merkleRoot = previousHash;
+
+		miner.mine(block, target).await();
+
+		return block.hash;
+	}
+}
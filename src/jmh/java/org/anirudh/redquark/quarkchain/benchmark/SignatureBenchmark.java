@@ -0,0 +1,67 @@
+package org.anirudh.redquark.quarkchain.benchmark;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.TimeUnit;
+
+import org.anirudh.redquark.quarkchain.util.StringUtil;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of signing and verifying a transaction payload on several curves. Run
+ * with -t to measure how verification scales with threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SignatureBenchmark {
+
+	@Param({ "prime192v1", "prime256v1", "secp256k1" })
+	public String curve;
+
+	private KeyPair keyPair;
+
+	private String data;
+
+	private byte[] signature;
+
+	@Setup
+	public void setup() throws Exception {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("ECDSA", "BC");
+
+		keyPairGenerator.initialize(new ECGenParameterSpec(curve), new SecureRandom());
+
+		keyPair = keyPairGenerator.generateKeyPair();
+
+		data = StringUtil.getStringFromKey(keyPair.getPublic()) + StringUtil.getStringFromKey(keyPair.getPublic())
+				+ Float.toString(40f);
+
+		signature = StringUtil.applyECDSASignature(keyPair.getPrivate(), data);
+	}
+
+	@Benchmark
+	public byte[] sign() {
+
+		return StringUtil.applyECDSASignature(keyPair.getPrivate(), data);
+	}
+
+	@Benchmark
+	public boolean verify() {
+
+		return StringUtil.verifyECDSASignatrue(keyPair.getPublic(), data, signature);
+	}
+}
@@ -0,0 +1,135 @@
+package org.anirudh.redquark.quarkchain.benchmark;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.OutputTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Lookups and churn on an {@link OutputTable} keyed by raw ids against a
+ * HashMap keyed by {@link Hash256}, as UTXOSet keeps them. Both hold the same
+ * outputs and are probed in the same order; run with -prof gc to see
+ * the allocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UTXOTableBenchmark {
+
+	private static final int STRIDE = 7919;
+
+	@Param({ "100000", "1000000" })
+	public int outputCount;
+
+	private OutputTable table;
+
+	private HashMap<Hash256, TransactionOutput> map;
+
+	private byte[][] keys;
+
+	private Hash256[] ids;
+
+	private byte[] ownerHash;
+
+	private byte[] parent;
+
+	private int next;
+
+	@Setup
+	public void setup() {
+
+		Random random = new Random(42);
+
+		keys = new byte[outputCount][32];
+		ids = new Hash256[outputCount];
+
+		ownerHash = new byte[32];
+		parent = new byte[32];
+
+		random.nextBytes(ownerHash);
+		random.nextBytes(parent);
+
+		Hash256 parentId = Hash256.of(parent);
+
+		table = OutputTable.allocateDirect(Integer.highestOneBit(outputCount) * 4);
+		map = new HashMap<>(outputCount * 2);
+
+		for (int i = 0; i < outputCount; i++) {
+
+			random.nextBytes(keys[i]);
+
+			ids[i] = Hash256.of(keys[i]);
+
+			table.put(keys[i], ownerHash, parent, i);
+			map.put(ids[i], new TransactionOutput(ids[i], null, i, parentId));
+		}
+	}
+
+	/**
+	 * Steps through the outputs by a large prime, so that neither structure is
+	 * walked in the order it was allocated in
+	 */
+	private int nextIndex() {
+
+		next += STRIDE;
+
+		if (next >= outputCount) {
+
+			next -= outputCount;
+		}
+
+		return next;
+	}
+
+	@Benchmark
+	public long tableGet() {
+
+		return table.getValue(table.find(keys[nextIndex()]));
+	}
+
+	@Benchmark
+	public long mapGet() {
+
+		return map.get(ids[nextIndex()]).value;
+	}
+
+	/**
+	 * Spends an output and creates it again
+	 */
+	@Benchmark
+	public int tableRemovePut() {
+
+		byte[] key = keys[nextIndex()];
+
+		int slot = table.find(key);
+
+		long value = table.getValue(slot);
+
+		table.removeAt(slot);
+
+		return table.put(key, ownerHash, parent, value);
+	}
+
+	@Benchmark
+	public TransactionOutput mapRemovePut() {
+
+		Hash256 id = ids[nextIndex()];
+
+		TransactionOutput output = map.remove(id);
+
+		map.put(id, output);
+
+		return output;
+	}
+}
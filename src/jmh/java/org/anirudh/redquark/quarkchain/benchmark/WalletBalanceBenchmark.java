@@ -0,0 +1,107 @@
+package org.anirudh.redquark.quarkchain.benchmark;
+
+import java.security.Security;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.anirudh.redquark.quarkchain.chain.ChainState;
+import org.anirudh.redquark.quarkchain.mining.DifficultyAdjuster;
+import org.anirudh.redquark.quarkchain.mining.Target;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.UTXOSet;
+import org.anirudh.redquark.quarkchain.wallet.CoinSet;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.anirudh.redquark.quarkchain.wallet.WalletFactory;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reading the balance of every wallet of a node, each owning a number of
+ * outputs. "watched" reads the balances the chain events keep, "rescan" loads
+ * each wallet's outputs from the UTXO set the way wallets did before they
+ * subscribed to the chain.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WalletBalanceBenchmark {
+
+	@Param({ "1000" })
+	public int walletCount;
+
+	@Param({ "10" })
+	public int outputsPerWallet;
+
+	private Wallet[] wallets;
+
+	private ChainState chain;
+
+	@Setup
+	public void setup() {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		chain = new ChainState(new UTXOSet(), new DifficultyAdjuster(Target.MAX, 1000, 1000));
+
+		wallets = new WalletFactory(ForkJoinPool.commonPool()).createWallets(walletCount).toArray(new Wallet[0]);
+
+		int outputs = 0;
+
+		for (Wallet wallet : wallets) {
+
+			for (int i = 0; i < outputsPerWallet; i++) {
+
+				outputs++;
+
+				chain.getUTXOs().put(new TransactionOutput(wallet.publicKey, Amount.coins(1 + i),
+						Hash256.sha256(new byte[] { (byte) (outputs >>> 16), (byte) (outputs >>> 8), (byte) outputs })));
+			}
+
+			wallet.watch(chain);
+		}
+	}
+
+	@Benchmark
+	public long watched() {
+
+		long total = 0;
+
+		for (Wallet wallet : wallets) {
+
+			total += wallet.getBalance();
+		}
+
+		return total;
+	}
+
+	@Benchmark
+	public long rescan() {
+
+		long total = 0;
+
+		CoinSet coins = new CoinSet();
+
+		for (Wallet wallet : wallets) {
+
+			coins.clear();
+
+			for (TransactionOutput output : chain.getUTXOs().getOutputs(wallet.publicKey)) {
+
+				coins.add(output);
+			}
+
+			total += chain.getUTXOs().getBalance(wallet.publicKey);
+		}
+
+		return total;
+	}
+}
@@ -0,0 +1,52 @@
+package org.anirudh.redquark.quarkchain.benchmark;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.TimeUnit;
+
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.anirudh.redquark.quarkchain.wallet.WalletFactory;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of creating a wallet with a generator set up for each key, as wallets
+ * used to, against the per-thread generator of {@link WalletFactory}. Run with
+ * -t to see how creation scales with threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WalletBenchmark {
+
+	@Setup
+	public void setup() {
+
+		Security.addProvider(new BouncyCastleProvider());
+	}
+
+	@Benchmark
+	public KeyPair generatorPerWallet() throws Exception {
+
+		KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("ECDSA", "BC");
+
+		keyPairGenerator.initialize(new ECGenParameterSpec(WalletFactory.CURVE), SecureRandom.getInstance("SHA1PRNG"));
+
+		return keyPairGenerator.generateKeyPair();
+	}
+
+	@Benchmark
+	public Wallet threadGenerator() {
+
+		return new Wallet();
+	}
+}
@@ -1,13 +1,29 @@
 package org.anirudh.redquark.quarkchain;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.PublicKey;
 import java.security.Security;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
 
 import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.chain.ChainState;
+import org.anirudh.redquark.quarkchain.mining.DifficultyAdjuster;
+import org.anirudh.redquark.quarkchain.mining.Target;
+import org.anirudh.redquark.quarkchain.store.BlockStore;
+import org.anirudh.redquark.quarkchain.store.StoredBlockHeader;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
 import org.anirudh.redquark.quarkchain.transaction.Transaction;
 import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
 import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.DiskUTXOStore;
+import org.anirudh.redquark.quarkchain.utxo.UTXOCommitment;
+import org.anirudh.redquark.quarkchain.utxo.UTXOSet;
+import org.anirudh.redquark.quarkchain.validation.ChainValidator;
+import org.anirudh.redquark.quarkchain.validation.Checkpoint;
 import org.anirudh.redquark.quarkchain.wallet.Wallet;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
@@ -17,37 +33,63 @@ import org.bouncycastle.jce.provider.BouncyCastleProvider;
 public class App {
 
 	/**
-	 * This ArrayList contains all the blocks in the blockchain, hence ultimately
-	 * creates the blockchain itself
+	 * Logs one bare line per record, unless a format is configured
 	 */
-	public static ArrayList<Block> blockchain = new ArrayList<>();
+	static {
+
+		if (System.getProperty("java.util.logging.SimpleFormatter.format") == null) {
+
+			System.setProperty("java.util.logging.SimpleFormatter.format", "%5$s%6$s%n");
+		}
+	}
+
+	private static final Logger LOGGER = Logger.getLogger(App.class.getName());
 
 	/**
-	 * Difficulty - Increase or decrease the value of this parameter to see the
-	 * effect of computation power required to solve the transaction
+	 * The blockchain and its unspent outputs. Difficulty - Increase or decrease
+	 * the initial number of zeros to see the effect of computation power required
+	 * to solve the transaction; the target is then retargeted every 10 blocks
+	 * towards one block a second. Use a {@link DiskUTXOStore} for UTXO sets larger
+	 * than the heap. Nothing else reads it: every class is handed the chain or
+	 * the store it works on.
 	 */
-	public static int difficulty = 5;
+	public static final ChainState chain = new ChainState(new UTXOSet(),
+			new DifficultyAdjuster(Target.fromLeadingZeros(5), 10, 1000));
 
 	/**
 	 * Instances of Wallet
 	 */
 	public static Wallet walletA, walletB;
 
-	/**
-	 * All unspent transactions
-	 */
-	public static HashMap<String, TransactionOutput> UTXOs = new HashMap<>();
-
 	/**
 	 * Minimum transaction value
 	 */
-	public static float minimumTransaction = 0.1f;
+	public static final long minimumTransaction = Amount.parse("0.1");
 
 	/**
 	 * Genesis Transaction
 	 */
 	public static Transaction genesisTransaction;
 
+	/**
+	 * Optional on-disk copy of the blockchain. When set, every block added to the
+	 * chain is also appended to the store. main opens it in the directory given as
+	 * its first argument, and closes it on the way out.
+	 */
+	public static BlockStore blockStore;
+
+	/**
+	 * Name of the checkpoint file kept next to the blocks of a store
+	 */
+	public static final String CHECKPOINT_FILE = "checkpoint.dat";
+
+	/**
+	 * Validates the blockchain, verifying signatures on the common fork-join
+	 * pool. main replaces it with one keeping its checkpoint in the directory of
+	 * the block store.
+	 */
+	private static ChainValidator validator = new ChainValidator(ForkJoinPool.commonPool());
+
 	public static void main(String[] args) {
 
 		/**
@@ -55,6 +97,57 @@ public class App {
 		 */
 		Security.addProvider(new BouncyCastleProvider());
 
+		if (args.length == 0) {
+
+			runDemo();
+
+			return;
+		}
+
+		try {
+
+			Path directory = Paths.get(args[0]);
+
+			blockStore = BlockStore.open(directory);
+
+			validator = new ChainValidator(ForkJoinPool.commonPool(), directory.resolve(CHECKPOINT_FILE));
+		} catch (IOException e) {
+
+			throw new RuntimeException(e);
+		}
+
+		try {
+
+			/**
+			 * Continue the chain kept by an earlier run, or start one
+			 */
+			if (blockStore.size() > 0) {
+
+				System.out.println("Loading " + blockStore.size() + " blocks from " + args[0] + "...");
+				System.out.println("Loaded " + loadChain(chain, blockStore, validator) + " blocks");
+			} else {
+
+				runDemo();
+			}
+		} finally {
+
+			try {
+
+				blockStore.close();
+			} catch (IOException e) {
+
+				throw new RuntimeException(e);
+			}
+
+			blockStore = null;
+		}
+	}
+
+	/**
+	 * Mines a genesis block and a few payments between two new wallets
+	 */
+	private static void runDemo() {
+
 		/**
 		 * Create new wallets
 		 */
@@ -65,41 +158,42 @@ public class App {
 		/**
 		 * Create genesis transaction, which sends 100 QuarkCoin to walletA;
 		 */
-		genesisTransaction = new Transaction(coinBase.publicKey, walletA.publicKey, 100f, null);
+		genesisTransaction = new Transaction(coinBase.publicKey, walletA.publicKey, Amount.coins(100), null);
 		genesisTransaction.generateSignature(coinBase.privateKey);
-		genesisTransaction.transactionId = "0";
+		genesisTransaction.transactionId = Hash256.ZERO;
 		genesisTransaction.outputs.add(new TransactionOutput(genesisTransaction.getReceiver(),
 				genesisTransaction.getValue(), genesisTransaction.transactionId));
-		UTXOs.put(genesisTransaction.outputs.get(0).id, genesisTransaction.outputs.get(0));
+		chain.getUTXOs().put(genesisTransaction.outputs.get(0));
+
+		/**
+		 * The wallets see the outputs put into the UTXOs before they watch the chain
+		 */
+		walletA.watch(chain);
+		walletB.watch(chain);
 
 		System.out.println("Creating and Mining Genesis block... ");
-		Block genesis = new Block("0");
-		genesis.addTransaction(genesisTransaction);
+		Block genesis = new Block(Hash256.ZERO);
+		genesis.addTransaction(genesisTransaction, chain.getUTXOs());
 		addBlock(genesis);
 
 		/**
 		 * Testing by creating some blocks
 		 */
-		Block block1 = new Block(genesis.hash);
-		System.out.println("\nWalletA's balance is: " + walletA.getBalance());
+		System.out.println("\nWalletA's balance is: " + Amount.toString(walletA.getBalance()));
 		System.out.println("\nWalletA is Attempting to send funds (40) to WalletB...");
-		block1.addTransaction(walletA.sendFunds(walletB.publicKey, 40f));
-		addBlock(block1);
-		System.out.println("\nWalletA's balance is: " + walletA.getBalance());
-		System.out.println("WalletB's balance is: " + walletB.getBalance());
+		addPayment(walletA, walletB.publicKey, Amount.coins(40));
+		System.out.println("\nWalletA's balance is: " + Amount.toString(walletA.getBalance()));
+		System.out.println("WalletB's balance is: " + Amount.toString(walletB.getBalance()));
 
-		Block block2 = new Block(block1.hash);
 		System.out.println("\nWalletA Attempting to send more funds (1000) than it has...");
-		block2.addTransaction(walletA.sendFunds(walletB.publicKey, 1000f));
-		addBlock(block2);
-		System.out.println("\nWalletA's balance is: " + walletA.getBalance());
-		System.out.println("WalletB's balance is: " + walletB.getBalance());
+		addPayment(walletA, walletB.publicKey, Amount.coins(1000));
+		System.out.println("\nWalletA's balance is: " + Amount.toString(walletA.getBalance()));
+		System.out.println("WalletB's balance is: " + Amount.toString(walletB.getBalance()));
 
-		Block block3 = new Block(block2.hash);
 		System.out.println("\nWalletB is Attempting to send funds (20) to WalletA...");
-		block3.addTransaction(walletB.sendFunds(walletA.publicKey, 20));
-		System.out.println("\nWalletA's balance is: " + walletA.getBalance());
-		System.out.println("WalletB's balance is: " + walletB.getBalance());
+		addPayment(walletB, walletA.publicKey, Amount.coins(20));
+		System.out.println("\nWalletA's balance is: " + Amount.toString(walletA.getBalance()));
+		System.out.println("WalletB's balance is: " + Amount.toString(walletB.getBalance()));
 
 		/**
 		 * Checking if the blockchain is valid
@@ -109,130 +203,205 @@ public class App {
 	}
 
 	/**
-	 * This method checks if the blockchain is valid in order to make sure someone
-	 * has not tampered it
+	 * Mines a block on the tip holding a payment of the wallet, or no payment if
+	 * the block does not take it. The coins the payment reserved are given back
+	 * to the wallet when the payment or its block is rejected.
+	 *
+	 * @param wallet
+	 * @param receiver
+	 * @param value
+	 * @return true if the payment is on the chain
+	 */
+	private static boolean addPayment(Wallet wallet, PublicKey receiver, long value) {
+
+		Block block = new Block(chain.getTip().hash);
+
+		Transaction payment = wallet.sendFunds(receiver, value);
+
+		boolean added = block.addTransaction(payment, chain.getUTXOs());
+
+		if (!addBlock(block) || !added) {
+
+			wallet.release(payment);
+
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Connects the blocks of a store to a chain, which must be empty, checking
+	 * each block once. The headers are read in place first, to find how far the
+	 * stored blocks link up from the genesis block; a block is only decoded,
+	 * after its record is checked against its CRC, when it is connected. The
+	 * genesis output is put into the UTXOs as when the chain was started.
+	 *
+	 * Blocks up to the checkpoint of the validator, if the stored chain goes
+	 * through it, are connected without verifying their signatures, and the
+	 * outputs they leave must match the commitment of the checkpoint. If they do
+	 * not, the chain loaded so far is audited. Later blocks are checked in full,
+	 * signatures included. Loading stops at the first block which does not
+	 * connect.
 	 * 
-	 * @return {@link Boolean}
+	 * @param chain
+	 * @param store
+	 * @param validator
+	 *            validator whose checkpoint the stored blocks are trusted up to
+	 * @return the number of blocks connected
+	 * @throws IllegalStateException
+	 *             if the blocks up to the checkpoint neither match it nor pass
+	 *             the audit
 	 */
-	public static boolean isChainValid() {
+	public static int loadChain(ChainState chain, BlockStore store, ChainValidator validator) {
 
-		/**
-		 * Current block
-		 */
-		Block currentBlock;
+		int linked = countLinked(store);
 
-		/**
-		 * Previous block
-		 */
-		Block previousBlock;
+		if (linked == 0) {
+			return 0;
+		}
 
-		/**
-		 * Getting the target string based on difficulty parameter
-		 */
-		String hashTarget = new String(new char[difficulty]).replace('\0', '0');
+		Checkpoint checkpoint = validator.getCheckpoint();
 
-		/**
-		 * A temporary working list of unspent transactions at a given block state.
-		 */
-		HashMap<String, TransactionOutput> tempUTXOs = new HashMap<String, TransactionOutput>();
+		int trusted = 1;
 
-		/**
-		 * Adding the unspent transaction to the HashMap
-		 */
-		tempUTXOs.put(genesisTransaction.outputs.get(0).id, genesisTransaction.outputs.get(0));
+		if (checkpoint != null && checkpoint.getHeight() > 1 && checkpoint.getHeight() <= linked
+				&& store.getHeader(checkpoint.getHeight() - 1).getHash().equals(checkpoint.getTipHash())) {
+
+			trusted = checkpoint.getHeight();
+		}
+
+		Block genesis = store.getBlock(0);
+
+		genesisTransaction = genesis.transactions.get(0);
+		chain.getUTXOs().put(genesisTransaction.outputs.get(0));
+
+		if (!chain.connectBlock(genesis)) {
+			return 0;
+		}
 
 		/**
-		 * Loop through blockchain to check hashes:
+		 * Follows the outputs the trusted blocks leave, as the validator does
 		 */
-		for (int i = 1; i < blockchain.size(); i++) {
+		UTXOCommitment commitment = new UTXOCommitment();
 
-			currentBlock = blockchain.get(i);
-			previousBlock = blockchain.get(i - 1);
+		commitment.add(genesisTransaction.outputs.get(0));
 
-			/**
-			 * Compare registered hash and calculated hash:
-			 */
-			if (!currentBlock.hash.equals(currentBlock.calculateHash())) {
-				System.out.println("#Current Hashes not equal");
-				return false;
-			}
+		for (int height = 1; height < linked; height++) {
 
-			/**
-			 * Compare previous hash and registered previous hash
-			 */
-			if (!previousBlock.hash.equals(currentBlock.previousHash)) {
-				System.out.println("#Previous Hashes not equal");
-				return false;
-			}
+			Block block = store.getBlock(height);
 
-			/**
-			 * Check if hash is solved
-			 */
-			if (!currentBlock.hash.substring(0, difficulty).equals(hashTarget)) {
-				System.out.println("#This block hasn't been mined");
-				return false;
+			boolean connected = height < trusted ? chain.connectBlock(block, false) : chain.acceptBlock(block);
+
+			if (!connected || chain.getHeight() != height + 1) {
+
+				LOGGER.warning("#Stored block at height " + height + " does not connect, loading stopped");
+
+				break;
 			}
 
-			/**
-			 * Loop through blockchains transactions:
-			 */
-			TransactionOutput tempOutput;
-			for (int t = 0; t < currentBlock.transactions.size(); t++) {
-				Transaction currentTransaction = currentBlock.transactions.get(t);
+			if (height < trusted) {
 
-				if (!currentTransaction.verifySignature()) {
-					System.out.println("#Signature on Transaction(" + t + ") is Invalid");
-					return false;
-				}
-				if (currentTransaction.getInputsValue() != currentTransaction.getOutputsValue()) {
-					System.out.println("#Inputs are note equal to outputs on Transaction(" + t + ")");
-					return false;
-				}
+				for (Transaction transaction : block.transactions) {
 
-				for (TransactionInput input : currentTransaction.inputs) {
-					tempOutput = tempUTXOs.get(input.transactionOutputId);
+					for (TransactionInput input : transaction.inputs) {
 
-					if (tempOutput == null) {
-						System.out.println("#Referenced input on Transaction(" + t + ") is Missing");
-						return false;
+						commitment.remove(input.UTXO);
 					}
 
-					if (input.UTXO.value != tempOutput.value) {
-						System.out.println("#Referenced input Transaction(" + t + ") value is Invalid");
-						return false;
-					}
+					for (TransactionOutput output : transaction.outputs) {
 
-					tempUTXOs.remove(input.transactionOutputId);
+						commitment.add(output);
+					}
 				}
+			}
 
-				for (TransactionOutput output : currentTransaction.outputs) {
-					tempUTXOs.put(output.id, output);
-				}
+			if (height == trusted - 1 && !checkpoint.matches(commitment.toBytes())) {
 
-				if (currentTransaction.outputs.get(0).receiver != currentTransaction.getReceiver()) {
-					System.out.println("#Transaction(" + t + ") output reciepient is not who it should be");
-					return false;
-				}
-				if (currentTransaction.outputs.get(1).receiver != currentTransaction.getSender()) {
-					System.out.println("#Transaction(" + t + ") output 'change' is not sender.");
-					return false;
+				LOGGER.warning("#Stored blocks do not match the checkpoint, auditing them");
+
+				if (!validator.audit(chain.getBlocks(), chain.getDifficulty(), genesisTransaction)) {
+
+					throw new IllegalStateException("Stored blocks up to height " + height + " are not valid");
 				}
+			}
+		}
+
+		if (linked < store.size()) {
 
+			LOGGER.warning("#Stored block at height " + linked + " does not extend the block before it");
+		}
+
+		return chain.getHeight();
+	}
+
+	/**
+	 * Returns the number of stored blocks which link up from the genesis block,
+	 * reading their headers only
+	 */
+	private static int countLinked(BlockStore store) {
+
+		Hash256 previous = Hash256.ZERO;
+
+		for (int height = 0; height < store.size(); height++) {
+
+			StoredBlockHeader header = store.getHeader(height);
+
+			if (!header.getPreviousHash().equals(previous)) {
+
+				return height;
 			}
 
+			previous = header.getHash();
 		}
-		System.out.println("Blockchain is valid");
-		return true;
 
+		return store.size();
+	}
+
+	/**
+	 * This method checks if the blockchain is valid in order to make sure someone
+	 * has not tampered it. Signatures are verified in parallel, and only the
+	 * blocks added since the last call are checked, see {@link ChainValidator}.
+	 * 
+	 * @return {@link Boolean}
+	 */
+	public static boolean isChainValid() {
+
+		return validator.isChainValid(chain.getBlocks(), chain.getDifficulty(), genesisTransaction);
 	}
 
 	/**
-	 * This method adds a block to the blockchain
+	 * Checks the whole blockchain again, including the blocks already validated
+	 * by {@link #isChainValid()}
+	 * 
+	 * @return {@link Boolean}
+	 */
+	public static boolean auditChain() {
+
+		return validator.audit(chain.getBlocks(), chain.getDifficulty(), genesisTransaction);
+	}
+
+	/**
+	 * This method mines a block, adds it to the blockchain and applies its
+	 * transactions to the UTXOs
 	 * 
 	 * @param newBlock
+	 * @return true if the block was added
 	 */
-	public static void addBlock(Block newBlock) {
-		newBlock.mineBlock(difficulty);
-		blockchain.add(newBlock);
+	public static boolean addBlock(Block newBlock) {
+		newBlock.mineBlock(chain.getNextTarget());
+
+		if (!chain.connectBlock(newBlock)) {
+			return false;
+		}
+
+		if (blockStore != null) {
+			try {
+				blockStore.append(newBlock);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return true;
 	}
 }
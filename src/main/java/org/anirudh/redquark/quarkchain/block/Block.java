@@ -2,24 +2,33 @@ package org.anirudh.redquark.quarkchain.block;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.anirudh.redquark.quarkchain.mining.ParallelMiner;
+import org.anirudh.redquark.quarkchain.mining.Target;
 import org.anirudh.redquark.quarkchain.transaction.Transaction;
-import org.anirudh.redquark.quarkchain.util.StringUtil;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.OverlayUTXOStore;
+import org.anirudh.redquark.quarkchain.utxo.UTXOStore;
 
 /**
  * This is the basic block that makes a blockchain
  */
 public class Block {
 
+	private static final Logger LOGGER = Logger.getLogger(Block.class.getName());
+
 	/**
 	 * Hash of the current block
 	 */
-	public String hash;
+	public Hash256 hash;
 
 	/**
 	 * Hash of the previous block
 	 */
-	public String previousHash;
+	public Hash256 previousHash;
 
 	/**
 	 * Data that is stored in a block, generally transactions
@@ -31,9 +40,25 @@ public class Block {
 	 */
 	private long timeStamp;
 
+	/**
+	 * Proof-of-work target of the block, in compact form
+	 */
+	private int bits;
+
 	private int nonce;
 
-	public String merkleRoot;
+	public Hash256 merkleRoot = Hash256.ZERO;
+
+	/**
+	 * Merkle tree of the transactions, updated as they are added
+	 */
+	private transient MerkleTree merkleTree = new MerkleTree();
+
+	/**
+	 * Effect of the transactions on the chain's UTXOs, applied when the block is
+	 * connected
+	 */
+	private transient OverlayUTXOStore pendingUTXOs;
 
 	/**
 	 * Our data will be a simple message
@@ -48,7 +73,7 @@ public class Block {
 	 * @param data
 	 * @param timeStamp
 	 */
-	public Block(String previousHash) {
+	public Block(Hash256 previousHash) {
 		this.previousHash = previousHash;
 		this.timeStamp = new Date().getTime();
 
@@ -58,17 +83,41 @@ public class Block {
 		this.hash = calculateHash();
 	}
 
+	/**
+	 * Rebuilds a block which was already mined, for example when it is read back
+	 * from disk
+	 * 
+	 * @param hash
+	 * @param previousHash
+	 * @param merkleRoot
+	 * @param timeStamp
+	 * @param bits
+	 * @param nonce
+	 * @param transactions
+	 */
+	public Block(Hash256 hash, Hash256 previousHash, Hash256 merkleRoot, long timeStamp, int bits, int nonce,
+			ArrayList<Transaction> transactions) {
+
+		this.hash = hash;
+		this.previousHash = previousHash;
+		this.merkleRoot = merkleRoot;
+		this.timeStamp = timeStamp;
+		this.bits = bits;
+		this.nonce = nonce;
+		this.transactions = transactions;
+	}
+
 	/**
 	 * @return the hash
 	 */
-	public String getHash() {
+	public Hash256 getHash() {
 		return hash;
 	}
 
 	/**
 	 * @return the previousHash
 	 */
-	public String getPreviousHash() {
+	public Hash256 getPreviousHash() {
 		return previousHash;
 	}
 
@@ -88,21 +137,78 @@ public class Block {
 
 	/**
 	 * We must calculate the hash from all parts of the block we don’t want to be
-	 * tampered with. So for our block we will include the previousHash, the data
-	 * and timeStamp.
+	 * tampered with. So for our block we will include the previousHash, the
+	 * merkleRoot, the timeStamp, the target and the nonce, laid out as a
+	 * {@link BlockHeader}.
 	 * 
 	 * @return calculatedHash
 	 */
-	public String calculateHash() {
+	public Hash256 calculateHash() {
 
-		/**
-		 * Pass all the three known parameters to a block so that they can contribute to
-		 * its individual hash calculation
-		 */
-		String calculatedHash = StringUtil
-				.applySha256(previousHash + Long.toString(timeStamp) + Integer.toString(nonce) + merkleRoot);
+		return calculateHash(nonce);
+	}
 
-		return calculatedHash;
+	/**
+	 * Calculates the hash this block would have with the given nonce, without
+	 * modifying the block. This lets several miners try nonces on the same block
+	 * at once.
+	 * 
+	 * @param nonce
+	 * @return calculatedHash
+	 */
+	public Hash256 calculateHash(int nonce) {
+
+		return Hash256.of(header().hash(nonce), 0);
+	}
+
+	/**
+	 * Builds the binary header of this block. Miners hash the header directly and
+	 * only turn the winning hash into a {@link Hash256}.
+	 * 
+	 * @return {@link BlockHeader}
+	 */
+	public BlockHeader header() {
+
+		return new BlockHeader(previousHash, merkleRoot, timeStamp, bits);
+	}
+
+	/**
+	 * Stores a nonce found by a miner and the hash that goes with it
+	 * 
+	 * @param nonce
+	 */
+	public void applyNonce(int nonce) {
+
+		this.nonce = nonce;
+
+		this.hash = calculateHash();
+	}
+
+	/**
+	 * @return the nonce
+	 */
+	public int getNonce() {
+		return nonce;
+	}
+
+	/**
+	 * @return the target, in compact form
+	 */
+	public int getBits() {
+		return bits;
+	}
+
+	/**
+	 * Sets the target the block is mined for. This changes its hash.
+	 * 
+	 * @param bits
+	 *            the target, in compact form
+	 */
+	public void setBits(int bits) {
+
+		this.bits = bits;
+
+		this.hash = calculateHash();
 	}
 
 	/**
@@ -114,25 +220,111 @@ public class Block {
 	 * instantly on most computers, I’d suggest something around 4–6 for testing. At
 	 * the time of writing Litecoin’s difficulty is around 442,592.
 	 * 
+	 * The nonce space is searched by the shared {@link ParallelMiner}, which
+	 * keeps every core busy.
+	 * 
 	 * @param difficulty
 	 */
 	public void mineBlock(int difficulty) {
 
-		merkleRoot = StringUtil.getMerkleRoot(transactions);
+		mineBlock(Target.fromLeadingZeros(difficulty));
+	}
+
+	/**
+	 * Mines this block until its hash meets the target, which a
+	 * {@link org.anirudh.redquark.quarkchain.mining.DifficultyAdjuster} sets
+	 * for each height
+	 * 
+	 * @param target
+	 */
+	public void mineBlock(Target target) {
+
+		mineBlock(target, ParallelMiner.getDefault());
+	}
+
+	/**
+	 * Mines this block with the given miner
+	 * 
+	 * @param target
+	 * @param miner
+	 * @return true if the block was mined, false if the miner was shut down or
+	 *         the thread interrupted
+	 */
+	public boolean mineBlock(Target target, ParallelMiner miner) {
+
+		merkleRoot = getMerkleTree().getRootHash();
+
+		if (!miner.mine(this, target).await()) {
+
+			LOGGER.fine("Mining cancelled");
+
+			return false;
+		}
+
+		if (LOGGER.isLoggable(Level.INFO)) {
+
+			LOGGER.info("Block Mined!!! : " + hash);
+		}
 
-		String target = StringUtil.getDificultyString(difficulty);
+		return true;
+	}
 
-		while (!hash.substring(0, difficulty).equals(target)) {
+	/**
+	 * Returns the merkle tree of the transactions. The tree is rebuilt if the
+	 * transaction list was changed directly.
+	 * 
+	 * @return {@link MerkleTree}
+	 */
+	public MerkleTree getMerkleTree() {
 
-			nonce++;
+		if (merkleTree.size() != transactions.size()) {
 
-			hash = calculateHash();
+			merkleTree = MerkleTree.of(transactions);
 		}
 
-		System.out.println("Block Mined!!! : " + hash);
+		return merkleTree;
+	}
+
+	/**
+	 * Builds the proof that the transaction at an index is part of this block,
+	 * to be checked against the merkle root with
+	 * {@link MerkleTree#verify(Hash256, java.util.List, Hash256)}
+	 * 
+	 * @param index
+	 * @return the proof
+	 */
+	public List<MerkleTree.ProofStep> getMerkleProof(int index) {
+
+		return getMerkleTree().getProof(index);
+	}
+
+	/**
+	 * Returns the changes the transactions of this block make to the UTXOs of
+	 * the chain it is built for. Transactions added to the block see each other's
+	 * outputs, but the chain's UTXOs are only changed when the block is
+	 * connected.
+	 * 
+	 * @return {@link OverlayUTXOStore}, or null if no transaction was processed
+	 *         into the block yet
+	 */
+	public OverlayUTXOStore getPendingUTXOs() {
+
+		return pendingUTXOs;
 	}
 
-	public boolean addTransaction(Transaction transaction) {
+	/**
+	 * Processes a transaction against the UTXOs of the chain the block is built
+	 * for and adds it to the block. Every call on a block must pass the same
+	 * store.
+	 * 
+	 * @param transaction
+	 * @param utxos
+	 *            unspent outputs of the chain, which are not changed
+	 * @return true if the transaction was added
+	 * @throws IllegalArgumentException
+	 *             if transactions were processed against another store before
+	 */
+	public boolean addTransaction(Transaction transaction, UTXOStore utxos) {
 
 		/**
 		 * Process transaction and check if valid, unless block is genesis block then
@@ -143,19 +335,31 @@ public class Block {
 			return false;
 		}
 
-		if ((previousHash != "0")) {
+		if (!previousHash.equals(Hash256.ZERO)) {
+
+			if (pendingUTXOs == null) {
+
+				pendingUTXOs = new OverlayUTXOStore(utxos);
+			} else if (pendingUTXOs.getBase() != utxos) {
+
+				throw new IllegalArgumentException("Block is built on the outputs of another chain");
+			}
 			
-			if ((transaction.processTransaction() != true)) {
+			if ((transaction.processTransaction(pendingUTXOs) != true)) {
 			
-				System.out.println("Transaction failed to process. Discarded.");
+				LOGGER.info("Transaction failed to process. Discarded.");
 				
 				return false;
 			}
 		}
 
+		MerkleTree tree = getMerkleTree();
+
 		transactions.add(transaction);
+
+		tree.add(transaction.getTransactionId());
 		
-		System.out.println("Transaction Successfully added to Block");
+		LOGGER.fine("Transaction Successfully added to Block");
 		
 		return true;
 	}
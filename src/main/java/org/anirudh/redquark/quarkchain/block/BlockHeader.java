@@ -0,0 +1,174 @@
+package org.anirudh.redquark.quarkchain.block;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.util.StringUtil;
+
+/**
+ * Fixed binary layout of the fields of a block which are covered by its hash:
+ *
+ * - 32 bytes of previous block hash
+ * - 32 bytes of merkle root
+ * - 8 bytes of time stamp (big endian)
+ * - 4 bytes of target, in compact form (big endian)
+ * - 4 bytes of nonce (big endian)
+ *
+ * A header keeps its own buffers, so hashing it for a new nonce only rewrites
+ * the last four bytes of the header and fills the same hash array. A header is
+ * therefore not thread safe: every mining worker uses its own copy.
+ *
+ * The hashes and merkle root fill exactly the first 64 byte SHA-256 block and
+ * never change while mining. A digest which has already absorbed them (the
+ * midstate) is kept, and each nonce resumes from a clone of it, so it costs one
+ * compression instead of two. The clone is the one allocation made per nonce:
+ * a JDK digest cannot be reset to a midstate, and it is still preferred over a
+ * hand written SHA-256 core because it runs on the CPU's SHA instructions
+ * where they exist, which a Java core cannot match.
+ */
+public class BlockHeader {
+
+	/**
+	 * Size of the serialized header in bytes
+	 */
+	public static final int SIZE = 80;
+
+	/**
+	 * Offset of the compact target inside the header
+	 */
+	public static final int BITS_OFFSET = 72;
+
+	/**
+	 * Offset of the nonce inside the header
+	 */
+	public static final int NONCE_OFFSET = 76;
+
+	/**
+	 * Length of the constant prefix absorbed into the midstate, one SHA-256 block
+	 */
+	private static final int MIDSTATE_LENGTH = 64;
+
+	/**
+	 * The serialized header
+	 */
+	private final byte[] header = new byte[SIZE];
+
+	/**
+	 * Receives the raw hash of the header
+	 */
+	private final byte[] hash = new byte[32];
+
+	/**
+	 * Digest which has absorbed the first 64 bytes of the header
+	 */
+	private final MessageDigest midstate;
+
+	/**
+	 * @param previousHash
+	 * @param merkleRoot
+	 * @param timeStamp
+	 * @param bits
+	 *            the target, in compact form
+	 */
+	public BlockHeader(Hash256 previousHash, Hash256 merkleRoot, long timeStamp, int bits) {
+
+		previousHash.writeTo(header, 0);
+		merkleRoot.writeTo(header, 32);
+
+		for (int i = 0; i < 8; i++) {
+
+			header[64 + i] = (byte) (timeStamp >>> (56 - 8 * i));
+		}
+
+		for (int i = 0; i < 4; i++) {
+
+			header[BITS_OFFSET + i] = (byte) (bits >>> (24 - 8 * i));
+		}
+
+		try {
+
+			midstate = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+
+			throw new RuntimeException(e);
+		}
+
+		midstate.update(header, 0, MIDSTATE_LENGTH);
+	}
+
+	/**
+	 * Writes the nonce into the header
+	 *
+	 * @param nonce
+	 */
+	public void setNonce(int nonce) {
+
+		header[NONCE_OFFSET] = (byte) (nonce >>> 24);
+		header[NONCE_OFFSET + 1] = (byte) (nonce >>> 16);
+		header[NONCE_OFFSET + 2] = (byte) (nonce >>> 8);
+		header[NONCE_OFFSET + 3] = (byte) nonce;
+	}
+
+	/**
+	 * Hashes the header with the given nonce, resuming from the midstate. The
+	 * returned array is reused by the next call, callers must copy it if they want
+	 * to keep it.
+	 *
+	 * @param nonce
+	 * @return the raw 32 byte hash
+	 */
+	public byte[] hash(int nonce) {
+
+		setNonce(nonce);
+
+		try {
+
+			MessageDigest digest = (MessageDigest) midstate.clone();
+
+			digest.update(header, MIDSTATE_LENGTH, SIZE - MIDSTATE_LENGTH);
+
+			digest.digest(hash, 0, hash.length);
+		} catch (CloneNotSupportedException | DigestException e) {
+
+			throw new RuntimeException(e);
+		}
+
+		return hash;
+	}
+
+	/**
+	 * Hashes the whole header with a {@link MessageDigest}. It gives the same
+	 * result as {@link #hash(int)} and is kept as the reference to measure the
+	 * midstate against.
+	 *
+	 * @param nonce
+	 * @return the raw 32 byte hash
+	 */
+	public byte[] hashFull(int nonce) {
+
+		setNonce(nonce);
+
+		MessageDigest digest = StringUtil.sha256();
+
+		digest.update(header, 0, SIZE);
+
+		try {
+
+			digest.digest(hash, 0, hash.length);
+		} catch (DigestException e) {
+
+			throw new RuntimeException(e);
+		}
+
+		return hash;
+	}
+
+	/**
+	 * @return a copy of the serialized header
+	 */
+	public byte[] toBytes() {
+		return header.clone();
+	}
+}
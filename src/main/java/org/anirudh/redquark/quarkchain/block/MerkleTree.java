@@ -0,0 +1,238 @@
+package org.anirudh.redquark.quarkchain.block;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.util.StringUtil;
+
+/**
+ * Binary merkle tree over the transaction ids of a block.
+ *
+ * Nodes are raw 32 byte hashes and every layer is kept. Adjacent nodes are
+ * paired and hashed as SHA-256(left || right); a node left without a partner
+ * at the end of a layer is carried up unchanged. Appending a leaf only changes
+ * the last node of every layer, so the tree is updated in O(log n) hashes.
+ *
+ * An inclusion proof lists the partners met on the way from a leaf to the
+ * root, which is enough for a light client to check that a transaction is in a
+ * block knowing only its merkle root.
+ */
+public class MerkleTree {
+
+	/**
+	 * layers.get(0) are the leaves, the last layer holds the root
+	 */
+	private final List<List<byte[]>> layers = new ArrayList<>();
+
+	public MerkleTree() {
+
+		layers.add(new ArrayList<byte[]>());
+	}
+
+	/**
+	 * Builds the tree of a list of transactions
+	 *
+	 * @param transactions
+	 * @return {@link MerkleTree}
+	 */
+	public static MerkleTree of(List<Transaction> transactions) {
+
+		MerkleTree tree = new MerkleTree();
+
+		for (Transaction transaction : transactions) {
+
+			tree.add(transaction.getTransactionId());
+		}
+
+		return tree;
+	}
+
+	/**
+	 * Appends a transaction id as a new leaf
+	 *
+	 * @param transactionId
+	 */
+	public void add(Hash256 transactionId) {
+
+		add(transactionId.toBytes());
+	}
+
+	/**
+	 * Appends a raw leaf and updates the last node of every layer above it
+	 *
+	 * @param leaf
+	 */
+	public void add(byte[] leaf) {
+
+		layers.get(0).add(leaf);
+
+		for (int level = 0; layers.get(level).size() > 1; level++) {
+
+			List<byte[]> layer = layers.get(level);
+
+			if (level + 1 == layers.size()) {
+
+				layers.add(new ArrayList<byte[]>());
+			}
+
+			List<byte[]> parents = layers.get(level + 1);
+
+			int last = layer.size() - 1;
+
+			byte[] parent = last % 2 == 1 ? hashPair(layer.get(last - 1), layer.get(last)) : layer.get(last);
+
+			if (last / 2 < parents.size()) {
+
+				parents.set(last / 2, parent);
+			} else {
+
+				parents.add(parent);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of leaves
+	 */
+	public int size() {
+		return layers.get(0).size();
+	}
+
+	/**
+	 * @return the raw root, or null for an empty tree
+	 */
+	public byte[] getRoot() {
+
+		List<byte[]> top = layers.get(layers.size() - 1);
+
+		return top.isEmpty() ? null : top.get(0);
+	}
+
+	/**
+	 * Returns the root as stored in blocks: {@link Hash256#ZERO} for an empty
+	 * tree
+	 *
+	 * @return {@link Hash256}
+	 */
+	public Hash256 getRootHash() {
+
+		byte[] root = getRoot();
+
+		return root == null ? Hash256.ZERO : Hash256.of(root);
+	}
+
+	/**
+	 * Builds the inclusion proof of the leaf at an index
+	 *
+	 * @param index
+	 * @return the proof, from the leaf level up
+	 */
+	public List<ProofStep> getProof(int index) {
+
+		if (index < 0 || index >= size()) {
+
+			throw new IndexOutOfBoundsException("No leaf at " + index);
+		}
+
+		List<ProofStep> proof = new ArrayList<>();
+
+		for (int level = 0; level < layers.size() - 1; level++) {
+
+			List<byte[]> layer = layers.get(level);
+
+			int partner = index ^ 1;
+
+			if (partner < layer.size()) {
+
+				proof.add(new ProofStep(layer.get(partner), partner < index));
+			}
+
+			index /= 2;
+		}
+
+		return proof;
+	}
+
+	/**
+	 * Checks that a leaf belongs to the tree with the given root
+	 *
+	 * @param leaf
+	 * @param proof
+	 * @param root
+	 * @return boolean
+	 */
+	public static boolean verify(byte[] leaf, List<ProofStep> proof, byte[] root) {
+
+		byte[] node = leaf;
+
+		for (ProofStep step : proof) {
+
+			node = step.isLeft() ? hashPair(step.getHash(), node) : hashPair(node, step.getHash());
+		}
+
+		return Arrays.equals(node, root);
+	}
+
+	/**
+	 * Checks that a transaction id belongs to the block with the given merkle
+	 * root
+	 *
+	 * @param transactionId
+	 * @param proof
+	 * @param merkleRoot
+	 * @return boolean
+	 */
+	public static boolean verify(Hash256 transactionId, List<ProofStep> proof, Hash256 merkleRoot) {
+
+		return verify(transactionId.toBytes(), proof, merkleRoot.toBytes());
+	}
+
+	private static byte[] hashPair(byte[] left, byte[] right) {
+
+		MessageDigest digest = StringUtil.sha256();
+
+		digest.update(left);
+		digest.update(right);
+
+		return digest.digest();
+	}
+
+	/**
+	 * One partner on the path from a leaf to the root
+	 */
+	public static class ProofStep {
+
+		private final byte[] hash;
+
+		private final boolean left;
+
+		/**
+		 * @param hash
+		 * @param left
+		 *            true if the partner is hashed on the left
+		 */
+		public ProofStep(byte[] hash, boolean left) {
+
+			this.hash = hash;
+			this.left = left;
+		}
+
+		/**
+		 * @return the hash of the partner
+		 */
+		public byte[] getHash() {
+			return hash;
+		}
+
+		/**
+		 * @return true if the partner is hashed on the left
+		 */
+		public boolean isLeft() {
+			return left;
+		}
+	}
+}
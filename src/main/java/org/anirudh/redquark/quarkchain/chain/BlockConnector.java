@@ -0,0 +1,319 @@
+package org.anirudh.redquark.quarkchain.chain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.transaction.TransactionRules;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.UTXOStore;
+
+/**
+ * Connects a whole block to the unspent outputs, checking its transactions in
+ * parallel on a fork-join pool.
+ *
+ * Replaying a block one transaction at a time makes each one wait for the
+ * previous, although most transactions of a block spend unrelated outputs. The
+ * connector first builds the dependency graph of the block in a serial pass:
+ * which transaction creates each output, and which transaction spends it. That
+ * pass is also the only conflict check: an output spent twice, or spent by a
+ * transaction which does not come after the one creating it, rejects the
+ * block.
+ *
+ * The graph would order the checks in waves, each transaction after those it
+ * spends from. But a transaction carries its outputs, so an output created in
+ * the block is known before its creator is checked, and outputs from before the
+ * block are read from the store, which is not written until the end. Once the
+ * conflicts are ruled out every transaction is in the first wave: all are
+ * checked at once, reading the store concurrently, and the block is applied as
+ * one batch.
+ */
+public class BlockConnector {
+
+	private static final Logger LOGGER = Logger.getLogger(BlockConnector.class.getName());
+
+	/**
+	 * Below this number of transactions a task checks instead of splitting
+	 */
+	private static final int THRESHOLD = 8;
+
+	/**
+	 * Pool running the checks
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param pool
+	 */
+	public BlockConnector(ForkJoinPool pool) {
+
+		this.pool = pool;
+	}
+
+	/**
+	 * Checks a block against the unspent outputs and applies it: every input
+	 * must be unspent, before the block or earlier in it, every transaction must
+	 * follow the {@link TransactionRules}, no output id may be created twice and,
+	 * if asked, the signatures must verify. Signatures already verified on the
+	 * same transaction objects are not verified again. Nothing is changed unless
+	 * the whole block applies.
+	 *
+	 * @param block
+	 * @param utxos
+	 *            a store whose reads are thread safe
+	 * @param verifySignatures
+	 * @return the record to disconnect the block with, or null if the block does
+	 *         not apply to these outputs
+	 */
+	public BlockUndo connect(Block block, UTXOStore utxos, boolean verifySignatures) {
+
+		List<Transaction> transactions = block.transactions;
+
+		boolean genesis = block.previousHash.equals(Hash256.ZERO);
+
+		/**
+		 * Index in the block of the transaction creating each output
+		 */
+		HashMap<Hash256, Integer> creators = new HashMap<>();
+
+		/**
+		 * Outputs spent by the block, wherever they were created
+		 */
+		HashSet<Hash256> spent = new HashSet<>();
+
+		for (int t = 0; t < transactions.size(); t++) {
+
+			for (TransactionOutput output : transactions.get(t).outputs) {
+
+				if (creators.put(output.id, t) != null) {
+
+					return reject(block, t, "repeats an output id");
+				}
+			}
+		}
+
+		for (int t = 0; t < transactions.size(); t++) {
+
+			Transaction transaction = transactions.get(t);
+
+			if (transaction.inputs == null) {
+
+				if (!genesis) {
+
+					return reject(block, t, "has no inputs");
+				}
+
+				continue;
+			}
+
+			for (TransactionInput input : transaction.inputs) {
+
+				if (!spent.add(input.transactionOutputId)) {
+
+					return reject(block, t, "spends an output twice");
+				}
+
+				Integer creator = creators.get(input.transactionOutputId);
+
+				if (creator != null && creator >= t) {
+
+					return reject(block, t, "spends an output which is not created before it");
+				}
+			}
+		}
+
+		TransactionOutput[][] resolved = new TransactionOutput[transactions.size()][];
+
+		boolean[] valid = new boolean[transactions.size()];
+
+		pool.invoke(new CheckTask(transactions, creators, utxos, genesis, verifySignatures, resolved, valid, 0,
+				transactions.size()));
+
+		for (int t = 0; t < valid.length; t++) {
+
+			if (!valid[t]) {
+
+				return reject(block, t, "does not apply");
+			}
+		}
+
+		/**
+		 * Outputs from before the block which it spends, and outputs of the block
+		 * which are left unspent
+		 */
+		List<TransactionOutput> spentOutputs = new ArrayList<>();
+		List<Hash256> spentIds = new ArrayList<>();
+
+		for (TransactionOutput[] inputs : resolved) {
+
+			for (TransactionOutput output : inputs) {
+
+				if (!creators.containsKey(output.id)) {
+
+					spentOutputs.add(output);
+					spentIds.add(output.id);
+				}
+			}
+		}
+
+		List<TransactionOutput> createdOutputs = new ArrayList<>();
+
+		for (Transaction transaction : transactions) {
+
+			for (TransactionOutput output : transaction.outputs) {
+
+				if (!spent.contains(output.id)) {
+
+					createdOutputs.add(output);
+				}
+			}
+		}
+
+		utxos.applyBatch(spentIds, createdOutputs);
+
+		return new BlockUndo(spentOutputs, createdOutputs);
+	}
+
+	private static BlockUndo reject(Block block, int transaction, String reason) {
+
+		if (LOGGER.isLoggable(Level.WARNING)) {
+
+			LOGGER.warning("#Transaction(" + transaction + ") of block " + block.hash + " " + reason);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Checks the transactions in [from, to), splitting the range in halves
+	 */
+	private static final class CheckTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Transaction> transactions;
+
+		private final HashMap<Hash256, Integer> creators;
+
+		private final UTXOStore utxos;
+
+		private final boolean genesis;
+
+		private final boolean verifySignatures;
+
+		private final TransactionOutput[][] resolved;
+
+		private final boolean[] valid;
+
+		private final int from;
+
+		private final int to;
+
+		CheckTask(List<Transaction> transactions, HashMap<Hash256, Integer> creators, UTXOStore utxos,
+				boolean genesis, boolean verifySignatures, TransactionOutput[][] resolved, boolean[] valid, int from,
+				int to) {
+
+			this.transactions = transactions;
+			this.creators = creators;
+			this.utxos = utxos;
+			this.genesis = genesis;
+			this.verifySignatures = verifySignatures;
+			this.resolved = resolved;
+			this.valid = valid;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from <= THRESHOLD) {
+
+				for (int t = from; t < to; t++) {
+
+					valid[t] = check(t);
+				}
+
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+
+			invokeAll(
+					new CheckTask(transactions, creators, utxos, genesis, verifySignatures, resolved, valid, from,
+							middle),
+					new CheckTask(transactions, creators, utxos, genesis, verifySignatures, resolved, valid, middle,
+							to));
+		}
+
+		/**
+		 * Resolves the inputs of one transaction and checks it. The graph is only
+		 * read here, and the store is not written until every check is done.
+		 */
+		private boolean check(int index) {
+
+			Transaction transaction = transactions.get(index);
+
+			List<TransactionInput> inputs = transaction.inputs;
+
+			resolved[index] = new TransactionOutput[inputs == null ? 0 : inputs.size()];
+
+			if (inputs == null) {
+
+				return genesis;
+			}
+
+			/**
+			 * A block built here holds transactions whose signatures were verified
+			 * when they were pooled
+			 */
+			if (verifySignatures && !transaction.isSignatureVerified() && !transaction.verifySignature()) {
+
+				return false;
+			}
+
+			for (int i = 0; i < inputs.size(); i++) {
+
+				TransactionInput input = inputs.get(i);
+
+				Integer creator = creators.get(input.transactionOutputId);
+
+				TransactionOutput output = creator == null ? utxos.get(input.transactionOutputId)
+						: findOutput(transactions.get(creator), input.transactionOutputId);
+
+				input.UTXO = output;
+
+				resolved[index][i] = output;
+			}
+
+			/**
+			 * Outputs repeated within the block are rejected by the serial pass, the
+			 * store is only checked for outputs from before the block
+			 */
+			return TransactionRules.check(transaction, Arrays.asList(resolved[index]), utxos);
+		}
+
+		private static TransactionOutput findOutput(Transaction transaction, Hash256 id) {
+
+			for (TransactionOutput output : transaction.outputs) {
+
+				if (output.id.equals(id)) {
+
+					return output;
+				}
+			}
+
+			return null;
+		}
+	}
+}
@@ -0,0 +1,312 @@
+package org.anirudh.redquark.quarkchain.chain;
+
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.mining.Target;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+
+/**
+ * Every known block by hash, linked to its parent, as a tree rooted at the
+ * genesis block. Several blocks may extend the same parent, so the tree holds
+ * competing tips; the chain to follow is the one with the most cumulative work,
+ * which is not necessarily the longest.
+ *
+ * The index only knows the shape of the tree. Which branch is connected to the
+ * unspent outputs is decided by {@link ChainState}, which also guards the index
+ * with its write lock: the index is not thread safe.
+ */
+public class BlockIndex {
+
+	private final HashMap<Hash256, Node> nodes = new HashMap<>();
+
+	/**
+	 * Valid node with the most work, the first one seen among equals
+	 */
+	private Node bestTip;
+
+	/**
+	 * @param hash
+	 * @return the node of the block with this hash, or null
+	 */
+	public Node get(Hash256 hash) {
+
+		return nodes.get(hash);
+	}
+
+	/**
+	 * @param hash
+	 * @return true if the block is in the index
+	 */
+	public boolean contains(Hash256 hash) {
+
+		return nodes.containsKey(hash);
+	}
+
+	/**
+	 * @return the number of blocks in the index
+	 */
+	public int size() {
+
+		return nodes.size();
+	}
+
+	/**
+	 * @return the valid tip with the most cumulative work, or null if the index
+	 *         is empty
+	 */
+	public Node getBestTip() {
+		return bestTip;
+	}
+
+	/**
+	 * Adds a block under its parent. The first block must be a genesis block,
+	 * every later one must extend a block of the index. A block extending an
+	 * invalid block is invalid too.
+	 *
+	 * @param block
+	 * @return the node of the block, the existing one if it was already added, or
+	 *         null if its parent is unknown
+	 */
+	public Node add(Block block) {
+
+		Node node = nodes.get(block.hash);
+
+		if (node != null) {
+
+			return node;
+		}
+
+		Node parent = nodes.get(block.previousHash);
+
+		if (parent == null && (!nodes.isEmpty() || !block.previousHash.equals(Hash256.ZERO))) {
+
+			return null;
+		}
+
+		node = new Node(block, parent);
+
+		nodes.put(block.hash, node);
+
+		if (parent != null) {
+
+			parent.children.add(node);
+		}
+
+		if (!node.invalid && (bestTip == null || node.chainWork.compareTo(bestTip.chainWork) > 0)) {
+
+			bestTip = node;
+		}
+
+		return node;
+	}
+
+	/**
+	 * Marks a block which failed to connect, and every block built on it, as
+	 * invalid. They stay in the index, so they are not fetched and checked again,
+	 * but are never chosen as the best tip.
+	 *
+	 * @param node
+	 */
+	public void invalidate(Node node) {
+
+		Deque<Node> pending = new ArrayDeque<>();
+
+		pending.push(node);
+
+		while (!pending.isEmpty()) {
+
+			Node next = pending.pop();
+
+			next.invalid = true;
+
+			for (Node child : next.children) {
+
+				pending.push(child);
+			}
+		}
+
+		/**
+		 * Invalid blocks are rare enough for a full scan
+		 */
+		bestTip = null;
+
+		for (Node candidate : nodes.values()) {
+
+			if (!candidate.invalid && (bestTip == null || candidate.chainWork.compareTo(bestTip.chainWork) > 0)) {
+
+				bestTip = candidate;
+			}
+		}
+	}
+
+	/**
+	 * Returns the last block two branches have in common
+	 *
+	 * @param a
+	 * @param b
+	 * @return the fork point, or null if the nodes are in different trees
+	 */
+	public static Node findFork(Node a, Node b) {
+
+		if (a.height > b.height) {
+
+			a = a.getAncestor(b.height);
+		} else {
+
+			b = b.getAncestor(a.height);
+		}
+
+		while (a != b && a != null) {
+
+			a = a.parent;
+			b = b.parent;
+		}
+
+		return a;
+	}
+
+	/**
+	 * Returns the branch ending at a node as a list indexed by height, as read by
+	 * the {@link org.anirudh.redquark.quarkchain.mining.DifficultyAdjuster}.
+	 * Reaching a block walks back from the tip, so the list is meant for reads
+	 * near its end.
+	 *
+	 * @param tip
+	 * @return the blocks from the genesis block to the tip
+	 */
+	public static List<Block> getChain(Node tip) {
+
+		return new Branch(tip);
+	}
+
+	/**
+	 * A block of the index
+	 */
+	public static final class Node {
+
+		private final Block block;
+
+		private final Node parent;
+
+		private final int height;
+
+		/**
+		 * Work of this block and of all the blocks before it
+		 */
+		private final BigInteger chainWork;
+
+		private final List<Node> children = new ArrayList<>(1);
+
+		private boolean invalid;
+
+		/**
+		 * How to take the block off the unspent outputs, set while it is on the
+		 * connected chain
+		 */
+		BlockUndo undo;
+
+		Node(Block block, Node parent) {
+
+			BigInteger work = Target.fromCompact(block.getBits()).getWork();
+
+			this.block = block;
+			this.parent = parent;
+			this.height = parent == null ? 0 : parent.height + 1;
+			this.chainWork = parent == null ? work : parent.chainWork.add(work);
+			this.invalid = parent != null && parent.invalid;
+		}
+
+		/**
+		 * Walks back to the block of a lower height on this branch
+		 *
+		 * @param height
+		 * @return the ancestor, or this node at its own height
+		 */
+		public Node getAncestor(int height) {
+
+			if (height < 0 || height > this.height) {
+
+				throw new IndexOutOfBoundsException("No block at height " + height);
+			}
+
+			Node node = this;
+
+			while (node.height > height) {
+
+				node = node.parent;
+			}
+
+			return node;
+		}
+
+		/**
+		 * @return the block
+		 */
+		public Block getBlock() {
+			return block;
+		}
+
+		/**
+		 * @return the parent, or null for the genesis block
+		 */
+		public Node getParent() {
+			return parent;
+		}
+
+		/**
+		 * @return the height, 0 for the genesis block
+		 */
+		public int getHeight() {
+			return height;
+		}
+
+		/**
+		 * @return the chainWork
+		 */
+		public BigInteger getChainWork() {
+			return chainWork;
+		}
+
+		/**
+		 * @return true if the block or one before it failed to connect
+		 */
+		public boolean isInvalid() {
+			return invalid;
+		}
+
+		/**
+		 * @return true if the block is on the connected chain
+		 */
+		public boolean isConnected() {
+			return undo != null;
+		}
+	}
+
+	private static final class Branch extends AbstractList<Block> {
+
+		private final Node tip;
+
+		Branch(Node tip) {
+
+			this.tip = tip;
+		}
+
+		@Override
+		public Block get(int index) {
+
+			return tip.getAncestor(index).block;
+		}
+
+		@Override
+		public int size() {
+			return tip.height + 1;
+		}
+	}
+}
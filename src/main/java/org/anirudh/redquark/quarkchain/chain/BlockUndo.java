@@ -0,0 +1,71 @@
+package org.anirudh.redquark.quarkchain.chain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.UTXOStore;
+
+/**
+ * What connecting a block changed in the unspent outputs: the outputs it spent,
+ * kept whole so they can be restored, and the outputs it created, kept whole so
+ * their owners can be told when they go away again. Outputs created and spent
+ * within the block appear in neither.
+ *
+ * Disconnecting the block applies the record backwards as one batch, so a
+ * reorganization costs as many blocks as it rolls back instead of a replay from
+ * the genesis block.
+ */
+public final class BlockUndo {
+
+	/**
+	 * Outputs spent by the block
+	 */
+	private final List<TransactionOutput> spent;
+
+	/**
+	 * Outputs created by the block and still unspent after it
+	 */
+	private final List<TransactionOutput> created;
+
+	BlockUndo(List<TransactionOutput> spent, List<TransactionOutput> created) {
+
+		this.spent = spent;
+		this.created = created;
+	}
+
+	/**
+	 * Takes the block's changes back: its outputs are removed and the outputs it
+	 * spent are unspent again
+	 *
+	 * @param utxos
+	 *            the outputs right after the block
+	 */
+	public void disconnect(UTXOStore utxos) {
+
+		List<Hash256> createdIds = new ArrayList<>(created.size());
+
+		for (TransactionOutput output : created) {
+
+			createdIds.add(output.id);
+		}
+
+		utxos.applyBatch(createdIds, spent);
+	}
+
+	/**
+	 * @return the outputs spent by the block
+	 */
+	public Collection<TransactionOutput> getSpent() {
+		return spent;
+	}
+
+	/**
+	 * @return the outputs created by the block
+	 */
+	public Collection<TransactionOutput> getCreated() {
+		return created;
+	}
+}
@@ -0,0 +1,158 @@
+package org.anirudh.redquark.quarkchain.chain;
+
+import java.security.PublicKey;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.anirudh.redquark.quarkchain.crypto.CryptoService;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+
+/**
+ * Hands the changes of each connected or disconnected block to the listeners of
+ * the owners involved.
+ *
+ * Listeners subscribe by owner address, so every output of a block costs one
+ * map lookup, whatever the number of listeners; owners nobody listens to cost
+ * nothing more. A few listeners, such as a pool of pending transactions, are
+ * told about every output instead. Publishing takes no lock, so subscriptions
+ * may change from any thread while a block is published.
+ */
+public class ChainEventBus {
+
+	private final ConcurrentHashMap<String, CopyOnWriteArrayList<OutputListener>> listeners = new ConcurrentHashMap<>();
+
+	/**
+	 * Listeners told about the outputs of every owner
+	 */
+	private final CopyOnWriteArrayList<OutputListener> everyOwner = new CopyOnWriteArrayList<>();
+
+	/**
+	 * @param owner
+	 * @param listener
+	 *            told about the outputs of the owner from now on
+	 */
+	public synchronized void subscribe(PublicKey owner, OutputListener listener) {
+
+		String address = CryptoService.getAddress(owner);
+
+		CopyOnWriteArrayList<OutputListener> subscribed = listeners.get(address);
+
+		if (subscribed == null) {
+
+			subscribed = new CopyOnWriteArrayList<>();
+
+			listeners.put(address, subscribed);
+		}
+
+		subscribed.add(listener);
+	}
+
+	/**
+	 * @param owner
+	 * @param listener
+	 */
+	public synchronized void unsubscribe(PublicKey owner, OutputListener listener) {
+
+		String address = CryptoService.getAddress(owner);
+
+		CopyOnWriteArrayList<OutputListener> subscribed = listeners.get(address);
+
+		if (subscribed != null) {
+
+			subscribed.remove(listener);
+
+			if (subscribed.isEmpty()) {
+
+				listeners.remove(address);
+			}
+		}
+	}
+
+	/**
+	 * @param listener
+	 *            told about the outputs of every owner from now on
+	 */
+	public void subscribe(OutputListener listener) {
+
+		everyOwner.add(listener);
+	}
+
+	/**
+	 * @param listener
+	 */
+	public void unsubscribe(OutputListener listener) {
+
+		everyOwner.remove(listener);
+	}
+
+	/**
+	 * Publishes a block which was just connected
+	 *
+	 * @param undo
+	 *            the changes of the block
+	 */
+	public void connected(BlockUndo undo) {
+
+		publish(undo.getSpent(), undo.getCreated());
+	}
+
+	/**
+	 * Publishes a block which was just disconnected: its outputs are spent, and
+	 * the outputs it spent are created again
+	 *
+	 * @param undo
+	 *            the changes of the block
+	 */
+	public void disconnected(BlockUndo undo) {
+
+		publish(undo.getCreated(), undo.getSpent());
+	}
+
+	private void publish(Collection<TransactionOutput> spent, Collection<TransactionOutput> created) {
+
+		for (OutputListener listener : everyOwner) {
+
+			for (TransactionOutput output : spent) {
+
+				listener.outputSpent(output);
+			}
+
+			for (TransactionOutput output : created) {
+
+				listener.outputCreated(output);
+			}
+		}
+
+		if (listeners.isEmpty()) {
+
+			return;
+		}
+
+		for (TransactionOutput output : spent) {
+
+			CopyOnWriteArrayList<OutputListener> subscribed = listeners.get(CryptoService.getAddress(output.receiver));
+
+			if (subscribed != null) {
+
+				for (OutputListener listener : subscribed) {
+
+					listener.outputSpent(output);
+				}
+			}
+		}
+
+		for (TransactionOutput output : created) {
+
+			CopyOnWriteArrayList<OutputListener> subscribed = listeners.get(CryptoService.getAddress(output.receiver));
+
+			if (subscribed != null) {
+
+				for (OutputListener listener : subscribed) {
+
+					listener.outputCreated(output);
+				}
+			}
+		}
+	}
+}
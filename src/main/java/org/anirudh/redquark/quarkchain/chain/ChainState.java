@@ -0,0 +1,541 @@
+package org.anirudh.redquark.quarkchain.chain;
+
+import java.security.PublicKey;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.block.MerkleTree;
+import org.anirudh.redquark.quarkchain.mining.DifficultyAdjuster;
+import org.anirudh.redquark.quarkchain.mining.Target;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.UTXOStore;
+
+/**
+ * Owner of the blockchain and of its unspent outputs.
+ *
+ * Reads never lock. The chain is published as an immutable snapshot which
+ * readers pick up with a single volatile read; connecting a block publishes a
+ * new snapshot sharing the blocks of the previous one. The UTXO store applies a
+ * block as one batch, so each owner's balance moves from one block to the
+ * next, although two balances read during a connect may straddle it.
+ *
+ * Writes go through a single writer: blocks are connected one at a time under
+ * a lock, whichever thread mined them. Balance queries and transaction
+ * submission can therefore run from any number of threads while a block is
+ * being connected.
+ *
+ * Every connected block is also kept in a {@link BlockIndex}, with the undo
+ * record of its changes to the outputs. Blocks from elsewhere may extend any
+ * block of the index, and when a branch gathers more work than the connected
+ * chain, the chain is reorganized onto it in as many steps as blocks change.
+ *
+ * The outputs each connected or disconnected block creates and spends are
+ * published on a {@link ChainEventBus}, so wallets follow their own outputs
+ * without reading the UTXO store again.
+ */
+public class ChainState {
+
+	private static final Logger LOGGER = Logger.getLogger(ChainState.class.getName());
+
+	/**
+	 * Unspent outputs of the chain
+	 */
+	private final UTXOStore utxos;
+
+	/**
+	 * Serializes the writers
+	 */
+	private final ReentrantLock writeLock = new ReentrantLock();
+
+	/**
+	 * Latest published chain
+	 */
+	private volatile Snapshot snapshot = new Snapshot(new Block[16], 0);
+
+	/**
+	 * Every known block, including those of other branches
+	 */
+	private final BlockIndex index = new BlockIndex();
+
+	/**
+	 * Node of the last block of the published chain, or null if it is empty
+	 */
+	private BlockIndex.Node connectedTip;
+
+	/**
+	 * Sets the proof-of-work target of each height
+	 */
+	private final DifficultyAdjuster difficulty;
+
+	/**
+	 * Checks and applies the blocks of another branch
+	 */
+	private final BlockConnector connector;
+
+	/**
+	 * Tells the owners of outputs about the blocks connected and disconnected
+	 */
+	private final ChainEventBus events = new ChainEventBus();
+
+	/**
+	 * Checks the blocks of other branches on the common fork-join pool
+	 *
+	 * @param utxos
+	 * @param difficulty
+	 */
+	public ChainState(UTXOStore utxos, DifficultyAdjuster difficulty) {
+
+		this(utxos, difficulty, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param utxos
+	 * @param difficulty
+	 * @param pool
+	 *            pool checking the transactions of blocks connected in a
+	 *            reorganization
+	 */
+	public ChainState(UTXOStore utxos, DifficultyAdjuster difficulty, ForkJoinPool pool) {
+
+		this.utxos = utxos;
+		this.difficulty = difficulty;
+		this.connector = new BlockConnector(pool);
+	}
+
+	/**
+	 * @return the unspent outputs of the chain
+	 */
+	public UTXOStore getUTXOs() {
+		return utxos;
+	}
+
+	/**
+	 * Starts telling a listener about the outputs of an owner. The outputs the
+	 * owner has now are passed to {@link OutputListener#outputCreated} first,
+	 * with no block connected in between, so the listener misses nothing and
+	 * sees nothing twice.
+	 *
+	 * @param owner
+	 * @param listener
+	 */
+	public void subscribe(PublicKey owner, OutputListener listener) {
+
+		writeLock.lock();
+
+		try {
+
+			for (TransactionOutput output : utxos.getOutputs(owner)) {
+
+				listener.outputCreated(output);
+			}
+
+			events.subscribe(owner, listener);
+		} finally {
+
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * @param owner
+	 * @param listener
+	 */
+	public void unsubscribe(PublicKey owner, OutputListener listener) {
+
+		events.unsubscribe(owner, listener);
+	}
+
+	/**
+	 * Tells the listener about the outputs of every owner which blocks connected
+	 * or disconnected from now on create or spend. Unlike a subscription by
+	 * owner, the outputs already unspent are not replayed.
+	 *
+	 * @param listener
+	 */
+	public void subscribe(OutputListener listener) {
+
+		events.subscribe(listener);
+	}
+
+	/**
+	 * @param listener
+	 */
+	public void unsubscribe(OutputListener listener) {
+
+		events.unsubscribe(listener);
+	}
+
+	/**
+	 * @return the difficulty
+	 */
+	public DifficultyAdjuster getDifficulty() {
+		return difficulty;
+	}
+
+	/**
+	 * @return the target the next block must be mined for
+	 */
+	public Target getNextTarget() {
+
+		return difficulty.getTarget(snapshot);
+	}
+
+	/**
+	 * Returns the chain as it is now. The list never changes, later blocks are
+	 * only visible through a new call.
+	 *
+	 * @return an immutable list of the blocks
+	 */
+	public List<Block> getBlocks() {
+
+		return snapshot;
+	}
+
+	/**
+	 * @return the last block of the chain, or null if it is empty
+	 */
+	public Block getTip() {
+
+		Snapshot current = snapshot;
+
+		return current.size == 0 ? null : current.get(current.size - 1);
+	}
+
+	/**
+	 * @return the number of blocks in the chain
+	 */
+	public int getHeight() {
+
+		return snapshot.size;
+	}
+
+	/**
+	 * Appends a mined block to the chain and applies it to the UTXOs. The block
+	 * must extend the current tip, its hash must match its header and its merkle
+	 * root its transactions, and it must be mined for the target of its height.
+	 * Its transactions are checked by the {@link BlockConnector} as in a
+	 * reorganization, so none of the outputs it spends may have been spent since
+	 * they were processed.
+	 *
+	 * @param block
+	 * @return true if the block was connected
+	 */
+	public boolean connectBlock(Block block) {
+
+		return connectBlock(block, true);
+	}
+
+	/**
+	 * Appends a block as {@link #connectBlock(Block)} does, but lets the
+	 * signatures of its transactions go unverified, such as for stored blocks
+	 * a validation checkpoint vouches for. Every other check still applies.
+	 *
+	 * @param block
+	 * @param verifySignatures
+	 * @return true if the block was connected
+	 */
+	public boolean connectBlock(Block block, boolean verifySignatures) {
+
+		writeLock.lock();
+
+		try {
+
+			Snapshot current = snapshot;
+
+			Block tip = current.size == 0 ? null : current.get(current.size - 1);
+
+			if (tip != null && !tip.hash.equals(block.previousHash)) {
+
+				LOGGER.warning("#Block does not extend the tip");
+
+				return false;
+			}
+
+			if (!matchesContents(block)) {
+
+				LOGGER.warning("#Block hash does not match its contents");
+
+				return false;
+			}
+
+			Target target = difficulty.getTarget(current);
+
+			if (block.getBits() != target.getBits() || !target.isMetBy(block.hash)) {
+
+				LOGGER.warning("#Block is not mined for the target of its height");
+
+				return false;
+			}
+
+			if (!DifficultyAdjuster.isTimeStampValid(current, block)) {
+
+				LOGGER.warning("#Block time stamp is out of range");
+
+				return false;
+			}
+
+			BlockUndo undo;
+
+			if (tip == null) {
+
+				/**
+				 * The outputs of the genesis block are put by whoever creates the chain
+				 */
+				if (!block.previousHash.equals(Hash256.ZERO)) {
+
+					LOGGER.warning("#The first block must be a genesis block");
+
+					return false;
+				}
+
+				undo = new BlockUndo(new ArrayList<TransactionOutput>(), new ArrayList<TransactionOutput>());
+			} else {
+
+				undo = connector.connect(block, utxos, verifySignatures);
+
+				if (undo == null) {
+
+					LOGGER.warning("#Block does not apply to the unspent outputs of this chain");
+
+					return false;
+				}
+			}
+
+			BlockIndex.Node node = index.add(block);
+
+			node.undo = undo;
+
+			connectedTip = node;
+
+			snapshot = current.append(block);
+
+			events.connected(node.undo);
+
+			return true;
+		} finally {
+
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * The tree is built again rather than taken from the block, whose cached
+	 * tree only notices a transaction list which changed size
+	 *
+	 * @return true if the hash of the block is the hash of its header, and the
+	 *         merkle root of the header the root of its transactions
+	 */
+	private static boolean matchesContents(Block block) {
+
+		return block.hash.equals(block.calculateHash())
+				&& block.merkleRoot.equals(MerkleTree.of(block.transactions).getRootHash());
+	}
+
+	/**
+	 * Adds a block which may extend any known block, not only the tip, such as a
+	 * block mined by another node. Its header is checked against the target of
+	 * its own branch. When its branch has more work than the connected chain, the
+	 * chain is reorganized onto it: blocks are disconnected back to the fork with
+	 * their undo records, and the blocks of the branch connected by a
+	 * {@link BlockConnector}, which checks their transactions, signatures
+	 * included, in parallel. A block which does not connect is
+	 * marked invalid with everything built on it, and the chain goes back to the
+	 * best remaining branch.
+	 *
+	 * @param block
+	 * @return true if the block is valid as far as it was checked, whether or not
+	 *         its branch is connected
+	 */
+	public boolean acceptBlock(Block block) {
+
+		writeLock.lock();
+
+		try {
+
+			BlockIndex.Node known = index.get(block.hash);
+
+			if (known != null) {
+
+				return !known.isInvalid();
+			}
+
+			BlockIndex.Node parent = index.get(block.previousHash);
+
+			if (parent == null || parent.isInvalid()) {
+
+				LOGGER.warning("#Block does not extend a valid known block");
+
+				return false;
+			}
+
+			if (!matchesContents(block)) {
+
+				LOGGER.warning("#Block hash does not match its contents");
+
+				return false;
+			}
+
+			List<Block> branch = parent == connectedTip ? snapshot : BlockIndex.getChain(parent);
+
+			Target target = difficulty.getTarget(branch);
+
+			if (block.getBits() != target.getBits() || !target.isMetBy(block.hash)) {
+
+				LOGGER.warning("#Block is not mined for the target of its height");
+
+				return false;
+			}
+
+			if (!DifficultyAdjuster.isTimeStampValid(branch, block)) {
+
+				LOGGER.warning("#Block time stamp is out of range");
+
+				return false;
+			}
+
+			BlockIndex.Node node = index.add(block);
+
+			BlockIndex.Node best;
+
+			while ((best = index.getBestTip()).getChainWork().compareTo(connectedTip.getChainWork()) > 0) {
+
+				reorganize(best);
+			}
+
+			return !node.isInvalid();
+		} finally {
+
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Moves the connected chain towards another tip of the index, as far as the
+	 * blocks of that branch connect, and publishes it
+	 */
+	private void reorganize(BlockIndex.Node tip) {
+
+		BlockIndex.Node fork = BlockIndex.findFork(connectedTip, tip);
+
+		Snapshot next = fork == connectedTip ? snapshot : snapshot.truncate(fork.getHeight() + 1);
+
+		int disconnected = 0;
+
+		for (BlockIndex.Node node = connectedTip; node != fork; node = node.getParent()) {
+
+			node.undo.disconnect(utxos);
+
+			events.disconnected(node.undo);
+
+			node.undo = null;
+
+			disconnected++;
+		}
+
+		List<BlockIndex.Node> branch = new ArrayList<>();
+
+		for (BlockIndex.Node node = tip; node != fork; node = node.getParent()) {
+
+			branch.add(node);
+		}
+
+		Collections.reverse(branch);
+
+		BlockIndex.Node connected = fork;
+
+		for (BlockIndex.Node node : branch) {
+
+			BlockUndo undo = connector.connect(node.getBlock(), utxos, true);
+
+			if (undo == null) {
+
+				index.invalidate(node);
+
+				break;
+			}
+
+			node.undo = undo;
+
+			events.connected(undo);
+
+			next = next.append(node.getBlock());
+
+			connected = node;
+		}
+
+		if (disconnected > 0 && LOGGER.isLoggable(Level.INFO)) {
+
+			LOGGER.info("Reorganized at height " + fork.getHeight() + ": " + disconnected + " blocks disconnected, "
+					+ (connected.getHeight() - fork.getHeight()) + " connected");
+		}
+
+		connectedTip = connected;
+
+		snapshot = next;
+	}
+
+	/**
+	 * Immutable prefix of an append-only array of blocks. Appending writes past
+	 * the end of the shared array, which no older snapshot can see, and only
+	 * copies when the array is full.
+	 */
+	private static final class Snapshot extends AbstractList<Block> implements RandomAccess {
+
+		private final Block[] blocks;
+
+		private final int size;
+
+		Snapshot(Block[] blocks, int size) {
+
+			this.blocks = blocks;
+			this.size = size;
+		}
+
+		/**
+		 * Only called by the writer, on the latest snapshot
+		 */
+		Snapshot append(Block block) {
+
+			Block[] target = size < blocks.length ? blocks : Arrays.copyOf(blocks, blocks.length * 2);
+
+			target[size] = block;
+
+			return new Snapshot(target, size + 1);
+		}
+
+		/**
+		 * Only called by the writer, to reorganize. Older snapshots still read the
+		 * blocks past the new end, so the array is copied before it is written.
+		 */
+		Snapshot truncate(int newSize) {
+
+			return new Snapshot(Arrays.copyOf(blocks, blocks.length), newSize);
+		}
+
+		@Override
+		public Block get(int index) {
+
+			if (index < 0 || index >= size) {
+
+				throw new IndexOutOfBoundsException("No block at height " + index);
+			}
+
+			return blocks[index];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package org.anirudh.redquark.quarkchain.chain;
+
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+
+/**
+ * Told about the unspent outputs of one owner, or of every owner, as blocks
+ * are connected and disconnected, see {@link ChainEventBus}.
+ *
+ * Listeners are called on the thread connecting the block, while it holds the
+ * write lock of the {@link ChainState}, so they must return quickly and must
+ * not connect blocks themselves.
+ */
+public interface OutputListener {
+
+	/**
+	 * An output of the owner became unspent: a connected block created it, or a
+	 * disconnected block had spent it
+	 *
+	 * @param output
+	 */
+	void outputCreated(TransactionOutput output);
+
+	/**
+	 * An output of the owner is no longer unspent: a connected block spent it,
+	 * or a disconnected block had created it
+	 *
+	 * @param output
+	 */
+	void outputSpent(TransactionOutput output);
+}
@@ -0,0 +1,537 @@
+package org.anirudh.redquark.quarkchain.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.anirudh.redquark.quarkchain.metrics.NodeMetrics;
+import org.anirudh.redquark.quarkchain.util.StringUtil;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
+import org.bouncycastle.jce.spec.ECPublicKeySpec;
+
+/**
+ * Signing, verification and key encoding for the whole chain.
+ *
+ * Looking up a {@link Signature} or {@link KeyFactory} through the provider
+ * registry costs more than the operation itself for small payloads, so every
+ * thread keeps its own instances. The encoded form of a public key never
+ * changes, so it is cached together with the address string derived from it.
+ *
+ * Decoding the encoding of a recently seen key returns the very same
+ * {@link PublicKey} object, so the keys of a block share their caches. Keys
+ * arrive from blocks and from clients, so every cache holds at most about
+ * {@link #KEY_CACHE_SIZE} keys and evicts the least recently used first: a
+ * flood of new keys only evicts older ones and costs their encodings again.
+ * Owners are therefore compared with {@link PublicKey#equals(Object)}, never by
+ * reference. The caches take no lock, since every verification reads them.
+ *
+ * Besides X.509, keys have a compact encoding for storage and the wire: a
+ * curve tag followed by the compressed EC point, 26 bytes instead of 75 on
+ * prime192v1. Keys on other curves fall back to tag 0 and their X.509 form.
+ */
+public class CryptoService {
+
+	/**
+	 * Signature algorithm of all transactions
+	 */
+	private static final String ALGORITHM = "ECDSA";
+
+	/**
+	 * Provider of the algorithm, registered by the application at startup
+	 */
+	private static final String PROVIDER = "BC";
+
+	private static final ThreadLocal<Signature> SIGNATURE = new ThreadLocal<Signature>() {
+
+		@Override
+		protected Signature initialValue() {
+
+			try {
+
+				return Signature.getInstance(ALGORITHM, PROVIDER);
+			} catch (GeneralSecurityException e) {
+
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	private static final ThreadLocal<KeyFactory> KEY_FACTORY = new ThreadLocal<KeyFactory>() {
+
+		@Override
+		protected KeyFactory initialValue() {
+
+			try {
+
+				return KeyFactory.getInstance(ALGORITHM, PROVIDER);
+			} catch (GeneralSecurityException e) {
+
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	/**
+	 * Curves with a compact key encoding; the tag of a curve is its index + 1.
+	 * Tags are part of the stored format, new curves go at the end.
+	 */
+	private static final String[] CURVES = { "prime192v1", "prime256v1", "secp256k1" };
+
+	private static final ECNamedCurveParameterSpec[] CURVE_SPECS = new ECNamedCurveParameterSpec[CURVES.length];
+
+	static {
+
+		for (int i = 0; i < CURVES.length; i++) {
+
+			CURVE_SPECS[i] = ECNamedCurveTable.getParameterSpec(CURVES[i]);
+		}
+	}
+
+	/**
+	 * Number of keys each cache holds
+	 */
+	public static final int KEY_CACHE_SIZE = 1 << 14;
+
+	/**
+	 * Encoded form and address of the recently used public keys
+	 */
+	private static final BoundedCache<PublicKey, EncodedKey> KEYS = new BoundedCache<>(KEY_CACHE_SIZE);
+
+	/**
+	 * Recently used public keys, by encoding
+	 */
+	private static final BoundedCache<ByteBuffer, PublicKey> KEYS_BY_ENCODING = new BoundedCache<>(KEY_CACHE_SIZE);
+
+	/**
+	 * Public keys recently decoded from their compact encoding, by compact
+	 * encoding
+	 */
+	private static final BoundedCache<ByteBuffer, PublicKey> KEYS_BY_COMPACT_ENCODING = new BoundedCache<>(
+			KEY_CACHE_SIZE);
+
+	private CryptoService() {
+	}
+
+	/**
+	 * Signs data with the private key
+	 * 
+	 * @param key
+	 * @param data
+	 * @return the signature
+	 */
+	public static byte[] sign(PrivateKey key, byte[] data) {
+
+		long start = System.nanoTime();
+
+		try {
+
+			Signature dsa = SIGNATURE.get();
+
+			dsa.initSign(key);
+
+			dsa.update(data);
+
+			return dsa.sign();
+		} catch (GeneralSecurityException e) {
+
+			throw new RuntimeException(e);
+		} finally {
+
+			NodeMetrics.get().signNanos.recordSince(start);
+		}
+	}
+
+	/**
+	 * Verifies a signature of data made with the private key matching the public
+	 * key
+	 * 
+	 * @param key
+	 * @param data
+	 * @param signature
+	 * @return true if the signature is valid
+	 * @throws GeneralSecurityException
+	 *             if the key or signature cannot be used at all
+	 */
+	public static boolean verify(PublicKey key, byte[] data, byte[] signature) throws GeneralSecurityException {
+
+		long start = System.nanoTime();
+
+		try {
+
+			Signature ecdsaVerify = SIGNATURE.get();
+
+			ecdsaVerify.initVerify(key);
+
+			ecdsaVerify.update(data);
+
+			return ecdsaVerify.verify(signature);
+		} finally {
+
+			NodeMetrics.get().verifyNanos.recordSince(start);
+		}
+	}
+
+	/**
+	 * Returns the X.509 encoding of a public key. The array is shared, callers
+	 * must not modify it.
+	 * 
+	 * @param key
+	 * @return byte[]
+	 */
+	public static byte[] getEncoded(PublicKey key) {
+
+		return encodedKey(key).encoded;
+	}
+
+	/**
+	 * Returns the address of a public key, the Base64 form of its encoding
+	 * 
+	 * @param key
+	 * @return String
+	 */
+	public static String getAddress(PublicKey key) {
+
+		return encodedKey(key).address;
+	}
+
+	/**
+	 * Returns the SHA-256 of the encoding of a public key, a fixed size name for
+	 * the key. The array is shared, callers must not modify it.
+	 * 
+	 * @param key
+	 * @return byte[]
+	 */
+	public static byte[] getKeyHash(PublicKey key) {
+
+		EncodedKey encodedKey = encodedKey(key);
+
+		if (encodedKey.hash == null) {
+
+			encodedKey.hash = StringUtil.sha256().digest(encodedKey.encoded);
+		}
+
+		return encodedKey.hash;
+	}
+
+	/**
+	 * Rebuilds a public key from its X.509 encoding
+	 * 
+	 * @param encoded
+	 * @return {@link PublicKey}
+	 */
+	public static PublicKey decodePublicKey(byte[] encoded) {
+
+		PublicKey key = KEYS_BY_ENCODING.get(ByteBuffer.wrap(encoded));
+
+		if (key != null) {
+
+			return key;
+		}
+
+		try {
+
+			key = KEY_FACTORY.get().generatePublic(new X509EncodedKeySpec(encoded));
+		} catch (GeneralSecurityException e) {
+
+			throw new IllegalArgumentException("Not an encoded public key", e);
+		}
+
+		return internKey(key, encoded);
+	}
+
+	/**
+	 * Returns the compact encoding of a public key: the curve tag and the
+	 * compressed point. The array is shared, callers must not modify it.
+	 * 
+	 * @param key
+	 * @return byte[]
+	 */
+	public static byte[] getCompactEncoded(PublicKey key) {
+
+		EncodedKey encodedKey = encodedKey(key);
+
+		if (encodedKey.compact == null) {
+
+			encodedKey.compact = compact(key, encodedKey.encoded);
+		}
+
+		return encodedKey.compact;
+	}
+
+	/**
+	 * Rebuilds a public key from its compact encoding
+	 * 
+	 * @param compact
+	 * @return {@link PublicKey}
+	 */
+	public static PublicKey decodeCompactPublicKey(byte[] compact) {
+
+		PublicKey key = KEYS_BY_COMPACT_ENCODING.get(ByteBuffer.wrap(compact));
+
+		if (key != null) {
+
+			return key;
+		}
+
+		if (compact.length < 2 || compact[0] < 0 || compact[0] > CURVES.length) {
+
+			throw new IllegalArgumentException("Not a compact public key");
+		}
+
+		byte[] body = Arrays.copyOfRange(compact, 1, compact.length);
+
+		if (compact[0] == 0) {
+
+			key = decodePublicKey(body);
+		} else {
+
+			ECNamedCurveParameterSpec spec = CURVE_SPECS[compact[0] - 1];
+
+			try {
+
+				key = KEY_FACTORY.get().generatePublic(new ECPublicKeySpec(spec.getCurve().decodePoint(body), spec));
+			} catch (GeneralSecurityException e) {
+
+				throw new IllegalArgumentException("Not a compact public key", e);
+			}
+
+			key = internKey(key, key.getEncoded());
+		}
+
+		PublicKey known = KEYS_BY_COMPACT_ENCODING.putIfAbsent(ByteBuffer.wrap(compact.clone()), key);
+
+		return known != null ? known : key;
+	}
+
+	private static byte[] compact(PublicKey key, byte[] encoded) {
+
+		if (key instanceof ECPublicKey) {
+
+			ECPublicKey ecKey = (ECPublicKey) key;
+
+			for (int i = 0; i < CURVE_SPECS.length; i++) {
+
+				if (CURVE_SPECS[i].getCurve().equals(ecKey.getParameters().getCurve())
+						&& CURVE_SPECS[i].getG().equals(ecKey.getParameters().getG())) {
+
+					byte[] point = ecKey.getQ().getEncoded(true);
+
+					byte[] compact = new byte[1 + point.length];
+
+					compact[0] = (byte) (i + 1);
+
+					System.arraycopy(point, 0, compact, 1, point.length);
+
+					return compact;
+				}
+			}
+		}
+
+		byte[] compact = new byte[1 + encoded.length];
+
+		System.arraycopy(encoded, 0, compact, 1, encoded.length);
+
+		return compact;
+	}
+
+	private static EncodedKey encodedKey(PublicKey key) {
+
+		EncodedKey encodedKey = KEYS.get(key);
+
+		if (encodedKey == null) {
+
+			byte[] encoded = key.getEncoded();
+
+			encodedKey = new EncodedKey(encoded, Base64.getEncoder().encodeToString(encoded));
+
+			EncodedKey known = KEYS.putIfAbsent(key, encodedKey);
+
+			if (known != null) {
+
+				return known;
+			}
+
+			KEYS_BY_ENCODING.putIfAbsent(ByteBuffer.wrap(encoded), key);
+		}
+
+		return encodedKey;
+	}
+
+	/**
+	 * Registers a key under its encoding, keeping the key registered first while
+	 * it stays in the cache
+	 * 
+	 * @return the registered key
+	 */
+	private static PublicKey internKey(PublicKey key, byte[] encoded) {
+
+		PublicKey known = KEYS_BY_ENCODING.putIfAbsent(ByteBuffer.wrap(encoded), key);
+
+		if (known != null) {
+
+			return known;
+		}
+
+		KEYS.putIfAbsent(key, new EncodedKey(encoded, Base64.getEncoder().encodeToString(encoded)));
+
+		return key;
+	}
+
+	/**
+	 * Map holding up to a number of entries, read and written without a lock.
+	 * Eviction follows the clock algorithm, which approximates LRU: keys are
+	 * queued in insertion order, and a key read since it last reached the front
+	 * of the queue is queued again instead of evicted. A read only sets a flag,
+	 * so readers never contend, and the size may pass the bound for as long as
+	 * the writer which went past it takes to evict.
+	 */
+	static final class BoundedCache<K, V> {
+
+		private final int capacity;
+
+		private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+		/**
+		 * Every cached key, once
+		 */
+		private final ConcurrentLinkedQueue<K> clock = new ConcurrentLinkedQueue<>();
+
+		/**
+		 * Number of cached keys
+		 */
+		private final AtomicInteger size = new AtomicInteger();
+
+		BoundedCache(int capacity) {
+
+			this.capacity = capacity;
+		}
+
+		V get(K key) {
+
+			Entry<V> entry = entries.get(key);
+
+			if (entry == null) {
+
+				return null;
+			}
+
+			/**
+			 * Only written when it changes, so hot keys stay in the readers' caches
+			 */
+			if (!entry.used) {
+
+				entry.used = true;
+			}
+
+			return entry.value;
+		}
+
+		/**
+		 * @return the value already cached for the key, or null if the value was
+		 *         added
+		 */
+		V putIfAbsent(K key, V value) {
+
+			Entry<V> known = entries.putIfAbsent(key, new Entry<>(value));
+
+			if (known != null) {
+
+				known.used = true;
+
+				return known.value;
+			}
+
+			clock.add(key);
+
+			if (size.incrementAndGet() > capacity) {
+
+				evict();
+			}
+
+			return null;
+		}
+
+		/**
+		 * @return the number of cached keys
+		 */
+		int size() {
+			return size.get();
+		}
+
+		private void evict() {
+
+			while (size.get() > capacity) {
+
+				K key = clock.poll();
+
+				if (key == null) {
+
+					return;
+				}
+
+				Entry<V> entry = entries.get(key);
+
+				if (entry == null) {
+
+					continue;
+				}
+
+				if (entry.used) {
+
+					entry.used = false;
+
+					clock.add(key);
+				} else if (entries.remove(key, entry)) {
+
+					size.decrementAndGet();
+				}
+			}
+		}
+
+		private static final class Entry<V> {
+
+			private final V value;
+
+			/**
+			 * Read since the key last reached the front of the clock
+			 */
+			private volatile boolean used;
+
+			Entry(V value) {
+
+				this.value = value;
+			}
+		}
+	}
+
+	/**
+	 * Cached encodings of one public key
+	 */
+	private static class EncodedKey {
+
+		private final byte[] encoded;
+
+		private final String address;
+
+		private volatile byte[] hash;
+
+		private volatile byte[] compact;
+
+		EncodedKey(byte[] encoded, String address) {
+
+			this.encoded = encoded;
+			this.address = address;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package org.anirudh.redquark.quarkchain.mempool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+
+/**
+ * Builds the next block to mine from the highest priority transactions of a
+ * {@link Mempool}.
+ *
+ * The batch taken from the pool is free of conflicts between its own
+ * transactions, so it is added to the block in a single pass. A transaction
+ * whose inputs were spent by the chain since it was pooled fails to process
+ * and is dropped from the pool. The others keep their inputs claimed in the
+ * pool until the block is connected, or until the caller drops them with
+ * {@link Mempool#drop(java.util.Collection)} when it abandons the block.
+ *
+ * The pool verified every signature on admission. Processing the batch, and
+ * connecting the mined block, only check the inputs and the amounts again: a
+ * signature is verified a second time only if it changed since.
+ */
+public class BlockTemplateBuilder {
+
+	/**
+	 * Default maximum number of transactions in a block
+	 */
+	public static final int DEFAULT_MAX_TRANSACTIONS = 1000;
+
+	private final Mempool mempool;
+
+	private final int maxTransactions;
+
+	/**
+	 * @param mempool
+	 * @param maxTransactions
+	 */
+	public BlockTemplateBuilder(Mempool mempool, int maxTransactions) {
+
+		this.mempool = mempool;
+		this.maxTransactions = maxTransactions;
+	}
+
+	/**
+	 * @param mempool
+	 */
+	public BlockTemplateBuilder(Mempool mempool) {
+
+		this(mempool, DEFAULT_MAX_TRANSACTIONS);
+	}
+
+	/**
+	 * Creates a block on top of previousHash filled from the pool, processed
+	 * against the unspent outputs the pool resolves its inputs against
+	 *
+	 * @param previousHash
+	 * @return the block, ready to be mined
+	 */
+	public Block build(Hash256 previousHash) {
+
+		Block block = new Block(previousHash);
+
+		List<Transaction> stale = new ArrayList<>();
+
+		for (Transaction transaction : mempool.poll(maxTransactions)) {
+
+			if (!block.addTransaction(transaction, mempool.getUTXOs())) {
+
+				stale.add(transaction);
+			}
+		}
+
+		mempool.drop(stale);
+
+		return block;
+	}
+}
@@ -0,0 +1,399 @@
+package org.anirudh.redquark.quarkchain.mempool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.anirudh.redquark.quarkchain.chain.OutputListener;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.UTXOStore;
+
+/**
+ * Pool of signed transactions waiting to be put into a block.
+ *
+ * Any number of threads may submit at once. The submitting thread first
+ * resolves every input against the unspent outputs of the chain: an input must
+ * be unspent and owned by the sender, and the inputs must cover the value.
+ * These checks are cheap, so a transaction listing somebody else's outputs is
+ * turned away before its signature, which covers the inputs, is verified.
+ * The signature is verified next, still before the pool is touched,
+ * so the expensive part of admission runs in parallel and outside of any
+ * shared structure. Each input then claims the output it spends in a
+ * concurrent map: a transaction spending an output already claimed by a pooled
+ * transaction is a double spend and is rejected, releasing whatever it had
+ * claimed.
+ *
+ * Entries are ordered by priority, highest first, then by arrival. Since no
+ * two pooled transactions spend the same output, any prefix of that order is
+ * a conflict-free batch for a block. The pool holds a bounded number of
+ * transactions; when it is full, the lowest priority entry is evicted, which
+ * may be the one just submitted.
+ *
+ * A transaction taken for a block keeps its claims until a connected block
+ * spends its inputs, or until it is dropped because its block was abandoned,
+ * so no conflicting spend is admitted while its block is mined. Subscribed to
+ * a chain with {@link org.anirudh.redquark.quarkchain.chain.ChainState#subscribe(OutputListener)},
+ * the pool also evicts every pooled transaction spending an output a
+ * connected block spent.
+ */
+public class Mempool implements OutputListener {
+
+	/**
+	 * Default number of transactions the pool holds
+	 */
+	public static final int DEFAULT_CAPACITY = 100000;
+
+	/**
+	 * Outcome of a submission
+	 */
+	public enum SubmitResult {
+
+		ACCEPTED,
+
+		/**
+		 * Null transaction, invalid signature, an input not owned by the sender or
+		 * inputs which do not cover the value
+		 */
+		INVALID,
+
+		/**
+		 * An input is not an unspent output of the chain
+		 */
+		UNKNOWN_INPUT,
+
+		/**
+		 * An input is already spent by a pooled transaction
+		 */
+		DOUBLE_SPEND,
+
+		/**
+		 * The pool is full of transactions of higher priority
+		 */
+		POOL_FULL
+	}
+
+	/**
+	 * Unspent outputs the inputs are resolved against
+	 */
+	private final UTXOStore utxos;
+
+	/**
+	 * Largest number of pooled transactions
+	 */
+	private final int capacity;
+
+	/**
+	 * Pooled transactions in block order
+	 */
+	private final ConcurrentSkipListSet<Entry> queue = new ConcurrentSkipListSet<>();
+
+	/**
+	 * Pooled transaction spending each output
+	 */
+	private final ConcurrentHashMap<Hash256, Entry> spends = new ConcurrentHashMap<>();
+
+	/**
+	 * Arrival counter, breaking ties between equal priorities
+	 */
+	private final AtomicLong arrivals = new AtomicLong();
+
+	/**
+	 * Number of pooled transactions
+	 */
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Pool of the default capacity
+	 *
+	 * @param utxos
+	 *            unspent outputs of the chain the transactions are for
+	 */
+	public Mempool(UTXOStore utxos) {
+
+		this(utxos, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param utxos
+	 *            unspent outputs of the chain the transactions are for
+	 * @param capacity
+	 *            largest number of pooled transactions
+	 */
+	public Mempool(UTXOStore utxos, int capacity) {
+
+		if (capacity <= 0) {
+
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+
+		this.utxos = utxos;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Submits a transaction with its value as priority
+	 *
+	 * @param transaction
+	 * @return {@link SubmitResult}
+	 */
+	public SubmitResult submit(Transaction transaction) {
+
+		return submit(transaction, transaction == null ? 0 : transaction.getValue());
+	}
+
+	/**
+	 * Submits a transaction with the given priority
+	 *
+	 * @param transaction
+	 * @param priority
+	 * @return {@link SubmitResult}
+	 */
+	public SubmitResult submit(Transaction transaction, double priority) {
+
+		if (transaction == null || transaction.getSender() == null) {
+
+			return SubmitResult.INVALID;
+		}
+
+		List<TransactionInput> inputs = inputsOf(transaction);
+
+		if (inputs.isEmpty()) {
+
+			return SubmitResult.INVALID;
+		}
+
+		long inputsValue = 0;
+
+		try {
+
+			for (TransactionInput input : inputs) {
+
+				TransactionOutput output = utxos.get(input.transactionOutputId);
+
+				if (output == null) {
+
+					return SubmitResult.UNKNOWN_INPUT;
+				}
+
+				if (!transaction.getSender().equals(output.receiver)) {
+
+					return SubmitResult.INVALID;
+				}
+
+				inputsValue = Amount.add(inputsValue, output.value);
+			}
+		} catch (ArithmeticException e) {
+
+			return SubmitResult.INVALID;
+		}
+
+		if (transaction.getValue() < 0 || inputsValue < transaction.getValue() || !transaction.verifySignature()) {
+
+			return SubmitResult.INVALID;
+		}
+
+		Entry entry = new Entry(transaction, priority, arrivals.getAndIncrement());
+
+		for (int i = 0; i < inputs.size(); i++) {
+
+			if (spends.putIfAbsent(inputs.get(i).transactionOutputId, entry) != null) {
+
+				for (int claimed = 0; claimed < i; claimed++) {
+
+					spends.remove(inputs.get(claimed).transactionOutputId, entry);
+				}
+
+				return SubmitResult.DOUBLE_SPEND;
+			}
+		}
+
+		queue.add(entry);
+
+		if (size.incrementAndGet() > capacity) {
+
+			Entry evicted = queue.pollLast();
+
+			if (evicted != null) {
+
+				size.decrementAndGet();
+
+				release(evicted);
+
+				if (evicted == entry) {
+
+					return SubmitResult.POOL_FULL;
+				}
+			}
+		}
+
+		return SubmitResult.ACCEPTED;
+	}
+
+	/**
+	 * Removes up to max transactions in block order. The outputs they spend stay
+	 * claimed until a connected block spends them or {@link #drop(Collection)}
+	 * gives them up.
+	 *
+	 * @param max
+	 * @return the transactions, highest priority first
+	 */
+	public List<Transaction> poll(int max) {
+
+		List<Transaction> batch = new ArrayList<>(Math.min(max, size.get()));
+
+		while (batch.size() < max) {
+
+			Entry entry = queue.pollFirst();
+
+			if (entry == null) {
+
+				break;
+			}
+
+			size.decrementAndGet();
+
+			batch.add(entry.transaction);
+		}
+
+		return batch;
+	}
+
+	/**
+	 * Releases the outputs claimed by transactions taken by {@link #poll(int)}
+	 * which no block will hold, such as those a block did not take or the
+	 * transactions of a block which was not connected
+	 *
+	 * @param transactions
+	 */
+	public void drop(Collection<Transaction> transactions) {
+
+		for (Transaction transaction : transactions) {
+
+			for (TransactionInput input : inputsOf(transaction)) {
+
+				Entry entry = spends.get(input.transactionOutputId);
+
+				if (entry != null && entry.transaction == transaction) {
+
+					spends.remove(input.transactionOutputId, entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Nothing to do: pooled transactions only spend outputs which were unspent
+	 * when they were admitted
+	 */
+	@Override
+	public void outputCreated(TransactionOutput output) {
+	}
+
+	/**
+	 * Evicts the transaction claiming an output the chain no longer has, and
+	 * releases its other claims. This is a transaction a connected block holds,
+	 * or one conflicting with it.
+	 */
+	@Override
+	public void outputSpent(TransactionOutput output) {
+
+		Entry entry = spends.get(output.id);
+
+		if (entry == null) {
+
+			return;
+		}
+
+		if (queue.remove(entry)) {
+
+			size.decrementAndGet();
+		}
+
+		release(entry);
+	}
+
+	/**
+	 * @param outputId
+	 * @return true if a pooled transaction spends the output
+	 */
+	public boolean isSpent(Hash256 outputId) {
+
+		return spends.containsKey(outputId);
+	}
+
+	/**
+	 * @return the number of pooled transactions
+	 */
+	public int size() {
+
+		return size.get();
+	}
+
+	/**
+	 * @return the unspent outputs the inputs are resolved against
+	 */
+	public UTXOStore getUTXOs() {
+		return utxos;
+	}
+
+	/**
+	 * @return the largest number of pooled transactions
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Frees the outputs an entry which left the pool, and every block, had
+	 * claimed
+	 */
+	private void release(Entry entry) {
+
+		for (TransactionInput input : inputsOf(entry.transaction)) {
+
+			spends.remove(input.transactionOutputId, entry);
+		}
+	}
+
+	private static List<TransactionInput> inputsOf(Transaction transaction) {
+
+		List<TransactionInput> inputs = transaction.getInputs();
+
+		return inputs == null ? new ArrayList<TransactionInput>() : inputs;
+	}
+
+	/**
+	 * A pooled transaction and its place in the order
+	 */
+	private static class Entry implements Comparable<Entry> {
+
+		private final Transaction transaction;
+
+		private final double priority;
+
+		private final long arrival;
+
+		Entry(Transaction transaction, double priority, long arrival) {
+
+			this.transaction = transaction;
+			this.priority = priority;
+			this.arrival = arrival;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+
+			int byPriority = Double.compare(other.priority, priority);
+
+			return byPriority != 0 ? byPriority : Long.compare(arrival, other.arrival);
+		}
+	}
+}
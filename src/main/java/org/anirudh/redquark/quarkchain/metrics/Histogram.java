@@ -0,0 +1,248 @@
+package org.anirudh.redquark.quarkchain.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non negative values, such as latencies in nanoseconds, kept to a
+ * fixed relative precision in the manner of HdrHistogram.
+ *
+ * Values below {@link #SUB_BUCKETS} have a bucket each. Above, every power of
+ * two is split into {@link #SUB_BUCKETS} equal buckets, so a value is known to
+ * within 1/16 of itself whatever its magnitude, and the whole range of long
+ * fits in under a thousand counters. Recording a value is a few shifts and one
+ * atomic increment, and never allocates; any number of threads may record at
+ * once.
+ *
+ * Percentiles are reported as the highest value of their bucket, capped by the
+ * largest value recorded, so they may be slightly above the true value but
+ * never below.
+ */
+public class Histogram {
+
+	/**
+	 * Buckets per power of two, a power of two itself
+	 */
+	public static final int SUB_BUCKETS = 16;
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sum = new LongAdder();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value, negative values count as 0
+	 *
+	 * @param value
+	 */
+	public void record(long value) {
+
+		if (value < 0) {
+
+			value = 0;
+		}
+
+		counts.incrementAndGet(bucketOf(value));
+
+		count.increment();
+		sum.add(value);
+
+		long current = max.get();
+
+		while (value > current && !max.compareAndSet(current, value)) {
+
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Records the time elapsed since a {@link System#nanoTime()} reading
+	 *
+	 * @param startNanos
+	 */
+	public void recordSince(long startNanos) {
+
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Reads the histogram. Values recorded meanwhile may or may not be included.
+	 *
+	 * @return {@link Snapshot}
+	 */
+	public Snapshot snapshot() {
+
+		long[] buckets = new long[BUCKETS];
+
+		long total = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+
+			buckets[i] = counts.get(i);
+
+			total += buckets[i];
+		}
+
+		long recorded = count.sum();
+
+		long highest = max.get();
+
+		return new Snapshot(total, recorded == 0 ? 0 : (double) sum.sum() / recorded,
+				Math.min(valueAt(buckets, total, 0.5), highest), Math.min(valueAt(buckets, total, 0.9), highest),
+				Math.min(valueAt(buckets, total, 0.99), highest), Math.min(valueAt(buckets, total, 0.999), highest),
+				highest);
+	}
+
+	/**
+	 * Returns the highest value of the bucket holding the given fraction of the
+	 * values at or below it
+	 */
+	private static long valueAt(long[] buckets, long total, double fraction) {
+
+		if (total == 0) {
+
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(fraction * total);
+
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+
+			seen += buckets[i];
+
+			if (seen >= rank) {
+
+				return highestValueOf(i);
+			}
+		}
+
+		return highestValueOf(BUCKETS - 1);
+	}
+
+	static int bucketOf(long value) {
+
+		if (value < SUB_BUCKETS) {
+
+			return (int) value;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	static long highestValueOf(int bucket) {
+
+		if (bucket < SUB_BUCKETS) {
+
+			return bucket;
+		}
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+
+		long sub = bucket % SUB_BUCKETS;
+
+		long next = (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS);
+
+		return next - 1 < 0 ? Long.MAX_VALUE : next - 1;
+	}
+
+	/**
+	 * Summary of a histogram at one point in time
+	 */
+	public static class Snapshot {
+
+		private final long count;
+
+		private final double mean;
+
+		private final long p50;
+
+		private final long p90;
+
+		private final long p99;
+
+		private final long p999;
+
+		private final long max;
+
+		Snapshot(long count, double mean, long p50, long p90, long p99, long p999, long max) {
+
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.p999 = p999;
+			this.max = max;
+		}
+
+		/**
+		 * @return the number of values
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the mean
+		 */
+		public double getMean() {
+			return mean;
+		}
+
+		/**
+		 * @return the median
+		 */
+		public long getP50() {
+			return p50;
+		}
+
+		/**
+		 * @return the 90th percentile
+		 */
+		public long getP90() {
+			return p90;
+		}
+
+		/**
+		 * @return the 99th percentile
+		 */
+		public long getP99() {
+			return p99;
+		}
+
+		/**
+		 * @return the 99.9th percentile
+		 */
+		public long getP999() {
+			return p999;
+		}
+
+		/**
+		 * @return the largest value
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		@Override
+		public String toString() {
+
+			return "count=" + count + " mean=" + Math.round(mean) + " p50=" + p50 + " p90=" + p90 + " p99=" + p99
+					+ " max=" + max;
+		}
+	}
+}
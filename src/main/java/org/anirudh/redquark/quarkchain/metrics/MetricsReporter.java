@@ -0,0 +1,94 @@
+package org.anirudh.redquark.quarkchain.metrics;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Takes a {@link MetricsSnapshot} at a fixed period on a daemon thread and
+ * hands it to a listener
+ */
+public class MetricsReporter implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(MetricsReporter.class.getName());
+
+	/**
+	 * Receives the snapshots
+	 */
+	public interface Listener {
+
+		void report(MetricsSnapshot snapshot);
+	}
+
+	/**
+	 * Logs every snapshot at INFO
+	 */
+	public static final Listener LOG = new Listener() {
+
+		@Override
+		public void report(MetricsSnapshot snapshot) {
+
+			if (LOGGER.isLoggable(Level.INFO)) {
+
+				LOGGER.info(snapshot.toString());
+			}
+		}
+	};
+
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Starts reporting
+	 *
+	 * @param metrics
+	 * @param period
+	 * @param unit
+	 * @param listener
+	 */
+	public MetricsReporter(final NodeMetrics metrics, long period, TimeUnit unit, final Listener listener) {
+
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+
+				Thread thread = new Thread(runnable, "quarkchain-metrics");
+
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+
+		scheduler.scheduleAtFixedRate(new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+
+					listener.report(metrics.snapshot());
+				} catch (RuntimeException e) {
+
+					/**
+					 * A failing listener must not cancel the next reports
+					 */
+					LOGGER.log(Level.WARNING, "Metrics listener failed", e);
+				}
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stops reporting
+	 */
+	@Override
+	public void close() {
+
+		scheduler.shutdownNow();
+	}
+}
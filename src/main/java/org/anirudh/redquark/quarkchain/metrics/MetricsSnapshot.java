@@ -0,0 +1,152 @@
+package org.anirudh.redquark.quarkchain.metrics;
+
+/**
+ * Values of the {@link NodeMetrics} at one point in time, with the hash rate
+ * over the interval since the previous snapshot
+ */
+public class MetricsSnapshot {
+
+	/**
+	 * When the snapshot was taken, as a {@link System#nanoTime()} reading
+	 */
+	private final long nanoTime;
+
+	private final long hashesTried;
+
+	private final double hashRate;
+
+	private final long blocksMined;
+
+	private final Histogram.Snapshot noncesPerBlock;
+
+	private final Histogram.Snapshot signNanos;
+
+	private final Histogram.Snapshot verifyNanos;
+
+	private final long utxoLookups;
+
+	private final long transactionsAccepted;
+
+	private final long transactionsRejected;
+
+	private final int mempoolSize;
+
+	private final long blocksValidated;
+
+	private final Histogram.Snapshot blockValidationNanos;
+
+	MetricsSnapshot(NodeMetrics metrics, MetricsSnapshot previous, long startNanos) {
+
+		this.nanoTime = System.nanoTime();
+		this.hashesTried = metrics.getHashesTried();
+		this.blocksMined = metrics.getBlocksMined();
+		this.noncesPerBlock = metrics.getNoncesPerBlock();
+		this.signNanos = metrics.getSignNanos();
+		this.verifyNanos = metrics.getVerifyNanos();
+		this.utxoLookups = metrics.getUtxoLookups();
+		this.transactionsAccepted = metrics.getTransactionsAccepted();
+		this.transactionsRejected = metrics.getTransactionsRejected();
+		this.mempoolSize = metrics.getMempoolSize();
+		this.blocksValidated = metrics.getBlocksValidated();
+		this.blockValidationNanos = metrics.getBlockValidationNanos();
+
+		long since = previous == null ? startNanos : previous.nanoTime;
+		long hashesSince = previous == null ? hashesTried : hashesTried - previous.hashesTried;
+
+		this.hashRate = nanoTime == since ? 0 : hashesSince * 1e9 / (nanoTime - since);
+	}
+
+	/**
+	 * @return hashes per second since the previous snapshot
+	 */
+	public double getHashRate() {
+		return hashRate;
+	}
+
+	/**
+	 * @return the hashesTried
+	 */
+	public long getHashesTried() {
+		return hashesTried;
+	}
+
+	/**
+	 * @return the blocksMined
+	 */
+	public long getBlocksMined() {
+		return blocksMined;
+	}
+
+	/**
+	 * @return the noncesPerBlock
+	 */
+	public Histogram.Snapshot getNoncesPerBlock() {
+		return noncesPerBlock;
+	}
+
+	/**
+	 * @return the signNanos
+	 */
+	public Histogram.Snapshot getSignNanos() {
+		return signNanos;
+	}
+
+	/**
+	 * @return the verifyNanos
+	 */
+	public Histogram.Snapshot getVerifyNanos() {
+		return verifyNanos;
+	}
+
+	/**
+	 * @return the utxoLookups
+	 */
+	public long getUtxoLookups() {
+		return utxoLookups;
+	}
+
+	/**
+	 * @return the transactionsAccepted
+	 */
+	public long getTransactionsAccepted() {
+		return transactionsAccepted;
+	}
+
+	/**
+	 * @return the transactionsRejected
+	 */
+	public long getTransactionsRejected() {
+		return transactionsRejected;
+	}
+
+	/**
+	 * @return the mempoolSize
+	 */
+	public int getMempoolSize() {
+		return mempoolSize;
+	}
+
+	/**
+	 * @return the blocksValidated
+	 */
+	public long getBlocksValidated() {
+		return blocksValidated;
+	}
+
+	/**
+	 * @return the blockValidationNanos
+	 */
+	public Histogram.Snapshot getBlockValidationNanos() {
+		return blockValidationNanos;
+	}
+
+	@Override
+	public String toString() {
+
+		return "hashes=" + hashesTried + " hashRate=" + Math.round(hashRate) + "/s blocksMined=" + blocksMined
+				+ " noncesPerBlock[" + noncesPerBlock + "] sign[" + signNanos + "] verify[" + verifyNanos
+				+ "] utxoLookups=" + utxoLookups + " accepted=" + transactionsAccepted + " rejected="
+				+ transactionsRejected + " mempool=" + mempoolSize + " blocksValidated=" + blocksValidated
+				+ " blockValidation[" + blockValidationNanos + "]";
+	}
+}
@@ -0,0 +1,197 @@
+package org.anirudh.redquark.quarkchain.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.anirudh.redquark.quarkchain.mempool.Mempool;
+
+/**
+ * Counters and histograms of the hot paths of the node: mining, signatures,
+ * UTXO lookups, transaction processing and validation.
+ *
+ * Counters are {@link LongAdder}s, which spread concurrent updates over
+ * several cells instead of contending on one, and latencies go to
+ * {@link Histogram}s, so recording costs a few nanoseconds and never allocates
+ * or locks. There is one instance per JVM, updated directly by the code it
+ * measures.
+ *
+ * The metrics can be read field by field, as a {@link MetricsSnapshot}, over
+ * JMX once {@link #registerMBean()} was called, or periodically through a
+ * {@link MetricsReporter}.
+ */
+public class NodeMetrics implements NodeMetricsMXBean {
+
+	public static final String OBJECT_NAME = "org.anirudh.redquark.quarkchain:type=NodeMetrics";
+
+	private static final NodeMetrics INSTANCE = new NodeMetrics();
+
+	/**
+	 * Nonces tried by all miners
+	 */
+	public final LongAdder hashesTried = new LongAdder();
+
+	public final LongAdder blocksMined = new LongAdder();
+
+	/**
+	 * Nonces tried to solve each mined block
+	 */
+	public final Histogram noncesPerBlock = new Histogram();
+
+	/**
+	 * Time to sign and to verify a signature
+	 */
+	public final Histogram signNanos = new Histogram();
+
+	public final Histogram verifyNanos = new Histogram();
+
+	/**
+	 * Outputs looked up by id in a UTXO store
+	 */
+	public final LongAdder utxoLookups = new LongAdder();
+
+	/**
+	 * Outcomes of processing a transaction against the UTXOs
+	 */
+	public final LongAdder transactionsAccepted = new LongAdder();
+
+	public final LongAdder transactionsRejected = new LongAdder();
+
+	/**
+	 * Blocks checked by the chain validator, and the time spent on each
+	 */
+	public final LongAdder blocksValidated = new LongAdder();
+
+	public final Histogram blockValidationNanos = new Histogram();
+
+	/**
+	 * Pool whose size is reported, if any
+	 */
+	private volatile Mempool mempool;
+
+	/**
+	 * Last snapshot, rates are measured from it
+	 */
+	private MetricsSnapshot lastSnapshot;
+
+	private final long startNanos = System.nanoTime();
+
+	NodeMetrics() {
+	}
+
+	/**
+	 * @return the metrics of this JVM
+	 */
+	public static NodeMetrics get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server. Registering twice does
+	 * nothing.
+	 */
+	public static void registerMBean() {
+
+		try {
+
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+		} catch (InstanceAlreadyExistsException e) {
+
+			// Already registered
+		} catch (JMException e) {
+
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Reports the size of this pool
+	 *
+	 * @param mempool
+	 */
+	public void setMempool(Mempool mempool) {
+		this.mempool = mempool;
+	}
+
+	/**
+	 * Reads every metric. Rates are measured over the time since the previous
+	 * snapshot, or since the metrics were created for the first one.
+	 *
+	 * @return {@link MetricsSnapshot}
+	 */
+	public synchronized MetricsSnapshot snapshot() {
+
+		MetricsSnapshot snapshot = new MetricsSnapshot(this, lastSnapshot, startNanos);
+
+		lastSnapshot = snapshot;
+
+		return snapshot;
+	}
+
+	@Override
+	public long getHashesTried() {
+		return hashesTried.sum();
+	}
+
+	@Override
+	public synchronized double getHashRate() {
+
+		return lastSnapshot == null ? snapshot().getHashRate() : lastSnapshot.getHashRate();
+	}
+
+	@Override
+	public long getBlocksMined() {
+		return blocksMined.sum();
+	}
+
+	@Override
+	public Histogram.Snapshot getNoncesPerBlock() {
+		return noncesPerBlock.snapshot();
+	}
+
+	@Override
+	public Histogram.Snapshot getSignNanos() {
+		return signNanos.snapshot();
+	}
+
+	@Override
+	public Histogram.Snapshot getVerifyNanos() {
+		return verifyNanos.snapshot();
+	}
+
+	@Override
+	public long getUtxoLookups() {
+		return utxoLookups.sum();
+	}
+
+	@Override
+	public long getTransactionsAccepted() {
+		return transactionsAccepted.sum();
+	}
+
+	@Override
+	public long getTransactionsRejected() {
+		return transactionsRejected.sum();
+	}
+
+	@Override
+	public int getMempoolSize() {
+
+		Mempool pool = mempool;
+
+		return pool == null ? 0 : pool.size();
+	}
+
+	@Override
+	public long getBlocksValidated() {
+		return blocksValidated.sum();
+	}
+
+	@Override
+	public Histogram.Snapshot getBlockValidationNanos() {
+		return blockValidationNanos.snapshot();
+	}
+}
@@ -0,0 +1,35 @@
+package org.anirudh.redquark.quarkchain.metrics;
+
+/**
+ * JMX view of the {@link NodeMetrics}, registered as {@value NodeMetrics#OBJECT_NAME}.
+ * Histograms appear as composite values and times are in nanoseconds.
+ */
+public interface NodeMetricsMXBean {
+
+	long getHashesTried();
+
+	/**
+	 * @return hashes per second over the last snapshot interval
+	 */
+	double getHashRate();
+
+	long getBlocksMined();
+
+	Histogram.Snapshot getNoncesPerBlock();
+
+	Histogram.Snapshot getSignNanos();
+
+	Histogram.Snapshot getVerifyNanos();
+
+	long getUtxoLookups();
+
+	long getTransactionsAccepted();
+
+	long getTransactionsRejected();
+
+	int getMempoolSize();
+
+	long getBlocksValidated();
+
+	Histogram.Snapshot getBlockValidationNanos();
+}
@@ -0,0 +1,226 @@
+package org.anirudh.redquark.quarkchain.mining;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+
+/**
+ * Decides the {@link Target} of every block from the time stamps of the blocks
+ * before it.
+ *
+ * The target stays the same for a window of interval blocks. At the end of a
+ * window it is multiplied by the time the window actually took over the time it
+ * should have taken, so the blocks come faster when miners leave and slower
+ * when they join. A single step is limited to a factor of
+ * {@link #MAX_ADJUSTMENT} either way, so a few badly stamped blocks cannot swing
+ * it, and the target never gets easier than the limit.
+ *
+ * The target of a block only depends on the blocks before it, which lets the
+ * miner and every validator compute it independently. Only the tip and the
+ * first block of the window are read.
+ *
+ * Time stamps are set by the miners, so every block must carry one which is
+ * not earlier than the median of the {@link #MEDIAN_SPAN} blocks before it, and
+ * not more than {@link #MAX_FUTURE_DRIFT} ahead of the clock of the node
+ * checking it. A miner can then only stretch a window by as much as it can
+ * stamp its blocks ahead, instead of choosing both ends of it.
+ */
+public class DifficultyAdjuster {
+
+	/**
+	 * Largest factor a target changes by in one step
+	 */
+	public static final int MAX_ADJUSTMENT = 4;
+
+	/**
+	 * Number of blocks whose median time stamp a new block may not be earlier
+	 * than
+	 */
+	public static final int MEDIAN_SPAN = 11;
+
+	/**
+	 * Farthest a time stamp may be ahead of the clock, in milliseconds
+	 */
+	public static final long MAX_FUTURE_DRIFT = 2 * 60 * 60 * 1000L;
+
+	/**
+	 * Target of the first window
+	 */
+	private final Target initialTarget;
+
+	/**
+	 * Easiest allowed target
+	 */
+	private final Target limit;
+
+	/**
+	 * Number of blocks between two adjustments
+	 */
+	private final int interval;
+
+	/**
+	 * Wanted time between two blocks, in milliseconds
+	 */
+	private final long blockSpacing;
+
+	/**
+	 * @param initialTarget
+	 * @param interval
+	 *            number of blocks between two adjustments, at least 2
+	 * @param blockSpacing
+	 *            wanted time between two blocks, in milliseconds
+	 */
+	public DifficultyAdjuster(Target initialTarget, int interval, long blockSpacing) {
+
+		this(initialTarget, Target.MAX, interval, blockSpacing);
+	}
+
+	/**
+	 * @param initialTarget
+	 * @param limit
+	 *            easiest allowed target
+	 * @param interval
+	 *            number of blocks between two adjustments, at least 2
+	 * @param blockSpacing
+	 *            wanted time between two blocks, in milliseconds
+	 */
+	public DifficultyAdjuster(Target initialTarget, Target limit, int interval, long blockSpacing) {
+
+		if (interval < 2 || blockSpacing < 1) {
+
+			throw new IllegalArgumentException("Retargeting needs an interval of at least 2 and a positive spacing");
+		}
+
+		this.initialTarget = limit.isHarderThan(initialTarget) ? limit : initialTarget;
+		this.limit = limit;
+		this.interval = interval;
+		this.blockSpacing = blockSpacing;
+	}
+
+	/**
+	 * Returns the target of the block which extends the chain
+	 *
+	 * @param chain
+	 *            the blocks before it, from the genesis block on
+	 * @return {@link Target}
+	 */
+	public Target getTarget(List<Block> chain) {
+
+		int height = chain.size();
+
+		if (height == 0) {
+
+			return initialTarget;
+		}
+
+		Block tip = chain.get(height - 1);
+
+		Target current = Target.fromCompact(tip.getBits());
+
+		if (height % interval != 0) {
+
+			return current;
+		}
+
+		/**
+		 * The window spans interval blocks, so interval - 1 gaps between their
+		 * time stamps
+		 */
+		long expected = blockSpacing * (interval - 1);
+
+		long actual = tip.getTimeStamp() - chain.get(height - interval).getTimeStamp();
+
+		actual = Math.max(Math.max(1, expected / MAX_ADJUSTMENT), Math.min(expected * MAX_ADJUSTMENT, actual));
+
+		/**
+		 * Scaled and capped as a number, since easing a target near the limit
+		 * may take it past 256 bits
+		 */
+		BigInteger next = current.toBigInteger().multiply(BigInteger.valueOf(actual))
+				.divide(BigInteger.valueOf(expected));
+
+		return Target.of(next.max(BigInteger.ONE).min(limit.toBigInteger()));
+	}
+
+	/**
+	 * Returns the median time stamp of the last {@link #MEDIAN_SPAN} blocks of a
+	 * chain, or of all of them if it is shorter
+	 *
+	 * @param chain
+	 *            the blocks from the genesis block on
+	 * @return the median, or Long.MIN_VALUE for an empty chain
+	 */
+	public static long getMedianTimePast(List<Block> chain) {
+
+		int count = Math.min(MEDIAN_SPAN, chain.size());
+
+		if (count == 0) {
+
+			return Long.MIN_VALUE;
+		}
+
+		long[] timeStamps = new long[count];
+
+		for (int i = 0; i < count; i++) {
+
+			timeStamps[i] = chain.get(chain.size() - count + i).getTimeStamp();
+		}
+
+		Arrays.sort(timeStamps);
+
+		return timeStamps[count / 2];
+	}
+
+	/**
+	 * Checks the time stamp of the block which extends the chain against the
+	 * clock of this node
+	 *
+	 * @param chain
+	 *            the blocks before it, from the genesis block on
+	 * @param block
+	 * @return true if the time stamp is allowed
+	 */
+	public static boolean isTimeStampValid(List<Block> chain, Block block) {
+
+		return isTimeStampValid(chain, block, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param chain
+	 *            the blocks before the block, from the genesis block on
+	 * @param block
+	 * @param now
+	 *            current time, in milliseconds
+	 * @return true if the time stamp is not before the median time past of the
+	 *         chain, nor more than {@link #MAX_FUTURE_DRIFT} after now
+	 */
+	public static boolean isTimeStampValid(List<Block> chain, Block block, long now) {
+
+		long timeStamp = block.getTimeStamp();
+
+		return timeStamp >= getMedianTimePast(chain) && timeStamp <= now + MAX_FUTURE_DRIFT;
+	}
+
+	/**
+	 * @return the initialTarget
+	 */
+	public Target getInitialTarget() {
+		return initialTarget;
+	}
+
+	/**
+	 * @return the interval
+	 */
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return the blockSpacing
+	 */
+	public long getBlockSpacing() {
+		return blockSpacing;
+	}
+}
@@ -0,0 +1,365 @@
+package org.anirudh.redquark.quarkchain.mining;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.block.BlockHeader;
+import org.anirudh.redquark.quarkchain.metrics.NodeMetrics;
+
+/**
+ * Proof-of-work engine which spreads the nonce space of a block across a pool
+ * of worker threads.
+ *
+ * Worker i tries the nonces i, i + n, i + 2n ... where n is the number of
+ * workers, so the workers never test the same nonce twice. The first worker to
+ * find a hash meeting the target raises the flag of its {@link Job}. The
+ * other workers of that job read the flag every few thousand nonces, rather
+ * than on every nonce, and stop at their next check. The same flag is raised
+ * when the job is cancelled from the outside.
+ */
+public class ParallelMiner {
+
+	/**
+	 * Nonces a worker tries between two updates of the node's hash counter, so
+	 * the hash rate stays current during long jobs without a shared write per
+	 * nonce
+	 */
+	private static final long REPORT_INTERVAL = 1 << 16;
+
+	/**
+	 * Nonces a worker tries between two reads of the stop flag and of its
+	 * interrupt status. Reading a volatile flag on every nonce costs more than
+	 * the few thousand extra hashes a stopped worker may still try.
+	 */
+	private static final long CHECK_INTERVAL = 1 << 12;
+
+	/**
+	 * Miner shared by all blocks which do not bring their own
+	 */
+	private static volatile ParallelMiner defaultMiner;
+
+	/**
+	 * Number of workers the nonce space is split into
+	 */
+	private final int threads;
+
+	/**
+	 * Highest nonce tried, below the whole positive range only in tests
+	 */
+	private final long maxNonce;
+
+	/**
+	 * Pool running the workers
+	 */
+	private final ExecutorService workers;
+
+	/**
+	 * Total number of nonces tried by this miner
+	 */
+	private final AtomicLong hashesTried = new AtomicLong();
+
+	/**
+	 * @param threads
+	 */
+	public ParallelMiner(int threads) {
+
+		this(threads, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param threads
+	 * @param maxNonce
+	 */
+	ParallelMiner(int threads, int maxNonce) {
+
+		if (threads < 1) {
+
+			throw new IllegalArgumentException("A miner needs at least one thread");
+		}
+
+		this.threads = threads;
+		this.maxNonce = maxNonce;
+		this.workers = Executors.newFixedThreadPool(threads, new MinerThreadFactory());
+	}
+
+	/**
+	 * Returns the miner shared by the whole node, with one worker per available
+	 * core
+	 *
+	 * @return {@link ParallelMiner}
+	 */
+	public static ParallelMiner getDefault() {
+
+		if (defaultMiner == null) {
+
+			synchronized (ParallelMiner.class) {
+
+				if (defaultMiner == null) {
+
+					defaultMiner = new ParallelMiner(Runtime.getRuntime().availableProcessors());
+				}
+			}
+		}
+
+		return defaultMiner;
+	}
+
+	/**
+	 * @return the threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return total number of nonces tried by this miner
+	 */
+	public long getHashesTried() {
+		return hashesTried.get();
+	}
+
+	/**
+	 * Starts searching a nonce for which the hash of the block meets the target.
+	 * The target is written into the block first, since the hash covers it. The
+	 * merkle root of the block must already be computed.
+	 *
+	 * The search runs on the workers of this miner; the returned job waits for
+	 * it, or cancels it without touching the jobs of other callers.
+	 *
+	 * @param block
+	 * @param target
+	 * @return the job searching the block
+	 */
+	public Job mine(Block block, Target target) {
+
+		block.setBits(target.getBits());
+
+		Job job = new Job(block);
+
+		for (int i = 0; i < threads; i++) {
+
+			job.futures.add(workers.submit(job.worker(i, target)));
+		}
+
+		return job;
+	}
+
+	/**
+	 * Stops every job and releases the worker threads. Running workers stop at
+	 * their next check, queued ones never start.
+	 */
+	public void shutdown() {
+
+		for (Runnable queued : workers.shutdownNow()) {
+
+			((Future<?>) queued).cancel(false);
+		}
+	}
+
+	/**
+	 * One block being mined. Each job has its own stop flag, so cancelling one
+	 * never stops another job sharing the workers.
+	 */
+	public class Job {
+
+		private final Block block;
+
+		/**
+		 * Raised by the worker which finds the nonce, or by a cancel
+		 */
+		private final AtomicBoolean stop = new AtomicBoolean(false);
+
+		private volatile boolean cancelled;
+
+		private final AtomicInteger solution = new AtomicInteger(-1);
+
+		private final AtomicLong tried = new AtomicLong();
+
+		private final List<Future<?>> futures = new ArrayList<>(threads);
+
+		/**
+		 * Outcome of {@link #await()}, once known
+		 */
+		private Boolean solved;
+
+		private Job(Block block) {
+
+			this.block = block;
+		}
+
+		/**
+		 * Worker i tries the nonces i, i + n, i + 2n ... until the job stops
+		 */
+		private Runnable worker(final int start, final Target target) {
+
+			final LongAdder nodeHashes = NodeMetrics.get().hashesTried;
+
+			return new Runnable() {
+
+				@Override
+				public void run() {
+
+					long count = 0;
+
+					long reported = 0;
+
+					boolean found = false;
+
+					/**
+					 * Every worker hashes its own copy of the header
+					 */
+					BlockHeader header = block.header();
+
+					/**
+					 * Nonces are kept positive, so the search stops when the stride would overflow.
+					 * The interrupt is set by a shutdown of the miner.
+					 */
+					long nonce = start;
+
+					while (!found && nonce <= maxNonce && !stop.get() && !Thread.currentThread().isInterrupted()) {
+
+						/**
+						 * The flag is not read again until this run of nonces is done
+						 */
+						long end = Math.min(maxNonce, nonce + (CHECK_INTERVAL - 1) * threads);
+
+						for (; nonce <= end; nonce += threads) {
+
+							count++;
+
+							byte[] hash = header.hash((int) nonce);
+
+							if (target.isMetBy(hash)) {
+
+								if (stop.compareAndSet(false, true)) {
+
+									solution.set((int) nonce);
+								}
+
+								found = true;
+
+								break;
+							}
+						}
+
+						if (count - reported >= REPORT_INTERVAL) {
+
+							nodeHashes.add(count - reported);
+
+							reported = count;
+						}
+					}
+
+					nodeHashes.add(count - reported);
+
+					hashesTried.addAndGet(count);
+
+					tried.addAndGet(count);
+				}
+			};
+		}
+
+		/**
+		 * Blocks until a nonce is found, the nonce space is exhausted or the job is
+		 * cancelled. On success the nonce and hash are stored in the block, exactly
+		 * as a serial run would have left them.
+		 *
+		 * @return true if the block was solved
+		 */
+		public synchronized boolean await() {
+
+			if (solved != null) {
+
+				return solved;
+			}
+
+			try {
+
+				for (Future<?> future : futures) {
+
+					future.get();
+				}
+			} catch (CancellationException e) {
+
+				/**
+				 * Cancelled, or dropped from the queue by a shutdown
+				 */
+			} catch (InterruptedException e) {
+
+				cancel();
+
+				Thread.currentThread().interrupt();
+
+				return false;
+			} catch (ExecutionException e) {
+
+				throw new RuntimeException(e.getCause());
+			}
+
+			solved = !cancelled && solution.get() >= 0;
+
+			if (solved) {
+
+				block.applyNonce(solution.get());
+
+				NodeMetrics.get().blocksMined.increment();
+
+				NodeMetrics.get().noncesPerBlock.record(tried.get());
+			}
+
+			return solved;
+		}
+
+		/**
+		 * Stops this job. The block is left untouched, even if a nonce was found
+		 * in the meantime.
+		 */
+		public void cancel() {
+
+			cancelled = true;
+
+			stop.set(true);
+
+			for (Future<?> future : futures) {
+
+				future.cancel(false);
+			}
+		}
+
+		/**
+		 * @return total number of nonces tried by this job so far
+		 */
+		public long getHashesTried() {
+			return tried.get();
+		}
+	}
+
+	/**
+	 * Creates daemon workers so that a running miner never keeps the JVM alive
+	 */
+	private static class MinerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+
+			Thread thread = new Thread(runnable, "quarkchain-miner-" + count.incrementAndGet());
+
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
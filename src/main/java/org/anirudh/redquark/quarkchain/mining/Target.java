@@ -0,0 +1,230 @@
+package org.anirudh.redquark.quarkchain.mining;
+
+import java.math.BigInteger;
+
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.util.StringUtil;
+
+/**
+ * Proof-of-work target: a block is mined when its hash, read as an unsigned
+ * 256 bit big endian number, is not above the target.
+ *
+ * Blocks carry their target in the compact form of 32 bits: the high byte is
+ * the number of significant bytes of the target and the low 23 bits are its
+ * first three bytes (the 24th bit would be a sign, and is never set). Every
+ * target is rounded through this form, so a target and its compact bits always
+ * describe the same number.
+ *
+ * The target is also kept as 32 raw bytes, which a hash is compared with byte
+ * by byte. Almost every hash a miner tries differs from the target in its first
+ * byte, so the comparison costs a single step and allocates nothing.
+ */
+public final class Target {
+
+	/**
+	 * Easiest target a chain may use
+	 */
+	public static final Target MAX = fromCompact(0x207fffff);
+
+	private static final int SIGN_BIT = 0x00800000;
+
+	private static final int MANTISSA_MASK = 0x007fffff;
+
+	private static final BigInteger TWO_TO_256 = BigInteger.ONE.shiftLeft(256);
+
+	private final int bits;
+
+	/**
+	 * The target as 32 big endian bytes
+	 */
+	private final byte[] bytes;
+
+	/**
+	 * The target as a hash, to compare the hashes of mined blocks with
+	 */
+	private final Hash256 hash;
+
+	private Target(int bits, BigInteger value) {
+
+		this.bits = bits;
+		this.bytes = toBytes(value);
+		this.hash = Hash256.of(bytes);
+	}
+
+	/**
+	 * Decodes a target from its compact form
+	 *
+	 * @param bits
+	 * @return {@link Target}
+	 * @throws IllegalArgumentException
+	 *             if the bits do not describe a positive 256 bit number
+	 */
+	public static Target fromCompact(int bits) {
+
+		if ((bits & SIGN_BIT) != 0) {
+
+			throw new IllegalArgumentException("Negative target " + Integer.toHexString(bits));
+		}
+
+		int size = bits >>> 24;
+		int mantissa = bits & MANTISSA_MASK;
+
+		BigInteger value = size <= 3 ? BigInteger.valueOf(mantissa >>> (8 * (3 - size)))
+				: BigInteger.valueOf(mantissa).shiftLeft(8 * (size - 3));
+
+		if (value.signum() == 0 || value.bitLength() > 256) {
+
+			throw new IllegalArgumentException("Target out of range " + Integer.toHexString(bits));
+		}
+
+		return new Target(toCompact(value), value);
+	}
+
+	/**
+	 * Returns the target closest to value which has a compact form
+	 *
+	 * @param value
+	 *            a positive number of at most 256 bits
+	 * @return {@link Target}
+	 */
+	public static Target of(BigInteger value) {
+
+		return fromCompact(toCompact(value));
+	}
+
+	/**
+	 * Returns the target met by hashes starting with the given number of zero
+	 * hexadecimal digits, as far as the compact form can express it. This is
+	 * what a fixed difficulty used to require.
+	 *
+	 * @param zeroDigits
+	 * @return {@link Target}
+	 */
+	public static Target fromLeadingZeros(int zeroDigits) {
+
+		return of(BigInteger.ONE.shiftLeft(256 - 4 * zeroDigits).subtract(BigInteger.ONE));
+	}
+
+	/**
+	 * Checks a raw hash against the target, both read as unsigned big endian
+	 * numbers
+	 *
+	 * @param hash
+	 *            32 bytes
+	 * @return true if the hash is not above the target
+	 */
+	public boolean isMetBy(byte[] hash) {
+
+		for (int i = 0; i < 32; i++) {
+
+			int difference = (hash[i] & 0xff) - (bytes[i] & 0xff);
+
+			if (difference != 0) {
+
+				return difference < 0;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks the hash of a block against the target
+	 *
+	 * @param hash
+	 * @return true if the hash is not above the target
+	 */
+	public boolean isMetBy(Hash256 hash) {
+
+		return hash.compareTo(this.hash) <= 0;
+	}
+
+	/**
+	 * @return the compact form of the target
+	 */
+	public int getBits() {
+		return bits;
+	}
+
+	/**
+	 * @return the target as a number
+	 */
+	public BigInteger toBigInteger() {
+
+		return new BigInteger(1, bytes);
+	}
+
+	/**
+	 * Returns the number of hashes expected to be tried before one meets the
+	 * target, 2^256 / (target + 1). Competing chains are compared by the sum of
+	 * the work of their blocks, not by their length.
+	 *
+	 * @return the work
+	 */
+	public BigInteger getWork() {
+
+		return TWO_TO_256.divide(toBigInteger().add(BigInteger.ONE));
+	}
+
+	/**
+	 * @param other
+	 * @return true if this target is harder to meet than the other
+	 */
+	public boolean isHarderThan(Target other) {
+
+		return toBigInteger().compareTo(other.toBigInteger()) < 0;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+
+		return other instanceof Target && ((Target) other).bits == bits;
+	}
+
+	@Override
+	public int hashCode() {
+		return bits;
+	}
+
+	@Override
+	public String toString() {
+
+		return StringUtil.toHex(bytes);
+	}
+
+	private static int toCompact(BigInteger value) {
+
+		if (value.signum() <= 0 || value.bitLength() > 256) {
+
+			throw new IllegalArgumentException("Target out of range " + value.toString(16));
+		}
+
+		int size = (value.bitLength() + 7) / 8;
+
+		int mantissa = size <= 3 ? value.intValue() << (8 * (3 - size)) : value.shiftRight(8 * (size - 3)).intValue();
+
+		/**
+		 * Keep the sign bit clear by moving to the next byte
+		 */
+		if ((mantissa & SIGN_BIT) != 0) {
+
+			mantissa >>>= 8;
+			size++;
+		}
+
+		return size << 24 | mantissa;
+	}
+
+	private static byte[] toBytes(BigInteger value) {
+
+		byte[] magnitude = value.toByteArray();
+
+		byte[] bytes = new byte[32];
+
+		int length = Math.min(magnitude.length, 32);
+
+		System.arraycopy(magnitude, magnitude.length - length, bytes, 32 - length, length);
+
+		return bytes;
+	}
+}
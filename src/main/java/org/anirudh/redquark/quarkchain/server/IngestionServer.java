@@ -0,0 +1,741 @@
+package org.anirudh.redquark.quarkchain.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.PublicKey;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.anirudh.redquark.quarkchain.App;
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.chain.ChainState;
+import org.anirudh.redquark.quarkchain.mempool.BlockTemplateBuilder;
+import org.anirudh.redquark.quarkchain.mempool.Mempool;
+import org.anirudh.redquark.quarkchain.mempool.Mempool.SubmitResult;
+import org.anirudh.redquark.quarkchain.metrics.MetricsReporter;
+import org.anirudh.redquark.quarkchain.metrics.NodeMetrics;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.UTXOStore;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Loopback API taking signed transactions into a {@link Mempool} and
+ * answering balance queries, over the binary {@link Protocol}.
+ *
+ * One selector thread owns every connection. Each round it reads whatever the
+ * ready connections sent, decodes all complete frames and collects the
+ * submissions of the whole round into one batch. The batch is admitted to the
+ * mempool from a fork-join pool, so the signature checks run in parallel, and
+ * the responses of the round are then written back in request order. Balance
+ * queries are answered from the UTXO store, which readers never lock.
+ *
+ * A connection is not read again while it has responses left to write, which
+ * keeps a client that does not read its responses from growing the server's
+ * buffers. A request which cannot be decoded is answered with
+ * {@link Protocol#STATUS_BAD_REQUEST}; any other failure while serving a
+ * connection answers the same and closes that connection only, never the
+ * selector thread. A frame whose length breaks the protocol closes the
+ * connection without an answer. A connection closed during a round, for
+ * whatever reason, has none of the submissions it sent in that round
+ * admitted, including the well formed frames before the bad one.
+ *
+ * The pool is drained into blocks by a {@link BlockTemplateBuilder}; the
+ * server started by {@link #main(String[])} mines them in the background.
+ */
+public class IngestionServer implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(IngestionServer.class.getName());
+
+	/**
+	 * Pause of the miner of {@link #main(String[])} while the pool is empty
+	 */
+	private static final long IDLE_MILLIS = 1000;
+
+	/**
+	 * Below this number of submissions a task admits instead of splitting
+	 */
+	private static final int THRESHOLD = 16;
+
+	private static final int BUFFER_SIZE = Protocol.MAX_FRAME_SIZE + 4;
+
+	private final Mempool mempool;
+
+	private final UTXOStore utxos;
+
+	private final ForkJoinPool pool;
+
+	private final Selector selector;
+
+	private final ServerSocketChannel serverChannel;
+
+	private final Thread selectorThread;
+
+	private volatile boolean running = true;
+
+	/**
+	 * Submissions decoded in the current round
+	 */
+	private final List<Request> submissions = new ArrayList<>();
+
+	/**
+	 * Connections which received requests in the current round
+	 */
+	private final List<Connection> active = new ArrayList<>();
+
+	/**
+	 * Binds the server and starts its selector thread
+	 *
+	 * @param address
+	 * @param mempool
+	 * @param utxos
+	 * @param pool
+	 *            pool admitting the submissions
+	 * @throws IOException
+	 */
+	public IngestionServer(InetSocketAddress address, Mempool mempool, UTXOStore utxos, ForkJoinPool pool)
+			throws IOException {
+
+		this.mempool = mempool;
+		this.utxos = utxos;
+		this.pool = pool;
+
+		selector = Selector.open();
+
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(address, 1024);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		selectorThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				serve();
+			}
+		}, "quarkchain-ingestion");
+
+		selectorThread.start();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Stops the selector thread and closes every connection
+	 */
+	@Override
+	public void close() throws IOException {
+
+		running = false;
+
+		selector.wakeup();
+
+		try {
+
+			selectorThread.join();
+		} catch (InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void serve() {
+
+		try {
+
+			while (running) {
+
+				selector.select();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+				while (keys.hasNext()) {
+
+					SelectionKey key = keys.next();
+
+					keys.remove();
+
+					try {
+
+						if (!key.isValid()) {
+
+							continue;
+						}
+
+						if (key.isAcceptable()) {
+
+							accept();
+						} else if (key.isWritable()) {
+
+							flush((Connection) key.attachment());
+						} else if (key.isReadable()) {
+
+							read((Connection) key.attachment());
+						}
+					} catch (IOException e) {
+
+						closeQuietly((Connection) key.attachment());
+					} catch (RuntimeException e) {
+
+						LOGGER.log(Level.WARNING, "Request failed, closing the connection", e);
+
+						reject((Connection) key.attachment());
+					}
+				}
+
+				admit();
+
+				respond();
+			}
+		} catch (IOException e) {
+
+			throw new RuntimeException(e);
+		} finally {
+
+			for (SelectionKey key : selector.keys()) {
+
+				if (key.attachment() instanceof Connection) {
+
+					closeQuietly((Connection) key.attachment());
+				}
+			}
+
+			try {
+
+				serverChannel.close();
+				selector.close();
+			} catch (IOException e) {
+
+				// Nothing left to release
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+
+		SocketChannel channel = serverChannel.accept();
+
+		if (channel == null) {
+
+			return;
+		}
+
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+		Connection connection = new Connection(channel);
+
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+	}
+
+	/**
+	 * Reads what the connection sent and decodes every complete frame
+	 */
+	private void read(Connection connection) throws IOException {
+
+		ByteBuffer in = connection.in;
+
+		if (connection.channel.read(in) < 0) {
+
+			closeQuietly(connection);
+
+			return;
+		}
+
+		in.flip();
+
+		while (in.remaining() >= 4) {
+
+			int length = in.getInt(in.position());
+
+			if (length <= 0 || length > Protocol.MAX_FRAME_SIZE) {
+
+				closeQuietly(connection);
+
+				return;
+			}
+
+			if (in.remaining() < 4 + length) {
+
+				break;
+			}
+
+			int end = in.position() + 4 + length;
+
+			in.position(in.position() + 4);
+
+			ByteBuffer frame = in.slice();
+
+			frame.limit(length);
+
+			connection.requests.add(decode(connection, frame));
+
+			in.position(end);
+		}
+
+		in.compact();
+
+		if (!connection.requests.isEmpty() && !connection.pendingInRound) {
+
+			connection.pendingInRound = true;
+
+			active.add(connection);
+		}
+	}
+
+	private Request decode(Connection connection, ByteBuffer frame) {
+
+		Request request = new Request(connection);
+
+		try {
+
+			byte op = frame.get();
+
+			if (op == Protocol.OP_SUBMIT) {
+
+				request.transaction = Protocol.getSubmit(frame);
+
+				submissions.add(request);
+			} else if (op == Protocol.OP_BALANCE) {
+
+				request.owner = Protocol.getBalance(frame);
+			} else {
+
+				request.status = Protocol.STATUS_BAD_REQUEST;
+			}
+		} catch (RuntimeException e) {
+
+			/**
+			 * Truncated frames, bad counts and keys which are not points all end
+			 * here, whichever exception the decoder throws
+			 */
+			request.status = Protocol.STATUS_BAD_REQUEST;
+		}
+
+		return request;
+	}
+
+	/**
+	 * Admits the submissions of the round to the pool
+	 */
+	private void admit() {
+
+		/**
+		 * Submissions of connections closed in this round are not admitted
+		 */
+		int kept = 0;
+
+		for (int i = 0; i < submissions.size(); i++) {
+
+			Request request = submissions.get(i);
+
+			if (request.connection.channel.isOpen()) {
+
+				submissions.set(kept++, request);
+			}
+		}
+
+		submissions.subList(kept, submissions.size()).clear();
+
+		if (submissions.isEmpty()) {
+
+			return;
+		}
+
+		if (submissions.size() < THRESHOLD) {
+
+			new AdmitTask(submissions, 0, submissions.size()).compute();
+		} else {
+
+			pool.invoke(new AdmitTask(submissions, 0, submissions.size()));
+		}
+
+		submissions.clear();
+	}
+
+	/**
+	 * Writes the responses of the round, in request order on each connection
+	 */
+	private void respond() throws IOException {
+
+		for (Connection connection : active) {
+
+			connection.pendingInRound = false;
+
+			if (!connection.channel.isOpen()) {
+
+				continue;
+			}
+
+			try {
+
+				for (Request request : connection.requests) {
+
+					connection.write(request, utxos);
+				}
+
+				connection.requests.clear();
+
+				flush(connection);
+			} catch (IOException e) {
+
+				closeQuietly(connection);
+			} catch (RuntimeException e) {
+
+				LOGGER.log(Level.WARNING, "Response failed, closing the connection", e);
+
+				connection.requests.clear();
+
+				reject(connection);
+			}
+		}
+
+		active.clear();
+	}
+
+	/**
+	 * Writes pending responses, and stops reading the connection until they are
+	 * all written
+	 */
+	private void flush(Connection connection) throws IOException {
+
+		ByteBuffer out = connection.out;
+
+		out.flip();
+
+		connection.channel.write(out);
+
+		out.compact();
+
+		connection.key.interestOps(out.position() > 0 ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Answers with a bad request status after the responses already queued, as
+	 * far as the socket takes it, and closes the connection
+	 */
+	private void reject(Connection connection) {
+
+		if (connection == null) {
+
+			return;
+		}
+
+		Request failed = new Request(connection);
+
+		failed.status = Protocol.STATUS_BAD_REQUEST;
+
+		try {
+
+			connection.write(failed, utxos);
+
+			connection.out.flip();
+
+			connection.channel.write(connection.out);
+		} catch (IOException | RuntimeException e) {
+
+			// Closed below either way
+		}
+
+		closeQuietly(connection);
+	}
+
+	private static void closeQuietly(Connection connection) {
+
+		if (connection == null) {
+
+			return;
+		}
+
+		connection.key.cancel();
+
+		try {
+
+			connection.channel.close();
+		} catch (IOException e) {
+
+			// Already gone
+		}
+	}
+
+	/**
+	 * Admits a slice of the submissions, splitting it in halves above the
+	 * threshold
+	 */
+	private class AdmitTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Request> requests;
+
+		private final int from;
+
+		private final int to;
+
+		AdmitTask(List<Request> requests, int from, int to) {
+
+			this.requests = requests;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from <= THRESHOLD) {
+
+				for (int i = from; i < to; i++) {
+
+					Request request = requests.get(i);
+
+					try {
+
+						request.status = statusOf(mempool.submit(request.transaction));
+					} catch (RuntimeException e) {
+
+						LOGGER.log(Level.WARNING, "Submission failed", e);
+
+						request.status = Protocol.STATUS_BAD_REQUEST;
+					}
+				}
+
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+
+			invokeAll(new AdmitTask(requests, from, middle), new AdmitTask(requests, middle, to));
+		}
+	}
+
+	private static byte statusOf(SubmitResult result) {
+
+		switch (result) {
+		case ACCEPTED:
+			return Protocol.STATUS_OK;
+		case DOUBLE_SPEND:
+			return Protocol.STATUS_DOUBLE_SPEND;
+		case POOL_FULL:
+			return Protocol.STATUS_POOL_FULL;
+		default:
+			return Protocol.STATUS_INVALID;
+		}
+	}
+
+	/**
+	 * A decoded request waiting for its response
+	 */
+	private static class Request {
+
+		/**
+		 * Connection the request came from
+		 */
+		private final Connection connection;
+
+		private Transaction transaction;
+
+		private PublicKey owner;
+
+		private byte status;
+
+		Request(Connection connection) {
+
+			this.connection = connection;
+		}
+	}
+
+	/**
+	 * State of one client connection
+	 */
+	private static class Connection {
+
+		private final SocketChannel channel;
+
+		private SelectionKey key;
+
+		private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		private ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		/**
+		 * Requests of the current round, in arrival order
+		 */
+		private final List<Request> requests = new ArrayList<>();
+
+		private boolean pendingInRound;
+
+		Connection(SocketChannel channel) {
+
+			this.channel = channel;
+		}
+
+		/**
+		 * Appends the response to a request, growing the output buffer if needed
+		 */
+		void write(Request request, UTXOStore utxos) {
+
+			if (out.remaining() < 13) {
+
+				ByteBuffer larger = ByteBuffer.allocateDirect(out.capacity() * 2);
+
+				out.flip();
+
+				larger.put(out);
+
+				out = larger;
+			}
+
+			if (request.owner != null && request.status == Protocol.STATUS_OK) {
+
+				/**
+				 * Read before anything is written, so a failing store leaves no half
+				 * frame
+				 */
+				long balance = utxos.getBalance(request.owner);
+
+				out.putInt(9);
+				out.put(Protocol.STATUS_OK);
+				out.putLong(balance);
+			} else {
+
+				out.putInt(1);
+				out.put(request.status);
+			}
+		}
+	}
+
+	/**
+	 * Serves the chain of {@link App} on the given port, 7070 by default, and
+	 * mines the pooled transactions into blocks on a background thread
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		final ChainState chain = App.chain;
+
+		final Mempool mempool = new Mempool(chain.getUTXOs());
+
+		/**
+		 * Metrics are served over JMX and logged every 10 seconds
+		 */
+		NodeMetrics.get().setMempool(mempool);
+
+		NodeMetrics.registerMBean();
+
+		new MetricsReporter(NodeMetrics.get(), 10, TimeUnit.SECONDS, MetricsReporter.LOG);
+
+		IngestionServer server = new IngestionServer(new InetSocketAddress("127.0.0.1", port), mempool,
+				chain.getUTXOs(), ForkJoinPool.commonPool());
+
+		System.out.println("Listening on 127.0.0.1:" + server.getPort());
+
+		Thread miner = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				mine(chain, mempool);
+			}
+		}, "quarkchain-miner");
+
+		miner.start();
+	}
+
+	/**
+	 * Mines blocks of pooled transactions onto a chain until interrupted,
+	 * starting with an empty genesis block if the chain has none. The pool is
+	 * subscribed to the chain meanwhile, so the blocks connected evict the
+	 * pooled transactions they conflict with.
+	 *
+	 * @param chain
+	 *            the chain whose outputs the pool resolves its inputs against
+	 * @param mempool
+	 */
+	public static void mine(ChainState chain, Mempool mempool) {
+
+		if (chain.getTip() == null) {
+
+			mineBlock(chain, new Block(Hash256.ZERO));
+		}
+
+		BlockTemplateBuilder builder = new BlockTemplateBuilder(mempool);
+
+		chain.subscribe(mempool);
+
+		try {
+
+			while (!Thread.currentThread().isInterrupted()) {
+
+				if (mempool.size() == 0) {
+
+					try {
+
+						Thread.sleep(IDLE_MILLIS);
+					} catch (InterruptedException e) {
+
+						return;
+					}
+
+					continue;
+				}
+
+				Block block = builder.build(chain.getTip().hash);
+
+				/**
+				 * Transactions whose inputs the chain spent since are dropped by the
+				 * builder, which may leave nothing to mine
+				 */
+				if (block.transactions.isEmpty() || mineBlock(chain, block)) {
+
+					continue;
+				}
+
+				/**
+				 * The transactions of an abandoned block give up their claims
+				 */
+				mempool.drop(block.transactions);
+
+				if (LOGGER.isLoggable(Level.WARNING)) {
+
+					LOGGER.warning(
+							"Block of " + block.transactions.size() + " pooled transactions was not connected");
+				}
+			}
+		} finally {
+
+			chain.unsubscribe(mempool);
+		}
+	}
+
+	private static boolean mineBlock(ChainState chain, Block block) {
+
+		block.mineBlock(chain.getNextTarget());
+
+		return chain.connectBlock(block);
+	}
+}
@@ -0,0 +1,237 @@
+package org.anirudh.redquark.quarkchain.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.anirudh.redquark.quarkchain.mempool.Mempool;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.UTXOSet;
+import org.anirudh.redquark.quarkchain.utxo.UTXOStore;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Benchmark client of the {@link IngestionServer}.
+ *
+ * Every connection runs on its own thread and keeps a window of requests in
+ * flight: it writes a whole window, then reads the window of responses. A
+ * share of the requests are submissions, the rest balance queries.
+ *
+ * Signing is far slower than the server's work per request, so a fixed set of
+ * transactions is signed up front and sent over and over. Each spends an
+ * output of its own, so the first submission of each is accepted and the
+ * repeats are rejected as double spends, both after a full signature check.
+ *
+ * The mempool only admits transactions spending unspent outputs of its chain,
+ * which a separate server process does not have. With port 0, the default,
+ * the generator therefore starts a server in process whose UTXO set holds the
+ * spent outputs. Against another port the submissions come back invalid.
+ *
+ * Usage: LoadGenerator [port] [connections] [requests per connection]
+ * [window] [submit percentage]
+ */
+public class LoadGenerator {
+
+	private static final int SIGNED_TRANSACTIONS = 256;
+
+	public static void main(String[] args) throws Exception {
+
+		int serverPort = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+		final int connections = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		final int requests = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+		final int window = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+		final int submitPercentage = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		Wallet sender = new Wallet();
+		Wallet receiver = new Wallet();
+
+		final List<Transaction> transactions = new ArrayList<>();
+
+		/**
+		 * Outputs of the server started here, funding the signed transactions
+		 */
+		UTXOStore utxos = new UTXOSet();
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < SIGNED_TRANSACTIONS; i++) {
+
+			byte[] parentId = new byte[32];
+
+			random.nextBytes(parentId);
+
+			TransactionOutput funding = new TransactionOutput(sender.publicKey, 1, Hash256.of(parentId));
+
+			utxos.put(funding);
+
+			ArrayList<TransactionInput> inputs = new ArrayList<>();
+
+			inputs.add(new TransactionInput(funding.id));
+
+			Transaction transaction = new Transaction(sender.publicKey, receiver.publicKey, 1, inputs);
+
+			transaction.generateSignature(sender.privateKey);
+
+			transactions.add(transaction);
+		}
+
+		final Wallet owner = receiver;
+
+		IngestionServer server = null;
+
+		if (serverPort == 0) {
+
+			server = new IngestionServer(new InetSocketAddress("127.0.0.1", 0), new Mempool(utxos), utxos,
+					ForkJoinPool.commonPool());
+
+			serverPort = server.getPort();
+		}
+
+		final int port = serverPort;
+
+		final AtomicLongArray statuses = new AtomicLongArray(Protocol.STATUS_POOL_FULL + 1);
+
+		Thread[] clients = new Thread[connections];
+
+		long start = System.nanoTime();
+
+		for (int c = 0; c < connections; c++) {
+
+			final int seed = c;
+
+			clients[c] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+
+					try {
+
+						runClient(port, requests, window, submitPercentage, transactions, owner, statuses, seed);
+					} catch (IOException e) {
+
+						throw new RuntimeException(e);
+					}
+				}
+			}, "load-" + c);
+
+			clients[c].start();
+		}
+
+		for (Thread client : clients) {
+
+			client.join();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		if (server != null) {
+
+			server.close();
+		}
+
+		long total = (long) connections * requests;
+
+		System.out.printf("%d requests in %.2f s: %.0f requests/s%n", total, seconds, total / seconds);
+		System.out.println("ok: " + statuses.get(Protocol.STATUS_OK) + ", invalid: "
+				+ statuses.get(Protocol.STATUS_INVALID) + ", double spend: "
+				+ statuses.get(Protocol.STATUS_DOUBLE_SPEND) + ", bad request: "
+				+ statuses.get(Protocol.STATUS_BAD_REQUEST) + ", pool full: " + statuses.get(Protocol.STATUS_POOL_FULL));
+	}
+
+	private static void runClient(int port, int requests, int window, int submitPercentage,
+			List<Transaction> transactions, Wallet owner, AtomicLongArray statuses, int seed) throws IOException {
+
+		try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port))) {
+
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+			ByteBuffer out = ByteBuffer.allocateDirect(window * 512);
+			ByteBuffer in = ByteBuffer.allocateDirect(window * 16);
+
+			Random random = new Random(seed);
+
+			int next = seed;
+
+			for (int sent = 0; sent < requests; sent += window) {
+
+				int count = Math.min(window, requests - sent);
+
+				out.clear();
+
+				for (int i = 0; i < count; i++) {
+
+					if (random.nextInt(100) < submitPercentage) {
+
+						Protocol.putSubmit(transactions.get(next++ % transactions.size()), out);
+					} else {
+
+						Protocol.putBalance(owner.publicKey, out);
+					}
+				}
+
+				out.flip();
+
+				while (out.hasRemaining()) {
+
+					channel.write(out);
+				}
+
+				for (int i = 0; i < count; i++) {
+
+					ByteBuffer response = readFrame(channel, in);
+
+					statuses.incrementAndGet(response.get());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the next response frame, keeping whatever follows it in the buffer
+	 */
+	private static ByteBuffer readFrame(SocketChannel channel, ByteBuffer in) throws IOException {
+
+		in.flip();
+
+		while (in.remaining() < 4 || in.remaining() < 4 + in.getInt(in.position())) {
+
+			in.compact();
+
+			if (channel.read(in) < 0) {
+
+				throw new IOException("Connection closed by the server");
+			}
+
+			in.flip();
+		}
+
+		int length = in.getInt();
+
+		ByteBuffer frame = ByteBuffer.allocate(length);
+
+		for (int i = 0; i < length; i++) {
+
+			frame.put(in.get());
+		}
+
+		frame.flip();
+
+		in.compact();
+
+		return frame;
+	}
+}
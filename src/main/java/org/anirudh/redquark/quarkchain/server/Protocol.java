@@ -0,0 +1,140 @@
+package org.anirudh.redquark.quarkchain.server;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.ArrayList;
+
+import org.anirudh.redquark.quarkchain.store.BlockCodec;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+
+/**
+ * Binary protocol of the {@link IngestionServer}, big endian.
+ *
+ * Every message is a frame: length of the rest (4), then the rest. A request
+ * starts with an operation byte, a response with a status byte. A connection
+ * may send any number of requests without waiting, the responses come back in
+ * the same order.
+ *
+ * SUBMIT: sender key, receiver key, value (8), signature, input count, spent
+ * output ids (32 each). The response is one of the submit statuses.
+ *
+ * BALANCE: owner key. The response is {@link #STATUS_OK} followed by the
+ * balance (8).
+ *
+ * Keys, signatures and counts are written as in {@link BlockCodec}.
+ */
+public class Protocol {
+
+	public static final byte OP_SUBMIT = 1;
+
+	public static final byte OP_BALANCE = 2;
+
+	public static final byte STATUS_OK = 0;
+
+	public static final byte STATUS_INVALID = 1;
+
+	public static final byte STATUS_DOUBLE_SPEND = 2;
+
+	public static final byte STATUS_BAD_REQUEST = 3;
+
+	/**
+	 * The mempool is full of transactions of higher priority
+	 */
+	public static final byte STATUS_POOL_FULL = 4;
+
+	/**
+	 * Largest frame accepted, length prefix excluded
+	 */
+	public static final int MAX_FRAME_SIZE = 64 * 1024;
+
+	private static final int HASH_SIZE = 32;
+
+	private Protocol() {
+	}
+
+	/**
+	 * Writes a submit request frame at the position of the buffer
+	 *
+	 * @param transaction
+	 *            a signed transaction
+	 * @param buffer
+	 */
+	public static void putSubmit(Transaction transaction, ByteBuffer buffer) {
+
+		int start = buffer.position();
+
+		buffer.putInt(0);
+		buffer.put(OP_SUBMIT);
+
+		BlockCodec.putKey(buffer, transaction.getSender());
+		BlockCodec.putKey(buffer, transaction.getReceiver());
+		buffer.putLong(transaction.getValue());
+		BlockCodec.putBytes(buffer, transaction.getSignature());
+
+		ArrayList<TransactionInput> inputs = transaction.getInputs();
+
+		BlockCodec.putVarint(buffer, inputs == null ? 0 : inputs.size());
+
+		if (inputs != null) {
+
+			for (TransactionInput input : inputs) {
+
+				input.transactionOutputId.writeTo(buffer);
+			}
+		}
+
+		buffer.putInt(start, buffer.position() - start - 4);
+	}
+
+	/**
+	 * Writes a balance request frame at the position of the buffer
+	 *
+	 * @param owner
+	 * @param buffer
+	 */
+	public static void putBalance(PublicKey owner, ByteBuffer buffer) {
+
+		buffer.putInt(1 + BlockCodec.keySize(owner));
+		buffer.put(OP_BALANCE);
+
+		BlockCodec.putKey(buffer, owner);
+	}
+
+	/**
+	 * Reads the body of a submit request, after the operation byte
+	 *
+	 * @param buffer
+	 * @return a transaction which is signed but not processed
+	 */
+	public static Transaction getSubmit(ByteBuffer buffer) {
+
+		PublicKey sender = BlockCodec.getKey(buffer);
+		PublicKey receiver = BlockCodec.getKey(buffer);
+		long value = buffer.getLong();
+		byte[] signature = BlockCodec.getBytes(buffer);
+
+		int inputCount = BlockCodec.getCount(buffer, HASH_SIZE);
+
+		ArrayList<TransactionInput> inputs = new ArrayList<>(inputCount);
+
+		for (int i = 0; i < inputCount; i++) {
+
+			inputs.add(new TransactionInput(Hash256.read(buffer)));
+		}
+
+		return new Transaction(null, sender, receiver, value, signature, inputs, new ArrayList<>());
+	}
+
+	/**
+	 * Reads the body of a balance request, after the operation byte
+	 *
+	 * @param buffer
+	 * @return the owner key
+	 */
+	public static PublicKey getBalance(ByteBuffer buffer) {
+
+		return BlockCodec.getKey(buffer);
+	}
+}
@@ -0,0 +1,554 @@
+package org.anirudh.redquark.quarkchain.store;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.ArrayList;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.crypto.CryptoService;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+
+/**
+ * Versioned, compact binary encoding of a {@link Block} and its transactions,
+ * big endian:
+ *
+ * Block: version (1), hash (32), previous hash (32), merkle root (32), time
+ * stamp (8), compact target (4), nonce (4), transaction count, transactions.
+ *
+ * Transaction: id (32), sender key, receiver key, value (8), signature, input
+ * count, input output ids (32 each), output count, outputs.
+ *
+ * Output: flags (1), id (32), receiver key unless it is the receiver or the
+ * sender of the transaction, value (8), parent transaction id (32) unless it
+ * is the transaction's id.
+ *
+ * Counts and lengths are unsigned varints, seven bits per byte with the high
+ * bit set on all but the last byte. Keys are written as a length followed by
+ * their compact encoding (see {@link CryptoService#getCompactEncoded}), and
+ * signatures as a length followed by the bytes. Hashes are stored raw.
+ *
+ * Only the genesis transaction has no inputs, and it has no input list at
+ * all: an input count of zero is read back as no list, so a decoded genesis
+ * transaction is the one which was encoded. Output flags other than the ones
+ * below are rejected.
+ *
+ * The block header sits at fixed offsets, so it can be read in place without
+ * decoding the transactions. Encoding writes to and decoding reads from a
+ * caller's buffer, which can be reused from one block to the next.
+ */
+public class BlockCodec {
+
+	/**
+	 * Version of the format written by this codec
+	 */
+	public static final byte VERSION = 3;
+
+	public static final int VERSION_OFFSET = 0;
+
+	public static final int HASH_OFFSET = 1;
+
+	public static final int PREVIOUS_HASH_OFFSET = 33;
+
+	public static final int MERKLE_ROOT_OFFSET = 65;
+
+	public static final int TIME_STAMP_OFFSET = 97;
+
+	public static final int BITS_OFFSET = 105;
+
+	public static final int NONCE_OFFSET = 109;
+
+	public static final int TRANSACTION_COUNT_OFFSET = 113;
+
+	public static final int HEADER_SIZE = 113;
+
+	private static final int HASH_SIZE = 32;
+
+	/**
+	 * Fewest bytes a transaction takes: id, two key lengths, value, signature
+	 * length and the two counts
+	 */
+	private static final int MIN_TRANSACTION_SIZE = HASH_SIZE + 1 + 1 + 8 + 1 + 1 + 1;
+
+	/**
+	 * Fewest bytes an output takes: flags, id and value
+	 */
+	private static final int MIN_OUTPUT_SIZE = 1 + HASH_SIZE + 8;
+
+	/**
+	 * Output receiver is the receiver of the transaction
+	 */
+	private static final int TO_RECEIVER = 0;
+
+	/**
+	 * Output receiver is the sender of the transaction, the change
+	 */
+	private static final int TO_SENDER = 1;
+
+	/**
+	 * Output receiver is written out
+	 */
+	private static final int TO_KEY = 2;
+
+	private static final int RECEIVER_MASK = 3;
+
+	/**
+	 * Parent transaction id is written out
+	 */
+	private static final int EXPLICIT_PARENT = 4;
+
+	/**
+	 * Every flag an output may carry
+	 */
+	private static final int KNOWN_FLAGS = RECEIVER_MASK | EXPLICIT_PARENT;
+
+	private BlockCodec() {
+	}
+
+	/**
+	 * Returns the number of bytes {@link #encode(Block, ByteBuffer)} writes
+	 *
+	 * @param block
+	 * @return int
+	 */
+	public static int encodedSize(Block block) {
+
+		int size = HEADER_SIZE + varintSize(block.transactions.size());
+
+		for (Transaction transaction : block.transactions) {
+
+			size += encodedSize(transaction);
+		}
+
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes {@link #encode(Transaction, ByteBuffer)} writes
+	 *
+	 * @param transaction
+	 * @return int
+	 */
+	public static int encodedSize(Transaction transaction) {
+
+		int inputCount = inputCount(transaction);
+
+		int size = HASH_SIZE + keySize(transaction.getSender()) + keySize(transaction.getReceiver()) + 8
+				+ bytesSize(transaction.getSignature()) + varintSize(inputCount) + HASH_SIZE * inputCount
+				+ varintSize(transaction.outputs.size());
+
+		for (TransactionOutput output : transaction.outputs) {
+
+			int flags = flags(transaction, output);
+
+			size += 1 + HASH_SIZE + 8;
+
+			if ((flags & RECEIVER_MASK) == TO_KEY) {
+
+				size += keySize(output.receiver);
+			}
+
+			if ((flags & EXPLICIT_PARENT) != 0) {
+
+				size += HASH_SIZE;
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * Writes a block at the position of the buffer
+	 *
+	 * @param block
+	 * @param buffer
+	 */
+	public static void encode(Block block, ByteBuffer buffer) {
+
+		buffer.put(VERSION);
+
+		putHash(buffer, block.hash);
+		putHash(buffer, block.previousHash);
+		putHash(buffer, block.merkleRoot);
+
+		buffer.putLong(block.getTimeStamp());
+		buffer.putInt(block.getBits());
+		buffer.putInt(block.getNonce());
+
+		putVarint(buffer, block.transactions.size());
+
+		for (Transaction transaction : block.transactions) {
+
+			encode(transaction, buffer);
+		}
+	}
+
+	/**
+	 * Writes a processed transaction at the position of the buffer
+	 *
+	 * @param transaction
+	 * @param buffer
+	 */
+	public static void encode(Transaction transaction, ByteBuffer buffer) {
+
+		putHash(buffer, transaction.transactionId);
+		putKey(buffer, transaction.getSender());
+		putKey(buffer, transaction.getReceiver());
+		buffer.putLong(transaction.getValue());
+		putBytes(buffer, transaction.getSignature());
+
+		putVarint(buffer, inputCount(transaction));
+
+		if (transaction.inputs != null) {
+
+			for (TransactionInput input : transaction.inputs) {
+
+				putHash(buffer, input.transactionOutputId);
+			}
+		}
+
+		putVarint(buffer, transaction.outputs.size());
+
+		for (TransactionOutput output : transaction.outputs) {
+
+			int flags = flags(transaction, output);
+
+			buffer.put((byte) flags);
+
+			putHash(buffer, output.id);
+
+			if ((flags & RECEIVER_MASK) == TO_KEY) {
+
+				putKey(buffer, output.receiver);
+			}
+
+			buffer.putLong(output.value);
+
+			if ((flags & EXPLICIT_PARENT) != 0) {
+
+				putHash(buffer, output.parentTransactionId);
+			}
+		}
+	}
+
+	/**
+	 * Encodes a block into a new array
+	 *
+	 * @param block
+	 * @return byte[]
+	 */
+	public static byte[] encode(Block block) {
+
+		ByteBuffer buffer = ByteBuffer.allocate(encodedSize(block));
+
+		encode(block, buffer);
+
+		return buffer.array();
+	}
+
+	/**
+	 * Reads a block from the position of the buffer
+	 *
+	 * @param buffer
+	 * @return {@link Block}
+	 * @throws IllegalArgumentException
+	 *             if the block was written in an unknown version, or a count or
+	 *             key is malformed
+	 * @throws java.nio.BufferUnderflowException
+	 *             if the block is truncated
+	 */
+	public static Block decode(ByteBuffer buffer) {
+
+		byte version = buffer.get();
+
+		if (version != VERSION) {
+
+			throw new IllegalArgumentException("Unknown block format version " + version);
+		}
+
+		Hash256 hash = getHash(buffer);
+		Hash256 previousHash = getHash(buffer);
+		Hash256 merkleRoot = getHash(buffer);
+		long timeStamp = buffer.getLong();
+		int bits = buffer.getInt();
+		int nonce = buffer.getInt();
+		int transactionCount = getCount(buffer, MIN_TRANSACTION_SIZE);
+
+		ArrayList<Transaction> transactions = new ArrayList<>(transactionCount);
+
+		for (int t = 0; t < transactionCount; t++) {
+
+			transactions.add(decodeTransaction(buffer));
+		}
+
+		return new Block(hash, previousHash, merkleRoot, timeStamp, bits, nonce, transactions);
+	}
+
+	/**
+	 * Reads a processed transaction from the position of the buffer
+	 *
+	 * @param buffer
+	 * @return {@link Transaction}, without an input list if it has no inputs
+	 * @throws IllegalArgumentException
+	 *             if a count, key or output flag is malformed
+	 */
+	public static Transaction decodeTransaction(ByteBuffer buffer) {
+
+		Hash256 transactionId = getHash(buffer);
+		PublicKey sender = getKey(buffer);
+		PublicKey receiver = getKey(buffer);
+		long value = buffer.getLong();
+		byte[] signature = getBytes(buffer);
+
+		int inputCount = getCount(buffer, HASH_SIZE);
+
+		ArrayList<TransactionInput> inputs = inputCount == 0 ? null : new ArrayList<TransactionInput>(inputCount);
+
+		for (int i = 0; i < inputCount; i++) {
+
+			inputs.add(new TransactionInput(getHash(buffer)));
+		}
+
+		int outputCount = getCount(buffer, MIN_OUTPUT_SIZE);
+
+		ArrayList<TransactionOutput> outputs = new ArrayList<>(outputCount);
+
+		for (int o = 0; o < outputCount; o++) {
+
+			int flags = buffer.get() & 0xff;
+
+			if ((flags & ~KNOWN_FLAGS) != 0 || (flags & RECEIVER_MASK) == RECEIVER_MASK) {
+
+				throw new IllegalArgumentException("Unknown output flags " + flags);
+			}
+
+			Hash256 id = getHash(buffer);
+
+			PublicKey owner;
+
+			switch (flags & RECEIVER_MASK) {
+			case TO_RECEIVER:
+				owner = receiver;
+				break;
+			case TO_SENDER:
+				owner = sender;
+				break;
+			default:
+				owner = getKey(buffer);
+			}
+
+			long outputValue = buffer.getLong();
+
+			Hash256 parent = (flags & EXPLICIT_PARENT) != 0 ? getHash(buffer) : transactionId;
+
+			outputs.add(new TransactionOutput(id, owner, outputValue, parent));
+		}
+
+		return new Transaction(transactionId, sender, receiver, value, signature, inputs, outputs);
+	}
+
+	/**
+	 * Writes an unsigned varint
+	 *
+	 * @param buffer
+	 * @param value
+	 */
+	public static void putVarint(ByteBuffer buffer, int value) {
+
+		while ((value & ~0x7f) != 0) {
+
+			buffer.put((byte) ((value & 0x7f) | 0x80));
+
+			value >>>= 7;
+		}
+
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Reads an unsigned varint
+	 *
+	 * @param buffer
+	 * @return int
+	 * @throws IllegalArgumentException
+	 *             if the varint does not fit a non negative int
+	 */
+	public static int getVarint(ByteBuffer buffer) {
+
+		int value = 0;
+
+		for (int shift = 0; shift < 32; shift += 7) {
+
+			int b = buffer.get();
+
+			value |= (b & 0x7f) << shift;
+
+			if ((b & 0x80) == 0) {
+
+				if (value < 0) {
+
+					break;
+				}
+
+				return value;
+			}
+		}
+
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	/**
+	 * Reads the count of a list whose items take at least minimumSize bytes
+	 * each. Lists are sized from their count, so a count the rest of the buffer
+	 * cannot hold is rejected before anything is allocated.
+	 *
+	 * @param buffer
+	 * @param minimumSize
+	 * @return int
+	 * @throws IllegalArgumentException
+	 *             if the items cannot fit in the buffer
+	 */
+	public static int getCount(ByteBuffer buffer, int minimumSize) {
+
+		int count = getVarint(buffer);
+
+		if (count > buffer.remaining() / minimumSize) {
+
+			throw new IllegalArgumentException("Count " + count + " past the end of the buffer");
+		}
+
+		return count;
+	}
+
+	/**
+	 * @param value
+	 * @return the number of bytes of value as a varint
+	 */
+	public static int varintSize(int value) {
+
+		int size = 1;
+
+		while ((value & ~0x7f) != 0) {
+
+			value >>>= 7;
+
+			size++;
+		}
+
+		return size;
+	}
+
+	/**
+	 * Writes a public key in its compact encoding
+	 *
+	 * @param buffer
+	 * @param key
+	 */
+	public static void putKey(ByteBuffer buffer, PublicKey key) {
+
+		putBytes(buffer, CryptoService.getCompactEncoded(key));
+	}
+
+	/**
+	 * Reads a public key written by {@link #putKey(ByteBuffer, PublicKey)}
+	 *
+	 * @param buffer
+	 * @return {@link PublicKey}
+	 */
+	public static PublicKey getKey(ByteBuffer buffer) {
+
+		return CryptoService.decodeCompactPublicKey(getBytes(buffer));
+	}
+
+	/**
+	 * @param key
+	 * @return the number of bytes {@link #putKey(ByteBuffer, PublicKey)} writes
+	 */
+	public static int keySize(PublicKey key) {
+
+		return bytesSize(CryptoService.getCompactEncoded(key));
+	}
+
+	/**
+	 * Writes a length and the bytes
+	 *
+	 * @param buffer
+	 * @param bytes
+	 */
+	public static void putBytes(ByteBuffer buffer, byte[] bytes) {
+
+		putVarint(buffer, bytes.length);
+
+		buffer.put(bytes);
+	}
+
+	/**
+	 * Reads bytes written by {@link #putBytes(ByteBuffer, byte[])}
+	 *
+	 * @param buffer
+	 * @return byte[]
+	 */
+	public static byte[] getBytes(ByteBuffer buffer) {
+
+		int length = getVarint(buffer);
+
+		if (length > buffer.remaining()) {
+
+			throw new IllegalArgumentException("Length " + length + " past the end of the buffer");
+		}
+
+		byte[] bytes = new byte[length];
+
+		buffer.get(bytes);
+
+		return bytes;
+	}
+
+	private static int bytesSize(byte[] bytes) {
+
+		return varintSize(bytes.length) + bytes.length;
+	}
+
+	/**
+	 * The genesis transaction has no input list at all
+	 */
+	private static int inputCount(Transaction transaction) {
+
+		return transaction.inputs == null ? 0 : transaction.inputs.size();
+	}
+
+	private static int flags(Transaction transaction, TransactionOutput output) {
+
+		int flags;
+
+		if (output.receiver.equals(transaction.getReceiver())) {
+
+			flags = TO_RECEIVER;
+		} else if (output.receiver.equals(transaction.getSender())) {
+
+			flags = TO_SENDER;
+		} else {
+
+			flags = TO_KEY;
+		}
+
+		if (!output.parentTransactionId.equals(transaction.transactionId)) {
+
+			flags |= EXPLICIT_PARENT;
+		}
+
+		return flags;
+	}
+
+	private static void putHash(ByteBuffer buffer, Hash256 hash) {
+
+		hash.writeTo(buffer);
+	}
+
+	private static Hash256 getHash(ByteBuffer buffer) {
+
+		return Hash256.read(buffer);
+	}
+}
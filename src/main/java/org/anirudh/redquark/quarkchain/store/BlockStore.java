@@ -0,0 +1,519 @@
+package org.anirudh.redquark.quarkchain.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+
+/**
+ * Append-only, on-disk store of the blockchain.
+ *
+ * Blocks are encoded with {@link BlockCodec} and appended, each behind a 4 byte
+ * length and the 4 byte CRC32 of the encoded block, to segment files of at
+ * most {@link #SEGMENT_SIZE} bytes. A separate index file holds one fixed size
+ * entry per block height: segment number, offset and length of the record, and
+ * the block hash. Opening the store reads the index and checks the last record
+ * against its CRC, never the other blocks.
+ *
+ * Appended blocks can be read at once, but they only reach the index in
+ * {@link #sync()}, after the segments were forced to disk, so the index never
+ * names a record which may not be on disk. A crash loses the blocks appended
+ * since the last sync, and the next append overwrites them.
+ *
+ * Blocks are read through read-only memory mappings of the segments, so
+ * looking up a block by height or hash is O(1) and its header fields are read
+ * in place. Only one thread may append at a time; reads are safe from any
+ * thread.
+ */
+public class BlockStore implements Closeable {
+
+	/**
+	 * Maximum size of a segment file, unless a single block is larger
+	 */
+	public static final long SEGMENT_SIZE = 64L << 20;
+
+	/**
+	 * Index entry: segment (4), offset (8), length (4), hash (32)
+	 */
+	private static final int INDEX_ENTRY_SIZE = 48;
+
+	/**
+	 * Record header: length (4), CRC32 of the block (4)
+	 */
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	private static final String INDEX_FILE = "blocks.idx";
+
+	/**
+	 * Directory holding the index and the segments
+	 */
+	private final Path directory;
+
+	/**
+	 * Channel of the index file
+	 */
+	private final FileChannel index;
+
+	/**
+	 * Channels of the segment files, by segment number
+	 */
+	private final List<FileChannel> segments = new ArrayList<>();
+
+	/**
+	 * Read mappings of the segments, grown when a read goes past their end
+	 */
+	private final List<MappedByteBuffer> mappings = new ArrayList<>();
+
+	/**
+	 * Location of each block by height
+	 */
+	private int[] segmentOf = new int[1024];
+
+	private long[] offsetOf = new long[1024];
+
+	private int[] lengthOf = new int[1024];
+
+	/**
+	 * Height of each block by hash
+	 */
+	private final HashMap<Hash256, Integer> heights = new HashMap<>();
+
+	/**
+	 * Number of blocks in the store
+	 */
+	private volatile int size;
+
+	/**
+	 * Number of blocks in the index file
+	 */
+	private int indexed;
+
+	/**
+	 * End of the last record of the last segment
+	 */
+	private long segmentEnd;
+
+	/**
+	 * Buffer blocks are encoded into, reused by every append
+	 */
+	private ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+
+	/**
+	 * Index entries of the blocks appended since the last sync
+	 */
+	private ByteBuffer pendingEntries = ByteBuffer.allocate(64 * INDEX_ENTRY_SIZE);
+
+	private BlockStore(Path directory) throws IOException {
+
+		this.directory = directory;
+		this.index = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Opens the store in the directory, creating it if needed
+	 *
+	 * @param directory
+	 * @return {@link BlockStore}
+	 * @throws IOException
+	 */
+	public static BlockStore open(Path directory) throws IOException {
+
+		Files.createDirectories(directory);
+
+		BlockStore store = new BlockStore(directory);
+
+		store.load();
+
+		return store;
+	}
+
+	/**
+	 * Reads the index. Each record must start where the one before it ended, or
+	 * at the start of the next segment; the index is cut at the first entry
+	 * which does not, such as a partial or torn entry left by a crash. The last
+	 * entries are then dropped while their record does not match its CRC. The
+	 * next append overwrites whatever follows the last indexed record.
+	 */
+	private void load() throws IOException {
+
+		int count = (int) (index.size() / INDEX_ENTRY_SIZE);
+
+		ByteBuffer entries = ByteBuffer.allocate(count * INDEX_ENTRY_SIZE);
+
+		while (entries.hasRemaining()) {
+
+			if (index.read(entries, entries.position()) < 0) {
+
+				throw new IOException("Index file shrank while it was read");
+			}
+		}
+
+		entries.flip();
+
+		byte[] hash = new byte[32];
+
+		int lastSegment = 0;
+
+		long end = 0;
+
+		for (int height = 0; height < count; height++) {
+
+			int segment = entries.getInt();
+			long offset = entries.getLong();
+			int length = entries.getInt();
+
+			entries.get(hash);
+
+			boolean follows = segment == lastSegment && offset == end
+					|| height > 0 && segment == lastSegment + 1 && offset == 0;
+
+			if (!follows || length < 0) {
+
+				count = height;
+
+				break;
+			}
+
+			addEntry(height, segment, offset, length, Hash256.of(hash));
+
+			lastSegment = segment;
+
+			end = offset + RECORD_HEADER_SIZE + length;
+		}
+
+		for (int segment = 0; segment <= lastSegment; segment++) {
+
+			openSegment(segment);
+		}
+
+		size = count;
+
+		while (size > 0 && !isIntact(size - 1)) {
+
+			size--;
+
+			entries.position(size * INDEX_ENTRY_SIZE + 16);
+			entries.get(hash);
+
+			heights.remove(Hash256.of(hash));
+		}
+
+		/**
+		 * Appends go on in the segment of the last intact record
+		 */
+		while (segments.size() > (size == 0 ? 1 : segmentOf[size - 1] + 1)) {
+
+			segments.remove(segments.size() - 1).close();
+
+			mappings.remove(mappings.size() - 1);
+		}
+
+		segmentEnd = size == 0 ? 0 : offsetOf[size - 1] + RECORD_HEADER_SIZE + lengthOf[size - 1];
+
+		index.truncate((long) size * INDEX_ENTRY_SIZE);
+
+		indexed = size;
+	}
+
+	/**
+	 * Returns true if the record at a height lies within its segment and matches
+	 * its CRC
+	 */
+	private boolean isIntact(int height) throws IOException {
+
+		if (offsetOf[height] + RECORD_HEADER_SIZE + lengthOf[height] > segments.get(segmentOf[height]).size()) {
+
+			return false;
+		}
+
+		ByteBuffer record = record(height);
+
+		return record.getInt(4) == checksum(record);
+	}
+
+	/**
+	 * Appends a block to the store
+	 *
+	 * @param block
+	 * @return the height of the block
+	 * @throws IOException
+	 */
+	public synchronized int append(Block block) throws IOException {
+
+		int length = BlockCodec.encodedSize(block);
+
+		if (writeBuffer.capacity() < RECORD_HEADER_SIZE + length) {
+
+			writeBuffer = ByteBuffer.allocate(Math.max(RECORD_HEADER_SIZE + length, writeBuffer.capacity() * 2));
+		}
+
+		ByteBuffer record = writeBuffer;
+
+		record.clear();
+
+		record.putInt(length).putInt(0);
+
+		BlockCodec.encode(block, record);
+
+		record.flip();
+
+		record.putInt(4, checksum(record));
+
+		int segment = segments.size() - 1;
+
+		if (segmentEnd > 0 && segmentEnd + record.remaining() > SEGMENT_SIZE) {
+
+			segment = segments.size();
+
+			openSegment(segment);
+
+			segmentEnd = 0;
+		}
+
+		long offset = segmentEnd;
+
+		writeFully(segments.get(segment), record, offset);
+
+		int height = size;
+
+		if (pendingEntries.remaining() < INDEX_ENTRY_SIZE) {
+
+			pendingEntries.flip();
+
+			pendingEntries = ByteBuffer.allocate(pendingEntries.capacity() * 2).put(pendingEntries);
+		}
+
+		pendingEntries.putInt(segment).putLong(offset).putInt(length).put(record.array(),
+				RECORD_HEADER_SIZE + BlockCodec.HASH_OFFSET, 32);
+
+		addEntry(height, segment, offset, length, block.hash);
+
+		segmentEnd = offset + record.limit();
+
+		size = height + 1;
+
+		return height;
+	}
+
+	/**
+	 * @return the number of blocks in the store
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the height of a block, or -1 if it is not stored
+	 *
+	 * @param hash
+	 * @return int
+	 */
+	public synchronized int getHeight(Hash256 hash) {
+
+		Integer height = heights.get(hash);
+
+		return height == null ? -1 : height;
+	}
+
+	/**
+	 * Returns the header of the block at a height, read in place
+	 *
+	 * @param height
+	 * @return {@link StoredBlockHeader}
+	 */
+	public StoredBlockHeader getHeader(int height) {
+
+		ByteBuffer record = record(height);
+
+		record.position(RECORD_HEADER_SIZE);
+
+		return new StoredBlockHeader(record.slice());
+	}
+
+	/**
+	 * Returns the header of a block, or null if it is not stored
+	 *
+	 * @param hash
+	 * @return {@link StoredBlockHeader}
+	 */
+	public StoredBlockHeader getHeader(Hash256 hash) {
+
+		int height = getHeight(hash);
+
+		return height < 0 ? null : getHeader(height);
+	}
+
+	/**
+	 * Decodes the block at a height, after checking it against its CRC
+	 *
+	 * @param height
+	 * @return {@link Block}
+	 * @throws IllegalStateException
+	 *             if the record was damaged on disk
+	 */
+	public Block getBlock(int height) {
+
+		ByteBuffer record = record(height);
+
+		if (record.getInt(4) != checksum(record)) {
+
+			throw new IllegalStateException("Block at height " + height + " does not match its checksum");
+		}
+
+		record.position(RECORD_HEADER_SIZE);
+
+		return new StoredBlockHeader(record.slice()).toBlock();
+	}
+
+	/**
+	 * Decodes a block, or returns null if it is not stored
+	 *
+	 * @param hash
+	 * @return {@link Block}
+	 */
+	public Block getBlock(Hash256 hash) {
+
+		int height = getHeight(hash);
+
+		return height < 0 ? null : getBlock(height);
+	}
+
+	/**
+	 * Forces the segments to disk, then writes the index entries of the blocks
+	 * appended since the last sync and forces the index
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+
+		for (FileChannel segment : segments) {
+
+			segment.force(false);
+		}
+
+		pendingEntries.flip();
+
+		writeFully(index, pendingEntries, (long) indexed * INDEX_ENTRY_SIZE);
+
+		pendingEntries.clear();
+
+		indexed = size;
+
+		index.force(false);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+
+		sync();
+
+		for (FileChannel segment : segments) {
+
+			segment.close();
+		}
+
+		index.close();
+	}
+
+	/**
+	 * Returns a read only view of the record at a height, its header included
+	 */
+	private synchronized ByteBuffer record(int height) {
+
+		if (height < 0 || height >= size) {
+
+			throw new IndexOutOfBoundsException("No block at height " + height);
+		}
+
+		int segment = segmentOf[height];
+		long start = offsetOf[height];
+		long end = start + RECORD_HEADER_SIZE + lengthOf[height];
+
+		MappedByteBuffer mapping = mappings.get(segment);
+
+		if (mapping == null || mapping.capacity() < end) {
+
+			try {
+
+				FileChannel channel = segments.get(segment);
+
+				mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} catch (IOException e) {
+
+				throw new RuntimeException(e);
+			}
+
+			mappings.set(segment, mapping);
+		}
+
+		ByteBuffer record = mapping.duplicate();
+
+		record.position((int) start);
+		record.limit((int) end);
+
+		return record.slice();
+	}
+
+	/**
+	 * Returns the CRC32 of the block in a record
+	 */
+	private static int checksum(ByteBuffer record) {
+
+		ByteBuffer block = record.duplicate();
+
+		block.position(RECORD_HEADER_SIZE);
+
+		CRC32 crc = new CRC32();
+
+		crc.update(block);
+
+		return (int) crc.getValue();
+	}
+
+	private void addEntry(int height, int segment, long offset, int length, Hash256 hash) {
+
+		if (height == segmentOf.length) {
+
+			segmentOf = Arrays.copyOf(segmentOf, height * 2);
+			offsetOf = Arrays.copyOf(offsetOf, height * 2);
+			lengthOf = Arrays.copyOf(lengthOf, height * 2);
+		}
+
+		segmentOf[height] = segment;
+		offsetOf[height] = offset;
+		lengthOf[height] = length;
+
+		heights.put(hash, height);
+	}
+
+	private void openSegment(int segment) throws IOException {
+
+		Path file = directory.resolve(String.format("blocks-%05d.dat", segment));
+
+		segments.add(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE));
+
+		mappings.add(null);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+
+		while (buffer.hasRemaining()) {
+
+			position += channel.write(buffer, position);
+		}
+	}
+}
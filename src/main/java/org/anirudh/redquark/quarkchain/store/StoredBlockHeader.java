@@ -0,0 +1,113 @@
+package org.anirudh.redquark.quarkchain.store;
+
+import java.nio.ByteBuffer;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+
+/**
+ * Header of a stored block, read in place from the memory mapped segment.
+ * Nothing is copied until a field is asked for, and the transactions are only
+ * decoded by {@link #toBlock()}.
+ */
+public class StoredBlockHeader {
+
+	/**
+	 * Read only view of the encoded block, starting at the block
+	 */
+	private final ByteBuffer record;
+
+	/**
+	 * @param record
+	 */
+	StoredBlockHeader(ByteBuffer record) {
+
+		this.record = record;
+	}
+
+	/**
+	 * @return the hash
+	 */
+	public Hash256 getHash() {
+		return getHashAt(BlockCodec.HASH_OFFSET);
+	}
+
+	/**
+	 * @return the previousHash
+	 */
+	public Hash256 getPreviousHash() {
+		return getHashAt(BlockCodec.PREVIOUS_HASH_OFFSET);
+	}
+
+	/**
+	 * @return the merkleRoot
+	 */
+	public Hash256 getMerkleRoot() {
+		return getHashAt(BlockCodec.MERKLE_ROOT_OFFSET);
+	}
+
+	/**
+	 * Copies the raw hash into out, without creating a {@link Hash256}
+	 *
+	 * @param out
+	 */
+	public void getHash(byte[] out) {
+
+		for (int i = 0; i < 32; i++) {
+
+			out[i] = record.get(BlockCodec.HASH_OFFSET + i);
+		}
+	}
+
+	/**
+	 * @return the timeStamp
+	 */
+	public long getTimeStamp() {
+		return record.getLong(BlockCodec.TIME_STAMP_OFFSET);
+	}
+
+	/**
+	 * @return the target, in compact form
+	 */
+	public int getBits() {
+		return record.getInt(BlockCodec.BITS_OFFSET);
+	}
+
+	/**
+	 * @return the nonce
+	 */
+	public int getNonce() {
+		return record.getInt(BlockCodec.NONCE_OFFSET);
+	}
+
+	/**
+	 * @return the number of transactions in the block
+	 */
+	public int getTransactionCount() {
+
+		ByteBuffer count = record.duplicate();
+
+		count.position(BlockCodec.TRANSACTION_COUNT_OFFSET);
+
+		return BlockCodec.getVarint(count);
+	}
+
+	/**
+	 * Decodes the whole block, transactions included
+	 *
+	 * @return {@link Block}
+	 */
+	public Block toBlock() {
+
+		return BlockCodec.decode(record.duplicate());
+	}
+
+	private Hash256 getHashAt(int offset) {
+
+		ByteBuffer hash = record.duplicate();
+
+		hash.position(offset);
+
+		return Hash256.read(hash);
+	}
+}
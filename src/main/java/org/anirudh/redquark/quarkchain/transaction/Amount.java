@@ -0,0 +1,86 @@
+package org.anirudh.redquark.quarkchain.transaction;
+
+import java.math.BigDecimal;
+
+/**
+ * Amounts of coins are fixed point: a long counting the smallest unit, of
+ * which there are {@link #UNITS_PER_COIN} in a coin.
+ *
+ * Sums of integers are exact, so values can be compared for equality and
+ * nothing is lost however many outputs are added up. Arithmetic on amounts
+ * goes through {@link #add(long, long)} and {@link #subtract(long, long)},
+ * which throw an {@link ArithmeticException} instead of wrapping around.
+ */
+public final class Amount {
+
+	/**
+	 * Number of decimal places of a coin
+	 */
+	public static final int DECIMALS = 8;
+
+	/**
+	 * Smallest units in one coin
+	 */
+	public static final long UNITS_PER_COIN = 100_000_000L;
+
+	private Amount() {
+	}
+
+	/**
+	 * @param coins
+	 * @return the amount of whole coins
+	 */
+	public static long coins(long coins) {
+
+		return Math.multiplyExact(coins, UNITS_PER_COIN);
+	}
+
+	/**
+	 * Parses a decimal number of coins such as "0.1"
+	 *
+	 * @param coins
+	 * @return the amount
+	 * @throws ArithmeticException
+	 *             if it has more than {@link #DECIMALS} decimal places or does not
+	 *             fit a long
+	 */
+	public static long parse(String coins) {
+
+		return new BigDecimal(coins).movePointRight(DECIMALS).longValueExact();
+	}
+
+	/**
+	 * @param a
+	 * @param b
+	 * @return a + b
+	 * @throws ArithmeticException
+	 *             on overflow
+	 */
+	public static long add(long a, long b) {
+
+		return Math.addExact(a, b);
+	}
+
+	/**
+	 * @param a
+	 * @param b
+	 * @return a - b
+	 * @throws ArithmeticException
+	 *             on overflow
+	 */
+	public static long subtract(long a, long b) {
+
+		return Math.subtractExact(a, b);
+	}
+
+	/**
+	 * Formats an amount as a decimal number of coins, without trailing zeros
+	 *
+	 * @param amount
+	 * @return String
+	 */
+	public static String toString(long amount) {
+
+		return BigDecimal.valueOf(amount, DECIMALS).stripTrailingZeros().toPlainString();
+	}
+}
@@ -1,11 +1,23 @@
 package org.anirudh.redquark.quarkchain.transaction;
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.anirudh.redquark.quarkchain.App;
+import org.anirudh.redquark.quarkchain.crypto.CryptoService;
+import org.anirudh.redquark.quarkchain.metrics.NodeMetrics;
+import org.anirudh.redquark.quarkchain.util.Hash256;
 import org.anirudh.redquark.quarkchain.util.StringUtil;
+import org.anirudh.redquark.quarkchain.utxo.OverlayUTXOStore;
+import org.anirudh.redquark.quarkchain.utxo.UTXOStore;
 
 /**
  * Each transaction will carry a certain amount of data:
@@ -20,10 +32,12 @@ import org.anirudh.redquark.quarkchain.util.StringUtil;
  */
 public class Transaction {
 
+	private static final Logger LOGGER = Logger.getLogger(Transaction.class.getName());
+
 	/**
 	 * This is also the hash of the transaction
 	 */
-	public String transactionId;
+	public Hash256 transactionId;
 	
 	/**
 	 * Sender's address/public key
@@ -36,14 +50,21 @@ public class Transaction {
 	private PublicKey receiver;
 	
 	/**
-	 * Value to be transferred
+	 * Value to be transferred, in units of {@link Amount}
 	 */
-	private float value;
+	private long value;
 	
 	/**
 	 * This is to prevent anybody else from spending funds in our wallet.
 	 */
 	private byte[] signature;
+
+	/**
+	 * Copies of the last signature which verified and of the data it signed, or
+	 * null. The input list can still be changed after a check, so a later check
+	 * compares both.
+	 */
+	private volatile byte[][] verified;
 	
 	public ArrayList<TransactionInput> inputs = new ArrayList<>();
 	
@@ -52,12 +73,12 @@ public class Transaction {
 	/**
 	 * A rough count of how many transactions have been generated
 	 */
-	private static int sequence = 0;
+	private static final AtomicInteger sequence = new AtomicInteger();
 	
 	/**
 	 * Parameterized constructor
 	 */
-	public Transaction(PublicKey from, PublicKey to, float value, ArrayList<TransactionInput> inputs) {
+	public Transaction(PublicKey from, PublicKey to, long value, ArrayList<TransactionInput> inputs) {
 		
 		this.sender = from;
 		this.receiver = to;
@@ -65,10 +86,24 @@ public class Transaction {
 		this.inputs = inputs;
 	}
 
+	/**
+	 * Rebuilds a transaction which was already processed, for example when it is
+	 * read back from disk
+	 */
+	public Transaction(Hash256 transactionId, PublicKey from, PublicKey to, long value, byte[] signature,
+			ArrayList<TransactionInput> inputs, ArrayList<TransactionOutput> outputs) {
+
+		this(from, to, value, inputs);
+
+		this.transactionId = transactionId;
+		this.signature = signature;
+		this.outputs = outputs;
+	}
+
 	/**
 	 * @return the transactionId
 	 */
-	public String getTransactionId() {
+	public Hash256 getTransactionId() {
 		return transactionId;
 	}
 
@@ -89,7 +124,7 @@ public class Transaction {
 	/**
 	 * @return the value
 	 */
-	public float getValue() {
+	public long getValue() {
 		return value;
 	}
 
@@ -117,15 +152,48 @@ public class Transaction {
 	/**
 	 * Calculate the transaction hash which will be used as its id
 	 */
-	private String calculateHash() {
+	private Hash256 calculateHash() {
 		
 		/**
 		 * Increase the sequence to avoid 2 identical transactions having the same hash
 		 */
-		sequence++;
+		int number = sequence.incrementAndGet();
 		
-		return StringUtil.applySha256(StringUtil.getStringFromKey(sender) + StringUtil.getStringFromKey(receiver)
-				+ Float.toString(value) + sequence);
+		MessageDigest digest = StringUtil.sha256();
+
+		digest.update(getSignedData());
+
+		digest.update(ByteBuffer.allocate(4).putInt(number).array());
+
+		return Hash256.digest(digest);
+	}
+
+	/**
+	 * Returns the data covered by the signature: the encoded sender and receiver
+	 * keys, the value, then the number of inputs and the id of the output each
+	 * one spends, as raw bytes. The outputs follow from the inputs, since the
+	 * transaction rules only allow the value to the receiver and the change back
+	 * to the sender, so a signature cannot be moved to other coins of the sender.
+	 * 
+	 * @return byte[]
+	 */
+	public byte[] getSignedData() {
+
+		byte[] from = CryptoService.getEncoded(sender);
+		byte[] to = CryptoService.getEncoded(receiver);
+
+		int inputCount = inputs == null ? 0 : inputs.size();
+
+		ByteBuffer data = ByteBuffer.allocate(from.length + to.length + 8 + 4 + Hash256.SIZE * inputCount);
+
+		data.put(from).put(to).putLong(value).putInt(inputCount);
+
+		for (int i = 0; i < inputCount; i++) {
+
+			inputs.get(i).transactionOutputId.writeTo(data);
+		}
+
+		return data.array();
 	}
 	
 	/**
@@ -135,10 +203,7 @@ public class Transaction {
 	 */
 	public void generateSignature(PrivateKey privateKey) {
 
-		String data = StringUtil.getStringFromKey(sender) + StringUtil.getStringFromKey(receiver)
-				+ Float.toString(value);
-
-		signature = StringUtil.applyECDSASignature(privateKey, data);
+		signature = CryptoService.sign(privateKey, getSignedData());
 	}
 	
 	/**
@@ -146,17 +211,69 @@ public class Transaction {
 	 */
 	public boolean verifySignature() {
 
-		String data = StringUtil.getStringFromKey(sender) + StringUtil.getStringFromKey(receiver)
-				+ Float.toString(value);
+		byte[] checked = signature;
+
+		byte[] data = getSignedData();
+
+		try {
 
-		return StringUtil.verifyECDSASignatrue(sender, data, signature);
+			if (!CryptoService.verify(sender, data, checked)) {
+
+				return false;
+			}
+		} catch (Exception e) {
+
+			LOGGER.log(Level.WARNING, "Signature could not be verified", e);
+
+			return false;
+		}
+
+		verified = new byte[][] { checked.clone(), data };
+
+		return true;
+	}
+
+	/**
+	 * Tells whether {@link #verifySignature()} already succeeded on the current
+	 * signature, such as when the transaction was admitted to a mempool, so the
+	 * block built from it need not verify it again
+	 * 
+	 * @return true if the current signature was verified over the current data
+	 */
+	public boolean isSignatureVerified() {
+
+		byte[][] last = verified;
+
+		return last != null && Arrays.equals(last[0], signature) && Arrays.equals(last[1], getSignedData());
 	}
 	
-	public boolean processTransaction() {
+	/**
+	 * Checks the transaction against the given UTXOs, generates its outputs and
+	 * applies it: the outputs are added as unspent and the inputs removed.
+	 * Blocks pass an {@link OverlayUTXOStore}, so nothing reaches the chain's
+	 * UTXOs before the block is connected.
+	 * 
+	 * @param utxos
+	 */
+	public boolean processTransaction(UTXOStore utxos) {
+
+		if (!apply(utxos)) {
+
+			NodeMetrics.get().transactionsRejected.increment();
+
+			return false;
+		}
+
+		NodeMetrics.get().transactionsAccepted.increment();
+
+		return true;
+	}
+
+	private boolean apply(UTXOStore utxos) {
 		
-		if(!verifySignature()) {
+		if(!isSignatureVerified() && !verifySignature()) {
 			
-			System.out.println("Transaction Signature failed to verify");
+			LOGGER.fine("Transaction Signature failed to verify");
 			
 			return false;
 		}
@@ -166,18 +283,46 @@ public class Transaction {
 		 */
 		for(TransactionInput i : inputs) {
 			
-			i.UTXO = App.UTXOs.get(i.transactionOutputId);
+			i.UTXO = utxos.get(i.transactionOutputId);
+
+			/**
+			 * Spent or unknown outputs cannot be used
+			 */
+			if(i.UTXO == null) {
+
+				if (LOGGER.isLoggable(Level.FINE)) {
+
+					LOGGER.fine("Transaction Input is missing or already spent: " + i.transactionOutputId);
+				}
+
+				return false;
+			}
 		}
 		
 		/**
 		 * Check if the transaction is valid
 		 */
-		if(getInputsValue() < App.minimumTransaction) {
+		long inputsValue = getInputsValue();
+
+		if(inputsValue < App.minimumTransaction) {
 			
-			System.out.println("Transaction Inputs too small: " + getInputsValue());
+			if (LOGGER.isLoggable(Level.FINE)) {
+
+				LOGGER.fine("Transaction Inputs too small: " + Amount.toString(inputsValue));
+			}
 			
 			return false;
 		}
+
+		if(value < 0 || inputsValue < value) {
+
+			if (LOGGER.isLoggable(Level.FINE)) {
+
+				LOGGER.fine("Transaction Inputs do not cover the value: " + Amount.toString(value));
+			}
+
+			return false;
+		}
 		
 		/**
 		 * Generate transaction outputs
@@ -186,7 +331,7 @@ public class Transaction {
 		/**
 		 * Get value of inputs then the left over change
 		 */
-		float leftOver = getInputsValue() - value;
+		long leftOver = Amount.subtract(inputsValue, value);
 		
 		/**
 		 * Calculate the transaction id
@@ -199,16 +344,42 @@ public class Transaction {
 		outputs.add(new TransactionOutput(this.receiver, value, transactionId));
 		
 		/**
-		 * Send the left over change back to the sender
+		 * Send the left over change back to the sender. Inputs which match the value
+		 * exactly leave no change, and no empty output is created.
 		 */
-		outputs.add(new TransactionOutput(sender, leftOver, transactionId));
+		if (leftOver > 0) {
+
+			outputs.add(new TransactionOutput(sender, leftOver, transactionId));
+		}
 		
+		/**
+		 * The inputs must be the sender's own outputs, and no output may replace a
+		 * coin which is still unspent
+		 */
+		List<TransactionOutput> spent = new ArrayList<>();
+
+		for(TransactionInput i : inputs) {
+
+			spent.add(i.UTXO);
+		}
+
+		if(!TransactionRules.check(this, spent, utxos)) {
+
+			LOGGER.fine("Transaction does not follow the transaction rules");
+
+			outputs.clear();
+
+			transactionId = null;
+
+			return false;
+		}
+
 		/**
 		 * Add outputs to the unspent list
 		 */
 		for(TransactionOutput o : outputs) {
 			
-			App.UTXOs.put(o.id, o);
+			utxos.put(o);
 		}
 		
 		/**
@@ -224,7 +395,7 @@ public class Transaction {
 				continue;
 			}
 			
-			App.UTXOs.remove(i.UTXO.id);
+			utxos.remove(i.UTXO.id);
 		}
 		
 		return true;
@@ -233,11 +404,13 @@ public class Transaction {
 	/**
 	 * Returns sum of inputs(UTXOs) values
 	 * 
-	 * @return float
+	 * @return long
+	 * @throws ArithmeticException
+	 *             if the sum overflows
 	 */
-	public float getInputsValue() {
+	public long getInputsValue() {
 		
-		float total = 0;
+		long total = 0;
 		
 		for(TransactionInput i : inputs) {
 			
@@ -248,7 +421,7 @@ public class Transaction {
 				continue;
 			}
 			
-			total =total + i.UTXO.value;
+			total = Amount.add(total, i.UTXO.value);
 		}
 		
 		return total;
@@ -257,14 +430,16 @@ public class Transaction {
 	/**
 	 * Returns sum of outputs
 	 * 
-	 * @return float
+	 * @return long
+	 * @throws ArithmeticException
+	 *             if the sum overflows
 	 */
-	public float getOutputsValue() {
+	public long getOutputsValue() {
 		
-		float total = 0;
+		long total = 0;
 		
 		for(TransactionOutput o : outputs) {
-			total = total + o.value;
+			total = Amount.add(total, o.value);
 		}
 		
 		return total;
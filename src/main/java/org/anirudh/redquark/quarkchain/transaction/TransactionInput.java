@@ -1,5 +1,7 @@
 package org.anirudh.redquark.quarkchain.transaction;
 
+import org.anirudh.redquark.quarkchain.util.Hash256;
+
 /**
  * For you to own 1 bitcoin, you have to receive 1 Bitcoin. The ledger doesn’t
  * really add one bitcoin to you and minus one bitcoin from the sender, the
@@ -16,7 +18,7 @@ public class TransactionInput {
 	/**
 	 * Reference to TransactionOutputs - transactionId
 	 */
-	public String transactionOutputId;
+	public Hash256 transactionOutputId;
 
 	/**
 	 * Contains the Unspent Transaction Output
@@ -26,7 +28,7 @@ public class TransactionInput {
 	/**
 	 * @param transactionOutputId
 	 */
-	public TransactionInput(String transactionOutputId) {
+	public TransactionInput(Hash256 transactionOutputId) {
 		
 		this.transactionOutputId = transactionOutputId;
 	}
@@ -1,7 +1,10 @@
 package org.anirudh.redquark.quarkchain.transaction;
 
+import java.security.MessageDigest;
 import java.security.PublicKey;
 
+import org.anirudh.redquark.quarkchain.crypto.CryptoService;
+import org.anirudh.redquark.quarkchain.util.Hash256;
 import org.anirudh.redquark.quarkchain.util.StringUtil;
 
 /**
@@ -14,7 +17,7 @@ public class TransactionOutput {
 	/**
 	 * Unique id
 	 */
-	public String id;
+	public Hash256 id;
 
 	/**
 	 * Owner of the coins
@@ -22,26 +25,57 @@ public class TransactionOutput {
 	public PublicKey receiver;
 
 	/**
-	 * Amount of coins they own
+	 * Amount of coins they own, in units of {@link Amount}
 	 */
-	public float value;
+	public long value;
 
 	/**
 	 * The id of the transaction this output was created in.
 	 */
-	public String parentTransactionId;
+	public Hash256 parentTransactionId;
 
 	/**
 	 * @param receiver
 	 * @param value
 	 * @param parentTransactionId
 	 */
-	public TransactionOutput(PublicKey receiver, float value, String parentTransactionId) {
+	public TransactionOutput(PublicKey receiver, long value, Hash256 parentTransactionId) {
 
 		this.receiver = receiver;
 		this.value = value;
 		this.parentTransactionId = parentTransactionId;
-		this.id = StringUtil.applySha256(StringUtil.getStringFromKey(receiver) + Float.toString(value));
+
+		/**
+		 * The id covers the encoded receiver, the value and the raw parent id
+		 */
+		MessageDigest digest = StringUtil.sha256();
+
+		digest.update(CryptoService.getEncoded(receiver));
+
+		for (int i = 0; i < 8; i++) {
+
+			digest.update((byte) (value >>> (56 - 8 * i)));
+		}
+
+		digest.update(parentTransactionId.toBytes());
+
+		this.id = Hash256.digest(digest);
+	}
+
+	/**
+	 * Rebuilds an output whose id is already known
+	 * 
+	 * @param id
+	 * @param receiver
+	 * @param value
+	 * @param parentTransactionId
+	 */
+	public TransactionOutput(Hash256 id, PublicKey receiver, long value, Hash256 parentTransactionId) {
+
+		this.id = id;
+		this.receiver = receiver;
+		this.value = value;
+		this.parentTransactionId = parentTransactionId;
 	}
 
 	/**
@@ -49,7 +83,7 @@ public class TransactionOutput {
 	 */
 	public boolean isMine(PublicKey publicKey) {
 		
-		return (publicKey == receiver);
+		return receiver.equals(publicKey);
 	}
 
 }
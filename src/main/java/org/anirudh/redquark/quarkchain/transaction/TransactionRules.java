@@ -0,0 +1,182 @@
+package org.anirudh.redquark.quarkchain.transaction;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.UTXOStore;
+
+/**
+ * The rules every transaction of a block after the genesis block follows,
+ * whichever path checks it: {@link Transaction#processTransaction(UTXOStore)}
+ * while a block is built,
+ * {@link org.anirudh.redquark.quarkchain.chain.BlockConnector} when a block is
+ * connected or reloaded, and
+ * {@link org.anirudh.redquark.quarkchain.validation.ChainValidator} when the
+ * chain is validated. A block one of them accepts is accepted by the others.
+ *
+ * The signature covers the sender, the receiver, the value and the ids of the
+ * outputs spent. The rest of the transaction is checked against the outputs
+ * it spends, and fixed by them:
+ *
+ * - it spends at least one output, each once, and every output it spends is
+ * owned by the sender
+ *
+ * - its outputs are the ones it generates: the value to the receiver, then the
+ * change, if any, back to the sender, each created by the transaction and
+ * carrying the id it hashes to
+ *
+ * - no output is negative, and the inputs equal the outputs to the unit
+ *
+ * - none of its output ids is already unspent, since storing the output would
+ * replace the coin of another owner
+ *
+ * Signatures are verified by the callers, each where it can afford to.
+ */
+public final class TransactionRules {
+
+	private TransactionRules() {
+	}
+
+	/**
+	 * Checks a transaction against the outputs it spends
+	 *
+	 * @param transaction
+	 * @param spent
+	 *            the outputs its inputs resolve to, in order, null for an input
+	 *            which is not unspent
+	 * @param utxos
+	 *            unspent outputs before the transaction, which its outputs must
+	 *            not be in yet
+	 * @return true if the transaction follows every rule
+	 */
+	public static boolean check(Transaction transaction, List<TransactionOutput> spent, UTXOStore utxos) {
+
+		return spendsOwnOutputs(transaction, spent) && outputsMatch(transaction)
+				&& valuesBalance(spent, transaction.outputs) && createsNewOutputs(transaction, utxos);
+	}
+
+	/**
+	 * @param transaction
+	 * @param spent
+	 * @return true if the transaction spends at least one output, each once, and
+	 *         only unspent outputs of its sender
+	 */
+	public static boolean spendsOwnOutputs(Transaction transaction, List<TransactionOutput> spent) {
+
+		if (transaction.inputs == null || transaction.inputs.isEmpty()
+				|| spent.size() != transaction.inputs.size()) {
+
+			return false;
+		}
+
+		Set<Hash256> ids = new HashSet<>();
+
+		for (TransactionOutput output : spent) {
+
+			if (output == null || !transaction.getSender().equals(output.receiver) || !ids.add(output.id)) {
+
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param transaction
+	 * @return true if the outputs are the ones the transaction generates, with
+	 *         the ids they hash to
+	 */
+	public static boolean outputsMatch(Transaction transaction) {
+
+		List<TransactionOutput> outputs = transaction.outputs;
+
+		if (transaction.transactionId == null || outputs == null || outputs.isEmpty() || outputs.size() > 2) {
+
+			return false;
+		}
+
+		TransactionOutput payment = outputs.get(0);
+
+		if (!transaction.getReceiver().equals(payment.receiver) || payment.value != transaction.getValue()) {
+
+			return false;
+		}
+
+		if (outputs.size() > 1 && !transaction.getSender().equals(outputs.get(1).receiver)) {
+
+			return false;
+		}
+
+		for (TransactionOutput output : outputs) {
+
+			if (!transaction.transactionId.equals(output.parentTransactionId)
+					|| !new TransactionOutput(output.receiver, output.value, output.parentTransactionId).id
+							.equals(output.id)) {
+
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Amounts are exact, so inputs must equal outputs to the unit. Negative
+	 * outputs and sums which overflow never balance.
+	 *
+	 * @param spent
+	 *            the outputs spent, all unspent
+	 * @param outputs
+	 * @return boolean
+	 */
+	public static boolean valuesBalance(List<TransactionOutput> spent, List<TransactionOutput> outputs) {
+
+		long inputsValue = 0;
+
+		long outputsValue = 0;
+
+		try {
+
+			for (TransactionOutput output : spent) {
+
+				inputsValue = Amount.add(inputsValue, output.value);
+			}
+
+			for (TransactionOutput output : outputs) {
+
+				if (output.value < 0) {
+
+					return false;
+				}
+
+				outputsValue = Amount.add(outputsValue, output.value);
+			}
+		} catch (ArithmeticException e) {
+
+			return false;
+		}
+
+		return inputsValue == outputsValue;
+	}
+
+	/**
+	 * @param transaction
+	 * @param utxos
+	 * @return true if none of the outputs of the transaction is unspent yet
+	 */
+	public static boolean createsNewOutputs(Transaction transaction, UTXOStore utxos) {
+
+		for (TransactionOutput output : transaction.outputs) {
+
+			if (utxos.contains(output.id)) {
+
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,343 @@
+package org.anirudh.redquark.quarkchain.util;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Immutable 256 bit hash, the identifier of blocks, transactions and outputs.
+ *
+ * The bytes are held as four big endian longs, 48 bytes on the heap where the
+ * 64 digit hexadecimal string took over 100. The hash code is computed once,
+ * so a hash is a cheap map key, and equality and ordering compare four words
+ * instead of 64 characters. Ordering is the unsigned order of the bytes.
+ *
+ * Hexadecimal is only used at the edges, for display and for parsing ids
+ * typed in by people, through lookup tables.
+ */
+public final class Hash256 implements Comparable<Hash256> {
+
+	/**
+	 * Size of a hash in bytes
+	 */
+	public static final int SIZE = 32;
+
+	/**
+	 * The all-zero hash, which marks the missing parent of the genesis block and
+	 * the id of the genesis transaction
+	 */
+	public static final Hash256 ZERO = new Hash256(0, 0, 0, 0);
+
+	/**
+	 * Two lower case hexadecimal digits per byte value
+	 */
+	private static final char[] HEX_PAIRS = new char[512];
+
+	/**
+	 * Value of each hexadecimal digit by character, -1 for other characters
+	 */
+	private static final byte[] HEX_VALUES = new byte[128];
+
+	static {
+
+		char[] digits = "0123456789abcdef".toCharArray();
+
+		for (int i = 0; i < 256; i++) {
+
+			HEX_PAIRS[2 * i] = digits[i >>> 4];
+			HEX_PAIRS[2 * i + 1] = digits[i & 0xf];
+		}
+
+		Arrays.fill(HEX_VALUES, (byte) -1);
+
+		for (int i = 0; i < 16; i++) {
+
+			HEX_VALUES[digits[i]] = (byte) i;
+			HEX_VALUES[Character.toUpperCase(digits[i])] = (byte) i;
+		}
+	}
+
+	private final long word0;
+
+	private final long word1;
+
+	private final long word2;
+
+	private final long word3;
+
+	private final int hashCode;
+
+	private Hash256(long word0, long word1, long word2, long word3) {
+
+		this.word0 = word0;
+		this.word1 = word1;
+		this.word2 = word2;
+		this.word3 = word3;
+
+		/**
+		 * Digests are uniform, but hand made ids such as ZERO are not, so every
+		 * word contributes
+		 */
+		long mixed = word0 * 31 + word1;
+
+		mixed = mixed * 31 + word2;
+		mixed = mixed * 31 + word3;
+
+		this.hashCode = (int) (mixed ^ (mixed >>> 32));
+	}
+
+	/**
+	 * Reads a hash from 32 bytes
+	 *
+	 * @param bytes
+	 * @return {@link Hash256}
+	 */
+	public static Hash256 of(byte[] bytes) {
+
+		if (bytes.length != SIZE) {
+
+			throw new IllegalArgumentException("A hash has 32 bytes, not " + bytes.length);
+		}
+
+		return of(bytes, 0);
+	}
+
+	/**
+	 * Reads a hash from 32 bytes at an offset
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @return {@link Hash256}
+	 */
+	public static Hash256 of(byte[] bytes, int offset) {
+
+		return new Hash256(readLong(bytes, offset), readLong(bytes, offset + 8), readLong(bytes, offset + 16),
+				readLong(bytes, offset + 24));
+	}
+
+	/**
+	 * Reads a hash at the position of a buffer and moves past it
+	 *
+	 * @param buffer
+	 * @return {@link Hash256}
+	 */
+	public static Hash256 read(ByteBuffer buffer) {
+
+		return new Hash256(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+	}
+
+	/**
+	 * Finishes a digest into a hash
+	 *
+	 * @param digest
+	 * @return {@link Hash256}
+	 */
+	public static Hash256 digest(MessageDigest digest) {
+
+		return of(digest.digest(), 0);
+	}
+
+	/**
+	 * Returns the SHA-256 of data
+	 *
+	 * @param data
+	 * @return {@link Hash256}
+	 */
+	public static Hash256 sha256(byte[] data) {
+
+		return of(StringUtil.sha256().digest(data), 0);
+	}
+
+	/**
+	 * Parses up to 64 hexadecimal digits, in either case. Shorter strings are
+	 * right aligned, so "0" is {@link #ZERO}.
+	 *
+	 * @param hex
+	 * @return {@link Hash256}
+	 */
+	public static Hash256 fromHex(String hex) {
+
+		int length = hex.length();
+
+		if (length == 0 || length > 2 * SIZE) {
+
+			throw new IllegalArgumentException("Not a hexadecimal hash: " + hex);
+		}
+
+		long[] words = new long[4];
+
+		/**
+		 * Walk from the last digit, filling each word from its low bits
+		 */
+		for (int i = 0; i < length; i++) {
+
+			char c = hex.charAt(length - 1 - i);
+
+			int digit = c < 128 ? HEX_VALUES[c] : -1;
+
+			if (digit < 0) {
+
+				throw new IllegalArgumentException("Not a hexadecimal hash: " + hex);
+			}
+
+			words[3 - i / 16] |= (long) digit << (4 * (i % 16));
+		}
+
+		return new Hash256(words[0], words[1], words[2], words[3]);
+	}
+
+	/**
+	 * Writes the 32 bytes at an offset
+	 *
+	 * @param out
+	 * @param offset
+	 */
+	public void writeTo(byte[] out, int offset) {
+
+		writeLong(word0, out, offset);
+		writeLong(word1, out, offset + 8);
+		writeLong(word2, out, offset + 16);
+		writeLong(word3, out, offset + 24);
+	}
+
+	/**
+	 * Writes the 32 bytes at the position of a buffer and moves past them
+	 *
+	 * @param buffer
+	 */
+	public void writeTo(ByteBuffer buffer) {
+
+		buffer.putLong(word0).putLong(word1).putLong(word2).putLong(word3);
+	}
+
+	/**
+	 * @return a new array holding the 32 bytes
+	 */
+	public byte[] toBytes() {
+
+		byte[] bytes = new byte[SIZE];
+
+		writeTo(bytes, 0);
+
+		return bytes;
+	}
+
+	/**
+	 * Counts the zero bits at the start of the hash
+	 *
+	 * @return int
+	 */
+	public int leadingZeroBits() {
+
+		if (word0 != 0) {
+
+			return Long.numberOfLeadingZeros(word0);
+		}
+
+		if (word1 != 0) {
+
+			return 64 + Long.numberOfLeadingZeros(word1);
+		}
+
+		if (word2 != 0) {
+
+			return 128 + Long.numberOfLeadingZeros(word2);
+		}
+
+		return 192 + Long.numberOfLeadingZeros(word3);
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+
+		if (this == obj) {
+
+			return true;
+		}
+
+		if (!(obj instanceof Hash256)) {
+
+			return false;
+		}
+
+		Hash256 other = (Hash256) obj;
+
+		return hashCode == other.hashCode && word0 == other.word0 && word1 == other.word1 && word2 == other.word2
+				&& word3 == other.word3;
+	}
+
+	@Override
+	public int compareTo(Hash256 other) {
+
+		int compare = Long.compareUnsigned(word0, other.word0);
+
+		if (compare == 0) {
+
+			compare = Long.compareUnsigned(word1, other.word1);
+		}
+
+		if (compare == 0) {
+
+			compare = Long.compareUnsigned(word2, other.word2);
+		}
+
+		if (compare == 0) {
+
+			compare = Long.compareUnsigned(word3, other.word3);
+		}
+
+		return compare;
+	}
+
+	/**
+	 * @return the 64 lower case hexadecimal digits
+	 */
+	@Override
+	public String toString() {
+
+		char[] hex = new char[2 * SIZE];
+
+		appendHex(word0, hex, 0);
+		appendHex(word1, hex, 16);
+		appendHex(word2, hex, 32);
+		appendHex(word3, hex, 48);
+
+		return new String(hex);
+	}
+
+	private static void appendHex(long word, char[] hex, int offset) {
+
+		for (int i = 0; i < 8; i++) {
+
+			int pair = 2 * (int) ((word >>> (56 - 8 * i)) & 0xff);
+
+			hex[offset + 2 * i] = HEX_PAIRS[pair];
+			hex[offset + 2 * i + 1] = HEX_PAIRS[pair + 1];
+		}
+	}
+
+	private static long readLong(byte[] bytes, int offset) {
+
+		long value = 0;
+
+		for (int i = 0; i < 8; i++) {
+
+			value = (value << 8) | (bytes[offset + i] & 0xff);
+		}
+
+		return value;
+	}
+
+	private static void writeLong(long value, byte[] out, int offset) {
+
+		for (int i = 0; i < 8; i++) {
+
+			out[offset + i] = (byte) (value >>> (56 - 8 * i));
+		}
+	}
+}
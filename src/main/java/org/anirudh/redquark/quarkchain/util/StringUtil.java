@@ -1,15 +1,20 @@
 package org.anirudh.redquark.quarkchain.util;
 
 import java.security.Key;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.Signature;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import org.anirudh.redquark.quarkchain.App;
 import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.block.MerkleTree;
+import org.anirudh.redquark.quarkchain.crypto.CryptoService;
+import org.anirudh.redquark.quarkchain.mining.Target;
 import org.anirudh.redquark.quarkchain.transaction.Transaction;
 
 /**
@@ -17,6 +22,46 @@ import org.anirudh.redquark.quarkchain.transaction.Transaction;
  */
 public class StringUtil {
 
+	private static final Logger LOGGER = Logger.getLogger(StringUtil.class.getName());
+
+	/**
+	 * Lower case hexadecimal digits, indexed by nibble value
+	 */
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * One SHA-256 digest per thread, since getting a new instance for every hash
+	 * costs more than the hash itself for short inputs
+	 */
+	private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+
+		@Override
+		protected MessageDigest initialValue() {
+
+			try {
+
+				return MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	/**
+	 * Returns the SHA-256 digest of the calling thread, reset and ready for use
+	 * 
+	 * @return {@link MessageDigest}
+	 */
+	public static MessageDigest sha256() {
+
+		MessageDigest digest = SHA256.get();
+
+		digest.reset();
+
+		return digest;
+	}
+
 	/**
 	 * Apply SHA256 to a string and returns the result
 	 * 
@@ -25,33 +70,63 @@ public class StringUtil {
 	 */
 	public static String applySha256(String input) {
 
-		try {
-			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+		/**
+		 * Applying SHA-256 on our input
+		 */
+		byte[] hash = sha256().digest(input.getBytes(StandardCharsets.UTF_8));
 
-			/**
-			 * Applying SHA-256 on our input
-			 */
-			byte[] hash = messageDigest.digest(input.getBytes("UTF-8"));
+		return toHex(hash);
+	}
 
-			/**
-			 * This will contain hash as a hexadecimal
-			 */
-			StringBuffer hexHash = new StringBuffer();
+	/**
+	 * Encodes bytes as a lower case hexadecimal string
+	 * 
+	 * @param bytes
+	 * @return String
+	 */
+	public static String toHex(byte[] bytes) {
 
-			for (int i = 0; i < hash.length; i++) {
+		char[] hex = new char[bytes.length * 2];
 
-				String hex = Integer.toHexString(0xff & hash[i]);
+		for (int i = 0; i < bytes.length; i++) {
 
-				if (hex.length() == 1) {
-					hexHash.append('0');
-				}
-				hexHash.append(hex);
-			}
+			hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+			hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+		}
 
-			return hexHash.toString();
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+		return new String(hex);
+	}
+
+	/**
+	 * Counts the zero bits at the start of a raw hash
+	 * 
+	 * @param hash
+	 * @return int
+	 */
+	public static int leadingZeroBits(byte[] hash) {
+
+		for (int i = 0; i < hash.length; i++) {
+
+			if (hash[i] != 0) {
+
+				return i * 8 + Integer.numberOfLeadingZeros(hash[i] & 0xff) - 24;
+			}
 		}
+
+		return hash.length * 8;
+	}
+
+	/**
+	 * Checks if a raw hash starts with difficulty zero nibbles, which is the
+	 * same as its hexadecimal form starting with difficulty '0' characters
+	 * 
+	 * @param hash
+	 * @param difficulty
+	 * @return boolean
+	 */
+	public static boolean meetsDifficulty(byte[] hash, int difficulty) {
+
+		return leadingZeroBits(hash) >= difficulty * 4;
 	}
 
 	/**
@@ -74,14 +149,13 @@ public class StringUtil {
 
 			currentBlock = blockchain.get(i);
 			previousBlock = blockchain.get(i - 1);
-			String hashTarget = new String(new char[App.difficulty]).replace('\0', '0');
 
 			/**
 			 * Compare registered hash and the calculated hash
 			 */
 			if (!currentBlock.getHash().equals(currentBlock.calculateHash())) {
 
-				System.out.println("Current Hashes are not equal");
+				LOGGER.warning("Current Hashes are not equal");
 
 				return false;
 			}
@@ -91,16 +165,16 @@ public class StringUtil {
 			 */
 			if (!previousBlock.getHash().equals(previousBlock.calculateHash())) {
 
-				System.out.println("Previous hashes are not equal");
+				LOGGER.warning("Previous hashes are not equal");
 
 				return false;
 			}
 			/**
 			 * Check if hash is solved
 			 */
-			if (!currentBlock.getHash().substring(0, App.difficulty).equals(hashTarget)) {
+			if (!Target.fromCompact(currentBlock.getBits()).isMetBy(currentBlock.getHash())) {
 
-				System.out.println("This block hasn't been mined");
+				LOGGER.warning("This block hasn't been mined");
 
 				return false;
 			}
@@ -117,6 +191,14 @@ public class StringUtil {
 	 */
 	public static String getStringFromKey(Key key) {
 
+		/**
+		 * Public keys are encoded once and cached
+		 */
+		if (key instanceof PublicKey) {
+
+			return CryptoService.getAddress((PublicKey) key);
+		}
+
 		/**
 		 * Encoded using the basic Base64 algorithm
 		 */
@@ -132,30 +214,7 @@ public class StringUtil {
 	 */
 	public static byte[] applyECDSASignature(PrivateKey key, String input) {
 
-		Signature dsa;
-
-		byte[] output = new byte[0];
-
-		try {
-
-			dsa = Signature.getInstance("ECDSA", "BC");
-
-			dsa.initSign(key);
-
-			byte[] strByte = input.getBytes();
-
-			dsa.update(strByte);
-
-			byte[] realSignature = dsa.sign();
-
-			output = realSignature;
-
-		} catch (Exception e) {
-
-			throw new RuntimeException();
-		}
-
-		return output;
+		return CryptoService.sign(key, input.getBytes());
 	}
 
 	/**
@@ -170,18 +229,12 @@ public class StringUtil {
 
 		try {
 
-			Signature ecdsaVerify = Signature.getInstance("ECDSA", "BC");
-
-			ecdsaVerify.initVerify(key);
-
-			ecdsaVerify.update(data.getBytes());
-
-			return ecdsaVerify.verify(signature);
+			return CryptoService.verify(key, data.getBytes(), signature);
 
 		} catch (Exception e) {
 
-			e.printStackTrace();
-			
+			LOGGER.log(Level.WARNING, "Signature could not be verified", e);
+
 			return false;
 		}
 	}
@@ -190,38 +243,11 @@ public class StringUtil {
 	 * Tacks in array of transactions and returns a merkle root.
 	 * 
 	 * @param transactions
-	 * @return String
+	 * @return {@link Hash256}
 	 */
-	public static String getMerkleRoot(ArrayList<Transaction> transactions) {
-
-		int count = transactions.size();
-
-		ArrayList<String> previousTreeLayer = new ArrayList<>();
-
-		for (Transaction transaction : transactions) {
-
-			previousTreeLayer.add(transaction.getTransactionId());
-		}
-
-		ArrayList<String> treeLayer = previousTreeLayer;
-
-		while (count > 1) {
-
-			treeLayer = new ArrayList<>();
-
-			for (int i = 1; i < previousTreeLayer.size(); i++) {
-
-				treeLayer.add(applySha256(previousTreeLayer.get(i - 1) + previousTreeLayer.get(i)));
-			}
-
-			count = treeLayer.size();
-
-			previousTreeLayer = treeLayer;
-		}
-
-		String merkleRoot = (treeLayer.size()) == 1 ? treeLayer.get(0) : "";
+	public static Hash256 getMerkleRoot(ArrayList<Transaction> transactions) {
 
-		return merkleRoot;
+		return MerkleTree.of(transactions).getRootHash();
 	}
 
 	/**
@@ -0,0 +1,307 @@
+package org.anirudh.redquark.quarkchain.utxo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.PublicKey;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.anirudh.redquark.quarkchain.crypto.CryptoService;
+
+/**
+ * UTXO storage engine for sets larger than the heap.
+ *
+ * The {@link OutputTable} lives in a memory mapped file, so the operating
+ * system pages the outputs in and out and they survive a restart. When the
+ * table grows it is rewritten into a new file which then atomically replaces
+ * the old one. A separate file lists every owner key once, so outputs can be
+ * rebuilt with their {@link PublicKey}.
+ *
+ * Changes are written in place, and the operating system may write any page
+ * of the mapping back at any time. {@link #sync()} and {@link #close()} are
+ * the commit points: they force the outputs to disk and then seal the table
+ * with a checksum of its slots. A table which is not sealed when it is opened
+ * again, because the node stopped between two commits or a page was lost, is
+ * discarded: the store opens empty and {@link #needsRebuild()} tells the
+ * caller to replay the chain into it.
+ *
+ * The heap holds the hot cache, and one key and one balance per owner, so
+ * memory grows with the number of owners rather than outputs. Listing the
+ * outputs of an owner scans the whole table; wallets keep their own outputs
+ * from the chain events instead.
+ */
+public class DiskUTXOStore extends OffHeapUTXOStore implements Closeable {
+
+	private static final String TABLE_FILE = "utxo.dat";
+
+	private static final String OWNERS_FILE = "owners.dat";
+
+	private static final Logger LOGGER = Logger.getLogger(DiskUTXOStore.class.getName());
+
+	private final Path directory;
+
+	/**
+	 * Channel of the table file
+	 */
+	private FileChannel tableChannel;
+
+	/**
+	 * Channel of the owner keys file
+	 */
+	private final FileChannel ownersChannel;
+
+	/**
+	 * Whether an unsealed table was discarded on open
+	 */
+	private boolean needsRebuild;
+
+	private DiskUTXOStore(Path directory, int cacheSize) throws IOException {
+
+		super(cacheSize);
+
+		this.directory = directory;
+
+		this.ownersChannel = FileChannel.open(directory.resolve(OWNERS_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Opens the store in the directory, creating it if needed
+	 *
+	 * @param directory
+	 * @param cacheSize
+	 *            number of outputs kept in memory
+	 * @return {@link DiskUTXOStore}
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             if the table file is not a table of this version
+	 */
+	public static DiskUTXOStore open(Path directory, int cacheSize) throws IOException {
+
+		Files.createDirectories(directory);
+
+		DiskUTXOStore store = new DiskUTXOStore(directory, cacheSize);
+
+		try {
+
+			store.loadOwners();
+			store.loadTable();
+		} catch (IOException | RuntimeException e) {
+
+			store.ownersChannel.close();
+
+			if (store.tableChannel != null) {
+
+				store.tableChannel.close();
+			}
+
+			throw e;
+		}
+
+		return store;
+	}
+
+	/**
+	 * Reads the owner keys file: a 2 byte length followed by the encoded key, for
+	 * each owner
+	 */
+	private void loadOwners() throws IOException {
+
+		ByteBuffer file = ByteBuffer.allocate((int) ownersChannel.size());
+
+		readFully(ownersChannel, file, 0);
+
+		file.flip();
+
+		while (file.remaining() >= 2) {
+
+			byte[] encoded = new byte[file.getShort() & 0xffff];
+
+			if (file.remaining() < encoded.length) {
+
+				/**
+				 * Key cut short by a crash, it is written again when next seen
+				 */
+				ownersChannel.truncate(file.position() - 2);
+
+				break;
+			}
+
+			file.get(encoded);
+
+			addOwner(CryptoService.decodePublicKey(encoded));
+		}
+	}
+
+	private void loadTable() throws IOException {
+
+		tableChannel = FileChannel.open(directory.resolve(TABLE_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		long size = tableChannel.size();
+
+		if (size > 0) {
+
+			OutputTable table = new OutputTable(tableChannel.map(FileChannel.MapMode.READ_WRITE, 0, size),
+					new FileStorage());
+
+			if (table.isSealed()) {
+
+				setTable(table);
+
+				return;
+			}
+
+			if (LOGGER.isLoggable(Level.WARNING)) {
+
+				LOGGER.warning("UTXO table in " + directory + " was not closed cleanly, discarding it");
+			}
+
+			needsRebuild = true;
+
+			tableChannel.truncate(0);
+		}
+
+		MappedByteBuffer table = tableChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+				OutputTable.bufferSize(INITIAL_CAPACITY));
+
+		setTable(new OutputTable(table, new FileStorage()));
+	}
+
+	/**
+	 * Returns true if the table found on open was not sealed and was discarded.
+	 * The store is then empty, and the caller rebuilds it from the blocks.
+	 *
+	 * @return boolean
+	 */
+	public boolean needsRebuild() {
+		return needsRebuild;
+	}
+
+	/**
+	 * Writes the key to the owners file
+	 */
+	@Override
+	protected void ownerAdded(PublicKey owner) {
+
+		byte[] encoded = CryptoService.getEncoded(owner);
+
+		ByteBuffer record = ByteBuffer.allocate(2 + encoded.length);
+
+		record.putShort((short) encoded.length).put(encoded).flip();
+
+		try {
+
+			writeFully(ownersChannel, record, ownersChannel.size());
+		} catch (IOException e) {
+
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Flushes the owner keys and the table to disk, then seals the table. Sealing
+	 * reads the whole table to compute its checksum.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+
+		ownersChannel.force(false);
+
+		MappedByteBuffer table = (MappedByteBuffer) getTable().buffer();
+
+		table.force();
+
+		getTable().seal();
+
+		table.force();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+
+		sync();
+
+		tableChannel.close();
+
+		ownersChannel.close();
+	}
+
+	/**
+	 * Grows the table into a new file, which replaces the table file once it is
+	 * complete
+	 */
+	private class FileStorage implements OutputTable.Storage {
+
+		private FileChannel newChannel;
+
+		@Override
+		public ByteBuffer allocate(int slots) {
+
+			Path newFile = directory.resolve(TABLE_FILE + ".tmp");
+
+			try {
+
+				Files.deleteIfExists(newFile);
+
+				newChannel = FileChannel.open(newFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+						StandardOpenOption.WRITE);
+
+				return newChannel.map(FileChannel.MapMode.READ_WRITE, 0, OutputTable.bufferSize(slots));
+			} catch (IOException e) {
+
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public void replaced(ByteBuffer oldTable, ByteBuffer newTable) {
+
+			try {
+
+				((MappedByteBuffer) newTable).force();
+
+				tableChannel.close();
+
+				Files.move(directory.resolve(TABLE_FILE + ".tmp"), directory.resolve(TABLE_FILE),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+				tableChannel = newChannel;
+			} catch (IOException e) {
+
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+
+		while (buffer.hasRemaining()) {
+
+			int read = channel.read(buffer, position);
+
+			if (read < 0) {
+
+				throw new IOException("Unexpected end of file");
+			}
+
+			position += read;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+
+		while (buffer.hasRemaining()) {
+
+			position += channel.write(buffer, position);
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package org.anirudh.redquark.quarkchain.utxo;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.anirudh.redquark.quarkchain.crypto.CryptoService;
+import org.anirudh.redquark.quarkchain.metrics.NodeMetrics;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+
+/**
+ * UTXO store keeping the outputs in an {@link OutputTable} off the heap.
+ *
+ * An output costs a 112 byte slot outside the heap instead of a map entry, a
+ * key string and a {@link TransactionOutput} on it, so the garbage collector
+ * has nothing to trace however many outputs there are. Outputs are rebuilt on
+ * the way out; a bounded LRU cache keeps the recently used ones so that the
+ * lookups of a block, which usually hit outputs created shortly before, do
+ * not rebuild them over and over.
+ *
+ * Only the owner keys and one running balance per owner are held on the
+ * heap. Listing the outputs of an owner scans the table. All methods are
+ * synchronized.
+ */
+public class OffHeapUTXOStore implements UTXOStore {
+
+	/**
+	 * Default number of outputs kept in the hot cache
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 65536;
+
+	/**
+	 * Default number of slots of a new table
+	 */
+	public static final int INITIAL_CAPACITY = 1024;
+
+	private OutputTable table;
+
+	/**
+	 * Owner keys and balances, by owner key hash
+	 */
+	private final HashMap<ByteBuffer, PublicKey> owners = new HashMap<>();
+
+	private final HashMap<ByteBuffer, Long> balances = new HashMap<>();
+
+	/**
+	 * Recently used outputs, least recently used first
+	 */
+	private final LinkedHashMap<Hash256, TransactionOutput> cache;
+
+	/**
+	 * Reused buffers for output ids
+	 */
+	private final byte[] key = new byte[32];
+
+	private final byte[] parent = new byte[32];
+
+	/**
+	 * @param capacity
+	 *            initial number of slots, a power of two
+	 * @param cacheSize
+	 *            number of outputs kept on the heap
+	 */
+	public OffHeapUTXOStore(int capacity, int cacheSize) {
+
+		this(cacheSize);
+
+		setTable(OutputTable.allocateDirect(capacity));
+	}
+
+	public OffHeapUTXOStore() {
+
+		this(INITIAL_CAPACITY, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * For stores which set their table once they have loaded their owners
+	 */
+	protected OffHeapUTXOStore(final int cacheSize) {
+
+		this.cache = new LinkedHashMap<Hash256, TransactionOutput>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Hash256, TransactionOutput> eldest) {
+
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Sets the table and adds up the balances of the outputs already in it. The
+	 * owners of these outputs must be known.
+	 *
+	 * @param table
+	 */
+	protected void setTable(OutputTable table) {
+
+		this.table = table;
+
+		byte[] ownerHash = new byte[32];
+
+		for (int slot = 0; slot < table.capacity(); slot++) {
+
+			if (table.isUsed(slot)) {
+
+				table.getOwner(slot, ownerHash);
+
+				addBalance(ByteBuffer.wrap(ownerHash.clone()), table.getValue(slot));
+			}
+		}
+	}
+
+	/**
+	 * @return the table
+	 */
+	protected OutputTable getTable() {
+		return table;
+	}
+
+	/**
+	 * Makes an owner known without calling {@link #ownerAdded(PublicKey)}
+	 *
+	 * @param owner
+	 */
+	protected void addOwner(PublicKey owner) {
+
+		owners.put(ByteBuffer.wrap(CryptoService.getKeyHash(owner)), owner);
+	}
+
+	/**
+	 * Called the first time an output of an owner is put
+	 *
+	 * @param owner
+	 */
+	protected void ownerAdded(PublicKey owner) {
+	}
+
+	@Override
+	public synchronized void put(TransactionOutput output) {
+
+		output.id.writeTo(key, 0);
+
+		byte[] ownerHash = registerOwner(output.receiver);
+
+		int slot = table.find(key);
+
+		if (slot >= 0) {
+
+			addBalance(ownerAt(slot), -table.getValue(slot));
+		}
+
+		output.parentTransactionId.writeTo(parent, 0);
+
+		table.put(key, ownerHash, parent, output.value);
+
+		addBalance(ByteBuffer.wrap(ownerHash), output.value);
+
+		cache.put(output.id, output);
+	}
+
+	@Override
+	public synchronized TransactionOutput get(Hash256 id) {
+
+		NodeMetrics.get().utxoLookups.increment();
+
+		TransactionOutput output = cache.get(id);
+
+		if (output != null) {
+
+			return output;
+		}
+
+		id.writeTo(key, 0);
+
+		int slot = table.find(key);
+
+		if (slot < 0) {
+
+			return null;
+		}
+
+		output = readSlot(slot, id);
+
+		cache.put(id, output);
+
+		return output;
+	}
+
+	@Override
+	public synchronized boolean contains(Hash256 id) {
+
+		if (cache.containsKey(id)) {
+
+			return true;
+		}
+
+		id.writeTo(key, 0);
+
+		return table.find(key) >= 0;
+	}
+
+	@Override
+	public synchronized TransactionOutput remove(Hash256 id) {
+
+		id.writeTo(key, 0);
+
+		int slot = table.find(key);
+
+		if (slot < 0) {
+
+			return null;
+		}
+
+		TransactionOutput output = cache.remove(id);
+
+		if (output == null) {
+
+			output = readSlot(slot, id);
+		}
+
+		addBalance(ownerAt(slot), -output.value);
+
+		table.removeAt(slot);
+
+		return output;
+	}
+
+	@Override
+	public synchronized int size() {
+
+		return table.size();
+	}
+
+	/**
+	 * Returns the unspent outputs owned by a key. This scans the whole table.
+	 *
+	 * @param owner
+	 * @return Collection
+	 */
+	@Override
+	public synchronized Collection<TransactionOutput> getOutputs(PublicKey owner) {
+
+		List<TransactionOutput> outputs = new ArrayList<>();
+
+		byte[] ownerHash = CryptoService.getKeyHash(owner);
+
+		byte[] id = new byte[32];
+
+		for (int slot = 0; slot < table.capacity(); slot++) {
+
+			if (table.isUsed(slot) && table.isOwnedBy(slot, ownerHash)) {
+
+				table.getKey(slot, id);
+
+				outputs.add(readSlot(slot, Hash256.of(id)));
+			}
+		}
+
+		return outputs;
+	}
+
+	@Override
+	public synchronized long getBalance(PublicKey owner) {
+
+		Long balance = balances.get(ByteBuffer.wrap(CryptoService.getKeyHash(owner)));
+
+		return balance == null ? 0 : balance;
+	}
+
+	/**
+	 * Returns the hash of the owner key, registering the owner the first time it
+	 * is seen
+	 */
+	private byte[] registerOwner(PublicKey owner) {
+
+		byte[] ownerHash = CryptoService.getKeyHash(owner);
+
+		ByteBuffer name = ByteBuffer.wrap(ownerHash);
+
+		if (!owners.containsKey(name)) {
+
+			ownerAdded(owner);
+
+			owners.put(name, owner);
+		}
+
+		return ownerHash;
+	}
+
+	private TransactionOutput readSlot(int slot, Hash256 id) {
+
+		table.getParent(slot, parent);
+
+		return new TransactionOutput(id, owners.get(ownerAt(slot)), table.getValue(slot),
+				Hash256.of(parent));
+	}
+
+	private ByteBuffer ownerAt(int slot) {
+
+		byte[] ownerHash = new byte[32];
+
+		table.getOwner(slot, ownerHash);
+
+		return ByteBuffer.wrap(ownerHash);
+	}
+
+	private void addBalance(ByteBuffer owner, long value) {
+
+		Long balance = balances.get(owner);
+
+		long updated = Amount.add(balance == null ? 0 : balance, value);
+
+		if (updated == 0) {
+
+			balances.remove(owner);
+		} else {
+
+			balances.put(owner, updated);
+		}
+	}
+}
@@ -0,0 +1,573 @@
+package org.anirudh.redquark.quarkchain.utxo;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Open addressing hash table of unspent outputs, keyed by the raw 32 byte
+ * output id and stored in a {@link ByteBuffer}, usually direct or memory
+ * mapped so the entries stay off the heap.
+ *
+ * The buffer starts with a header of {@link #HEADER_SIZE} bytes:
+ *
+ * - magic (4), {@link #MAGIC}
+ * - format version (4), {@link #VERSION}
+ * - sealed (4), 1 once {@link #seal()} wrote the checksum, cleared again by
+ * the first change after it
+ * - reserved (4)
+ * - checksum (8), CRC32 of the slots when sealed
+ * - reserved (40), zero
+ *
+ * A zeroed buffer is a new table and gets the header written; any other
+ * header must match, so a file of another format is refused rather than read
+ * as slots. The seal tells a table whose slots were all written before it
+ * from one changed since, or cut short: see {@link #isSealed()}.
+ *
+ * The header is followed by the slots, each {@link #SLOT_SIZE} bytes wide:
+ *
+ * - output id (32), at {@link #KEY_OFFSET} 0
+ * - value (8), at {@link #VALUE_OFFSET} 32, in units of
+ * {@link org.anirudh.redquark.quarkchain.transaction.Amount}
+ * - state (1), at {@link #STATE_OFFSET} 40: empty, used or deleted
+ * - padding (7)
+ * - owner key hash (32), at {@link #OWNER_OFFSET} 48, the SHA-256 of the
+ * owner's encoded public key
+ * - parent transaction id (32), at {@link #PARENT_OFFSET} 80
+ *
+ * Every field starts on an 8 byte boundary, so ids are compared and values
+ * read as longs. Slots are found by linear probing from the first 8 bytes of
+ * the id, which are already uniformly distributed since ids are hashes. A
+ * lookup touches one or two adjacent slots and allocates nothing.
+ *
+ * The table grows when three quarters of its slots are used or deleted. Where
+ * the new buffer comes from, and what happens to the old one, is decided by
+ * its {@link Storage}. A table is not thread safe.
+ */
+public class OutputTable {
+
+	/**
+	 * "QUTX"
+	 */
+	public static final int MAGIC = 0x51555458;
+
+	public static final int VERSION = 1;
+
+	public static final int HEADER_SIZE = 64;
+
+	private static final int SEALED_OFFSET = 8;
+
+	private static final int CHECKSUM_OFFSET = 16;
+
+	public static final int SLOT_SIZE = 112;
+
+	public static final int KEY_OFFSET = 0;
+
+	public static final int VALUE_OFFSET = 32;
+
+	public static final int STATE_OFFSET = 40;
+
+	public static final int OWNER_OFFSET = 48;
+
+	public static final int PARENT_OFFSET = 80;
+
+	private static final byte EMPTY = 0;
+
+	private static final byte USED = 1;
+
+	private static final byte DELETED = 2;
+
+	/**
+	 * A single buffer is limited to 2 GiB
+	 */
+	public static final int MAX_CAPACITY = Integer.highestOneBit((Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE);
+
+	/**
+	 * Provides the buffers of a table
+	 */
+	public interface Storage {
+
+		/**
+		 * Returns a zeroed buffer of {@link OutputTable#bufferSize(int)} bytes
+		 *
+		 * @param slots
+		 * @return ByteBuffer
+		 */
+		ByteBuffer allocate(int slots);
+
+		/**
+		 * Called once the entries of the old buffer were moved into the new one
+		 *
+		 * @param oldTable
+		 * @param newTable
+		 */
+		void replaced(ByteBuffer oldTable, ByteBuffer newTable);
+	}
+
+	/**
+	 * Storage in direct buffers, released by the garbage collector
+	 */
+	public static final Storage DIRECT = new Storage() {
+
+		@Override
+		public ByteBuffer allocate(int slots) {
+
+			return ByteBuffer.allocateDirect((int) bufferSize(slots));
+		}
+
+		@Override
+		public void replaced(ByteBuffer oldTable, ByteBuffer newTable) {
+		}
+	};
+
+	private final Storage storage;
+
+	private ByteBuffer table;
+
+	/**
+	 * Number of slots, a power of two
+	 */
+	private int capacity;
+
+	/**
+	 * Number of used and deleted slots
+	 */
+	private int used;
+
+	private int deleted;
+
+	/**
+	 * Whether the header is marked sealed
+	 */
+	private boolean sealed;
+
+	/**
+	 * Opens a table over a buffer which may already hold entries
+	 *
+	 * @param table
+	 *            a zeroed buffer or a table written by this version, of
+	 *            {@link #bufferSize(int)} bytes for a power of two number of
+	 *            slots
+	 * @param storage
+	 * @throws IllegalArgumentException
+	 *             if the buffer has the wrong size or holds another format
+	 */
+	public OutputTable(ByteBuffer table, Storage storage) {
+
+		this.storage = storage;
+		this.table = table;
+		this.capacity = (table.capacity() - HEADER_SIZE) / SLOT_SIZE;
+
+		if (table.capacity() != bufferSize(capacity) || Integer.bitCount(capacity) != 1) {
+
+			throw new IllegalArgumentException("Table capacity must be a power of two, was " + table.capacity()
+					+ " bytes");
+		}
+
+		checkHeader(table);
+
+		this.sealed = table.getInt(SEALED_OFFSET) == 1;
+
+		for (int slot = 0; slot < capacity; slot++) {
+
+			byte state = stateAt(slot);
+
+			if (state == USED) {
+
+				used++;
+			} else if (state == DELETED) {
+
+				deleted++;
+			}
+		}
+	}
+
+	/**
+	 * @param slots
+	 * @return the size in bytes of the buffer of a table, header included
+	 */
+	public static long bufferSize(int slots) {
+
+		return HEADER_SIZE + (long) slots * SLOT_SIZE;
+	}
+
+	/**
+	 * Writes the header of a zeroed buffer, or checks the header already there
+	 */
+	private static void checkHeader(ByteBuffer table) {
+
+		int magic = table.getInt(0);
+		int version = table.getInt(4);
+
+		if (magic == 0 && version == 0) {
+
+			table.putInt(0, MAGIC);
+			table.putInt(4, VERSION);
+		} else if (magic != MAGIC) {
+
+			throw new IllegalArgumentException("Not a UTXO table, magic was " + Integer.toHexString(magic));
+		} else if (version != VERSION) {
+
+			throw new IllegalArgumentException("Unsupported UTXO table version " + version);
+		}
+	}
+
+	/**
+	 * Creates an empty table in direct memory
+	 *
+	 * @param capacity
+	 *            initial number of slots, a power of two
+	 * @return {@link OutputTable}
+	 */
+	public static OutputTable allocateDirect(int capacity) {
+
+		return new OutputTable(DIRECT.allocate(capacity), DIRECT);
+	}
+
+	/**
+	 * Returns the slot holding the key, or -1
+	 *
+	 * @param key
+	 * @return int
+	 */
+	public int find(byte[] key) {
+
+		long k0 = getLong(key, 0);
+		long k1 = getLong(key, 8);
+		long k2 = getLong(key, 16);
+		long k3 = getLong(key, 24);
+
+		int mask = capacity - 1;
+
+		for (int slot = hash(k0) & mask;; slot = (slot + 1) & mask) {
+
+			byte state = stateAt(slot);
+
+			if (state == EMPTY) {
+
+				return -1;
+			}
+
+			int base = base(slot);
+
+			if (state == USED && table.getLong(base) == k0 && table.getLong(base + 8) == k1
+					&& table.getLong(base + 16) == k2 && table.getLong(base + 24) == k3) {
+
+				return slot;
+			}
+		}
+	}
+
+	/**
+	 * Inserts an entry, or overwrites the entry with the same key
+	 *
+	 * @param key
+	 * @param ownerHash
+	 * @param parent
+	 * @param value
+	 * @return the slot of the entry
+	 */
+	public int put(byte[] key, byte[] ownerHash, byte[] parent, long value) {
+
+		unseal();
+
+		int slot = find(key);
+
+		if (slot < 0) {
+
+			if (used + deleted + 1 > capacity / 4 * 3) {
+
+				grow();
+			}
+
+			slot = freeSlot(getLong(key, 0));
+
+			if (stateAt(slot) == DELETED) {
+
+				deleted--;
+			}
+
+			used++;
+		}
+
+		int base = base(slot);
+
+		putBytes(base + KEY_OFFSET, key);
+		putBytes(base + OWNER_OFFSET, ownerHash);
+		putBytes(base + PARENT_OFFSET, parent);
+
+		table.putLong(base + VALUE_OFFSET, value);
+		table.put(base + STATE_OFFSET, USED);
+
+		return slot;
+	}
+
+	/**
+	 * Marks a used slot as deleted
+	 *
+	 * @param slot
+	 */
+	public void removeAt(int slot) {
+
+		unseal();
+
+		table.put(base(slot) + STATE_OFFSET, DELETED);
+
+		used--;
+		deleted++;
+	}
+
+	/**
+	 * @param slot
+	 * @return true if the slot holds an entry
+	 */
+	public boolean isUsed(int slot) {
+
+		return stateAt(slot) == USED;
+	}
+
+	/**
+	 * @param slot
+	 * @return the value of the entry in the slot
+	 */
+	public long getValue(int slot) {
+
+		return table.getLong(base(slot) + VALUE_OFFSET);
+	}
+
+	/**
+	 * Copies the output id of the entry in the slot into out
+	 *
+	 * @param slot
+	 * @param out
+	 */
+	public void getKey(int slot, byte[] out) {
+
+		getBytes(base(slot) + KEY_OFFSET, out);
+	}
+
+	/**
+	 * Copies the owner key hash of the entry in the slot into out
+	 *
+	 * @param slot
+	 * @param out
+	 */
+	public void getOwner(int slot, byte[] out) {
+
+		getBytes(base(slot) + OWNER_OFFSET, out);
+	}
+
+	/**
+	 * Copies the parent transaction id of the entry in the slot into out
+	 *
+	 * @param slot
+	 * @param out
+	 */
+	public void getParent(int slot, byte[] out) {
+
+		getBytes(base(slot) + PARENT_OFFSET, out);
+	}
+
+	/**
+	 * @param slot
+	 * @param ownerHash
+	 * @return true if the entry in the slot belongs to the owner
+	 */
+	public boolean isOwnedBy(int slot, byte[] ownerHash) {
+
+		int base = base(slot) + OWNER_OFFSET;
+
+		for (int i = 0; i < 32; i += 8) {
+
+			if (table.getLong(base + i) != getLong(ownerHash, i)) {
+
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Marks the table sealed, with the checksum of its slots. The caller makes
+	 * the slots durable before, and the header after.
+	 */
+	public void seal() {
+
+		table.putLong(CHECKSUM_OFFSET, checksum());
+		table.putInt(SEALED_OFFSET, 1);
+
+		sealed = true;
+	}
+
+	/**
+	 * Returns true if the table was not changed since it was sealed: the header
+	 * is marked sealed and the slots match its checksum. This reads every slot.
+	 *
+	 * @return boolean
+	 */
+	public boolean isSealed() {
+
+		return sealed && table.getLong(CHECKSUM_OFFSET) == checksum();
+	}
+
+	/**
+	 * Clears the seal before the first change after it
+	 */
+	private void unseal() {
+
+		if (sealed) {
+
+			table.putInt(SEALED_OFFSET, 0);
+
+			sealed = false;
+		}
+	}
+
+	private long checksum() {
+
+		CRC32 crc = new CRC32();
+
+		ByteBuffer slots = table.duplicate();
+
+		slots.clear().position(HEADER_SIZE);
+
+		crc.update(slots);
+
+		return crc.getValue();
+	}
+
+	/**
+	 * @return the number of entries
+	 */
+	public int size() {
+		return used;
+	}
+
+	/**
+	 * @return the number of slots
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the buffer currently holding the table
+	 */
+	public ByteBuffer buffer() {
+		return table;
+	}
+
+	/**
+	 * Moves the entries into a new buffer, doubling it if more than half of it is
+	 * in use and dropping the deleted slots
+	 */
+	private void grow() {
+
+		int newCapacity = used + 1 > capacity / 2 ? capacity * 2 : capacity;
+
+		if (newCapacity > MAX_CAPACITY) {
+
+			throw new IllegalStateException("UTXO table cannot grow beyond " + MAX_CAPACITY + " slots");
+		}
+
+		ByteBuffer oldTable = table;
+		int oldCapacity = capacity;
+
+		table = storage.allocate(newCapacity);
+		capacity = newCapacity;
+
+		checkHeader(table);
+		deleted = 0;
+
+		ByteBuffer source = oldTable.duplicate();
+		ByteBuffer target = table.duplicate();
+
+		for (int slot = 0; slot < oldCapacity; slot++) {
+
+			int base = base(slot);
+
+			if (oldTable.get(base + STATE_OFFSET) != USED) {
+
+				continue;
+			}
+
+			source.limit(base + SLOT_SIZE).position(base);
+
+			target.position(base(freeSlot(oldTable.getLong(base))));
+			target.put(source);
+		}
+
+		storage.replaced(oldTable, table);
+	}
+
+	/**
+	 * Returns the first empty or deleted slot on the probe path of a key which is
+	 * not in the table
+	 */
+	private int freeSlot(long k0) {
+
+		int mask = capacity - 1;
+
+		for (int slot = hash(k0) & mask;; slot = (slot + 1) & mask) {
+
+			if (stateAt(slot) != USED) {
+
+				return slot;
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of the first byte of a slot
+	 */
+	private static int base(int slot) {
+
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+
+	private byte stateAt(int slot) {
+
+		return table.get(base(slot) + STATE_OFFSET);
+	}
+
+	private void putBytes(int index, byte[] bytes) {
+
+		for (int i = 0; i < 32; i += 8) {
+
+			table.putLong(index + i, getLong(bytes, i));
+		}
+	}
+
+	private void getBytes(int index, byte[] out) {
+
+		for (int i = 0; i < 32; i += 8) {
+
+			long word = table.getLong(index + i);
+
+			for (int b = 0; b < 8; b++) {
+
+				out[i + b] = (byte) (word >>> (56 - 8 * b));
+			}
+		}
+	}
+
+	private static long getLong(byte[] bytes, int offset) {
+
+		long word = 0;
+
+		for (int b = 0; b < 8; b++) {
+
+			word = (word << 8) | (bytes[offset + b] & 0xff);
+		}
+
+		return word;
+	}
+
+	/**
+	 * Spreads the high bits into the low bits used by the mask
+	 */
+	private static int hash(long first) {
+
+		return (int) (first ^ (first >>> 32));
+	}
+}
@@ -0,0 +1,226 @@
+package org.anirudh.redquark.quarkchain.utxo;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.anirudh.redquark.quarkchain.crypto.CryptoService;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+
+/**
+ * Pending changes on top of another UTXO store.
+ *
+ * Reads see the base store with the pending changes applied, writes only go to
+ * the overlay. A block collects the effect of its transactions in an overlay
+ * while it is built and mined, and the overlay is committed to the chain's
+ * UTXOs once the block is connected.
+ *
+ * An overlay is not thread safe.
+ */
+public class OverlayUTXOStore implements UTXOStore {
+
+	/**
+	 * Store the changes are applied to
+	 */
+	private final UTXOStore base;
+
+	/**
+	 * Outputs created in the overlay
+	 */
+	private final HashMap<Hash256, TransactionOutput> added = new HashMap<>();
+
+	/**
+	 * Outputs of the base store spent in the overlay
+	 */
+	private final HashMap<Hash256, TransactionOutput> removed = new HashMap<>();
+
+	/**
+	 * @param base
+	 */
+	public OverlayUTXOStore(UTXOStore base) {
+
+		this.base = base;
+	}
+
+	/**
+	 * @return the base
+	 */
+	public UTXOStore getBase() {
+		return base;
+	}
+
+	@Override
+	public void put(TransactionOutput output) {
+
+		added.put(output.id, output);
+	}
+
+	@Override
+	public TransactionOutput get(Hash256 id) {
+
+		TransactionOutput output = added.get(id);
+
+		if (output != null) {
+
+			return output;
+		}
+
+		return removed.containsKey(id) ? null : base.get(id);
+	}
+
+	@Override
+	public boolean contains(Hash256 id) {
+
+		return get(id) != null;
+	}
+
+	@Override
+	public TransactionOutput remove(Hash256 id) {
+
+		TransactionOutput output = added.remove(id);
+
+		if (output != null) {
+
+			return output;
+		}
+
+		if (removed.containsKey(id)) {
+
+			return null;
+		}
+
+		output = base.get(id);
+
+		if (output != null) {
+
+			removed.put(id, output);
+		}
+
+		return output;
+	}
+
+	@Override
+	public int size() {
+
+		return base.size() - removed.size() + added.size();
+	}
+
+	@Override
+	public Collection<TransactionOutput> getOutputs(PublicKey owner) {
+
+		List<TransactionOutput> outputs = new ArrayList<>();
+
+		for (TransactionOutput output : base.getOutputs(owner)) {
+
+			if (!removed.containsKey(output.id)) {
+
+				outputs.add(output);
+			}
+		}
+
+		for (TransactionOutput output : added.values()) {
+
+			if (isOwnedBy(output, owner)) {
+
+				outputs.add(output);
+			}
+		}
+
+		return outputs;
+	}
+
+	@Override
+	public long getBalance(PublicKey owner) {
+
+		long balance = base.getBalance(owner);
+
+		for (TransactionOutput output : removed.values()) {
+
+			if (isOwnedBy(output, owner)) {
+
+				balance = Amount.subtract(balance, output.value);
+			}
+		}
+
+		for (TransactionOutput output : added.values()) {
+
+			if (isOwnedBy(output, owner)) {
+
+				balance = Amount.add(balance, output.value);
+			}
+		}
+
+		return balance;
+	}
+
+	/**
+	 * @return true if the overlay holds no change
+	 */
+	public boolean isEmpty() {
+
+		return added.isEmpty() && removed.isEmpty();
+	}
+
+	/**
+	 * Checks that every output spent in the overlay is still unspent in the base
+	 * store. This fails when another block spent one of them in the meantime.
+	 *
+	 * @return boolean
+	 */
+	public boolean canCommit() {
+
+		for (Hash256 id : removed.keySet()) {
+
+			if (!base.contains(id)) {
+
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Applies the pending changes to the base store and clears the overlay
+	 *
+	 * @throws IllegalStateException
+	 *             if a spent output is no longer in the base store
+	 */
+	public void commit() {
+
+		if (!canCommit()) {
+
+			throw new IllegalStateException("An output spent by the pending changes is already spent");
+		}
+
+		base.applyBatch(removed.keySet(), added.values());
+
+		removed.clear();
+		added.clear();
+	}
+
+	/**
+	 * @return the outputs created in the overlay, by id
+	 */
+	public Map<Hash256, TransactionOutput> getAdded() {
+		return Collections.unmodifiableMap(added);
+	}
+
+	/**
+	 * @return the outputs of the base store spent in the overlay, by id
+	 */
+	public Map<Hash256, TransactionOutput> getRemoved() {
+		return Collections.unmodifiableMap(removed);
+	}
+
+	private static boolean isOwnedBy(TransactionOutput output, PublicKey owner) {
+
+		return CryptoService.getAddress(output.receiver).equals(CryptoService.getAddress(owner));
+	}
+}
@@ -0,0 +1,147 @@
+package org.anirudh.redquark.quarkchain.utxo;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.StringUtil;
+
+/**
+ * Running commitment to a set of unspent outputs.
+ *
+ * Each output is hashed with SHA-256 over its raw id and value, and the
+ * commitment is the sum of these hashes modulo 2^256. A sum does not depend on
+ * the order outputs were added in, and removing an output subtracts it again,
+ * so the commitment follows the set as blocks are applied at a constant cost per
+ * output, with no need to walk the whole set. Two sets with the same outputs
+ * always have the same commitment.
+ *
+ * A commitment is not thread safe.
+ */
+public class UTXOCommitment {
+
+	/**
+	 * The sum as four 64 bit words, most significant first
+	 */
+	private final long[] words = new long[4];
+
+	/**
+	 * Reused element buffers
+	 */
+	private final byte[] element = new byte[40];
+
+	private final byte[] hash = new byte[32];
+
+	public UTXOCommitment() {
+	}
+
+	/**
+	 * @param commitment
+	 *            a commitment to copy
+	 */
+	public UTXOCommitment(UTXOCommitment commitment) {
+
+		System.arraycopy(commitment.words, 0, words, 0, words.length);
+	}
+
+	/**
+	 * Adds an output to the committed set
+	 *
+	 * @param output
+	 */
+	public void add(TransactionOutput output) {
+
+		hash(output);
+
+		long carry = 0;
+
+		for (int w = 3; w >= 0; w--) {
+
+			long term = word(hash, w);
+
+			long sum = words[w] + term + carry;
+
+			carry = Long.compareUnsigned(sum, words[w]) < 0 || (carry != 0 && sum == words[w]) ? 1 : 0;
+
+			words[w] = sum;
+		}
+	}
+
+	/**
+	 * Removes an output from the committed set
+	 *
+	 * @param output
+	 */
+	public void remove(TransactionOutput output) {
+
+		hash(output);
+
+		long borrow = 0;
+
+		for (int w = 3; w >= 0; w--) {
+
+			long term = word(hash, w);
+
+			long difference = words[w] - term - borrow;
+
+			borrow = Long.compareUnsigned(words[w], term) < 0 || (borrow != 0 && words[w] == term) ? 1 : 0;
+
+			words[w] = difference;
+		}
+	}
+
+	/**
+	 * @return the commitment as 32 big endian bytes
+	 */
+	public byte[] toBytes() {
+
+		byte[] bytes = new byte[32];
+
+		for (int i = 0; i < 32; i++) {
+
+			bytes[i] = (byte) (words[i / 8] >>> (56 - 8 * (i % 8)));
+		}
+
+		return bytes;
+	}
+
+	@Override
+	public String toString() {
+
+		return StringUtil.toHex(toBytes());
+	}
+
+	private void hash(TransactionOutput output) {
+
+		output.id.writeTo(element, 0);
+
+		for (int i = 0; i < 8; i++) {
+
+			element[32 + i] = (byte) (output.value >>> (56 - 8 * i));
+		}
+
+		MessageDigest digest = StringUtil.sha256();
+
+		digest.update(element);
+
+		try {
+
+			digest.digest(hash, 0, hash.length);
+		} catch (DigestException e) {
+
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static long word(byte[] bytes, int w) {
+
+		long word = 0;
+
+		for (int b = 0; b < 8; b++) {
+
+			word = (word << 8) | (bytes[8 * w + b] & 0xff);
+		}
+
+		return word;
+	}
+}
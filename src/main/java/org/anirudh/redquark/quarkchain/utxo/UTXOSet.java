@@ -0,0 +1,230 @@
+package org.anirudh.redquark.quarkchain.utxo;
+
+import java.security.PublicKey;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.anirudh.redquark.quarkchain.crypto.CryptoService;
+import org.anirudh.redquark.quarkchain.metrics.NodeMetrics;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+
+/**
+ * The set of unspent transaction outputs (UTXOs), held on the heap.
+ *
+ * Besides the outputs by id, the set keeps a secondary index from each owner
+ * address to the outputs it owns, and a running balance per owner. Balance
+ * queries and coin selection therefore only touch the outputs of one owner,
+ * however large the whole set grows.
+ *
+ * The set supports one writer and any number of readers at a time, without
+ * locks. A write is not atomic: readers may see some outputs of a block before
+ * the others. When a block is applied with
+ * {@link #applyBatch(Collection, Collection)} the balance of each owner changes
+ * once, at the end, so a balance read never sees half of one owner's changes;
+ * the balances of different owners are still published one after the other.
+ */
+public class UTXOSet implements UTXOStore {
+
+	/**
+	 * All unspent outputs by id
+	 */
+	private final ConcurrentHashMap<Hash256, TransactionOutput> outputs = new ConcurrentHashMap<>();
+
+	/**
+	 * Unspent outputs of each owner address
+	 */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<Hash256, TransactionOutput>> outputsByOwner = new ConcurrentHashMap<>();
+
+	/**
+	 * Running balance of each owner address
+	 */
+	private final ConcurrentHashMap<String, Long> balances = new ConcurrentHashMap<>();
+
+	@Override
+	public void put(TransactionOutput output) {
+
+		HashMap<String, Long> deltas = new HashMap<>();
+
+		add(output, deltas);
+
+		applyDeltas(deltas);
+	}
+
+	@Override
+	public TransactionOutput get(Hash256 id) {
+
+		NodeMetrics.get().utxoLookups.increment();
+
+		return outputs.get(id);
+	}
+
+	@Override
+	public boolean contains(Hash256 id) {
+
+		return outputs.containsKey(id);
+	}
+
+	@Override
+	public TransactionOutput remove(Hash256 id) {
+
+		HashMap<String, Long> deltas = new HashMap<>();
+
+		TransactionOutput output = remove(id, deltas);
+
+		applyDeltas(deltas);
+
+		return output;
+	}
+
+	/**
+	 * Spends and creates the outputs of a whole block, publishing each owner's
+	 * new balance once at the end
+	 *
+	 * @param spent
+	 * @param created
+	 */
+	@Override
+	public void applyBatch(Collection<Hash256> spent, Collection<TransactionOutput> created) {
+
+		HashMap<String, Long> deltas = new HashMap<>();
+
+		for (Hash256 id : spent) {
+
+			remove(id, deltas);
+		}
+
+		for (TransactionOutput output : created) {
+
+			add(output, deltas);
+		}
+
+		applyDeltas(deltas);
+	}
+
+	@Override
+	public int size() {
+
+		return outputs.size();
+	}
+
+	/**
+	 * Returns the unspent outputs owned by a key, in no particular order
+	 *
+	 * @param owner
+	 * @return an unmodifiable view of the outputs
+	 */
+	@Override
+	public Collection<TransactionOutput> getOutputs(PublicKey owner) {
+
+		Map<Hash256, TransactionOutput> owned = outputsByOwner.get(CryptoService.getAddress(owner));
+
+		if (owned == null) {
+
+			return Collections.emptyList();
+		}
+
+		return Collections.unmodifiableCollection(owned.values());
+	}
+
+	@Override
+	public long getBalance(PublicKey owner) {
+
+		Long balance = balances.get(CryptoService.getAddress(owner));
+
+		return balance == null ? 0 : balance;
+	}
+
+	/**
+	 * @return an unmodifiable view of all unspent outputs by id
+	 */
+	public Map<Hash256, TransactionOutput> asMap() {
+
+		return Collections.unmodifiableMap(outputs);
+	}
+
+	private void add(TransactionOutput output, HashMap<String, Long> deltas) {
+
+		TransactionOutput replaced = outputs.put(output.id, output);
+
+		if (replaced != null) {
+
+			unindex(replaced, deltas);
+		}
+
+		String owner = CryptoService.getAddress(output.receiver);
+
+		ConcurrentHashMap<Hash256, TransactionOutput> owned = outputsByOwner.get(owner);
+
+		if (owned == null) {
+
+			owned = new ConcurrentHashMap<>();
+
+			outputsByOwner.put(owner, owned);
+		}
+
+		owned.put(output.id, output);
+
+		addDelta(deltas, owner, output.value);
+	}
+
+	private TransactionOutput remove(Hash256 id, HashMap<String, Long> deltas) {
+
+		TransactionOutput output = outputs.remove(id);
+
+		if (output != null) {
+
+			unindex(output, deltas);
+		}
+
+		return output;
+	}
+
+	private void unindex(TransactionOutput output, HashMap<String, Long> deltas) {
+
+		String owner = CryptoService.getAddress(output.receiver);
+
+		Map<Hash256, TransactionOutput> owned = outputsByOwner.get(owner);
+
+		owned.remove(output.id);
+
+		addDelta(deltas, owner, -output.value);
+	}
+
+	private static void addDelta(HashMap<String, Long> deltas, String owner, long value) {
+
+		Long delta = deltas.get(owner);
+
+		deltas.put(owner, Amount.add(delta == null ? 0 : delta, value));
+	}
+
+	/**
+	 * Publishes the new balance of every owner touched by a write. Owners left
+	 * without outputs are dropped from the indexes.
+	 */
+	private void applyDeltas(HashMap<String, Long> deltas) {
+
+		for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+
+			String owner = delta.getKey();
+
+			Map<Hash256, TransactionOutput> owned = outputsByOwner.get(owner);
+
+			if (owned == null || owned.isEmpty()) {
+
+				outputsByOwner.remove(owner);
+
+				balances.remove(owner);
+			} else {
+
+				Long balance = balances.get(owner);
+
+				balances.put(owner, Amount.add(balance == null ? 0 : balance, delta.getValue()));
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package org.anirudh.redquark.quarkchain.utxo;
+
+import java.security.PublicKey;
+import java.util.Collection;
+
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+
+/**
+ * Storage of the unspent transaction outputs, as used by transaction
+ * processing, chain validation and wallets.
+ *
+ * {@link UTXOSet} keeps everything on the heap with an owner index;
+ * {@link OffHeapUTXOStore} keeps the outputs in direct memory and
+ * {@link DiskUTXOStore} in a file, with only a bounded cache on the heap.
+ */
+public interface UTXOStore {
+
+	/**
+	 * Adds an unspent output
+	 *
+	 * @param output
+	 */
+	void put(TransactionOutput output);
+
+	/**
+	 * @param id
+	 * @return the unspent output with this id, or null
+	 */
+	TransactionOutput get(Hash256 id);
+
+	/**
+	 * @param id
+	 * @return true if the output is unspent
+	 */
+	boolean contains(Hash256 id);
+
+	/**
+	 * Removes an output, usually because it is spent
+	 *
+	 * @param id
+	 * @return the removed output, or null if it was not in the store
+	 */
+	TransactionOutput remove(Hash256 id);
+
+	/**
+	 * Spends and creates the outputs of a whole block. Stores which can make the
+	 * batch visible at once override this.
+	 *
+	 * @param spent
+	 *            ids of the spent outputs
+	 * @param created
+	 *            new unspent outputs
+	 */
+	default void applyBatch(Collection<Hash256> spent, Collection<TransactionOutput> created) {
+
+		for (Hash256 id : spent) {
+
+			remove(id);
+		}
+
+		for (TransactionOutput output : created) {
+
+			put(output);
+		}
+	}
+
+	/**
+	 * @return the number of unspent outputs
+	 */
+	int size();
+
+	/**
+	 * Returns the unspent outputs owned by a key
+	 *
+	 * @param owner
+	 * @return Collection
+	 */
+	Collection<TransactionOutput> getOutputs(PublicKey owner);
+
+	/**
+	 * Returns the sum of the unspent outputs owned by a key
+	 *
+	 * @param owner
+	 * @return the balance, in units of {@link org.anirudh.redquark.quarkchain.transaction.Amount}
+	 */
+	long getBalance(PublicKey owner);
+}
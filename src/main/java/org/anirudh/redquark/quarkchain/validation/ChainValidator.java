@@ -0,0 +1,393 @@
+package org.anirudh.redquark.quarkchain.validation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.block.MerkleTree;
+import org.anirudh.redquark.quarkchain.metrics.NodeMetrics;
+import org.anirudh.redquark.quarkchain.mining.DifficultyAdjuster;
+import org.anirudh.redquark.quarkchain.mining.Target;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.transaction.TransactionRules;
+import org.anirudh.redquark.quarkchain.utxo.UTXOCommitment;
+import org.anirudh.redquark.quarkchain.utxo.UTXOSet;
+import org.anirudh.redquark.quarkchain.utxo.UTXOStore;
+
+/**
+ * Checks that a blockchain has not been tampered with, in two stages:
+ *
+ * 1. The signatures of all transactions are verified concurrently, in segments
+ * of blocks, on a fork-join pool. This is where almost all of the time goes.
+ *
+ * 2. The hashes, links and UTXO accounting are checked block after block,
+ * since every block spends outputs created by the ones before it. This stage
+ * only waits for the signatures of the segment it has reached, so it runs
+ * while later segments are still being verified.
+ *
+ * Validation is incremental. The validator keeps the unspent outputs left by
+ * the blocks it has validated and records a {@link Checkpoint}, so the next
+ * call only checks the blocks added since, as long as the chain still goes
+ * through the checkpoint's tip. A checkpoint written to a file also survives a
+ * restart: the blocks up to it are then replayed to rebuild the outputs, but
+ * their signatures are not verified again, and the replayed outputs must match
+ * the checkpoint's commitment.
+ *
+ * Blocks before a checkpoint are trusted not to change. {@link #audit} checks
+ * the whole chain again, every signature included, and replaces the
+ * checkpoint.
+ */
+public class ChainValidator {
+
+	private static final Logger LOGGER = Logger.getLogger(ChainValidator.class.getName());
+
+	/**
+	 * Number of blocks whose signatures are verified as one batch
+	 */
+	private static final int SEGMENT_SIZE = 64;
+
+	/**
+	 * Verifies the signatures of stage 1
+	 */
+	private final SignatureBatchVerifier verifier;
+
+	/**
+	 * File the checkpoint is kept in, or null
+	 */
+	private final Path checkpointFile;
+
+	/**
+	 * Last checkpoint, or null
+	 */
+	private Checkpoint checkpoint;
+
+	/**
+	 * Unspent outputs at the checkpoint, or null if they were not built in this
+	 * process
+	 */
+	private UTXOStore validatedUTXOs;
+
+	/**
+	 * Commitment to validatedUTXOs
+	 */
+	private UTXOCommitment commitment;
+
+	/**
+	 * @param pool
+	 */
+	public ChainValidator(ForkJoinPool pool) {
+
+		this.verifier = new SignatureBatchVerifier(pool);
+		this.checkpointFile = null;
+	}
+
+	/**
+	 * Creates a validator which resumes from the checkpoint in the file, if any,
+	 * and writes every new checkpoint to it
+	 *
+	 * @param pool
+	 * @param checkpointFile
+	 * @throws IOException
+	 */
+	public ChainValidator(ForkJoinPool pool, Path checkpointFile) throws IOException {
+
+		this.verifier = new SignatureBatchVerifier(pool);
+		this.checkpointFile = checkpointFile;
+		this.checkpoint = Checkpoint.read(checkpointFile);
+	}
+
+	/**
+	 * @return the last checkpoint, or null if no chain was validated yet
+	 */
+	public synchronized Checkpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * This method checks if the blockchain is valid in order to make sure someone
+	 * has not tampered it. Only the blocks after the last checkpoint are checked.
+	 * An interrupted validation stops waiting for signatures and fails, keeping
+	 * the interrupt status.
+	 *
+	 * @param blockchain
+	 * @param difficulty
+	 *            sets the target every block must meet
+	 * @param genesisTransaction
+	 * @return {@link Boolean}
+	 */
+	public synchronized boolean isChainValid(List<Block> blockchain, DifficultyAdjuster difficulty,
+			Transaction genesisTransaction) {
+
+		boolean onCheckpoint = checkpoint != null && checkpoint.getHeight() > 0
+				&& checkpoint.getHeight() <= blockchain.size()
+				&& blockchain.get(checkpoint.getHeight() - 1).hash.equals(checkpoint.getTipHash());
+
+		if (onCheckpoint && validatedUTXOs != null) {
+
+			return validateFrom(blockchain, checkpoint.getHeight(), difficulty);
+		}
+
+		reset(genesisTransaction);
+
+		if (onCheckpoint && checkpoint.getHeight() > 1) {
+
+			/**
+			 * Rebuild the outputs of the checkpoint without verifying its signatures
+			 */
+			if (!validate(blockchain, 1, checkpoint.getHeight(), difficulty, false)
+					|| !checkpoint.matches(commitment.toBytes())) {
+
+				LOGGER.warning("#Chain does not match its checkpoint, auditing it");
+
+				return audit(blockchain, difficulty, genesisTransaction);
+			}
+
+			return validateFrom(blockchain, checkpoint.getHeight(), difficulty);
+		}
+
+		return validateFrom(blockchain, 1, difficulty);
+	}
+
+	/**
+	 * Checks the whole chain, ignoring the checkpoint. Signatures are verified
+	 * in parallel segments as in every validation, and on success the checkpoint
+	 * is replaced.
+	 *
+	 * @param blockchain
+	 * @param difficulty
+	 * @param genesisTransaction
+	 * @return {@link Boolean}
+	 */
+	public synchronized boolean audit(List<Block> blockchain, DifficultyAdjuster difficulty,
+			Transaction genesisTransaction) {
+
+		reset(genesisTransaction);
+
+		return validateFrom(blockchain, 1, difficulty);
+	}
+
+	/**
+	 * Starts from the outputs of the genesis transaction
+	 */
+	private void reset(Transaction genesisTransaction) {
+
+		validatedUTXOs = new UTXOSet();
+
+		commitment = new UTXOCommitment();
+
+		validatedUTXOs.put(genesisTransaction.outputs.get(0));
+
+		commitment.add(genesisTransaction.outputs.get(0));
+	}
+
+	/**
+	 * Validates the blocks from the given height to the tip and moves the
+	 * checkpoint there
+	 */
+	private boolean validateFrom(List<Block> blockchain, int from, DifficultyAdjuster difficulty) {
+
+		if (!validate(blockchain, from, blockchain.size(), difficulty, true)) {
+
+			validatedUTXOs = null;
+
+			return false;
+		}
+
+		Block tip = blockchain.isEmpty() ? null : blockchain.get(blockchain.size() - 1);
+
+		if (tip != null && (checkpoint == null || checkpoint.getHeight() != blockchain.size()
+				|| !checkpoint.getTipHash().equals(tip.hash) || !checkpoint.matches(commitment.toBytes()))) {
+
+			checkpoint = new Checkpoint(blockchain.size(), tip.hash, commitment.toBytes());
+
+			if (checkpointFile != null) {
+
+				try {
+
+					checkpoint.write(checkpointFile);
+				} catch (IOException e) {
+
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+		LOGGER.info("Blockchain is valid");
+
+		return true;
+	}
+
+	/**
+	 * Applies the blocks in [from, to) to the validated outputs, checking them
+	 * on the way
+	 */
+	private boolean validate(List<Block> blockchain, int from, int to, DifficultyAdjuster difficulty,
+			boolean verifySignatures) {
+
+		/**
+		 * Stage 1: start verifying every segment of the range
+		 */
+		List<SignatureBatchVerifier.Batch> batches = new ArrayList<>();
+
+		for (int start = from; verifySignatures && start < to; start += SEGMENT_SIZE) {
+
+			batches.add(verifier.submit(blockchain, start, Math.min(start + SEGMENT_SIZE, to)));
+		}
+
+		/**
+		 * Current block
+		 */
+		Block currentBlock;
+
+		/**
+		 * Previous block
+		 */
+		Block previousBlock;
+
+		/**
+		 * A working list of unspent transactions at a given block state.
+		 */
+		UTXOStore tempUTXOs = validatedUTXOs;
+
+		/**
+		 * Stage 2: loop through blockchain to check hashes and spent outputs
+		 */
+		for (int i = from; i < to; i++) {
+
+			long blockStart = System.nanoTime();
+
+			currentBlock = blockchain.get(i);
+			previousBlock = blockchain.get(i - 1);
+
+			/**
+			 * Compare registered hash and calculated hash:
+			 */
+			if (!currentBlock.hash.equals(currentBlock.calculateHash())) {
+				LOGGER.warning("#Current Hashes not equal");
+				return false;
+			}
+
+			/**
+			 * Compare the merkle root of the header and of the transactions
+			 */
+			if (!currentBlock.merkleRoot.equals(MerkleTree.of(currentBlock.transactions).getRootHash())) {
+				LOGGER.warning("#Merkle root does not match the transactions");
+				return false;
+			}
+
+			/**
+			 * Compare previous hash and registered previous hash
+			 */
+			if (!previousBlock.hash.equals(currentBlock.previousHash)) {
+				LOGGER.warning("#Previous Hashes not equal");
+				return false;
+			}
+
+			/**
+			 * Check if hash is solved, for the target of this height
+			 */
+			List<Block> before = blockchain.subList(0, i);
+
+			Target target = difficulty.getTarget(before);
+
+			if (currentBlock.getBits() != target.getBits()) {
+				LOGGER.warning("#This block doesn't carry the target of its height");
+				return false;
+			}
+
+			if (!target.isMetBy(currentBlock.hash)) {
+				LOGGER.warning("#This block hasn't been mined");
+				return false;
+			}
+
+			/**
+			 * Check the time stamp the target of later blocks is computed from
+			 */
+			if (!DifficultyAdjuster.isTimeStampValid(before, currentBlock)) {
+				LOGGER.warning("#This block's time stamp is out of range");
+				return false;
+			}
+
+			/**
+			 * Wait for the signatures of this block's segment
+			 */
+			SignatureBatchVerifier.Batch signatures = null;
+
+			if (verifySignatures) {
+
+				signatures = batches.get((i - from) / SEGMENT_SIZE);
+
+				if (!signatures.await()) {
+					LOGGER.warning("#Validation interrupted");
+					return false;
+				}
+			}
+
+			/**
+			 * Loop through blockchains transactions:
+			 */
+			TransactionOutput tempOutput;
+			for (int t = 0; t < currentBlock.transactions.size(); t++) {
+				Transaction currentTransaction = currentBlock.transactions.get(t);
+
+				if (signatures != null && !signatures.isValid(i, t)) {
+					if (LOGGER.isLoggable(Level.WARNING)) {
+						LOGGER.warning("#Signature on Transaction(" + t + ") is Invalid");
+					}
+					return false;
+				}
+
+				/**
+				 * Transactions read back from a store do not carry their spent outputs,
+				 * and those they carry must still be unspent
+				 */
+				List<TransactionOutput> spent = new ArrayList<>();
+
+				for (TransactionInput input : currentTransaction.inputs) {
+					tempOutput = tempUTXOs.get(input.transactionOutputId);
+
+					if (tempOutput == null) {
+						if (LOGGER.isLoggable(Level.WARNING)) {
+							LOGGER.warning("#Referenced input on Transaction(" + t + ") is Missing");
+						}
+						return false;
+					}
+
+					input.UTXO = tempOutput;
+					spent.add(tempOutput);
+				}
+
+				if (!TransactionRules.check(currentTransaction, spent, tempUTXOs)) {
+					if (LOGGER.isLoggable(Level.WARNING)) {
+						LOGGER.warning("#Transaction(" + t + ") does not follow the transaction rules");
+					}
+					return false;
+				}
+
+				for (TransactionOutput output : spent) {
+					tempUTXOs.remove(output.id);
+					commitment.remove(output);
+				}
+
+				for (TransactionOutput output : currentTransaction.outputs) {
+					tempUTXOs.put(output);
+					commitment.add(output);
+				}
+
+			}
+
+			NodeMetrics.get().blocksValidated.increment();
+
+			NodeMetrics.get().blockValidationNanos.recordSince(blockStart);
+		}
+
+		return true;
+	}
+}
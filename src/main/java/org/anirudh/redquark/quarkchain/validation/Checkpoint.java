@@ -0,0 +1,136 @@
+package org.anirudh.redquark.quarkchain.validation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.anirudh.redquark.quarkchain.util.Hash256;
+
+/**
+ * A point up to which a chain was validated: the number of blocks, the hash of
+ * the last of them and the commitment to the unspent outputs they leave (see
+ * {@link org.anirudh.redquark.quarkchain.utxo.UTXOCommitment}).
+ *
+ * On disk a checkpoint takes {@link #SIZE} bytes: height (4), tip hash (32)
+ * and commitment (32). It is written to a temporary file which then replaces
+ * the old one, so a crash leaves either checkpoint but never half of one.
+ */
+public final class Checkpoint {
+
+	public static final int SIZE = 68;
+
+	/**
+	 * Number of validated blocks, the genesis block included
+	 */
+	private final int height;
+
+	private final Hash256 tipHash;
+
+	private final byte[] commitment;
+
+	/**
+	 * @param height
+	 * @param tipHash
+	 * @param commitment
+	 */
+	public Checkpoint(int height, Hash256 tipHash, byte[] commitment) {
+
+		this.height = height;
+		this.tipHash = tipHash;
+		this.commitment = commitment.clone();
+	}
+
+	/**
+	 * Reads a checkpoint
+	 *
+	 * @param file
+	 * @return the checkpoint, or null if there is none
+	 * @throws IOException
+	 */
+	public static Checkpoint read(Path file) throws IOException {
+
+		byte[] bytes;
+
+		try {
+
+			bytes = Files.readAllBytes(file);
+		} catch (NoSuchFileException e) {
+
+			return null;
+		}
+
+		if (bytes.length != SIZE) {
+
+			throw new IOException("Checkpoint file " + file + " has " + bytes.length + " bytes");
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+		int height = buffer.getInt();
+
+		Hash256 tip = Hash256.read(buffer);
+
+		byte[] commitment = new byte[32];
+
+		buffer.get(commitment);
+
+		return new Checkpoint(height, tip, commitment);
+	}
+
+	/**
+	 * Writes the checkpoint, replacing the one in the file
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(Path file) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+
+		buffer.putInt(height);
+
+		tipHash.writeTo(buffer);
+
+		buffer.put(commitment);
+
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+		Files.write(temporary, buffer.array());
+
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the tipHash
+	 */
+	public Hash256 getTipHash() {
+		return tipHash;
+	}
+
+	/**
+	 * @return the commitment
+	 */
+	public byte[] getCommitment() {
+		return commitment.clone();
+	}
+
+	/**
+	 * @param commitment
+	 * @return true if the commitment is the one of this checkpoint
+	 */
+	public boolean matches(byte[] commitment) {
+
+		return Arrays.equals(this.commitment, commitment);
+	}
+}
@@ -0,0 +1,199 @@
+package org.anirudh.redquark.quarkchain.validation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+
+/**
+ * Verifies the signatures of many transactions at once on a fork-join pool.
+ *
+ * Signature checks do not depend on each other or on the UTXO set, so they
+ * can run in any order and on any thread. The result keeps the order of the
+ * transactions, so callers can report the first failure exactly where a
+ * serial check would have found it.
+ */
+public class SignatureBatchVerifier {
+
+	/**
+	 * Below this number of transactions a task verifies instead of splitting
+	 */
+	private static final int THRESHOLD = 8;
+
+	/**
+	 * Pool running the verifications
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param pool
+	 */
+	public SignatureBatchVerifier(ForkJoinPool pool) {
+
+		this.pool = pool;
+	}
+
+	/**
+	 * Starts verifying all signatures of the blocks in [from, to) without waiting
+	 * for the result
+	 *
+	 * @param blocks
+	 * @param from
+	 * @param to
+	 * @return the pending batch
+	 */
+	public Batch submit(List<Block> blocks, int from, int to) {
+
+		List<Transaction> transactions = new ArrayList<>();
+
+		int[] firstTransaction = new int[to - from];
+
+		for (int i = from; i < to; i++) {
+
+			firstTransaction[i - from] = transactions.size();
+
+			transactions.addAll(blocks.get(i).transactions);
+		}
+
+		boolean[] valid = new boolean[transactions.size()];
+
+		ForkJoinTask<Void> task = pool.submit(new VerifyTask(transactions, valid, 0, transactions.size()));
+
+		return new Batch(task, valid, firstTransaction, from);
+	}
+
+	/**
+	 * Verifies all signatures of the blocks in [from, to) and waits for the
+	 * result. If the wait is interrupted, the signatures not verified yet are
+	 * reported invalid
+	 *
+	 * @param blocks
+	 * @param from
+	 * @param to
+	 * @return the finished batch
+	 */
+	public Batch verify(List<Block> blocks, int from, int to) {
+
+		Batch batch = submit(blocks, from, to);
+
+		batch.await();
+
+		return batch;
+	}
+
+	/**
+	 * Signature results of a range of blocks
+	 */
+	public static class Batch {
+
+		private final ForkJoinTask<Void> task;
+
+		private final boolean[] valid;
+
+		private final int[] firstTransaction;
+
+		private final int firstBlock;
+
+		private Batch(ForkJoinTask<Void> task, boolean[] valid, int[] firstTransaction, int firstBlock) {
+
+			this.task = task;
+			this.valid = valid;
+			this.firstTransaction = firstTransaction;
+			this.firstBlock = firstBlock;
+		}
+
+		/**
+		 * Waits until every signature of the batch is verified. An interrupted
+		 * caller stops waiting: the part of the batch not started yet is
+		 * cancelled, and the interrupt status is kept for the caller
+		 *
+		 * @return true if every signature was verified, false if this or an
+		 *         earlier wait was interrupted
+		 */
+		public boolean await() {
+
+			try {
+
+				task.get();
+
+				return true;
+
+			} catch (InterruptedException e) {
+
+				task.cancel(false);
+
+				Thread.currentThread().interrupt();
+
+				return false;
+
+			} catch (CancellationException e) {
+
+				return false;
+
+			} catch (ExecutionException e) {
+
+				throw new IllegalStateException("Signature verification failed", e.getCause());
+			}
+		}
+
+		/**
+		 * @param block
+		 *            height of the block in the chain
+		 * @param transaction
+		 *            index of the transaction in the block
+		 * @return true if the signature of the transaction is valid
+		 */
+		public boolean isValid(int block, int transaction) {
+
+			return valid[firstTransaction[block - firstBlock] + transaction];
+		}
+	}
+
+	/**
+	 * Splits a range of transactions in halves until it is small enough to verify
+	 */
+	private static class VerifyTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Transaction> transactions;
+
+		private final boolean[] valid;
+
+		private final int from;
+
+		private final int to;
+
+		VerifyTask(List<Transaction> transactions, boolean[] valid, int from, int to) {
+
+			this.transactions = transactions;
+			this.valid = valid;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from <= THRESHOLD) {
+
+				for (int i = from; i < to; i++) {
+
+					valid[i] = transactions.get(i).verifySignature();
+				}
+
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+
+			invokeAll(new VerifyTask(transactions, valid, from, middle), new VerifyTask(transactions, valid, middle, to));
+		}
+	}
+}
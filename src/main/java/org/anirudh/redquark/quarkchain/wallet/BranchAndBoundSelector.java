@@ -0,0 +1,244 @@
+package org.anirudh.redquark.quarkchain.wallet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+
+/**
+ * Looks for outputs adding up to the value exactly, or to within a tolerance,
+ * so the transaction needs no change output and the UTXO set does not grow.
+ *
+ * A single output is looked up in the value tree first. Otherwise the largest
+ * outputs worth at most the value plus the tolerance, no more than
+ * {@link #DEFAULT_CANDIDATES} of them, are searched depth first, the largest
+ * first, including or leaving out one output at each step. Bounding the
+ * candidates keeps a selection from a wallet of any size to two lookups in the
+ * value tree and a fixed amount of work. A branch is cut as soon as it
+ * overshoots the tolerance or the outputs left cannot reach the value, and
+ * outputs of equal value are only tried in one order. The search gives up
+ * after a fixed number of steps, and the fallback selector decides then.
+ */
+public class BranchAndBoundSelector implements CoinSelector {
+
+	/**
+	 * Steps of the search before it gives up
+	 */
+	public static final int MAX_TRIES = 100000;
+
+	/**
+	 * Number of outputs searched unless a selector is given another bound
+	 */
+	public static final int DEFAULT_CANDIDATES = 1024;
+
+	/**
+	 * Change below this is accepted rather than searched further
+	 */
+	private final long tolerance;
+
+	/**
+	 * Largest number of outputs searched
+	 */
+	private final int maxCandidates;
+
+	/**
+	 * Selects when no exact match is found
+	 */
+	private final CoinSelector fallback;
+
+	/**
+	 * Accepts exact matches only
+	 *
+	 * @param fallback
+	 */
+	public BranchAndBoundSelector(CoinSelector fallback) {
+
+		this(0, fallback);
+	}
+
+	/**
+	 * @param tolerance
+	 *            largest change which still counts as a match
+	 * @param fallback
+	 */
+	public BranchAndBoundSelector(long tolerance, CoinSelector fallback) {
+
+		this(tolerance, DEFAULT_CANDIDATES, fallback);
+	}
+
+	/**
+	 * @param tolerance
+	 *            largest change which still counts as a match
+	 * @param maxCandidates
+	 *            largest number of outputs searched
+	 * @param fallback
+	 */
+	public BranchAndBoundSelector(long tolerance, int maxCandidates, CoinSelector fallback) {
+
+		if (maxCandidates <= 0) {
+
+			throw new IllegalArgumentException("maxCandidates must be positive, was " + maxCandidates);
+		}
+
+		this.tolerance = tolerance;
+		this.maxCandidates = maxCandidates;
+		this.fallback = fallback;
+	}
+
+	@Override
+	public List<TransactionOutput> select(CoinSet coins, long value) {
+
+		if (coins.getTotal() < value) {
+
+			return null;
+		}
+
+		long limit = value > Long.MAX_VALUE - tolerance ? Long.MAX_VALUE : value + tolerance;
+
+		TransactionOutput single = coins.ceiling(value);
+
+		if (single != null && single.value <= limit) {
+
+			return Collections.singletonList(single);
+		}
+
+		List<TransactionOutput> candidates = new ArrayList<>(Math.min(maxCandidates, coins.size()));
+
+		for (TransactionOutput output : coins.atMost(limit)) {
+
+			if (candidates.size() == maxCandidates) {
+
+				break;
+			}
+
+			candidates.add(output);
+		}
+
+		List<TransactionOutput> selected = search(candidates, value, limit);
+
+		return selected != null ? selected : fallback.select(coins, value);
+	}
+
+	/**
+	 * Depth first search over the candidates, sorted by descending value
+	 */
+	private static List<TransactionOutput> search(List<TransactionOutput> candidates, long value, long limit) {
+
+		int count = candidates.size();
+
+		long[] values = new long[count];
+
+		/**
+		 * Sum of the candidates from an index on
+		 */
+		long[] rest = new long[count + 1];
+
+		for (int i = count - 1; i >= 0; i--) {
+
+			values[i] = candidates.get(i).value;
+
+			rest[i] = rest[i + 1] + values[i];
+		}
+
+		if (rest[0] < value) {
+
+			return null;
+		}
+
+		boolean[] included = new boolean[count];
+
+		boolean[] best = null;
+
+		long bestExcess = Long.MAX_VALUE;
+
+		int depth = 0;
+
+		long sum = 0;
+
+		for (int tries = 0; tries < MAX_TRIES; tries++) {
+
+			boolean backtrack;
+
+			if (sum > limit || sum + rest[depth] < value) {
+
+				backtrack = true;
+			} else if (sum >= value) {
+
+				if (sum - value < bestExcess) {
+
+					best = included.clone();
+					bestExcess = sum - value;
+				}
+
+				if (bestExcess == 0) {
+
+					break;
+				}
+
+				backtrack = true;
+			} else {
+
+				/**
+				 * Include the candidate at this depth
+				 */
+				included[depth] = true;
+
+				sum += values[depth];
+
+				depth++;
+
+				backtrack = false;
+			}
+
+			if (backtrack) {
+
+				/**
+				 * Leave out the last included candidate instead
+				 */
+				int last = depth - 1;
+
+				while (last >= 0 && !included[last]) {
+
+					last--;
+				}
+
+				if (last < 0) {
+
+					break;
+				}
+
+				included[last] = false;
+
+				sum -= values[last];
+
+				depth = last + 1;
+
+				/**
+				 * Including an equal candidate now would repeat a tried subset
+				 */
+				while (depth < count && values[depth] == values[last]) {
+
+					depth++;
+				}
+			}
+		}
+
+		if (best == null) {
+
+			return null;
+		}
+
+		List<TransactionOutput> selected = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+
+			if (best[i]) {
+
+				selected.add(candidates.get(i));
+			}
+		}
+
+		return selected;
+	}
+}
@@ -0,0 +1,28 @@
+package org.anirudh.redquark.quarkchain.wallet;
+
+import java.util.List;
+
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+
+/**
+ * Chooses which unspent outputs of a wallet pay for a transaction.
+ *
+ * Every input costs a signature check at every node and a few dozen bytes in
+ * the block, and every change output is one more entry in the UTXO set, so the
+ * choice decides both how large transactions are and how the set grows.
+ *
+ * @see LargestFirstSelector
+ * @see BranchAndBoundSelector
+ */
+public interface CoinSelector {
+
+	/**
+	 * Selects outputs worth at least a value. The coins are not changed.
+	 *
+	 * @param coins
+	 *            the wallet's unspent outputs
+	 * @param value
+	 * @return the outputs to spend, or null if the coins cannot cover the value
+	 */
+	List<TransactionOutput> select(CoinSet coins, long value);
+}
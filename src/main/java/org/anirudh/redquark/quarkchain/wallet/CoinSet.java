@@ -0,0 +1,195 @@
+package org.anirudh.redquark.quarkchain.wallet;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+
+/**
+ * The unspent outputs of a wallet, ordered by value.
+ *
+ * Outputs are kept in a tree sorted by value, then by id, and in a hash map by
+ * id, so both the smallest output covering an amount and an output by id are
+ * found in O(log n), and the outputs can be walked from either end. The total
+ * is kept as outputs come and go.
+ *
+ * A coin set is not thread safe.
+ */
+public class CoinSet implements Iterable<TransactionOutput> {
+
+	/**
+	 * Orders by value, and by id among equal values
+	 */
+	private static final Comparator<TransactionOutput> BY_VALUE = new Comparator<TransactionOutput>() {
+
+		@Override
+		public int compare(TransactionOutput a, TransactionOutput b) {
+
+			int compare = Long.compare(a.value, b.value);
+
+			return compare != 0 ? compare : a.id.compareTo(b.id);
+		}
+	};
+
+	private final TreeSet<TransactionOutput> byValue = new TreeSet<>(BY_VALUE);
+
+	private final HashMap<Hash256, TransactionOutput> byId = new HashMap<>();
+
+	private long total;
+
+	/**
+	 * Adds an output, replacing the one with the same id if any
+	 *
+	 * @param output
+	 */
+	public void add(TransactionOutput output) {
+
+		TransactionOutput previous = byId.put(output.id, output);
+
+		if (previous != null) {
+
+			byValue.remove(previous);
+
+			total = Amount.subtract(total, previous.value);
+		}
+
+		byValue.add(output);
+
+		total = Amount.add(total, output.value);
+	}
+
+	/**
+	 * @param id
+	 * @return the removed output, or null if it was not in the set
+	 */
+	public TransactionOutput remove(Hash256 id) {
+
+		TransactionOutput output = byId.remove(id);
+
+		if (output != null) {
+
+			byValue.remove(output);
+
+			total = Amount.subtract(total, output.value);
+		}
+
+		return output;
+	}
+
+	/**
+	 * @param id
+	 * @return the output with this id, or null
+	 */
+	public TransactionOutput get(Hash256 id) {
+
+		return byId.get(id);
+	}
+
+	/**
+	 * @param id
+	 * @return true if the output is in the set
+	 */
+	public boolean contains(Hash256 id) {
+
+		return byId.containsKey(id);
+	}
+
+	/**
+	 * Removes every output
+	 */
+	public void clear() {
+
+		byId.clear();
+		byValue.clear();
+
+		total = 0;
+	}
+
+	/**
+	 * @return the number of outputs
+	 */
+	public int size() {
+
+		return byId.size();
+	}
+
+	/**
+	 * @return true if the set holds no output
+	 */
+	public boolean isEmpty() {
+
+		return byId.isEmpty();
+	}
+
+	/**
+	 * @return the sum of the values of the outputs
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns the smallest output worth at least a value
+	 *
+	 * @param value
+	 * @return the output, or null if every output is worth less
+	 */
+	public TransactionOutput ceiling(long value) {
+
+		return byValue.ceiling(probe(value));
+	}
+
+	/**
+	 * Returns the outputs worth at most a value, from the largest down
+	 *
+	 * @param value
+	 * @return a read-only view of the set
+	 */
+	public NavigableSet<TransactionOutput> atMost(long value) {
+
+		NavigableSet<TransactionOutput> head = value == Long.MAX_VALUE ? byValue
+				: byValue.headSet(probe(value + 1), false);
+
+		return Collections.unmodifiableNavigableSet(head.descendingSet());
+	}
+
+	/**
+	 * @return the outputs from the largest down, as a read-only view
+	 */
+	public NavigableSet<TransactionOutput> largestFirst() {
+
+		return Collections.unmodifiableNavigableSet(byValue.descendingSet());
+	}
+
+	/**
+	 * @return the outputs from the smallest up, as a read-only view
+	 */
+	public NavigableSet<TransactionOutput> smallestFirst() {
+
+		return Collections.unmodifiableNavigableSet(byValue);
+	}
+
+	/**
+	 * Walks the outputs from the smallest up
+	 */
+	@Override
+	public Iterator<TransactionOutput> iterator() {
+
+		return smallestFirst().iterator();
+	}
+
+	/**
+	 * An output sorting before every real output of the value, since no id is
+	 * below the zero hash
+	 */
+	private static TransactionOutput probe(long value) {
+
+		return new TransactionOutput(Hash256.ZERO, null, value, Hash256.ZERO);
+	}
+}
@@ -0,0 +1,116 @@
+package org.anirudh.redquark.quarkchain.wallet;
+
+import java.io.Closeable;
+import java.security.KeyPair;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Key pairs generated ahead of demand by background threads.
+ *
+ * Generating a key pair takes the better part of a millisecond. The pool keeps
+ * up to a given number of them ready, so a burst of wallet creations only
+ * takes keys from a queue; the fillers generate replacements while the node is
+ * otherwise idle. When a burst drains the pool, keys are generated on the
+ * calling thread instead of waiting for the fillers.
+ *
+ * The fillers are daemon threads, so a pool never keeps the JVM alive. Keys
+ * left in a closed pool are still handed out.
+ */
+public class KeyPool implements Closeable {
+
+	/**
+	 * Ready key pairs
+	 */
+	private final BlockingQueue<KeyPair> keys;
+
+	private final Thread[] fillers;
+
+	/**
+	 * Starts filling the pool
+	 *
+	 * @param capacity
+	 *            number of key pairs kept ready
+	 * @param threads
+	 *            number of background threads generating them
+	 */
+	public KeyPool(int capacity, int threads) {
+
+		if (capacity < 1 || threads < 1) {
+
+			throw new IllegalArgumentException("A key pool needs a capacity and at least one thread");
+		}
+
+		this.keys = new ArrayBlockingQueue<>(capacity);
+		this.fillers = new Thread[threads];
+
+		for (int i = 0; i < threads; i++) {
+
+			fillers[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+
+					try {
+
+						while (!Thread.currentThread().isInterrupted()) {
+
+							/**
+							 * Blocks while the pool is full
+							 */
+							keys.put(WalletFactory.generateKeyPair());
+						}
+					} catch (InterruptedException e) {
+
+						// Closed
+					}
+				}
+			}, "quarkchain-key-pool-" + (i + 1));
+
+			fillers[i].setDaemon(true);
+			fillers[i].setPriority(Thread.MIN_PRIORITY);
+			fillers[i].start();
+		}
+	}
+
+	/**
+	 * Takes a ready key pair, or generates one if the pool is empty
+	 *
+	 * @return {@link KeyPair}
+	 */
+	public KeyPair take() {
+
+		KeyPair keyPair = keys.poll();
+
+		return keyPair != null ? keyPair : WalletFactory.generateKeyPair();
+	}
+
+	/**
+	 * Creates a wallet with a ready key pair
+	 *
+	 * @return {@link Wallet}
+	 */
+	public Wallet newWallet() {
+
+		return new Wallet(take());
+	}
+
+	/**
+	 * @return number of key pairs ready
+	 */
+	public int available() {
+		return keys.size();
+	}
+
+	/**
+	 * Stops the background threads
+	 */
+	@Override
+	public void close() {
+
+		for (Thread filler : fillers) {
+
+			filler.interrupt();
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package org.anirudh.redquark.quarkchain.wallet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+
+/**
+ * Spends the largest outputs first, which covers any value with the fewest
+ * inputs. Small outputs are left alone and pile up, which
+ * {@link Wallet#consolidate(int)} cleans up.
+ */
+public class LargestFirstSelector implements CoinSelector {
+
+	@Override
+	public List<TransactionOutput> select(CoinSet coins, long value) {
+
+		if (coins.getTotal() < value) {
+
+			return null;
+		}
+
+		List<TransactionOutput> selected = new ArrayList<>();
+
+		long total = 0;
+
+		for (TransactionOutput output : coins.largestFirst()) {
+
+			if (total >= value && !selected.isEmpty()) {
+
+				break;
+			}
+
+			selected.add(output);
+
+			total = Amount.add(total, output.value);
+		}
+
+		return selected;
+	}
+}
@@ -1,19 +1,21 @@
 package org.anirudh.redquark.quarkchain.wallet;
 
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.SecureRandom;
-import java.security.spec.ECGenParameterSpec;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.logging.Logger;
 
-import org.anirudh.redquark.quarkchain.App;
+import org.anirudh.redquark.quarkchain.chain.ChainState;
+import org.anirudh.redquark.quarkchain.chain.OutputListener;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
 import org.anirudh.redquark.quarkchain.transaction.Transaction;
 import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
 import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
 
 /**
  * This is our wallet class which holds all the data related to a wallet, such
@@ -24,6 +26,8 @@ import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
  */
 public class Wallet {
 
+	private static final Logger LOGGER = Logger.getLogger(Wallet.class.getName());
+
 	/**
 	 * Private key is used to sign our transactions, so that nobody can spend our
 	 * QuarkCoins other than the owner of private key. Users will have to keep their
@@ -40,77 +44,174 @@ public class Wallet {
 	public PublicKey publicKey;
 
 	/**
-	 * HashMap to store Unspent Transaction Outputs
+	 * Unspent Transaction Outputs of this wallet which no payment has reserved,
+	 * sorted by value. Kept up to date by the events of the watched chain;
+	 * guarded by the wallet's monitor.
 	 */
-	public HashMap<String, TransactionOutput> UTXOs = new HashMap<String, TransactionOutput>();
+	public final CoinSet UTXOs = new CoinSet();
 
 	/**
-	 * We generate our private and public keys in a KeyPair. We will use
-	 * Elliptic-curve cryptography to Generate our KeyPairs.
+	 * Outputs spent by transactions this wallet signed which no connected block
+	 * has spent yet, by id. They are taken out of {@link #UTXOs}, so the next
+	 * payment does not select them again; guarded by the wallet's monitor.
 	 */
-	public Wallet() {
+	private final Map<Hash256, TransactionOutput> reserved = new HashMap<>();
 
-		generateKeyPair();
-	}
+	/**
+	 * Sum of {@link #reserved}
+	 */
+	private long reservedTotal;
 
-	private void generateKeyPair() {
+	/**
+	 * Sum of {@link #UTXOs} and of the reserved outputs, readable without the
+	 * monitor
+	 */
+	private volatile long balance;
 
-		try {
+	/**
+	 * Chain whose events this wallet follows, or null until one is watched
+	 */
+	private volatile ChainState watched;
+
+	/**
+	 * Serializes {@link #watch(ChainState)}, so a chain is subscribed to once
+	 * however many threads ask for it. The listener never takes it.
+	 */
+	private final Object watchLock = new Object();
 
-			KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("ECDSA", "BC");
+	/**
+	 * Applies the events of the watched chain to the wallet
+	 */
+	private final OutputListener listener = new OutputListener() {
 
-			SecureRandom secureRandom = SecureRandom.getInstance("SHA1PRNG");
+		@Override
+		public void outputCreated(TransactionOutput output) {
 
-			ECGenParameterSpec ecGenParameterSpec = new ECGenParameterSpec("prime192v1");
+			synchronized (Wallet.this) {
 
-			/**
-			 * Initialize a key generator and generate a KeyPair
-			 */
-			keyPairGenerator.initialize(ecGenParameterSpec, secureRandom);
+				UTXOs.add(output);
 
-			KeyPair keyPair = keyPairGenerator.generateKeyPair();
+				balance = Amount.add(UTXOs.getTotal(), reservedTotal);
+			}
+		}
 
-			/**
-			 * Set the private key from KeyPair
-			 */
-			privateKey = keyPair.getPrivate();
+		@Override
+		public void outputSpent(TransactionOutput output) {
 
-			/**
-			 * Set the public key from the KeyPair
-			 */
-			publicKey = keyPair.getPublic();
-		} catch (Exception e) {
+			synchronized (Wallet.this) {
 
-			throw new RuntimeException(e);
+				if (reserved.remove(output.id) != null) {
+
+					reservedTotal = Amount.subtract(reservedTotal, output.value);
+				} else {
+
+					UTXOs.remove(output.id);
+				}
+
+				balance = Amount.add(UTXOs.getTotal(), reservedTotal);
+			}
 		}
+	};
+
+	/**
+	 * Chooses the outputs a payment spends: an exact match when one exists, so
+	 * no change is left, and the largest outputs otherwise
+	 */
+	private CoinSelector coinSelector = new BranchAndBoundSelector(new LargestFirstSelector());
+
+	/**
+	 * We generate our private and public keys in a KeyPair. We will use
+	 * Elliptic-curve cryptography to Generate our KeyPairs, with the generator
+	 * the {@link WalletFactory} keeps for the calling thread.
+	 */
+	public Wallet() {
+
+		this(WalletFactory.generateKeyPair());
+	}
+
+	/**
+	 * Wallet of an existing key pair, for example one taken from a
+	 * {@link KeyPool}
+	 * 
+	 * @param keyPair
+	 */
+	public Wallet(KeyPair keyPair) {
+
+		/**
+		 * Set the private key from KeyPair
+		 */
+		privateKey = keyPair.getPrivate();
+
+		/**
+		 * Set the public key from the KeyPair
+		 */
+		publicKey = keyPair.getPublic();
 	}
 
 	/**
-	 * Returns balance and stores the UTXO's owned by this wallet in this.UTXOs
+	 * Returns the balance of this wallet on the chain it watches, see
+	 * {@link #watch(ChainState)}. Every block updates {@link #UTXOs} and the
+	 * balance as it connects or disconnects, so a call only reads a field.
 	 * 
-	 * @return float
+	 * @return long, 0 while no chain is watched
 	 */
-	public float getBalance() {
+	public long getBalance() {
 
-		float total = 0;
+		return balance;
+	}
 
-		for (Map.Entry<String, TransactionOutput> item : App.UTXOs.entrySet()) {
+	/**
+	 * @return the chain this wallet follows, or null
+	 */
+	public ChainState getWatched() {
+		return watched;
+	}
+
+	/**
+	 * Follows the outputs of this wallet on a chain, and stops following the
+	 * chain watched before. Outputs put into the UTXO store of the chain
+	 * directly, rather than by a block, are only seen if they were there when
+	 * the wallet subscribed.
+	 * 
+	 * Watching the chain already watched does nothing. Calls are serialized on
+	 * their own lock: the chain calls the wallet holding its write lock, so the
+	 * wallet's monitor is never held while subscribing, which takes that lock.
+	 * The chain is only published as watched once the wallet is subscribed, so a
+	 * thread which sees it also sees its outputs.
+	 * 
+	 * @param chain
+	 */
+	public void watch(ChainState chain) {
 
-			TransactionOutput UTXO = item.getValue();
+		synchronized (watchLock) {
 
-			/**
-			 * If outputs (coins) belong to me then add it to our list of unspent
-			 * transactions
-			 */
-			if (UTXO.isMine(publicKey)) {
+			ChainState previous = watched;
 
-				UTXOs.put(UTXO.id, UTXO);
+			if (previous == chain) {
 
-				total = total + UTXO.value;
+				return;
 			}
-		}
 
-		return total;
+			if (previous != null) {
+
+				previous.unsubscribe(publicKey, listener);
+			}
+
+			synchronized (this) {
+
+				UTXOs.clear();
+
+				reserved.clear();
+
+				reservedTotal = 0;
+
+				balance = 0;
+			}
+
+			chain.subscribe(publicKey, listener);
+
+			watched = chain;
+		}
 	}
 
 	/**
@@ -120,11 +221,11 @@ public class Wallet {
 	 * @param value
 	 * @return Transaction
 	 */
-	public Transaction sendFunds(PublicKey _reciever, float value) {
+	public Transaction sendFunds(PublicKey _reciever, long value) {
 
 		if (getBalance() < value) {
 
-			System.out.println("Not enough funds to send transaction. Transaction discarded.");
+			LOGGER.info("Not enough funds to send transaction. Transaction discarded.");
 
 			return null;
 		}
@@ -132,34 +233,155 @@ public class Wallet {
 		/**
 		 * Create a list of inputs
 		 */
-		ArrayList<TransactionInput> inputs = new ArrayList<>();
+		List<TransactionOutput> selected;
 
-		float total = 0;
+		synchronized (this) {
 
-		for (Map.Entry<String, TransactionOutput> item : UTXOs.entrySet()) {
+			selected = coinSelector.select(UTXOs, value);
 
-			TransactionOutput UTXO = item.getValue();
+			if (selected != null) {
 
-			total = total + UTXO.value;
+				reserve(selected);
+			}
+		}
 
-			inputs.add(new TransactionInput(UTXO.id));
+		if (selected == null) {
+
+			LOGGER.info("No outputs cover the value. Transaction discarded.");
 
-			if (total > value) {
+			return null;
+		}
+
+		return spend(selected, _reciever, value);
+	}
+
+	/**
+	 * Merges up to maxInputs of the smallest outputs into one output paid to
+	 * this wallet, so the payments made later need fewer inputs and the UTXO set
+	 * shrinks by maxInputs - 1 outputs. Nothing runs it on its own; the selected
+	 * outputs are reserved as for a payment, and must be released if the
+	 * transaction is dropped.
+	 * 
+	 * @param maxInputs
+	 * @return Transaction, or null if there are fewer than two outputs
+	 */
+	public Transaction consolidate(int maxInputs) {
+
+		List<TransactionOutput> selected = new ArrayList<>();
 
-				break;
+		long total = 0;
+
+		synchronized (this) {
+
+			if (UTXOs.size() < 2 || maxInputs < 2) {
+
+				return null;
 			}
+
+			for (TransactionOutput UTXO : UTXOs.smallestFirst()) {
+
+				if (selected.size() == maxInputs) {
+
+					break;
+				}
+
+				selected.add(UTXO);
+
+				total = Amount.add(total, UTXO.value);
+			}
+
+			reserve(selected);
 		}
-		
-		Transaction newTransaction = new Transaction(publicKey, _reciever, value, inputs);
 
-		newTransaction.generateSignature(privateKey);
+		return spend(selected, publicKey, total);
+	}
+
+	/**
+	 * Makes the outputs a transaction of this wallet spends selectable again,
+	 * for a transaction which was dropped before any block spent them, such as
+	 * one a block or a pool rejected. Outputs a connected block has spent are
+	 * gone and stay gone.
+	 * 
+	 * @param transaction
+	 *            a transaction returned by this wallet, or null
+	 */
+	public synchronized void release(Transaction transaction) {
+
+		if (transaction == null) {
+
+			return;
+		}
+
+		for (TransactionInput input : transaction.getInputs()) {
+
+			TransactionOutput output = reserved.remove(input.transactionOutputId);
+
+			if (output != null) {
+
+				reservedTotal = Amount.subtract(reservedTotal, output.value);
+
+				UTXOs.add(output);
+			}
+		}
+	}
 
-		for (TransactionInput i : inputs) {
+	/**
+	 * @return the sum of the outputs reserved by payments no block has spent yet
+	 */
+	public synchronized long getReserved() {
+		return reservedTotal;
+	}
 
-			UTXOs.remove(i.transactionOutputId);
+	/**
+	 * @return the coinSelector
+	 */
+	public CoinSelector getCoinSelector() {
+		return coinSelector;
+	}
+
+	/**
+	 * Sets how payments choose their inputs
+	 * 
+	 * @param coinSelector
+	 */
+	public void setCoinSelector(CoinSelector coinSelector) {
+		this.coinSelector = coinSelector;
+	}
+
+	/**
+	 * Moves outputs a payment selected from {@link #UTXOs} to the reserved ones,
+	 * holding the monitor. The balance does not change, the outputs are still
+	 * unspent on the chain.
+	 */
+	private void reserve(List<TransactionOutput> selected) {
+
+		for (TransactionOutput UTXO : selected) {
+
+			UTXOs.remove(UTXO.id);
+
+			reserved.put(UTXO.id, UTXO);
+
+			reservedTotal = Amount.add(reservedTotal, UTXO.value);
+		}
+	}
+
+	/**
+	 * Signs a transaction spending the selected outputs. They stay reserved
+	 * until a block spending them connects, or the transaction is released.
+	 */
+	private Transaction spend(List<TransactionOutput> selected, PublicKey receiver, long value) {
+
+		ArrayList<TransactionInput> inputs = new ArrayList<>(selected.size());
+
+		for (TransactionOutput UTXO : selected) {
+
+			inputs.add(new TransactionInput(UTXO.id));
 		}
 
+		Transaction newTransaction = new Transaction(publicKey, receiver, value, inputs);
+
+		newTransaction.generateSignature(privateKey);
+
 		return newTransaction;
 	}
-	
 }
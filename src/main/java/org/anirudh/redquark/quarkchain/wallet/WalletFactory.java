@@ -0,0 +1,133 @@
+package org.anirudh.redquark.quarkchain.wallet;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Creates wallets in bulk.
+ *
+ * Looking up a {@link KeyPairGenerator} and initializing it for a curve costs
+ * more than generating a key pair, and seeding a fresh {@link SecureRandom}
+ * reads the system entropy source. Every thread therefore keeps one
+ * initialized generator with its own random source, seeded once, and reuses
+ * it for all the keys it generates. Separate random sources also keep threads
+ * from contending on a shared one.
+ *
+ * Batches of wallets are split across a fork-join pool, since the key pairs do
+ * not depend on each other. For bursts of single wallets, see {@link KeyPool}.
+ */
+public class WalletFactory {
+
+	/**
+	 * Curve of every wallet key
+	 */
+	public static final String CURVE = "prime192v1";
+
+	/**
+	 * Below this number of wallets a task creates them instead of splitting
+	 */
+	private static final int THRESHOLD = 32;
+
+	private static final ThreadLocal<KeyPairGenerator> GENERATOR = new ThreadLocal<KeyPairGenerator>() {
+
+		@Override
+		protected KeyPairGenerator initialValue() {
+
+			try {
+
+				KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("ECDSA", "BC");
+
+				keyPairGenerator.initialize(new ECGenParameterSpec(CURVE), SecureRandom.getInstance("SHA1PRNG"));
+
+				return keyPairGenerator;
+			} catch (GeneralSecurityException e) {
+
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	/**
+	 * Pool creating the batches
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param pool
+	 */
+	public WalletFactory(ForkJoinPool pool) {
+
+		this.pool = pool;
+	}
+
+	/**
+	 * Generates a key pair with the generator of the calling thread
+	 *
+	 * @return {@link KeyPair}
+	 */
+	public static KeyPair generateKeyPair() {
+
+		return GENERATOR.get().generateKeyPair();
+	}
+
+	/**
+	 * Creates wallets in parallel and waits for all of them
+	 *
+	 * @param count
+	 * @return the wallets
+	 */
+	public List<Wallet> createWallets(int count) {
+
+		Wallet[] wallets = new Wallet[count];
+
+		pool.invoke(new CreateTask(wallets, 0, count));
+
+		return Arrays.asList(wallets);
+	}
+
+	/**
+	 * Fills a range of the wallets, splitting it in halves until it is small
+	 */
+	private static class CreateTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Wallet[] wallets;
+
+		private final int from;
+
+		private final int to;
+
+		CreateTask(Wallet[] wallets, int from, int to) {
+
+			this.wallets = wallets;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from <= THRESHOLD) {
+
+				for (int i = from; i < to; i++) {
+
+					wallets[i] = new Wallet(generateKeyPair());
+				}
+
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+
+			invokeAll(new CreateTask(wallets, from, middle), new CreateTask(wallets, middle, to));
+		}
+	}
+}
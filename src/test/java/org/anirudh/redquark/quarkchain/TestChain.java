@@ -0,0 +1,105 @@
+package org.anirudh.redquark.quarkchain;
+
+import java.security.Security;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.chain.ChainState;
+import org.anirudh.redquark.quarkchain.mining.DifficultyAdjuster;
+import org.anirudh.redquark.quarkchain.mining.Target;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.UTXOSet;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+/**
+ * Chain shared by the tests: walletA owns the 100 coins of the genesis block,
+ * and blocks are mined at the easiest target, which never changes. Both
+ * wallets watch the chain.
+ */
+public class TestChain {
+
+	public final ChainState chain = newChain();
+
+	public final Wallet walletA;
+
+	public final Wallet walletB;
+
+	public final Transaction genesisTransaction;
+
+	public final Block genesis;
+
+	public TestChain() {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		walletA = new Wallet();
+		walletB = new Wallet();
+
+		Wallet coinBase = new Wallet();
+
+		genesisTransaction = new Transaction(coinBase.publicKey, walletA.publicKey, Amount.coins(100), null);
+		genesisTransaction.generateSignature(coinBase.privateKey);
+		genesisTransaction.transactionId = Hash256.ZERO;
+		genesisTransaction.outputs.add(new TransactionOutput(genesisTransaction.getReceiver(),
+				genesisTransaction.getValue(), genesisTransaction.transactionId));
+
+		chain.getUTXOs().put(genesisTransaction.outputs.get(0));
+
+		walletA.watch(chain);
+		walletB.watch(chain);
+
+		genesis = new Block(Hash256.ZERO);
+
+		genesis.addTransaction(genesisTransaction, chain.getUTXOs());
+
+		if (!addBlock(genesis)) {
+
+			throw new IllegalStateException("Genesis block did not connect");
+		}
+	}
+
+	/**
+	 * Mines a block for the next target of the chain and connects it
+	 *
+	 * @param block
+	 * @return true if the block was connected
+	 */
+	public boolean addBlock(Block block) {
+
+		block.mineBlock(chain.getNextTarget());
+
+		return chain.connectBlock(block);
+	}
+
+	/**
+	 * @return an empty chain with the target of the test chain
+	 */
+	public static ChainState newChain() {
+
+		return new ChainState(new UTXOSet(), new DifficultyAdjuster(Target.MAX, 1000, 1000));
+	}
+
+	/**
+	 * Mines a block holding already processed transactions at the easiest target
+	 *
+	 * @param previousHash
+	 * @param transactions
+	 * @return the mined block, not connected
+	 */
+	public static Block mine(Hash256 previousHash, Transaction... transactions) {
+
+		Block block = new Block(previousHash);
+
+		for (Transaction transaction : transactions) {
+
+			block.transactions.add(transaction);
+		}
+
+		block.mineBlock(Target.MAX);
+
+		return block;
+	}
+}
@@ -0,0 +1,41 @@
+package org.anirudh.redquark.quarkchain.block;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.junit.Test;
+
+/**
+ * Unit test for the midstate hashing of {@link BlockHeader}.
+ */
+public class BlockHeaderTest {
+
+	/**
+	 * The midstate hash must match a full SHA-256 of the same header
+	 */
+	@Test
+	public void midstateHashMatchesFullDigest() {
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < 100; i++) {
+
+			byte[] previousHash = new byte[32];
+			byte[] merkleRoot = new byte[32];
+
+			random.nextBytes(previousHash);
+			random.nextBytes(merkleRoot);
+
+			BlockHeader header = new BlockHeader(Hash256.of(previousHash), Hash256.of(merkleRoot),
+					random.nextLong(), random.nextInt());
+
+			int nonce = random.nextInt();
+
+			byte[] midstateHash = header.hash(nonce).clone();
+
+			assertArrayEquals(header.hashFull(nonce), midstateHash);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package org.anirudh.redquark.quarkchain.block;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.util.StringUtil;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link MerkleTree}.
+ */
+public class MerkleTreeTest {
+
+	/**
+	 * Appending leaves one by one gives the root of the tree built by pairing
+	 * whole layers
+	 */
+	@Test
+	public void incrementalRootMatchesFullRebuild() {
+
+		MerkleTree tree = new MerkleTree();
+
+		List<byte[]> leaves = new ArrayList<>();
+
+		for (int n = 1; n <= 40; n++) {
+
+			byte[] leaf = Hash256.sha256(("tx" + n).getBytes()).toBytes();
+
+			leaves.add(leaf);
+
+			tree.add(leaf);
+
+			assertArrayEquals("size " + n, rebuild(leaves), tree.getRoot());
+		}
+	}
+
+	/**
+	 * Every leaf has a proof against the root, which fails for another leaf
+	 */
+	@Test
+	public void proofsVerifyAgainstRoot() {
+
+		for (int n = 1; n <= 17; n++) {
+
+			MerkleTree tree = new MerkleTree();
+
+			for (int i = 0; i < n; i++) {
+
+				tree.add(Hash256.sha256(("tx" + i).getBytes()));
+			}
+
+			Hash256 root = tree.getRootHash();
+
+			for (int i = 0; i < n; i++) {
+
+				assertTrue(MerkleTree.verify(Hash256.sha256(("tx" + i).getBytes()), tree.getProof(i), root));
+			}
+
+			if (n > 1) {
+
+				assertFalse(MerkleTree.verify(Hash256.sha256(("tx" + 1).getBytes()), tree.getProof(0), root));
+			}
+		}
+	}
+
+	private static byte[] rebuild(List<byte[]> leaves) {
+
+		List<byte[]> layer = leaves;
+
+		while (layer.size() > 1) {
+
+			List<byte[]> parents = new ArrayList<>();
+
+			for (int i = 0; i < layer.size(); i += 2) {
+
+				if (i + 1 < layer.size()) {
+
+					byte[] pair = new byte[64];
+
+					System.arraycopy(layer.get(i), 0, pair, 0, 32);
+					System.arraycopy(layer.get(i + 1), 0, pair, 32, 32);
+
+					parents.add(StringUtil.sha256().digest(pair));
+				} else {
+
+					parents.add(layer.get(i));
+				}
+			}
+
+			layer = parents;
+		}
+
+		return layer.get(0);
+	}
+}
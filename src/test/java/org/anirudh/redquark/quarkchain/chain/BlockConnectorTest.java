@@ -0,0 +1,233 @@
+package org.anirudh.redquark.quarkchain.chain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.PublicKey;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.OverlayUTXOStore;
+import org.anirudh.redquark.quarkchain.utxo.UTXOSet;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link BlockConnector}.
+ */
+public class BlockConnectorTest {
+
+	private static final int WALLETS = 40;
+
+	private final UTXOSet utxos = new UTXOSet();
+
+	private final BlockConnector connector = new BlockConnector(new ForkJoinPool(4));
+
+	private final Wallet[] wallets = new Wallet[WALLETS];
+
+	/**
+	 * Outputs of 10 coins, one per wallet
+	 */
+	private final TransactionOutput[] funding = new TransactionOutput[WALLETS];
+
+	@Before
+	public void setUp() {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		for (int i = 0; i < WALLETS; i++) {
+
+			wallets[i] = new Wallet();
+			funding[i] = new TransactionOutput(wallets[i].publicKey, Amount.coins(10),
+					Hash256.sha256(new byte[] { (byte) i }));
+
+			utxos.put(funding[i]);
+		}
+	}
+
+	/**
+	 * Independent payments and payments spending outputs of the same block end
+	 * where a serial replay ends, and the undo record takes them back
+	 */
+	@Test
+	public void blockAppliesAsIfReplayed() {
+
+		OverlayUTXOStore replay = new OverlayUTXOStore(utxos);
+
+		Block block = new Block(Hash256.sha256(new byte[] { 1 }));
+
+		for (int i = 0; i < WALLETS; i++) {
+
+			block.transactions.add(pay(wallets[i], wallets[(i + 1) % WALLETS].publicKey, funding[i].id, replay));
+		}
+
+		/**
+		 * Wallet 1 passes on what wallet 0 paid it in this block
+		 */
+		Hash256 received = block.transactions.get(0).outputs.get(0).id;
+
+		block.transactions.add(pay(wallets[1], wallets[2].publicKey, received, replay));
+
+		int expectedSize = replay.size();
+
+		BlockUndo undo = connector.connect(block, utxos, true);
+
+		assertNotNull(undo);
+		assertEquals(expectedSize, utxos.size());
+
+		for (Hash256 id : replay.getAdded().keySet()) {
+
+			assertTrue(utxos.contains(id));
+		}
+
+		assertFalse(utxos.contains(received));
+		assertEquals(WALLETS, undo.getSpent().size());
+
+		undo.disconnect(utxos);
+
+		assertEquals(WALLETS, utxos.size());
+
+		for (TransactionOutput output : funding) {
+
+			assertTrue(utxos.contains(output.id));
+		}
+	}
+
+	/**
+	 * Two transactions spending the same output, each valid on its own
+	 */
+	@Test
+	public void doubleSpendIsRejected() {
+
+		Block block = new Block(Hash256.sha256(new byte[] { 1 }));
+
+		block.transactions.add(pay(wallets[0], wallets[1].publicKey, funding[0].id, new OverlayUTXOStore(utxos)));
+		block.transactions.add(pay(wallets[0], wallets[2].publicKey, funding[0].id, new OverlayUTXOStore(utxos)));
+
+		assertNull(connector.connect(block, utxos, true));
+		assertEquals(WALLETS, utxos.size());
+		assertTrue(utxos.contains(funding[0].id));
+	}
+
+	@Test
+	public void spendBeforeCreationIsRejected() {
+
+		OverlayUTXOStore replay = new OverlayUTXOStore(utxos);
+
+		Transaction first = pay(wallets[0], wallets[1].publicKey, funding[0].id, replay);
+		Transaction second = pay(wallets[1], wallets[2].publicKey, first.outputs.get(0).id, replay);
+
+		Block block = new Block(Hash256.sha256(new byte[] { 1 }));
+
+		block.transactions.add(second);
+		block.transactions.add(first);
+
+		assertNull(connector.connect(block, utxos, true));
+		assertEquals(WALLETS, utxos.size());
+	}
+
+	@Test
+	public void badSignatureIsRejected() {
+
+		Block block = new Block(Hash256.sha256(new byte[] { 1 }));
+
+		for (int i = 0; i < WALLETS; i++) {
+
+			block.transactions.add(pay(wallets[i], wallets[0].publicKey, funding[i].id, new OverlayUTXOStore(utxos)));
+		}
+
+		byte[] signature = block.transactions.get(WALLETS / 2).getSignature();
+
+		signature[signature.length - 1] ^= 1;
+
+		assertNull(connector.connect(block, utxos, true));
+		assertEquals(WALLETS, utxos.size());
+
+		/**
+		 * Nothing else is wrong with the block
+		 */
+		assertNotNull(connector.connect(block, utxos, false));
+	}
+
+	/**
+	 * Neither the outputs nor the inputs are signed, a block redirecting them is
+	 * rejected
+	 */
+	@Test
+	public void rewrittenTransactionIsRejected() {
+
+		PublicKey thief = wallets[WALLETS - 1].publicKey;
+
+		Transaction transaction = pay(wallets[0], wallets[1].publicKey, funding[0].id, new OverlayUTXOStore(utxos));
+
+		TransactionOutput payment = transaction.outputs.get(0);
+		TransactionOutput change = transaction.outputs.get(1);
+
+		transaction.outputs.set(0, new TransactionOutput(thief, payment.value, transaction.transactionId));
+
+		assertNull(connector.connect(block(transaction), utxos, true));
+
+		transaction.outputs.set(0, payment);
+		transaction.outputs.set(1, new TransactionOutput(thief, change.value, transaction.transactionId));
+
+		assertNull(connector.connect(block(transaction), utxos, true));
+
+		transaction.outputs.set(1, new TransactionOutput(change.receiver, change.value, Hash256.ZERO));
+
+		assertNull(connector.connect(block(transaction), utxos, true));
+
+		/**
+		 * Wallet 0 signs, but spends the output of wallet 2, which is worth as much
+		 * as its own
+		 */
+		Transaction theft = pay(wallets[0], thief, funding[0].id, new OverlayUTXOStore(utxos));
+
+		theft.inputs.set(0, new TransactionInput(funding[2].id));
+
+		assertNull(connector.connect(block(theft), utxos, true));
+		assertEquals(WALLETS, utxos.size());
+
+		transaction.outputs.set(1, change);
+
+		assertNotNull(connector.connect(block(transaction), utxos, true));
+	}
+
+	private static Block block(Transaction transaction) {
+
+		Block block = new Block(Hash256.sha256(new byte[] { 1 }));
+
+		block.transactions.add(transaction);
+
+		return block;
+	}
+
+	/**
+	 * Pays 4 coins from one output, processed against the given store
+	 */
+	private static Transaction pay(Wallet from, PublicKey to, Hash256 outputId, OverlayUTXOStore store) {
+
+		ArrayList<TransactionInput> inputs = new ArrayList<>();
+
+		inputs.add(new TransactionInput(outputId));
+
+		Transaction transaction = new Transaction(from.publicKey, to, Amount.coins(4), inputs);
+
+		transaction.generateSignature(from.privateKey);
+
+		assertTrue(transaction.processTransaction(store));
+
+		return transaction;
+	}
+}
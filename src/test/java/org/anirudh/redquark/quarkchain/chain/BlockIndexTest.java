@@ -0,0 +1,118 @@
+package org.anirudh.redquark.quarkchain.chain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.mining.Target;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link BlockIndex}.
+ */
+public class BlockIndexTest {
+
+	private final BlockIndex index = new BlockIndex();
+
+	private int blocks;
+
+	/**
+	 * A short branch of hard blocks beats a long branch of easy ones
+	 */
+	@Test
+	public void bestTipHasTheMostWork() {
+
+		BlockIndex.Node genesis = index.add(block(Hash256.ZERO, Target.MAX));
+
+		BlockIndex.Node easy = genesis;
+
+		for (int i = 0; i < 3; i++) {
+
+			easy = index.add(block(easy.getBlock().hash, Target.MAX));
+		}
+
+		assertSame(easy, index.getBestTip());
+
+		BlockIndex.Node hard = index.add(block(genesis.getBlock().hash, Target.fromLeadingZeros(2)));
+
+		assertSame(hard, index.getBestTip());
+		assertEquals(1, hard.getHeight());
+		assertEquals(3, easy.getHeight());
+		assertSame(genesis, BlockIndex.findFork(easy, hard));
+	}
+
+	/**
+	 * Among equal tips the first one seen stays the best
+	 */
+	@Test
+	public void firstTipWinsTies() {
+
+		BlockIndex.Node genesis = index.add(block(Hash256.ZERO, Target.MAX));
+
+		BlockIndex.Node first = index.add(block(genesis.getBlock().hash, Target.MAX));
+
+		index.add(block(genesis.getBlock().hash, Target.MAX));
+
+		assertSame(first, index.getBestTip());
+	}
+
+	@Test
+	public void invalidBranchIsNeverBest() {
+
+		BlockIndex.Node genesis = index.add(block(Hash256.ZERO, Target.MAX));
+
+		BlockIndex.Node main = index.add(block(genesis.getBlock().hash, Target.MAX));
+
+		BlockIndex.Node side = index.add(block(genesis.getBlock().hash, Target.MAX));
+		BlockIndex.Node sideTip = index.add(block(side.getBlock().hash, Target.MAX));
+
+		assertSame(sideTip, index.getBestTip());
+
+		index.invalidate(side);
+
+		assertTrue(sideTip.isInvalid());
+		assertSame(main, index.getBestTip());
+		assertTrue(index.add(block(sideTip.getBlock().hash, Target.MAX)).isInvalid());
+		assertSame(main, index.getBestTip());
+	}
+
+	@Test
+	public void unknownParentIsNotAdded() {
+
+		index.add(block(Hash256.ZERO, Target.MAX));
+
+		assertNull(index.add(block(Hash256.sha256(new byte[] { 1 }), Target.MAX)));
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	public void chainIsIndexedByHeight() {
+
+		BlockIndex.Node tip = index.add(block(Hash256.ZERO, Target.MAX));
+
+		for (int i = 0; i < 4; i++) {
+
+			tip = index.add(block(tip.getBlock().hash, Target.MAX));
+		}
+
+		assertEquals(5, BlockIndex.getChain(tip).size());
+		assertSame(tip.getBlock(), BlockIndex.getChain(tip).get(4));
+		assertEquals(Hash256.ZERO, BlockIndex.getChain(tip).get(0).previousHash);
+	}
+
+	/**
+	 * Builds an unmined block with a unique hash
+	 */
+	private Block block(Hash256 previousHash, Target target) {
+
+		Hash256 hash = Hash256.sha256(new byte[] { 0, (byte) ++blocks });
+
+		return new Block(hash, previousHash, Hash256.ZERO, blocks, target.getBits(), 0, new ArrayList<Transaction>());
+	}
+}
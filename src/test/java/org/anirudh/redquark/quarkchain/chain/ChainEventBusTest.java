@@ -0,0 +1,234 @@
+package org.anirudh.redquark.quarkchain.chain;
+
+import static org.anirudh.redquark.quarkchain.TestChain.mine;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.anirudh.redquark.quarkchain.TestChain;
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.utxo.OverlayUTXOStore;
+import org.anirudh.redquark.quarkchain.utxo.UTXOSet;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the output events of {@link ChainState} and the wallets
+ * following them.
+ */
+public class ChainEventBusTest {
+
+	private TestChain test;
+
+	private ChainState chain;
+
+	private Wallet walletA;
+
+	private Wallet walletB;
+
+	private Block genesis;
+
+	@Before
+	public void setUp() {
+
+		test = new TestChain();
+		chain = test.chain;
+
+		walletA = test.walletA;
+		walletB = test.walletB;
+		genesis = test.genesis;
+	}
+
+	/**
+	 * A second wallet of the same keys spends the outputs, the first one hears
+	 * of it without reading the UTXO set
+	 */
+	@Test
+	public void walletNoticesOutputsSpentElsewhere() {
+
+		assertEquals(Amount.coins(100), walletA.getBalance());
+		assertEquals(0, walletB.getBalance());
+
+		Wallet copy = new Wallet(new KeyPair(walletA.publicKey, walletA.privateKey));
+
+		copy.watch(chain);
+
+		Block block = new Block(genesis.hash);
+
+		block.addTransaction(copy.sendFunds(walletB.publicKey, Amount.coins(40)), chain.getUTXOs());
+
+		assertTrue(test.addBlock(block));
+
+		assertEquals(Amount.coins(60), walletA.UTXOs.getTotal());
+		assertEquals(1, walletA.UTXOs.size());
+		assertEquals(Amount.coins(60), walletA.getBalance());
+		assertEquals(Amount.coins(40), walletB.getBalance());
+	}
+
+	/**
+	 * A subscription starts with the current outputs, and a reorganization takes
+	 * back the outputs of the blocks it disconnects
+	 */
+	@Test
+	public void eventsFollowAReorganization() {
+
+		Recorder recorder = new Recorder();
+
+		chain.subscribe(walletA.publicKey, recorder);
+
+		assertEquals(1, recorder.created.size());
+		assertEquals(Amount.coins(100), recorder.balance);
+
+		Transaction sidePayment = walletA.sendFunds(walletB.publicKey, Amount.coins(2));
+
+		assertTrue(sidePayment.processTransaction(new OverlayUTXOStore(chain.getUTXOs())));
+
+		/**
+		 * The side payment goes to another branch, the main one spends the same
+		 * output again
+		 */
+		walletA.release(sidePayment);
+
+		Block main1 = new Block(genesis.hash);
+
+		main1.addTransaction(walletA.sendFunds(walletB.publicKey, Amount.coins(1)), chain.getUTXOs());
+
+		assertTrue(test.addBlock(main1));
+		assertEquals(Amount.coins(99), recorder.balance);
+		assertEquals(Amount.coins(99), walletA.getBalance());
+
+		Block side1 = mine(genesis.hash, sidePayment);
+
+		assertTrue(chain.acceptBlock(side1));
+		assertTrue(chain.acceptBlock(mine(side1.hash)));
+
+		assertEquals(Amount.coins(98), recorder.balance);
+		assertEquals(Amount.coins(98), walletA.getBalance());
+		assertEquals(Amount.coins(2), walletB.getBalance());
+		assertEquals(chain.getUTXOs().getBalance(walletA.publicKey), walletA.getBalance());
+
+		chain.unsubscribe(walletA.publicKey, recorder);
+
+		Block next = new Block(chain.getTip().hash);
+
+		next.addTransaction(walletA.sendFunds(walletB.publicKey, Amount.coins(8)), chain.getUTXOs());
+
+		assertTrue(test.addBlock(next));
+		assertEquals(Amount.coins(98), recorder.balance);
+		assertEquals(Amount.coins(90), walletA.getBalance());
+	}
+
+	/**
+	 * Threads moving the wallet back to the same chain at once subscribe it
+	 * once: after it moves to another chain, the blocks of the first one no
+	 * longer reach it
+	 */
+	@Test
+	public void concurrentWatchesSubscribeOnce() throws InterruptedException {
+
+		final ChainState first = chain;
+
+		/**
+		 * Leaving this chain takes a while, so every thread is on its way to
+		 * subscribe before the first one is done
+		 */
+		walletA.watch(new ChainState(new UTXOSet(), first.getDifficulty()) {
+
+			@Override
+			public void unsubscribe(PublicKey owner, OutputListener listener) {
+
+				try {
+
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+
+					throw new RuntimeException(e);
+				}
+
+				super.unsubscribe(owner, listener);
+			}
+		});
+
+		final CountDownLatch start = new CountDownLatch(1);
+
+		Thread[] watchers = new Thread[8];
+
+		for (int i = 0; i < watchers.length; i++) {
+
+			watchers[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+
+					try {
+
+						start.await();
+					} catch (InterruptedException e) {
+
+						throw new RuntimeException(e);
+					}
+
+					walletA.watch(first);
+				}
+			});
+
+			watchers[i].start();
+		}
+
+		start.countDown();
+
+		for (Thread watcher : watchers) {
+
+			watcher.join();
+		}
+
+		assertEquals(Amount.coins(100), walletA.getBalance());
+
+		Transaction payment = walletA.sendFunds(walletB.publicKey, Amount.coins(10));
+
+		assertTrue(payment.processTransaction(new OverlayUTXOStore(first.getUTXOs())));
+
+		walletA.watch(TestChain.newChain());
+
+		assertEquals(0, walletA.getBalance());
+
+		assertTrue(first.acceptBlock(mine(genesis.hash, payment)));
+		assertEquals(2, first.getHeight());
+
+		assertEquals(0, walletA.getBalance());
+	}
+
+	private static class Recorder implements OutputListener {
+
+		final List<TransactionOutput> created = new ArrayList<>();
+
+		final List<TransactionOutput> spent = new ArrayList<>();
+
+		long balance;
+
+		@Override
+		public void outputCreated(TransactionOutput output) {
+
+			created.add(output);
+
+			balance += output.value;
+		}
+
+		@Override
+		public void outputSpent(TransactionOutput output) {
+
+			spent.add(output);
+
+			balance -= output.value;
+		}
+	}
+}
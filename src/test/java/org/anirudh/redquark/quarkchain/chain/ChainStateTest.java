@@ -0,0 +1,379 @@
+package org.anirudh.redquark.quarkchain.chain;
+
+import static org.anirudh.redquark.quarkchain.TestChain.mine;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.anirudh.redquark.quarkchain.TestChain;
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.mining.DifficultyAdjuster;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.OverlayUTXOStore;
+import org.anirudh.redquark.quarkchain.validation.ChainValidator;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the fork choice and reorganizations of {@link ChainState}.
+ */
+public class ChainStateTest {
+
+	private TestChain test;
+
+	private ChainState chain;
+
+	private Wallet walletA;
+
+	private Wallet walletB;
+
+	private Transaction genesisTransaction;
+
+	private Block genesis;
+
+	@Before
+	public void setUp() {
+
+		test = new TestChain();
+		chain = test.chain;
+
+		walletA = test.walletA;
+		walletB = test.walletB;
+		genesisTransaction = test.genesisTransaction;
+		genesis = test.genesis;
+	}
+
+	/**
+	 * Two branches spend the genesis output differently, the chain follows
+	 * whichever has more work and its balances follow the chain
+	 */
+	@Test
+	public void competingTipsFollowTheMostWork() {
+
+		Transaction sidePayment = walletA.sendFunds(walletB.publicKey, Amount.coins(2));
+
+		assertTrue(sidePayment.processTransaction(new OverlayUTXOStore(chain.getUTXOs())));
+
+		/**
+		 * The side payment goes to another branch, the main one spends the same
+		 * output again
+		 */
+		walletA.release(sidePayment);
+
+		Block side1 = mine(genesis.hash, sidePayment);
+
+		Block main1 = new Block(genesis.hash);
+
+		main1.addTransaction(walletA.sendFunds(walletB.publicKey, Amount.coins(1)), chain.getUTXOs());
+
+		assertTrue(test.addBlock(main1));
+
+		/**
+		 * Equal work, the connected tip stays
+		 */
+		assertTrue(chain.acceptBlock(side1));
+		assertSame(main1, chain.getTip());
+		assertEquals(Amount.coins(1), walletB.getBalance());
+
+		Block side2 = mine(side1.hash);
+
+		assertTrue(chain.acceptBlock(side2));
+		assertSame(side2, chain.getTip());
+		assertEquals(3, chain.getHeight());
+		assertSame(side1, chain.getBlocks().get(1));
+		assertEquals(Amount.coins(2), walletB.getBalance());
+		assertEquals(Amount.coins(98), walletA.getBalance());
+		assertTrue(validate());
+
+		Block main2 = mine(main1.hash);
+		Block main3 = mine(main2.hash);
+
+		assertTrue(chain.acceptBlock(main2));
+		assertSame(side2, chain.getTip());
+
+		assertTrue(chain.acceptBlock(main3));
+		assertSame(main3, chain.getTip());
+		assertSame(main1, chain.getBlocks().get(1));
+		assertEquals(Amount.coins(1), walletB.getBalance());
+		assertEquals(Amount.coins(99), walletA.getBalance());
+		assertEquals(2, chain.getUTXOs().size());
+		assertTrue(validate());
+	}
+
+	/**
+	 * A heavier branch spending an output it does not have is rejected and the
+	 * chain is restored
+	 */
+	@Test
+	public void invalidBranchIsRolledBack() {
+
+		Block main1 = new Block(genesis.hash);
+
+		main1.addTransaction(walletA.sendFunds(walletB.publicKey, Amount.coins(1)), chain.getUTXOs());
+
+		assertTrue(test.addBlock(main1));
+
+		/**
+		 * Spends an output of main1, which the side branch does not contain
+		 */
+		Transaction payment = walletB.sendFunds(walletA.publicKey, Amount.coins(1));
+
+		assertTrue(payment.processTransaction(new OverlayUTXOStore(chain.getUTXOs())));
+
+		Block side1 = mine(genesis.hash, payment);
+		Block side2 = mine(side1.hash);
+
+		assertTrue(chain.acceptBlock(side1));
+		assertFalse(chain.acceptBlock(side2));
+
+		assertSame(main1, chain.getTip());
+		assertEquals(2, chain.getHeight());
+		assertEquals(Amount.coins(1), walletB.getBalance());
+		assertEquals(Amount.coins(99), walletA.getBalance());
+
+		/**
+		 * The branch stays invalid
+		 */
+		assertFalse(chain.acceptBlock(mine(side2.hash)));
+		assertTrue(validate());
+	}
+
+	/**
+	 * A heavier branch carrying a signed payment whose output was redirected to
+	 * another key is not connected
+	 */
+	@Test
+	public void rewrittenOutputsAreRejected() {
+
+		Wallet thief = new Wallet();
+
+		thief.watch(chain);
+
+		/**
+		 * Spends the genesis output, which the side branch also has
+		 */
+		Transaction payment = walletA.sendFunds(walletB.publicKey, Amount.coins(5));
+
+		assertTrue(payment.processTransaction(new OverlayUTXOStore(chain.getUTXOs())));
+
+		payment.outputs.set(0, new TransactionOutput(thief.publicKey, payment.getValue(), payment.transactionId));
+
+		/**
+		 * The payment goes to another branch, the main one spends the same
+		 * output again
+		 */
+		walletA.release(payment);
+
+		Block main1 = new Block(genesis.hash);
+
+		main1.addTransaction(walletA.sendFunds(walletB.publicKey, Amount.coins(1)), chain.getUTXOs());
+
+		assertTrue(test.addBlock(main1));
+
+		Block side1 = mine(genesis.hash, payment);
+		Block side2 = mine(side1.hash);
+
+		assertTrue(chain.acceptBlock(side1));
+		assertFalse(chain.acceptBlock(side2));
+
+		assertSame(main1, chain.getTip());
+		assertEquals(0, thief.getBalance());
+		assertEquals(Amount.coins(99), walletA.getBalance());
+		assertTrue(validate());
+	}
+
+	@Test
+	public void blockOfAnUnknownBranchIsRejected() {
+
+		assertFalse(chain.acceptBlock(mine(Hash256.sha256(new byte[] { 1 }))));
+		assertSame(genesis, chain.getTip());
+	}
+
+	/**
+	 * A transaction swapped under a mined header is caught by the merkle root,
+	 * whether or not signatures are verified, and by the validator
+	 */
+	@Test
+	public void swappedTransactionIsRejected() {
+
+		Transaction payment = walletA.sendFunds(walletB.publicKey, Amount.coins(10));
+
+		assertTrue(payment.processTransaction(new OverlayUTXOStore(chain.getUTXOs())));
+
+		walletA.release(payment);
+
+		Transaction other = walletA.sendFunds(walletB.publicKey, Amount.coins(90));
+
+		assertTrue(other.processTransaction(new OverlayUTXOStore(chain.getUTXOs())));
+
+		Block block = mine(genesis.hash, payment);
+
+		block.transactions.set(0, other);
+
+		assertFalse(chain.connectBlock(block));
+		assertFalse(chain.connectBlock(block, false));
+		assertSame(genesis, chain.getTip());
+		assertEquals(Amount.coins(100), walletA.getBalance());
+
+		List<Block> blocks = new ArrayList<>(chain.getBlocks());
+
+		blocks.add(block);
+
+		assertFalse(new ChainValidator(ForkJoinPool.commonPool()).isChainValid(blocks, chain.getDifficulty(),
+				genesisTransaction));
+
+		block.transactions.set(0, payment);
+
+		assertTrue(chain.connectBlock(block));
+		assertEquals(Amount.coins(10), walletB.getBalance());
+	}
+
+	/**
+	 * A block stamped before the median of its parents, or too far ahead of the
+	 * clock, is refused by every path, and a well stamped one connects
+	 */
+	@Test
+	public void badTimeStampsAreRejected() {
+
+		long now = System.currentTimeMillis();
+
+		for (long timeStamp : new long[] { genesis.getTimeStamp() - 1,
+				now + DifficultyAdjuster.MAX_FUTURE_DRIFT + 60000 }) {
+
+			Block block = stampedAt(timeStamp);
+
+			assertFalse(chain.connectBlock(block));
+			assertFalse(chain.acceptBlock(block));
+			assertSame(genesis, chain.getTip());
+
+			List<Block> blocks = new ArrayList<>(chain.getBlocks());
+
+			blocks.add(block);
+
+			assertFalse(new ChainValidator(ForkJoinPool.commonPool()).isChainValid(blocks, chain.getDifficulty(),
+					genesisTransaction));
+		}
+
+		assertTrue(chain.connectBlock(stampedAt(Math.max(now, genesis.getTimeStamp()))));
+		assertTrue(validate());
+	}
+
+	/**
+	 * An empty block on the genesis block with the given time stamp, mined
+	 */
+	private Block stampedAt(long timeStamp) {
+
+		Block block = new Block(null, genesis.hash, null, timeStamp, 0, 0, new ArrayList<Transaction>());
+
+		block.mineBlock(chain.getNextTarget());
+
+		return block;
+	}
+
+	/**
+	 * Readers running while blocks connect only ever see whole snapshots and
+	 * whole blocks: every chain they read links up and never changes, heights
+	 * only grow and a balance is always that of a block boundary
+	 */
+	@Test
+	public void readersSeeWholeBlocksWhileConnecting() throws InterruptedException {
+
+		final int blocks = 20;
+
+		final AtomicBoolean done = new AtomicBoolean();
+
+		final AtomicReference<String> failure = new AtomicReference<>();
+
+		Thread[] readers = new Thread[4];
+
+		for (int i = 0; i < readers.length; i++) {
+
+			readers[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+
+					int lastHeight = 0;
+
+					while (!done.get() && failure.get() == null) {
+
+						List<Block> snapshot = chain.getBlocks();
+
+						int height = snapshot.size();
+
+						if (height < lastHeight) {
+
+							failure.set("Height went back from " + lastHeight + " to " + height);
+						}
+
+						for (int b = 1; b < height; b++) {
+
+							if (!snapshot.get(b).previousHash.equals(snapshot.get(b - 1).hash)) {
+
+								failure.set("Block " + b + " does not follow its parent");
+							}
+						}
+
+						if (snapshot.size() != height) {
+
+							failure.set("Snapshot changed while it was read");
+						}
+
+						long balance = chain.getUTXOs().getBalance(walletA.publicKey);
+
+						if (balance % Amount.coins(1) != 0 || balance < Amount.coins(100 - blocks)) {
+
+							failure.set("Balance between two blocks: " + Amount.toString(balance));
+						}
+
+						lastHeight = height;
+					}
+				}
+			});
+
+			readers[i].start();
+		}
+
+		try {
+
+			for (int i = 0; i < blocks; i++) {
+
+				Block block = new Block(chain.getTip().hash);
+
+				assertTrue(block.addTransaction(walletA.sendFunds(walletB.publicKey, Amount.coins(1)),
+						chain.getUTXOs()));
+				assertTrue(test.addBlock(block));
+			}
+		} finally {
+
+			done.set(true);
+
+			for (Thread reader : readers) {
+
+				reader.join();
+			}
+		}
+
+		assertNull(failure.get());
+		assertEquals(blocks + 1, chain.getHeight());
+		assertEquals(Amount.coins(100 - blocks), walletA.getBalance());
+	}
+
+	private boolean validate() {
+
+		return new ChainValidator(ForkJoinPool.commonPool()).isChainValid(chain.getBlocks(),
+				chain.getDifficulty(), genesisTransaction);
+	}
+}
@@ -0,0 +1,182 @@
+package org.anirudh.redquark.quarkchain.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.PublicKey;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the key caches of {@link CryptoService}.
+ */
+public class CryptoServiceTest {
+
+	private static final int THREADS = 8;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+
+		executor.shutdownNow();
+
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * A key read since it was added gets a second chance, the oldest unread key
+	 * is evicted
+	 */
+	@Test
+	public void recentlyReadKeysStay() {
+
+		CryptoService.BoundedCache<Integer, String> cache = new CryptoService.BoundedCache<>(4);
+
+		for (int i = 0; i < 4; i++) {
+
+			assertNull(cache.putIfAbsent(i, "value " + i));
+		}
+
+		assertEquals("value 0", cache.get(0));
+
+		assertNull(cache.putIfAbsent(4, "value 4"));
+
+		assertEquals(4, cache.size());
+		assertNotNull(cache.get(0));
+		assertNull(cache.get(1));
+		assertEquals("value 4", cache.putIfAbsent(4, "other"));
+	}
+
+	/**
+	 * Writers racing on the same keys, while reading others, add each key at
+	 * least once, and the cache ends within its bound
+	 */
+	@Test
+	public void concurrentWritersStayWithinTheBound() throws Exception {
+
+		final CryptoService.BoundedCache<Integer, Object> cache = new CryptoService.BoundedCache<>(1000);
+
+		final CountDownLatch start = new CountDownLatch(1);
+
+		List<Future<Integer>> results = new ArrayList<>();
+
+		for (int t = 0; t < THREADS; t++) {
+
+			results.add(executor.submit(new Callable<Integer>() {
+
+				@Override
+				public Integer call() throws InterruptedException {
+
+					int added = 0;
+
+					start.await();
+
+					for (int key = 0; key < 10000; key++) {
+
+						if (cache.putIfAbsent(key, new Object()) == null) {
+
+							added++;
+						}
+
+						cache.get(key / 2);
+					}
+
+					return added;
+				}
+			}));
+		}
+
+		start.countDown();
+
+		int added = 0;
+
+		for (Future<Integer> result : results) {
+
+			added += result.get(30, TimeUnit.SECONDS);
+		}
+
+		assertTrue(added >= 10000);
+		assertTrue(cache.size() <= 1000);
+		assertTrue(cache.size() > 0);
+	}
+
+	/**
+	 * Threads decoding the same keys all get the same objects
+	 */
+	@Test
+	public void concurrentDecodingSharesKeys() throws Exception {
+
+		final List<byte[]> encodings = new ArrayList<>();
+
+		for (int i = 0; i < 16; i++) {
+
+			encodings.add(new Wallet().publicKey.getEncoded());
+		}
+
+		final CountDownLatch start = new CountDownLatch(1);
+
+		List<Future<PublicKey[]>> results = new ArrayList<>();
+
+		for (int t = 0; t < THREADS; t++) {
+
+			results.add(executor.submit(new Callable<PublicKey[]>() {
+
+				@Override
+				public PublicKey[] call() throws InterruptedException {
+
+					PublicKey[] keys = new PublicKey[encodings.size()];
+
+					start.await();
+
+					for (int i = 0; i < keys.length; i++) {
+
+						keys[i] = CryptoService.decodePublicKey(encodings.get(i));
+
+						CryptoService.getAddress(keys[i]);
+					}
+
+					return keys;
+				}
+			}));
+		}
+
+		start.countDown();
+
+		PublicKey[] first = results.get(0).get(30, TimeUnit.SECONDS);
+
+		for (Future<PublicKey[]> result : results) {
+
+			PublicKey[] keys = result.get(30, TimeUnit.SECONDS);
+
+			for (int i = 0; i < keys.length; i++) {
+
+				assertSame(first[i], keys[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package org.anirudh.redquark.quarkchain.mempool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import org.anirudh.redquark.quarkchain.TestChain;
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.chain.BlockConnector;
+import org.anirudh.redquark.quarkchain.chain.ChainState;
+import org.anirudh.redquark.quarkchain.metrics.NodeMetrics;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.UTXOSet;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link BlockTemplateBuilder}.
+ */
+public class BlockTemplateBuilderTest {
+
+	private static final Hash256 TIP = Hash256.sha256(new byte[] { 1 });
+
+	private Wallet owner;
+
+	private Wallet receiver;
+
+	private final UTXOSet utxos = new UTXOSet();
+
+	private Mempool mempool;
+
+	@Before
+	public void setUp() {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		owner = new Wallet();
+		receiver = new Wallet();
+
+		mempool = new Mempool(utxos, 100);
+	}
+
+	/**
+	 * The block takes the highest priorities up to its size and processes them
+	 */
+	@Test
+	public void blockTakesTheHighestPriorities() {
+
+		Transaction first = pay(fund(0), 1);
+		Transaction second = pay(fund(1), 3);
+		Transaction third = pay(fund(2), 2);
+
+		Block block = new BlockTemplateBuilder(mempool, 2).build(TIP);
+
+		assertEquals(2, block.transactions.size());
+		assertSame(second, block.transactions.get(0));
+		assertSame(third, block.transactions.get(1));
+		assertEquals(2, second.outputs.size());
+		assertEquals(1, mempool.size());
+
+		assertSame(first, new BlockTemplateBuilder(mempool).build(TIP).transactions.get(0));
+	}
+
+	/**
+	 * A transaction whose input the chain spent after it was pooled is dropped
+	 */
+	@Test
+	public void staleTransactionIsDropped() {
+
+		TransactionOutput output = fund(0);
+
+		pay(output, 1);
+
+		utxos.remove(output.id);
+
+		Block block = new BlockTemplateBuilder(mempool).build(TIP);
+
+		assertTrue(block.transactions.isEmpty());
+		assertEquals(0, mempool.size());
+		assertFalse(mempool.isSpent(output.id));
+	}
+
+	/**
+	 * The inputs of a template stay claimed while it is mined, and a block of
+	 * the chain spending them evicts what conflicts with it
+	 */
+	@Test
+	public void connectedBlockEvictsConflicts() {
+
+		TestChain test = new TestChain();
+
+		ChainState chain = test.chain;
+
+		Mempool pool = new Mempool(chain.getUTXOs(), 100);
+
+		chain.subscribe(pool);
+
+		Transaction pooled = test.walletA.sendFunds(test.walletB.publicKey, Amount.coins(5));
+
+		assertEquals(Mempool.SubmitResult.ACCEPTED, pool.submit(pooled));
+
+		Block template = new BlockTemplateBuilder(pool).build(chain.getTip().hash);
+
+		assertEquals(1, template.transactions.size());
+		assertEquals(0, pool.size());
+
+		Hash256 input = pooled.getInputs().get(0).transactionOutputId;
+
+		assertEquals(Mempool.SubmitResult.DOUBLE_SPEND, pool.submit(pooled));
+		assertTrue(pool.isSpent(input));
+
+		/**
+		 * Another node spends the same output first: the template is abandoned
+		 */
+		test.walletA.release(pooled);
+
+		Block block = new Block(chain.getTip().hash);
+
+		assertTrue(block.addTransaction(test.walletA.sendFunds(test.walletB.publicKey, Amount.coins(7)),
+				chain.getUTXOs()));
+		assertTrue(test.addBlock(block));
+
+		assertFalse(pool.isSpent(input));
+		assertEquals(Amount.coins(7), test.walletB.getBalance());
+
+		/**
+		 * A pooled payment spending an output the next block spends is evicted
+		 */
+		Transaction conflicting = test.walletA.sendFunds(test.walletB.publicKey, Amount.coins(1));
+
+		assertEquals(Mempool.SubmitResult.ACCEPTED, pool.submit(conflicting));
+
+		test.walletA.release(conflicting);
+
+		block = new Block(chain.getTip().hash);
+
+		assertTrue(block.addTransaction(test.walletA.sendFunds(test.walletB.publicKey, Amount.coins(2)),
+				chain.getUTXOs()));
+		assertTrue(test.addBlock(block));
+
+		assertEquals(0, pool.size());
+		assertFalse(pool.isSpent(conflicting.getInputs().get(0).transactionOutputId));
+	}
+
+	/**
+	 * Signatures verified by the pool are not verified again when the block is
+	 * built and connected, unless they changed since
+	 */
+	@Test
+	public void pooledSignaturesAreVerifiedOnce() {
+
+		pay(fund(0), 3);
+		pay(fund(1), 2);
+
+		Transaction tampered = pay(fund(2), 1);
+
+		long verified = NodeMetrics.get().getVerifyNanos().getCount();
+
+		Block block = new BlockTemplateBuilder(mempool, 2).build(TIP);
+
+		assertNotNull(new BlockConnector(ForkJoinPool.commonPool()).connect(block, utxos, true));
+		assertEquals(verified, NodeMetrics.get().getVerifyNanos().getCount());
+
+		byte[] signature = tampered.getSignature();
+
+		signature[signature.length - 1] ^= 1;
+
+		assertFalse(tampered.isSignatureVerified());
+		assertTrue(new BlockTemplateBuilder(mempool).build(TIP).transactions.isEmpty());
+	}
+
+	private TransactionOutput fund(int index) {
+
+		TransactionOutput output = new TransactionOutput(owner.publicKey, Amount.coins(10),
+				Hash256.sha256(new byte[] { (byte) index }));
+
+		utxos.put(output);
+
+		return output;
+	}
+
+	/**
+	 * Submits a payment of 1 coin from an output with the given priority
+	 */
+	private Transaction pay(TransactionOutput output, double priority) {
+
+		ArrayList<TransactionInput> inputs = new ArrayList<>();
+
+		inputs.add(new TransactionInput(output.id));
+
+		Transaction transaction = new Transaction(owner.publicKey, receiver.publicKey, Amount.coins(1), inputs);
+
+		transaction.generateSignature(owner.privateKey);
+
+		assertEquals(Mempool.SubmitResult.ACCEPTED, mempool.submit(transaction, priority));
+
+		return transaction;
+	}
+}
@@ -0,0 +1,327 @@
+package org.anirudh.redquark.quarkchain.mempool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.PublicKey;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.anirudh.redquark.quarkchain.mempool.Mempool.SubmitResult;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.UTXOSet;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Mempool}.
+ */
+public class MempoolTest {
+
+	private static final int OUTPUTS = 20;
+
+	private final UTXOSet utxos = new UTXOSet();
+
+	private final Mempool mempool = new Mempool(utxos, 100);
+
+	private Wallet owner;
+
+	private Wallet receiver;
+
+	/**
+	 * Outputs of 10 coins owned by owner
+	 */
+	private final TransactionOutput[] funding = new TransactionOutput[OUTPUTS];
+
+	@Before
+	public void setUp() {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		owner = new Wallet();
+		receiver = new Wallet();
+
+		for (int i = 0; i < OUTPUTS; i++) {
+
+			funding[i] = new TransactionOutput(owner.publicKey, Amount.coins(10),
+					Hash256.sha256(new byte[] { (byte) i }));
+
+			utxos.put(funding[i]);
+		}
+	}
+
+	@Test
+	public void pollTakesTheHighestPriorityFirst() {
+
+		Transaction low = pay(owner, receiver.publicKey, funding[0].id);
+		Transaction high = pay(owner, receiver.publicKey, funding[1].id);
+		Transaction middle = pay(owner, receiver.publicKey, funding[2].id);
+
+		assertEquals(SubmitResult.ACCEPTED, mempool.submit(low, 1));
+		assertEquals(SubmitResult.ACCEPTED, mempool.submit(high, 3));
+		assertEquals(SubmitResult.ACCEPTED, mempool.submit(middle, 2));
+
+		List<Transaction> batch = mempool.poll(2);
+
+		assertEquals(2, batch.size());
+		assertSame(high, batch.get(0));
+		assertSame(middle, batch.get(1));
+		assertEquals(1, mempool.size());
+
+		/**
+		 * Polled transactions keep their outputs until they are dropped
+		 */
+		assertTrue(mempool.isSpent(funding[1].id));
+		assertTrue(mempool.isSpent(funding[0].id));
+
+		mempool.drop(batch);
+
+		assertFalse(mempool.isSpent(funding[1].id));
+
+		assertSame(low, mempool.poll(10).get(0));
+		assertEquals(0, mempool.size());
+		assertTrue(mempool.poll(10).isEmpty());
+	}
+
+	/**
+	 * A double spend on its second input releases the first one
+	 */
+	@Test
+	public void doubleSpendReleasesItsClaims() {
+
+		assertEquals(SubmitResult.ACCEPTED, mempool.submit(pay(owner, receiver.publicKey, funding[1].id)));
+
+		Transaction conflicting = pay(owner, receiver.publicKey, funding[0].id, funding[1].id);
+
+		assertEquals(SubmitResult.DOUBLE_SPEND, mempool.submit(conflicting));
+		assertFalse(mempool.isSpent(funding[0].id));
+		assertEquals(1, mempool.size());
+
+		assertEquals(SubmitResult.ACCEPTED, mempool.submit(pay(owner, receiver.publicKey, funding[0].id)));
+	}
+
+	/**
+	 * Inputs are checked against the chain before anything is claimed, and a
+	 * signature only holds for the inputs it was made for
+	 */
+	@Test
+	public void inputsMustBeUnspentOutputsOfTheSender() {
+
+		Wallet thief = new Wallet();
+
+		assertEquals(SubmitResult.UNKNOWN_INPUT,
+				mempool.submit(pay(owner, receiver.publicKey, Hash256.sha256(new byte[] { 99 }))));
+
+		/**
+		 * A transaction of the thief listing the owner's output
+		 */
+		assertEquals(SubmitResult.INVALID, mempool.submit(pay(thief, thief.publicKey, funding[0].id)));
+
+		Transaction tooLarge = new Transaction(owner.publicKey, receiver.publicKey, Amount.coins(11),
+				inputs(funding[0].id));
+
+		tooLarge.generateSignature(owner.privateKey);
+
+		assertEquals(SubmitResult.INVALID, mempool.submit(tooLarge));
+
+		Transaction forged = pay(owner, receiver.publicKey, funding[0].id);
+
+		forged.getSignature()[forged.getSignature().length - 1] ^= 1;
+
+		assertEquals(SubmitResult.INVALID, mempool.submit(forged));
+
+		/**
+		 * The owner's signature replayed over another of its outputs
+		 */
+		Transaction signed = pay(owner, receiver.publicKey, funding[0].id);
+
+		Transaction replayed = new Transaction(null, owner.publicKey, receiver.publicKey, signed.getValue(),
+				signed.getSignature(), inputs(funding[1].id), new ArrayList<TransactionOutput>());
+
+		assertEquals(SubmitResult.INVALID, mempool.submit(replayed));
+		assertEquals(SubmitResult.INVALID, mempool.submit(null));
+
+		assertFalse(mempool.isSpent(funding[0].id));
+		assertEquals(0, mempool.size());
+
+		assertEquals(SubmitResult.ACCEPTED, mempool.submit(pay(owner, receiver.publicKey, funding[0].id)));
+	}
+
+	/**
+	 * Polled transactions keep their claims until they are dropped or a block
+	 * spends their inputs, which also evicts pooled transactions spending them
+	 */
+	@Test
+	public void claimsOutliveThePoll() {
+
+		Transaction polled = pay(owner, receiver.publicKey, funding[0].id);
+
+		assertEquals(SubmitResult.ACCEPTED, mempool.submit(polled));
+		assertEquals(1, mempool.poll(10).size());
+
+		assertEquals(SubmitResult.DOUBLE_SPEND, mempool.submit(pay(owner, receiver.publicKey, funding[0].id)));
+
+		mempool.drop(Arrays.asList(polled));
+
+		assertFalse(mempool.isSpent(funding[0].id));
+
+		Transaction pooled = pay(owner, receiver.publicKey, funding[0].id, funding[1].id);
+
+		assertEquals(SubmitResult.ACCEPTED, mempool.submit(pooled));
+		assertEquals(SubmitResult.ACCEPTED, mempool.submit(pay(owner, receiver.publicKey, funding[2].id)));
+
+		mempool.outputSpent(funding[1]);
+
+		assertEquals(1, mempool.size());
+		assertFalse(mempool.isSpent(funding[0].id));
+		assertFalse(mempool.isSpent(funding[1].id));
+		assertTrue(mempool.isSpent(funding[2].id));
+
+		mempool.poll(10);
+
+		mempool.outputSpent(funding[2]);
+
+		assertFalse(mempool.isSpent(funding[2].id));
+		assertEquals(0, mempool.size());
+	}
+
+	@Test
+	public void fullPoolEvictsTheLowestPriority() {
+
+		Mempool small = new Mempool(utxos, 2);
+
+		assertEquals(SubmitResult.ACCEPTED, small.submit(pay(owner, receiver.publicKey, funding[0].id), 1));
+		assertEquals(SubmitResult.ACCEPTED, small.submit(pay(owner, receiver.publicKey, funding[1].id), 2));
+		assertEquals(SubmitResult.POOL_FULL, small.submit(pay(owner, receiver.publicKey, funding[2].id), 0.5));
+		assertFalse(small.isSpent(funding[2].id));
+
+		assertEquals(SubmitResult.ACCEPTED, small.submit(pay(owner, receiver.publicKey, funding[3].id), 3));
+		assertEquals(2, small.size());
+		assertFalse(small.isSpent(funding[0].id));
+		assertTrue(small.isSpent(funding[3].id));
+	}
+
+	/**
+	 * Threads submitting competing spends of the same outputs at once: exactly
+	 * one spend of each output gets in
+	 */
+	@Test
+	public void concurrentSubmitsClaimEachOutputOnce() throws InterruptedException {
+
+		final int threads = 4;
+
+		final List<List<Transaction>> work = new ArrayList<>();
+
+		for (int t = 0; t < threads; t++) {
+
+			List<Transaction> transactions = new ArrayList<>();
+
+			for (TransactionOutput output : funding) {
+
+				transactions.add(pay(owner, new Wallet().publicKey, output.id));
+			}
+
+			work.add(transactions);
+		}
+
+		final CountDownLatch start = new CountDownLatch(1);
+
+		final AtomicInteger accepted = new AtomicInteger();
+		final AtomicInteger doubleSpends = new AtomicInteger();
+
+		Thread[] submitters = new Thread[threads];
+
+		for (int t = 0; t < threads; t++) {
+
+			final List<Transaction> transactions = work.get(t);
+
+			submitters[t] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+
+					try {
+
+						start.await();
+					} catch (InterruptedException e) {
+
+						throw new RuntimeException(e);
+					}
+
+					for (Transaction transaction : transactions) {
+
+						SubmitResult result = mempool.submit(transaction);
+
+						if (result == SubmitResult.ACCEPTED) {
+
+							accepted.incrementAndGet();
+						} else if (result == SubmitResult.DOUBLE_SPEND) {
+
+							doubleSpends.incrementAndGet();
+						}
+					}
+				}
+			});
+
+			submitters[t].start();
+		}
+
+		start.countDown();
+
+		for (Thread submitter : submitters) {
+
+			submitter.join();
+		}
+
+		assertEquals(OUTPUTS, accepted.get());
+		assertEquals(OUTPUTS * (threads - 1), doubleSpends.get());
+		assertEquals(OUTPUTS, mempool.size());
+
+		List<Transaction> batch = mempool.poll(Integer.MAX_VALUE);
+
+		assertEquals(OUTPUTS, batch.size());
+
+		mempool.drop(batch);
+
+		for (TransactionOutput output : funding) {
+
+			assertFalse(mempool.isSpent(output.id));
+		}
+	}
+
+	/**
+	 * Pays 1 coin from the given outputs, signed but not processed
+	 */
+	private static Transaction pay(Wallet from, PublicKey to, Hash256... outputIds) {
+
+		Transaction transaction = new Transaction(from.publicKey, to, Amount.coins(1), inputs(outputIds));
+
+		transaction.generateSignature(from.privateKey);
+
+		return transaction;
+	}
+
+	private static ArrayList<TransactionInput> inputs(Hash256... outputIds) {
+
+		ArrayList<TransactionInput> inputs = new ArrayList<>();
+
+		for (Hash256 id : outputIds) {
+
+			inputs.add(new TransactionInput(id));
+		}
+
+		return inputs;
+	}
+}
@@ -0,0 +1,76 @@
+package org.anirudh.redquark.quarkchain.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Histogram}.
+ */
+public class HistogramTest {
+
+	/**
+	 * Every value falls in a bucket whose highest value is at most 1/16 above it
+	 */
+	@Test
+	public void bucketsKeepTheRelativePrecision() {
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < 100000; i++) {
+
+			long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+
+			int bucket = Histogram.bucketOf(value);
+
+			long highest = Histogram.highestValueOf(bucket);
+
+			assertTrue(value + " above its bucket", value <= highest);
+			assertTrue(value + " below its bucket", bucket == 0 || value > Histogram.highestValueOf(bucket - 1));
+			assertTrue(value + " too far from its bucket", highest - value <= value / Histogram.SUB_BUCKETS);
+		}
+
+		assertEquals(Long.MAX_VALUE, Histogram.highestValueOf(Histogram.bucketOf(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void percentiles() {
+
+		Histogram histogram = new Histogram();
+
+		for (long value = 1; value <= 1000; value++) {
+
+			histogram.record(value * 1000);
+		}
+
+		Histogram.Snapshot snapshot = histogram.snapshot();
+
+		assertEquals(1000, snapshot.getCount());
+		assertEquals(500500, snapshot.getMean(), 0.001);
+		assertEquals(1000000, snapshot.getMax());
+
+		assertBetween(500000, snapshot.getP50());
+		assertBetween(900000, snapshot.getP90());
+		assertBetween(990000, snapshot.getP99());
+		assertBetween(999000, snapshot.getP999());
+	}
+
+	@Test
+	public void emptyHistogram() {
+
+		Histogram.Snapshot snapshot = new Histogram().snapshot();
+
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getMean(), 0);
+		assertEquals(0, snapshot.getP99());
+	}
+
+	private static void assertBetween(long expected, long actual) {
+
+		assertTrue(actual + " below " + expected, actual >= expected);
+		assertTrue(actual + " too far above " + expected, actual - expected <= expected / Histogram.SUB_BUCKETS);
+	}
+}
@@ -0,0 +1,130 @@
+package org.anirudh.redquark.quarkchain.mining;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link DifficultyAdjuster}.
+ */
+public class DifficultyAdjusterTest {
+
+	private static final int INTERVAL = 10;
+
+	private static final long SPACING = 1000;
+
+	private static final Target INITIAL = Target.fromCompact(0x1d00ffff);
+
+	private final DifficultyAdjuster adjuster = new DifficultyAdjuster(INITIAL, INTERVAL, SPACING);
+
+	@Test
+	public void targetIsKeptWithinAWindow() {
+
+		List<Block> chain = chain(INTERVAL - 1, SPACING / 10);
+
+		assertEquals(INITIAL, adjuster.getTarget(new ArrayList<Block>()));
+		assertEquals(INITIAL, adjuster.getTarget(chain));
+	}
+
+	/**
+	 * Blocks twice as slow as wanted double the target
+	 */
+	@Test
+	public void slowBlocksEaseTheTarget() {
+
+		Target next = adjuster.getTarget(chain(INTERVAL, 2 * SPACING));
+
+		assertEquals(Target.of(INITIAL.toBigInteger().shiftLeft(1)), next);
+	}
+
+	/**
+	 * Blocks a hundred times too fast only make the target four times harder
+	 */
+	@Test
+	public void adjustmentIsClamped() {
+
+		Target next = adjuster.getTarget(chain(INTERVAL, SPACING / 100));
+
+		assertEquals(Target.of(INITIAL.toBigInteger().divide(BigInteger.valueOf(4))), next);
+	}
+
+	@Test
+	public void targetNeverExceedsTheLimit() {
+
+		DifficultyAdjuster limited = new DifficultyAdjuster(INITIAL, INITIAL, INTERVAL, SPACING);
+
+		assertEquals(INITIAL, limited.getTarget(chain(INTERVAL, 10 * SPACING)));
+	}
+
+	/**
+	 * Slow blocks at the easiest target keep it, instead of scaling it past 256
+	 * bits
+	 */
+	@Test
+	public void targetAtTheMaximumIsNotEasedFurther() {
+
+		DifficultyAdjuster easiest = new DifficultyAdjuster(Target.MAX, Target.MAX, INTERVAL, SPACING);
+
+		assertEquals(Target.MAX, easiest.getTarget(chain(INTERVAL, 10 * SPACING, Target.MAX)));
+	}
+
+	/**
+	 * A time stamp may not go back past the median of the last blocks, nor run
+	 * too far ahead of the clock
+	 */
+	@Test
+	public void timeStampsFollowTheMedianAndTheClock() {
+
+		List<Block> chain = chain(2 * DifficultyAdjuster.MEDIAN_SPAN, SPACING);
+
+		/**
+		 * The last eleven blocks are stamped 11000 to 21000
+		 */
+		assertEquals(16000, DifficultyAdjuster.getMedianTimePast(chain));
+		assertEquals(Long.MIN_VALUE, DifficultyAdjuster.getMedianTimePast(new ArrayList<Block>()));
+
+		assertTrue(DifficultyAdjuster.isTimeStampValid(chain, stampedAt(16000), 0));
+		assertFalse(DifficultyAdjuster.isTimeStampValid(chain, stampedAt(15999), 0));
+
+		assertTrue(DifficultyAdjuster.isTimeStampValid(chain, stampedAt(DifficultyAdjuster.MAX_FUTURE_DRIFT), 0));
+		assertFalse(DifficultyAdjuster.isTimeStampValid(chain, stampedAt(DifficultyAdjuster.MAX_FUTURE_DRIFT + 1), 0));
+
+		assertTrue(DifficultyAdjuster.isTimeStampValid(new ArrayList<Block>(), stampedAt(0), 0));
+	}
+
+	private static Block stampedAt(long timeStamp) {
+
+		return new Block(null, null, null, timeStamp, INITIAL.getBits(), 0, new ArrayList<Transaction>());
+	}
+
+	/**
+	 * Builds blocks at the initial target, spaced by the given time
+	 */
+	private static List<Block> chain(int length, long spacing) {
+
+		return chain(length, spacing, INITIAL);
+	}
+
+	/**
+	 * Builds blocks at a target, spaced by the given time
+	 */
+	private static List<Block> chain(int length, long spacing, Target target) {
+
+		List<Block> chain = new ArrayList<>();
+
+		for (int i = 0; i < length; i++) {
+
+			chain.add(new Block(null, null, null, i * spacing, target.getBits(), 0, new ArrayList<Transaction>()));
+		}
+
+		return chain;
+	}
+}
@@ -0,0 +1,105 @@
+package org.anirudh.redquark.quarkchain.mining;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ParallelMiner}.
+ */
+public class ParallelMinerTest {
+
+	/**
+	 * Met by no hash in practice
+	 */
+	private static final Target UNREACHABLE = Target.of(BigInteger.ONE);
+
+	private ParallelMiner miner;
+
+	@After
+	public void tearDown() {
+
+		if (miner != null) {
+
+			miner.shutdown();
+		}
+	}
+
+	@Test
+	public void foundNonceIsApplied() {
+
+		miner = new ParallelMiner(2);
+
+		Target target = Target.fromLeadingZeros(2);
+
+		Block block = newBlock("found");
+
+		ParallelMiner.Job job = miner.mine(block, target);
+
+		assertTrue(job.await());
+		assertTrue(job.await());
+
+		assertEquals(target.getBits(), block.getBits());
+		assertTrue(target.isMetBy(block.hash));
+		assertEquals(block.calculateHash(block.getNonce()), block.hash);
+		assertTrue(miner.getHashesTried() >= job.getHashesTried());
+	}
+
+	/**
+	 * Cancelling a job stops only that job: the one queued behind it on the same
+	 * workers still runs
+	 */
+	@Test
+	public void cancelStopsOnlyItsJob() {
+
+		miner = new ParallelMiner(2);
+
+		Block stuck = newBlock("stuck");
+
+		ParallelMiner.Job cancelled = miner.mine(stuck, UNREACHABLE);
+
+		Block next = newBlock("next");
+
+		ParallelMiner.Job queued = miner.mine(next, Target.MAX);
+
+		cancelled.cancel();
+
+		assertFalse(cancelled.await());
+		assertEquals(0, stuck.getNonce());
+		assertEquals(stuck.calculateHash(), stuck.hash);
+
+		assertTrue(queued.await());
+		assertTrue(Target.MAX.isMetBy(next.hash));
+	}
+
+	@Test
+	public void exhaustedRangeIsNotSolved() {
+
+		miner = new ParallelMiner(3, 999);
+
+		Block block = newBlock("exhausted");
+
+		ParallelMiner.Job job = miner.mine(block, UNREACHABLE);
+
+		assertFalse(job.await());
+		assertEquals(1000, job.getHashesTried());
+		assertEquals(0, block.getNonce());
+		assertEquals(block.calculateHash(), block.hash);
+	}
+
+	private static Block newBlock(String previous) {
+
+		Block block = new Block(Hash256.sha256(previous.getBytes()));
+
+		block.merkleRoot = block.previousHash;
+
+		return block;
+	}
+}
@@ -0,0 +1,113 @@
+package org.anirudh.redquark.quarkchain.mining;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.anirudh.redquark.quarkchain.util.StringUtil;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Target}.
+ */
+public class TargetTest {
+
+	@Test
+	public void compactFormRoundTrip() {
+
+		Target target = Target.fromCompact(0x1d00ffff);
+
+		assertEquals(BigInteger.valueOf(0xffff).shiftLeft(208), target.toBigInteger());
+		assertEquals(0x1d00ffff, Target.of(target.toBigInteger()).getBits());
+
+		/**
+		 * The high bit of the mantissa is a sign, so the number moves a byte up
+		 */
+		assertEquals(0x02008000, Target.of(BigInteger.valueOf(0x80)).getBits());
+		assertEquals(0x01120000, Target.of(BigInteger.valueOf(0x12)).getBits());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeTargetIsRejected() {
+
+		Target.fromCompact(0x1d80ffff);
+	}
+
+	/**
+	 * Bytes are compared unsigned: 0x80 is above 0x7f
+	 */
+	@Test
+	public void hashesAreComparedUnsigned() {
+
+		Target target = Target.fromCompact(0x207fffff);
+
+		byte[] hash = new byte[32];
+
+		hash[0] = (byte) 0x80;
+
+		assertFalse(target.isMetBy(hash));
+
+		hash[0] = 0x7f;
+
+		assertTrue(target.isMetBy(hash));
+	}
+
+	/**
+	 * A hash meets the target exactly when it is not above it as a number
+	 */
+	@Test
+	public void byteComparisonMatchesBigInteger() {
+
+		Random random = new Random(42);
+
+		Target target = Target.fromLeadingZeros(1);
+
+		for (int i = 0; i < 1000; i++) {
+
+			byte[] hash = new byte[32];
+
+			random.nextBytes(hash);
+
+			boolean expected = new BigInteger(1, hash).compareTo(target.toBigInteger()) <= 0;
+
+			assertEquals(expected, target.isMetBy(hash));
+		}
+	}
+
+	/**
+	 * Leading zeros still mean what they meant as a fixed difficulty, down to
+	 * the precision of the compact form
+	 */
+	@Test
+	public void leadingZerosMatchFixedDifficulty() {
+
+		Target target = Target.fromLeadingZeros(2);
+
+		byte[] hash = new byte[32];
+
+		hash[1] = (byte) 0xff;
+		hash[2] = (byte) 0xfe;
+
+		assertTrue(target.isMetBy(hash));
+		assertTrue(StringUtil.meetsDifficulty(hash, 2));
+
+		hash[0] = 1;
+
+		assertFalse(target.isMetBy(hash));
+		assertFalse(StringUtil.meetsDifficulty(hash, 2));
+	}
+
+	/**
+	 * Work grows as the target shrinks: one zero digit is 16 expected hashes
+	 */
+	@Test
+	public void workIsTheExpectedNumberOfHashes() {
+
+		assertEquals(BigInteger.valueOf(16), Target.fromLeadingZeros(1).getWork());
+		assertEquals(BigInteger.valueOf(2), Target.MAX.getWork());
+		assertTrue(Target.fromLeadingZeros(5).getWork().compareTo(Target.fromLeadingZeros(4).getWork()) > 0);
+	}
+}
@@ -0,0 +1,250 @@
+package org.anirudh.redquark.quarkchain.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import org.anirudh.redquark.quarkchain.mempool.Mempool;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.UTXOSet;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link IngestionServer}, over loopback sockets.
+ */
+public class IngestionServerTest {
+
+	private Wallet owner;
+
+	private Wallet receiver;
+
+	/**
+	 * Balance queries for this key fail inside the store
+	 */
+	private Wallet poison;
+
+	private TransactionOutput funding;
+
+	private IngestionServer server;
+
+	@Before
+	public void setUp() throws IOException {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		owner = new Wallet();
+		receiver = new Wallet();
+		poison = new Wallet();
+
+		UTXOSet utxos = new UTXOSet() {
+
+			@Override
+			public long getBalance(PublicKey key) {
+
+				if (key.equals(poison.publicKey)) {
+
+					throw new IllegalStateException("Store failure");
+				}
+
+				return super.getBalance(key);
+			}
+		};
+
+		funding = new TransactionOutput(owner.publicKey, Amount.coins(10), Hash256.sha256(new byte[] { 1 }));
+
+		utxos.put(funding);
+
+		server = new IngestionServer(new InetSocketAddress("127.0.0.1", 0), new Mempool(utxos, 100), utxos,
+				ForkJoinPool.commonPool());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+
+		server.close();
+	}
+
+	@Test
+	public void submissionsAndBalancesAreAnswered() throws IOException {
+
+		ArrayList<TransactionInput> inputs = new ArrayList<>();
+
+		inputs.add(new TransactionInput(funding.id));
+
+		Transaction transaction = new Transaction(owner.publicKey, receiver.publicKey, Amount.coins(1), inputs);
+
+		transaction.generateSignature(owner.privateKey);
+
+		ByteBuffer out = ByteBuffer.allocate(4096);
+
+		Protocol.putSubmit(transaction, out);
+		Protocol.putSubmit(transaction, out);
+		Protocol.putBalance(owner.publicKey, out);
+
+		try (Socket socket = connect()) {
+
+			send(socket, out);
+
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+
+			assertEquals(Protocol.STATUS_OK, readStatus(in));
+			assertEquals(Protocol.STATUS_DOUBLE_SPEND, readStatus(in));
+			assertEquals(Protocol.STATUS_OK, readStatus(in));
+			assertEquals(Amount.coins(10), in.readLong());
+		}
+	}
+
+	/**
+	 * Frames which do not decode are answered, and the connection goes on
+	 */
+	@Test
+	public void malformedFrameIsABadRequest() throws IOException {
+
+		ByteBuffer out = ByteBuffer.allocate(4096);
+
+		/**
+		 * A submission cut short inside the sender key
+		 */
+		out.putInt(4);
+		out.put(Protocol.OP_SUBMIT);
+		out.put(new byte[] { 26, 1, 2 });
+
+		/**
+		 * An unknown operation
+		 */
+		out.putInt(1);
+		out.put((byte) 99);
+
+		Protocol.putBalance(owner.publicKey, out);
+
+		try (Socket socket = connect()) {
+
+			send(socket, out);
+
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+
+			assertEquals(Protocol.STATUS_BAD_REQUEST, readStatus(in));
+			assertEquals(Protocol.STATUS_BAD_REQUEST, readStatus(in));
+			assertEquals(Protocol.STATUS_OK, readStatus(in));
+			assertEquals(Amount.coins(10), in.readLong());
+		}
+	}
+
+	/**
+	 * A failure while answering closes that connection only
+	 */
+	@Test
+	public void failureClosesOnlyItsConnection() throws IOException {
+
+		ByteBuffer out = ByteBuffer.allocate(4096);
+
+		Protocol.putBalance(poison.publicKey, out);
+
+		try (Socket socket = connect()) {
+
+			send(socket, out);
+
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+
+			assertEquals(Protocol.STATUS_BAD_REQUEST, readStatus(in));
+			assertEquals(-1, in.read());
+		}
+
+		out.clear();
+
+		Protocol.putBalance(owner.publicKey, out);
+
+		try (Socket socket = connect()) {
+
+			send(socket, out);
+
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+
+			assertEquals(Protocol.STATUS_OK, readStatus(in));
+			assertEquals(Amount.coins(10), in.readLong());
+		}
+	}
+
+	/**
+	 * A frame of a bad length closes the connection, and the submissions sent
+	 * before it in the same round are not admitted
+	 */
+	@Test
+	public void badLengthDropsTheSubmissionsOfItsRound() throws IOException {
+
+		ArrayList<TransactionInput> inputs = new ArrayList<>();
+
+		inputs.add(new TransactionInput(funding.id));
+
+		Transaction transaction = new Transaction(owner.publicKey, receiver.publicKey, Amount.coins(1), inputs);
+
+		transaction.generateSignature(owner.privateKey);
+
+		ByteBuffer out = ByteBuffer.allocate(4096);
+
+		Protocol.putSubmit(transaction, out);
+
+		out.putInt(-1);
+
+		try (Socket socket = connect()) {
+
+			send(socket, out);
+
+			assertEquals(-1, socket.getInputStream().read());
+		}
+
+		out.clear();
+
+		Protocol.putSubmit(transaction, out);
+
+		try (Socket socket = connect()) {
+
+			send(socket, out);
+
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+
+			assertEquals(Protocol.STATUS_OK, readStatus(in));
+		}
+	}
+
+	private Socket connect() throws IOException {
+
+		Socket socket = new Socket("127.0.0.1", server.getPort());
+
+		socket.setSoTimeout(10000);
+
+		return socket;
+	}
+
+	private static void send(Socket socket, ByteBuffer out) throws IOException {
+
+		socket.getOutputStream().write(out.array(), 0, out.position());
+		socket.getOutputStream().flush();
+	}
+
+	/**
+	 * Reads the length of the next response and its status
+	 */
+	private static byte readStatus(DataInputStream in) throws IOException {
+
+		in.readInt();
+
+		return in.readByte();
+	}
+}
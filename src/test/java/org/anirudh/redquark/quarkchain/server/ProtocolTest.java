@@ -0,0 +1,147 @@
+package org.anirudh.redquark.quarkchain.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.Security;
+import java.util.ArrayList;
+
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Protocol}.
+ */
+public class ProtocolTest {
+
+	private static Wallet sender;
+
+	private static Wallet receiver;
+
+	@BeforeClass
+	public static void setUp() {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		sender = new Wallet();
+		receiver = new Wallet();
+	}
+
+	@Test
+	public void submitRoundTrip() {
+
+		Transaction transaction = signedTransaction();
+
+		ByteBuffer buffer = ByteBuffer.allocate(Protocol.MAX_FRAME_SIZE);
+
+		Protocol.putSubmit(transaction, buffer);
+
+		buffer.flip();
+
+		assertEquals(buffer.remaining() - 4, buffer.getInt());
+		assertEquals(Protocol.OP_SUBMIT, buffer.get());
+
+		Transaction decoded = Protocol.getSubmit(buffer);
+
+		assertEquals(0, buffer.remaining());
+		assertEquals(transaction.getSender(), decoded.getSender());
+		assertEquals(transaction.getReceiver(), decoded.getReceiver());
+		assertEquals(transaction.getValue(), decoded.getValue());
+		assertArrayEquals(transaction.getSignature(), decoded.getSignature());
+		assertEquals(2, decoded.getInputs().size());
+		assertEquals(transaction.getInputs().get(1).transactionOutputId,
+				decoded.getInputs().get(1).transactionOutputId);
+		assertNull(decoded.getTransactionId());
+		assertTrue(decoded.verifySignature());
+	}
+
+	@Test
+	public void balanceRoundTrip() {
+
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+
+		Protocol.putBalance(receiver.publicKey, buffer);
+
+		buffer.flip();
+
+		assertEquals(buffer.remaining() - 4, buffer.getInt());
+		assertEquals(Protocol.OP_BALANCE, buffer.get());
+		assertEquals(receiver.publicKey, Protocol.getBalance(buffer));
+	}
+
+	/**
+	 * Truncated submissions, and an input count larger than the frame, fail to
+	 * decode
+	 */
+	@Test
+	public void malformedSubmitIsRejected() {
+
+		ByteBuffer buffer = ByteBuffer.allocate(Protocol.MAX_FRAME_SIZE);
+
+		Protocol.putSubmit(signedTransaction(), buffer);
+
+		buffer.flip();
+
+		/**
+		 * The body, after the length and the operation
+		 */
+		buffer.position(5);
+
+		byte[] frame = new byte[buffer.remaining()];
+
+		buffer.get(frame);
+
+		for (int length = 0; length < frame.length; length++) {
+
+			try {
+
+				Protocol.getSubmit(ByteBuffer.wrap(frame, 0, length));
+
+				fail("Decoded " + length + " of " + frame.length + " bytes");
+			} catch (BufferUnderflowException | IllegalArgumentException e) {
+
+				// Expected
+			}
+		}
+
+		/**
+		 * The input count is the byte before the two ids
+		 */
+		frame[frame.length - 2 * 32 - 1] = 100;
+
+		try {
+
+			Protocol.getSubmit(ByteBuffer.wrap(frame));
+
+			fail();
+		} catch (IllegalArgumentException e) {
+
+			// Expected
+		}
+	}
+
+	private static Transaction signedTransaction() {
+
+		ArrayList<TransactionInput> inputs = new ArrayList<>();
+
+		inputs.add(new TransactionInput(Hash256.sha256(new byte[] { 1 })));
+		inputs.add(new TransactionInput(Hash256.sha256(new byte[] { 2 })));
+
+		Transaction transaction = new Transaction(sender.publicKey, receiver.publicKey, Amount.coins(3), inputs);
+
+		transaction.generateSignature(sender.privateKey);
+
+		return transaction;
+	}
+}
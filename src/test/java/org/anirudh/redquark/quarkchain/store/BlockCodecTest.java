@@ -0,0 +1,316 @@
+package org.anirudh.redquark.quarkchain.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.Security;
+import java.util.ArrayList;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.crypto.CryptoService;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link BlockCodec}.
+ */
+public class BlockCodecTest {
+
+	private static Wallet sender;
+
+	private static Wallet receiver;
+
+	private static Wallet other;
+
+	@BeforeClass
+	public static void setUp() {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		sender = new Wallet();
+		receiver = new Wallet();
+		other = new Wallet();
+	}
+
+	/**
+	 * Every field of a block and its transactions survives a round trip, and
+	 * keys decode to the very same objects. The genesis transaction comes back
+	 * without an input list.
+	 */
+	@Test
+	public void blockRoundTrip() {
+
+		Block block = sampleBlock();
+
+		byte[] encoded = BlockCodec.encode(block);
+
+		assertEquals(BlockCodec.encodedSize(block), encoded.length);
+
+		Block decoded = BlockCodec.decode(ByteBuffer.wrap(encoded));
+
+		assertEquals(block.hash, decoded.hash);
+		assertEquals(block.previousHash, decoded.previousHash);
+		assertEquals(block.merkleRoot, decoded.merkleRoot);
+		assertEquals(block.getTimeStamp(), decoded.getTimeStamp());
+		assertEquals(block.getBits(), decoded.getBits());
+		assertEquals(block.getNonce(), decoded.getNonce());
+		assertEquals(block.transactions.size(), decoded.transactions.size());
+
+		for (int t = 0; t < block.transactions.size(); t++) {
+
+			Transaction expected = block.transactions.get(t);
+			Transaction actual = decoded.transactions.get(t);
+
+			assertEquals(expected.transactionId, actual.transactionId);
+			assertSame(expected.getSender(), actual.getSender());
+			assertSame(expected.getReceiver(), actual.getReceiver());
+			assertEquals(expected.getValue(), actual.getValue());
+			assertArrayEquals(expected.getSignature(), actual.getSignature());
+
+			if (expected.inputs == null) {
+
+				assertNull(actual.inputs);
+			} else {
+
+				assertEquals(expected.inputs.size(), actual.inputs.size());
+			}
+
+			for (int i = 0; expected.inputs != null && i < expected.inputs.size(); i++) {
+
+				assertEquals(expected.inputs.get(i).transactionOutputId, actual.inputs.get(i).transactionOutputId);
+			}
+
+			assertEquals(expected.outputs.size(), actual.outputs.size());
+
+			for (int o = 0; o < expected.outputs.size(); o++) {
+
+				TransactionOutput expectedOutput = expected.outputs.get(o);
+				TransactionOutput actualOutput = actual.outputs.get(o);
+
+				assertEquals(expectedOutput.id, actualOutput.id);
+				assertSame(expectedOutput.receiver, actualOutput.receiver);
+				assertEquals(expectedOutput.value, actualOutput.value);
+				assertEquals(expectedOutput.parentTransactionId, actualOutput.parentTransactionId);
+			}
+		}
+
+		assertArrayEquals(encoded, BlockCodec.encode(decoded));
+	}
+
+	/**
+	 * Keys are written as their compressed point
+	 */
+	@Test
+	public void keysAreCompressed() {
+
+		byte[] compact = CryptoService.getCompactEncoded(sender.publicKey);
+
+		assertEquals(1 + 25, compact.length);
+		assertSame(sender.publicKey, CryptoService.decodeCompactPublicKey(compact));
+	}
+
+	@Test
+	public void varintRoundTrip() {
+
+		int[] values = { 0, 1, 127, 128, 16383, 16384, 1 << 21, Integer.MAX_VALUE };
+
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+
+		for (int value : values) {
+
+			buffer.clear();
+
+			BlockCodec.putVarint(buffer, value);
+
+			assertEquals(BlockCodec.varintSize(value), buffer.position());
+
+			buffer.flip();
+
+			assertEquals(value, BlockCodec.getVarint(buffer));
+		}
+	}
+
+	@Test
+	public void unknownVersionIsRejected() {
+
+		byte[] encoded = BlockCodec.encode(sampleBlock());
+
+		encoded[BlockCodec.VERSION_OFFSET] = BlockCodec.VERSION + 1;
+
+		try {
+
+			BlockCodec.decode(ByteBuffer.wrap(encoded));
+
+			fail();
+		} catch (IllegalArgumentException e) {
+
+			// Expected
+		}
+	}
+
+	/**
+	 * Every prefix of a record fails to decode with a decoding error
+	 */
+	@Test
+	public void truncatedRecordIsRejected() {
+
+		byte[] encoded = BlockCodec.encode(sampleBlock());
+
+		for (int length = 0; length < encoded.length; length++) {
+
+			try {
+
+				BlockCodec.decode(ByteBuffer.wrap(encoded, 0, length));
+
+				fail("Decoded " + length + " of " + encoded.length + " bytes");
+			} catch (BufferUnderflowException | IllegalArgumentException e) {
+
+				// Expected
+			}
+		}
+	}
+
+	/**
+	 * Counts larger than the record are rejected before a list is sized from
+	 * them
+	 */
+	@Test
+	public void oversizedCountIsRejected() {
+
+		byte[] encoded = BlockCodec.encode(sampleBlock());
+
+		ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 8);
+
+		buffer.put(encoded, 0, BlockCodec.TRANSACTION_COUNT_OFFSET);
+
+		BlockCodec.putVarint(buffer, Integer.MAX_VALUE);
+
+		int rest = BlockCodec.TRANSACTION_COUNT_OFFSET + 1;
+
+		buffer.put(encoded, rest, encoded.length - rest);
+
+		buffer.flip();
+
+		try {
+
+			BlockCodec.decode(buffer);
+
+			fail();
+		} catch (IllegalArgumentException e) {
+
+			assertTrue(e.getMessage().contains("past the end"));
+		}
+
+		ByteBuffer transaction = ByteBuffer.allocate(256);
+
+		transaction.put(new byte[32]);
+		BlockCodec.putKey(transaction, sender.publicKey);
+		BlockCodec.putKey(transaction, receiver.publicKey);
+		transaction.putLong(1);
+		BlockCodec.putBytes(transaction, new byte[] { 1 });
+		BlockCodec.putVarint(transaction, 1 << 28);
+
+		transaction.flip();
+
+		try {
+
+			BlockCodec.decodeTransaction(transaction);
+
+			fail();
+		} catch (IllegalArgumentException e) {
+
+			assertTrue(e.getMessage().contains("past the end"));
+		}
+	}
+
+	/**
+	 * Output flag bits this version does not define are rejected rather than
+	 * read as an explicit receiver
+	 */
+	@Test
+	public void unknownOutputFlagsAreRejected() {
+
+		Transaction payment = sampleBlock().transactions.get(1);
+
+		byte[] encoded = new byte[BlockCodec.encodedSize(payment)];
+
+		BlockCodec.encode(payment, ByteBuffer.wrap(encoded));
+
+		/**
+		 * The flags of the last output sit before its id and value
+		 */
+		int flagsOffset = encoded.length - 1 - 32 - 8;
+
+		assertEquals(1, encoded[flagsOffset]);
+
+		for (int flags : new int[] { 3, 8, 0x80 | 1 }) {
+
+			byte[] tampered = encoded.clone();
+
+			tampered[flagsOffset] = (byte) flags;
+
+			try {
+
+				BlockCodec.decodeTransaction(ByteBuffer.wrap(tampered));
+
+				fail("Decoded output flags " + flags);
+			} catch (IllegalArgumentException e) {
+
+				assertTrue(e.getMessage().contains("Unknown output flags"));
+			}
+		}
+	}
+
+	/**
+	 * A block with a genesis style transaction (no input list, output with
+	 * another parent) and a payment with change
+	 */
+	private static Block sampleBlock() {
+
+		Hash256 genesisId = Hash256.ZERO;
+
+		ArrayList<TransactionOutput> genesisOutputs = new ArrayList<>();
+
+		genesisOutputs.add(
+				new TransactionOutput(other.publicKey, Amount.parse("3.5"), Hash256.sha256("elsewhere".getBytes())));
+
+		Transaction genesis = new Transaction(genesisId, sender.publicKey, receiver.publicKey, Amount.coins(100),
+				new byte[] { 1, 2, 3 }, null, genesisOutputs);
+
+		Hash256 paymentId = Hash256.sha256("payment".getBytes());
+
+		ArrayList<TransactionInput> inputs = new ArrayList<>();
+
+		inputs.add(new TransactionInput(Hash256.sha256("input 1".getBytes())));
+		inputs.add(new TransactionInput(Hash256.sha256("input 2".getBytes())));
+
+		ArrayList<TransactionOutput> outputs = new ArrayList<>();
+
+		outputs.add(new TransactionOutput(receiver.publicKey, Amount.coins(40), paymentId));
+		outputs.add(new TransactionOutput(sender.publicKey, Amount.coins(60), paymentId));
+
+		Transaction payment = new Transaction(paymentId, sender.publicKey, receiver.publicKey, Amount.coins(40),
+				new byte[70], inputs, outputs);
+
+		ArrayList<Transaction> transactions = new ArrayList<>();
+
+		transactions.add(genesis);
+		transactions.add(payment);
+
+		return new Block(Hash256.sha256("block".getBytes()), Hash256.ZERO, Hash256.sha256("root".getBytes()),
+				1234567890123L, 0x1d00ffff, 42, transactions);
+	}
+}
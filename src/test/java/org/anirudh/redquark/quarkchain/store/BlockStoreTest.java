@@ -0,0 +1,356 @@
+package org.anirudh.redquark.quarkchain.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.anirudh.redquark.quarkchain.App;
+import org.anirudh.redquark.quarkchain.TestChain;
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.chain.ChainState;
+import org.anirudh.redquark.quarkchain.metrics.NodeMetrics;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.validation.ChainValidator;
+import org.anirudh.redquark.quarkchain.validation.Checkpoint;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link BlockStore}.
+ */
+public class BlockStoreTest {
+
+	private TestChain test;
+
+	private ChainState chain;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Wallet walletA;
+
+	private Wallet walletB;
+
+	/**
+	 * A genesis block paying walletA 100 coins, then payments back and forth
+	 */
+	private final List<Block> blocks = new ArrayList<>();
+
+	@Before
+	public void setUp() {
+
+		test = new TestChain();
+		chain = test.chain;
+
+		walletA = test.walletA;
+		walletB = test.walletB;
+
+		blocks.add(test.genesis);
+
+		for (int i = 1; i <= 3; i++) {
+
+			Block block = new Block(blocks.get(blocks.size() - 1).hash);
+
+			block.addTransaction(i % 2 == 1 ? walletA.sendFunds(walletB.publicKey, Amount.coins(10 * i))
+					: walletB.sendFunds(walletA.publicKey, Amount.coins(i)), chain.getUTXOs());
+
+			addBlock(block);
+		}
+	}
+
+	@Test
+	public void blocksSurviveReopening() throws IOException {
+
+		Path directory = folder.getRoot().toPath();
+
+		try (BlockStore store = BlockStore.open(directory)) {
+
+			for (int height = 0; height < blocks.size(); height++) {
+
+				assertEquals(height, store.append(blocks.get(height)));
+			}
+
+			/**
+			 * Appended blocks are readable before they are synced
+			 */
+			assertEquals(blocks.get(2).hash, store.getBlock(2).hash);
+		}
+
+		try (BlockStore store = BlockStore.open(directory)) {
+
+			assertEquals(blocks.size(), store.size());
+
+			for (int height = 0; height < blocks.size(); height++) {
+
+				Block block = blocks.get(height);
+
+				assertEquals(height, store.getHeight(block.hash));
+				assertEquals(block.hash, store.getHeader(height).getHash());
+				assertEquals(block.previousHash, store.getHeader(block.hash).getPreviousHash());
+
+				Block read = store.getBlock(height);
+
+				assertEquals(block.hash, read.hash);
+				assertEquals(block.getNonce(), read.getNonce());
+				assertEquals(block.transactions.size(), read.transactions.size());
+				assertEquals(block.transactions.get(0).getTransactionId(),
+						read.transactions.get(0).getTransactionId());
+			}
+
+			assertNull(store.getBlock(Hash256.sha256(new byte[] { 1 })));
+
+			/**
+			 * The reopened store appends after its last block
+			 */
+			Block next = new Block(blocks.get(blocks.size() - 1).hash);
+
+			next.addTransaction(walletB.sendFunds(walletA.publicKey, Amount.coins(1)), chain.getUTXOs());
+
+			addBlock(next);
+
+			assertEquals(4, store.append(next));
+		}
+
+		try (BlockStore store = BlockStore.open(directory)) {
+
+			assertEquals(5, store.size());
+			assertEquals(blocks.get(4).hash, store.getBlock(4).hash);
+		}
+	}
+
+	/**
+	 * Copies of the files taken before a sync stand for the disk after a crash:
+	 * only the synced blocks are indexed
+	 */
+	@Test
+	public void unsyncedBlocksAreNotIndexed() throws IOException {
+
+		Path directory = folder.newFolder("live").toPath();
+
+		try (BlockStore store = BlockStore.open(directory)) {
+
+			store.append(blocks.get(0));
+			store.append(blocks.get(1));
+			store.sync();
+
+			store.append(blocks.get(2));
+
+			Path copy = folder.newFolder("crashed").toPath();
+
+			for (String file : new String[] { "blocks.idx", "blocks-00000.dat" }) {
+
+				Files.copy(directory.resolve(file), copy.resolve(file));
+			}
+
+			try (BlockStore crashed = BlockStore.open(copy)) {
+
+				assertEquals(2, crashed.size());
+				assertEquals(-1, crashed.getHeight(blocks.get(2).hash));
+
+				assertEquals(2, crashed.append(blocks.get(2)));
+				assertEquals(blocks.get(2).hash, crashed.getBlock(2).hash);
+			}
+		}
+	}
+
+	/**
+	 * The last record is checked against its CRC on open, any record when it is
+	 * decoded
+	 */
+	@Test
+	public void damagedRecordsAreDetected() throws IOException {
+
+		Path directory = folder.getRoot().toPath();
+
+		try (BlockStore store = BlockStore.open(directory)) {
+
+			for (Block block : blocks) {
+
+				store.append(block);
+			}
+		}
+
+		Path segment = directory.resolve("blocks-00000.dat");
+
+		long size = Files.size(segment);
+
+		flipByte(segment, size - 1);
+
+		try (BlockStore store = BlockStore.open(directory)) {
+
+			assertEquals(blocks.size() - 1, store.size());
+			assertEquals(-1, store.getHeight(blocks.get(blocks.size() - 1).hash));
+		}
+
+		/**
+		 * Inside the first record, after its header
+		 */
+		flipByte(segment, 8 + BlockCodec.HEADER_SIZE + 1);
+
+		try (BlockStore store = BlockStore.open(directory)) {
+
+			assertEquals(blocks.get(1).hash, store.getBlock(1).hash);
+
+			try {
+
+				store.getBlock(0);
+
+				fail();
+			} catch (IllegalStateException e) {
+
+				// Expected
+			}
+		}
+	}
+
+	/**
+	 * An index entry which does not follow the record before it ends the index
+	 */
+	@Test
+	public void tornIndexIsCut() throws IOException {
+
+		Path directory = folder.getRoot().toPath();
+
+		try (BlockStore store = BlockStore.open(directory)) {
+
+			for (Block block : blocks) {
+
+				store.append(block);
+			}
+		}
+
+		/**
+		 * Zero the entry of height 2, as if its page never reached the disk
+		 */
+		try (FileChannel index = FileChannel.open(directory.resolve("blocks.idx"), StandardOpenOption.WRITE)) {
+
+			index.write(ByteBuffer.allocate(48), 2 * 48);
+		}
+
+		try (BlockStore store = BlockStore.open(directory)) {
+
+			assertEquals(2, store.size());
+			assertEquals(-1, store.getHeight(blocks.get(3).hash));
+		}
+	}
+
+	/**
+	 * A chain written to a store is connected again from it, checked block by
+	 * block
+	 */
+	@Test
+	public void chainIsReloaded() throws IOException {
+
+		Path directory = folder.getRoot().toPath();
+
+		try (BlockStore store = BlockStore.open(directory)) {
+
+			for (Block block : blocks) {
+
+				store.append(block);
+			}
+		}
+
+		long balance = chain.getUTXOs().getBalance(walletB.publicKey);
+
+		chain = TestChain.newChain();
+
+		try (BlockStore store = BlockStore.open(directory)) {
+
+			assertEquals(blocks.size(), App.loadChain(chain, store, new ChainValidator(ForkJoinPool.commonPool())));
+		}
+
+		assertEquals(blocks.get(blocks.size() - 1).hash, chain.getTip().hash);
+		assertEquals(balance, chain.getUTXOs().getBalance(walletB.publicKey));
+		assertTrue(new ChainValidator(ForkJoinPool.commonPool()).isChainValid(chain.getBlocks(),
+				chain.getDifficulty(), App.genesisTransaction));
+	}
+
+	/**
+	 * Blocks up to the checkpoint are reloaded without verifying a signature,
+	 * and a checkpoint the blocks do not match is replaced after an audit
+	 */
+	@Test
+	public void checkpointedChainIsReloadedWithoutSignatures() throws IOException {
+
+		Path directory = folder.getRoot().toPath();
+
+		Path checkpointFile = directory.resolve(App.CHECKPOINT_FILE);
+
+		try (BlockStore store = BlockStore.open(directory)) {
+
+			for (Block block : blocks) {
+
+				store.append(block);
+			}
+		}
+
+		assertTrue(new ChainValidator(ForkJoinPool.commonPool(), checkpointFile).isChainValid(chain.getBlocks(),
+				chain.getDifficulty(), test.genesisTransaction));
+
+		long balance = chain.getUTXOs().getBalance(walletB.publicKey);
+
+		long verified = NodeMetrics.get().getVerifyNanos().getCount();
+
+		chain = TestChain.newChain();
+
+		try (BlockStore store = BlockStore.open(directory)) {
+
+			assertEquals(blocks.size(),
+					App.loadChain(chain, store, new ChainValidator(ForkJoinPool.commonPool(), checkpointFile)));
+		}
+
+		assertEquals(verified, NodeMetrics.get().getVerifyNanos().getCount());
+		assertEquals(balance, chain.getUTXOs().getBalance(walletB.publicKey));
+
+		Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+
+		new Checkpoint(checkpoint.getHeight(), checkpoint.getTipHash(), new byte[32]).write(checkpointFile);
+
+		chain = TestChain.newChain();
+
+		try (BlockStore store = BlockStore.open(directory)) {
+
+			assertEquals(blocks.size(),
+					App.loadChain(chain, store, new ChainValidator(ForkJoinPool.commonPool(), checkpointFile)));
+		}
+
+		assertTrue(Checkpoint.read(checkpointFile).matches(checkpoint.getCommitment()));
+	}
+
+	private void addBlock(Block block) {
+
+		assertTrue(test.addBlock(block));
+
+		blocks.add(block);
+	}
+
+	private static void flipByte(Path file, long position) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+			ByteBuffer one = ByteBuffer.allocate(1);
+
+			channel.read(one, position);
+
+			one.put(0, (byte) (one.get(0) ^ 1)).rewind();
+
+			channel.write(one, position);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package org.anirudh.redquark.quarkchain.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Amount}.
+ */
+public class AmountTest {
+
+	@Test
+	public void parseAndToStringRoundTrip() {
+
+		assertEquals(0, Amount.parse("0"));
+		assertEquals(1, Amount.parse("0.00000001"));
+		assertEquals(10_000_000L, Amount.parse("0.1"));
+		assertEquals(Amount.coins(3) + 50_000_000L, Amount.parse("3.5"));
+		assertEquals(Amount.coins(100), Amount.parse("100"));
+
+		assertEquals("0", Amount.toString(0));
+		assertEquals("0.00000001", Amount.toString(1));
+		assertEquals("0.1", Amount.toString(10_000_000L));
+		assertEquals("100", Amount.toString(Amount.coins(100)));
+
+		for (String coins : new String[] { "0.00000001", "0.1", "3.5", "12.34567891", "100", "21000000" }) {
+
+			assertEquals(coins, Amount.toString(Amount.parse(coins)));
+		}
+
+		for (long amount : new long[] { 0, 1, 99_999_999L, 100_000_001L, Long.MAX_VALUE }) {
+
+			assertEquals(amount, Amount.parse(Amount.toString(amount)));
+		}
+	}
+
+	@Test
+	public void moreThanEightDecimalsAreRejected() {
+
+		assertRejected("0.000000001");
+		assertRejected("1.123456789");
+
+		/**
+		 * Zeros past the eighth place lose nothing
+		 */
+		assertEquals(Amount.coins(1), Amount.parse("1.000000000"));
+	}
+
+	/**
+	 * Amounts are signed, so a difference below zero is formatted and parsed
+	 * like any other
+	 */
+	@Test
+	public void negativeAmountsRoundTrip() {
+
+		assertEquals(-50_000_000L, Amount.parse("-0.5"));
+		assertEquals("-0.5", Amount.toString(-50_000_000L));
+		assertEquals(-1, Amount.subtract(Amount.parse("0.1"), Amount.parse("0.10000001")));
+		assertEquals(Long.MIN_VALUE, Amount.parse(Amount.toString(Long.MIN_VALUE)));
+
+		assertRejected("-0.000000001");
+	}
+
+	@Test
+	public void overflowIsRejected() {
+
+		assertEquals("92233720368.54775807", Amount.toString(Long.MAX_VALUE));
+
+		assertRejected("92233720368.54775808");
+		assertRejected("-92233720368.54775809");
+
+		try {
+
+			Amount.coins(Long.MAX_VALUE / Amount.UNITS_PER_COIN + 1);
+
+			fail();
+		} catch (ArithmeticException e) {
+
+			// Expected
+		}
+
+		assertEquals(Long.MAX_VALUE, Amount.add(Long.MAX_VALUE - 1, 1));
+
+		try {
+
+			Amount.add(Long.MAX_VALUE, 1);
+
+			fail();
+		} catch (ArithmeticException e) {
+
+			// Expected
+		}
+
+		try {
+
+			Amount.subtract(Long.MIN_VALUE, 1);
+
+			fail();
+		} catch (ArithmeticException e) {
+
+			// Expected
+		}
+	}
+
+	private static void assertRejected(String coins) {
+
+		try {
+
+			Amount.parse(coins);
+
+			fail();
+		} catch (ArithmeticException e) {
+
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package org.anirudh.redquark.quarkchain.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.anirudh.redquark.quarkchain.TestChain;
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.chain.ChainState;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.utxo.OverlayUTXOStore;
+import org.anirudh.redquark.quarkchain.validation.ChainValidator;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link TransactionRules}: the same bad block is rejected by
+ * every path which checks transactions.
+ */
+public class TransactionRulesTest {
+
+	private TestChain test;
+
+	private ChainState chain;
+
+	private Wallet walletA;
+
+	private Wallet walletB;
+
+	@Before
+	public void setUp() {
+
+		test = new TestChain();
+		chain = test.chain;
+
+		walletA = test.walletA;
+		walletB = test.walletB;
+	}
+
+	/**
+	 * walletB signs a transaction spending the genesis output of walletA
+	 */
+	@Test
+	public void spendingAnotherOwnersOutputIsRejectedEverywhere() {
+
+		TransactionOutput genesisOutput = test.genesisTransaction.outputs.get(0);
+
+		Transaction theft = forge(walletB, walletB.publicKey, Amount.coins(100), genesisOutput,
+				Hash256.sha256(new byte[] { 1 }));
+
+		assertRejectedEverywhere(theft);
+
+		/**
+		 * Processing the signed transaction from scratch fails the same way
+		 */
+		Transaction unprocessed = new Transaction(theft.getSender(), theft.getReceiver(), theft.getValue(),
+				inputs(genesisOutput.id));
+
+		unprocessed.generateSignature(walletB.privateKey);
+
+		assertFalse(unprocessed.processTransaction(new OverlayUTXOStore(chain.getUTXOs())));
+		assertTrue(unprocessed.outputs.isEmpty());
+	}
+
+	/**
+	 * walletA reuses the id of its own earlier transaction, so its payment would
+	 * replace the unspent output it paid walletB before
+	 */
+	@Test
+	public void outputReplacingAnUnspentOutputIsRejectedEverywhere() {
+
+		Block block = new Block(chain.getTip().hash);
+
+		assertTrue(block.addTransaction(walletA.sendFunds(walletB.publicKey, Amount.coins(10)), chain.getUTXOs()));
+		assertTrue(test.addBlock(block));
+
+		Transaction payment = block.transactions.get(0);
+
+		TransactionOutput change = payment.outputs.get(1);
+
+		Transaction replacement = forge(walletA, walletB.publicKey, Amount.coins(10), change, payment.transactionId);
+
+		assertEquals(payment.outputs.get(0).id, replacement.outputs.get(0).id);
+
+		assertRejectedEverywhere(replacement);
+
+		/**
+		 * With an id of its own the same transaction is fine
+		 */
+		Transaction honest = forge(walletA, walletB.publicKey, Amount.coins(10), change,
+				Hash256.sha256(new byte[] { 2 }));
+
+		assertTrue(chain.connectBlock(TestChain.mine(chain.getTip().hash, honest)));
+	}
+
+	/**
+	 * Neither connecting, accepting nor validating the block holding the
+	 * transaction on top of the tip accepts it, and the outputs are unchanged
+	 */
+	private void assertRejectedEverywhere(Transaction transaction) {
+
+		Block block = TestChain.mine(chain.getTip().hash, transaction);
+
+		int outputs = chain.getUTXOs().size();
+
+		assertFalse(chain.connectBlock(block));
+		assertFalse(chain.acceptBlock(block));
+		assertEquals(outputs, chain.getUTXOs().size());
+
+		List<Block> blocks = new ArrayList<>(chain.getBlocks());
+
+		ChainValidator validator = new ChainValidator(ForkJoinPool.commonPool());
+
+		assertTrue(validator.isChainValid(blocks, chain.getDifficulty(), test.genesisTransaction));
+
+		blocks.add(block);
+
+		assertFalse(validator.isChainValid(blocks, chain.getDifficulty(), test.genesisTransaction));
+	}
+
+	/**
+	 * Builds a signed transaction spending one output, as if it had been
+	 * processed with the given id: its outputs are the ones it would generate
+	 */
+	private static Transaction forge(Wallet signer, PublicKey to, long value, TransactionOutput input,
+			Hash256 transactionId) {
+
+		ArrayList<TransactionOutput> outputs = new ArrayList<>();
+
+		outputs.add(new TransactionOutput(to, value, transactionId));
+
+		if (input.value > value) {
+
+			outputs.add(new TransactionOutput(signer.publicKey, input.value - value, transactionId));
+		}
+
+		Transaction signed = new Transaction(signer.publicKey, to, value, inputs(input.id));
+
+		signed.generateSignature(signer.privateKey);
+
+		return new Transaction(transactionId, signer.publicKey, to, value, signed.getSignature(), inputs(input.id),
+				outputs);
+	}
+
+	private static ArrayList<TransactionInput> inputs(Hash256 outputId) {
+
+		ArrayList<TransactionInput> inputs = new ArrayList<>();
+
+		inputs.add(new TransactionInput(outputId));
+
+		return inputs;
+	}
+}
@@ -0,0 +1,88 @@
+package org.anirudh.redquark.quarkchain.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Hash256}.
+ */
+public class Hash256Test {
+
+	@Test
+	public void bytesAndHexRoundTrip() {
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < 100; i++) {
+
+			byte[] bytes = new byte[32];
+
+			random.nextBytes(bytes);
+
+			Hash256 hash = Hash256.of(bytes);
+
+			assertArrayEquals(bytes, hash.toBytes());
+			assertEquals(StringUtil.toHex(bytes), hash.toString());
+			assertEquals(hash, Hash256.fromHex(hash.toString()));
+			assertEquals(hash, Hash256.fromHex(hash.toString().toUpperCase()));
+			assertEquals(hash.hashCode(), Hash256.fromHex(hash.toString()).hashCode());
+
+			ByteBuffer buffer = ByteBuffer.allocate(32);
+
+			hash.writeTo(buffer);
+
+			buffer.flip();
+
+			assertEquals(hash, Hash256.read(buffer));
+		}
+
+		assertEquals(Hash256.ZERO, Hash256.fromHex("0"));
+		assertEquals(Hash256.of(new byte[32]), Hash256.ZERO);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void badHexIsRejected() {
+
+		Hash256.fromHex("xyz");
+	}
+
+	/**
+	 * Ordering is the one of unsigned 256 bit numbers
+	 */
+	@Test
+	public void orderIsUnsigned() {
+
+		Random random = new Random(7);
+
+		for (int i = 0; i < 1000; i++) {
+
+			byte[] a = new byte[32];
+			byte[] b = new byte[32];
+
+			random.nextBytes(a);
+			random.nextBytes(b);
+
+			/**
+			 * Share a prefix, so later words decide as well
+			 */
+			System.arraycopy(a, 0, b, 0, random.nextInt(32));
+
+			int expected = new BigInteger(1, a).compareTo(new BigInteger(1, b));
+
+			assertEquals(expected, Integer.signum(Hash256.of(a).compareTo(Hash256.of(b))));
+		}
+
+		assertTrue(Hash256.fromHex("80").compareTo(Hash256.fromHex("7f")) > 0);
+		assertNotEquals(Hash256.fromHex("1"), Hash256.ZERO);
+		assertEquals(255, Hash256.fromHex("1").leadingZeroBits());
+		assertEquals(256, Hash256.ZERO.leadingZeroBits());
+	}
+}
@@ -0,0 +1,209 @@
+package org.anirudh.redquark.quarkchain.utxo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.Security;
+
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link DiskUTXOStore}.
+ */
+public class DiskUTXOStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Wallet alice;
+
+	private Wallet bob;
+
+	@Before
+	public void setUp() {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		alice = new Wallet();
+		bob = new Wallet();
+	}
+
+	/**
+	 * Outputs written before a close, including across a growth of the table
+	 * file, are found with their owners after reopening
+	 */
+	@Test
+	public void reopenedStoreKeepsItsOutputs() throws IOException {
+
+		Path directory = folder.getRoot().toPath();
+
+		int count = OffHeapUTXOStore.INITIAL_CAPACITY;
+
+		TransactionOutput[] outputs = new TransactionOutput[count];
+
+		try (DiskUTXOStore store = DiskUTXOStore.open(directory, 16)) {
+
+			for (int i = 0; i < count; i++) {
+
+				outputs[i] = OffHeapUTXOStoreTest.output(i % 2 == 0 ? alice : bob, 1, i);
+
+				store.put(outputs[i]);
+			}
+
+			store.remove(outputs[0].id);
+			store.remove(outputs[1].id);
+		}
+
+		try (DiskUTXOStore store = DiskUTXOStore.open(directory, 16)) {
+
+			assertEquals(count - 2, store.size());
+			assertEquals(Amount.coins(count / 2 - 1), store.getBalance(alice.publicKey));
+			assertEquals(Amount.coins(count / 2 - 1), store.getBalance(bob.publicKey));
+			assertEquals(count / 2 - 1, store.getOutputs(bob.publicKey).size());
+
+			assertNull(store.get(outputs[0].id));
+
+			TransactionOutput found = store.get(outputs[count - 1].id);
+
+			assertEquals(bob.publicKey, found.receiver);
+			assertEquals(outputs[count - 1].parentTransactionId, found.parentTransactionId);
+
+			/**
+			 * The reopened store keeps writing to the same files
+			 */
+			store.put(OffHeapUTXOStoreTest.output(alice, 5, count));
+		}
+
+		try (DiskUTXOStore store = DiskUTXOStore.open(directory, 16)) {
+
+			assertEquals(count - 1, store.size());
+			assertEquals(Amount.coins(count / 2 + 4), store.getBalance(alice.publicKey));
+		}
+	}
+
+	/**
+	 * Copies of the files taken while the store is open stand for the disk after
+	 * a crash: they hold the outputs only if nothing changed since the last sync
+	 */
+	@Test
+	public void unsealedTableIsDiscarded() throws IOException {
+
+		Path directory = folder.newFolder("live").toPath();
+
+		TransactionOutput first = OffHeapUTXOStoreTest.output(alice, 1, 0);
+
+		try (DiskUTXOStore store = DiskUTXOStore.open(directory, 16)) {
+
+			assertFalse(store.needsRebuild());
+
+			store.put(first);
+			store.sync();
+
+			Path synced = copy(directory, "synced");
+
+			store.put(OffHeapUTXOStoreTest.output(bob, 2, 1));
+
+			Path changed = copy(directory, "changed");
+
+			try (DiskUTXOStore copy = DiskUTXOStore.open(synced, 16)) {
+
+				assertFalse(copy.needsRebuild());
+				assertEquals(1, copy.size());
+				assertEquals(alice.publicKey, copy.get(first.id).receiver);
+			}
+
+			try (DiskUTXOStore copy = DiskUTXOStore.open(changed, 16)) {
+
+				assertTrue(copy.needsRebuild());
+				assertEquals(0, copy.size());
+				assertEquals(0, copy.getBalance(alice.publicKey));
+
+				/**
+				 * The rebuilt store is usable and sealed by close
+				 */
+				copy.put(first);
+			}
+
+			try (DiskUTXOStore copy = DiskUTXOStore.open(changed, 16)) {
+
+				assertFalse(copy.needsRebuild());
+				assertEquals(Amount.coins(1), copy.getBalance(alice.publicKey));
+			}
+		}
+	}
+
+	/**
+	 * A page written back without the rest of the table breaks the checksum
+	 */
+	@Test
+	public void corruptedTableIsDiscarded() throws IOException {
+
+		Path directory = folder.getRoot().toPath();
+
+		try (DiskUTXOStore store = DiskUTXOStore.open(directory, 16)) {
+
+			store.put(OffHeapUTXOStoreTest.output(alice, 1, 0));
+		}
+
+		try (FileChannel channel = FileChannel.open(directory.resolve("utxo.dat"), StandardOpenOption.WRITE)) {
+
+			channel.write(ByteBuffer.wrap(new byte[] { 1 }), OutputTable.bufferSize(1) - 1);
+		}
+
+		try (DiskUTXOStore store = DiskUTXOStore.open(directory, 16)) {
+
+			assertTrue(store.needsRebuild());
+			assertEquals(0, store.size());
+		}
+	}
+
+	@Test
+	public void foreignTableFileIsRefused() throws IOException {
+
+		Path directory = folder.getRoot().toPath();
+
+		byte[] file = new byte[(int) OutputTable.bufferSize(OffHeapUTXOStore.INITIAL_CAPACITY)];
+
+		file[0] = 1;
+
+		Files.write(directory.resolve("utxo.dat"), file);
+
+		try {
+
+			DiskUTXOStore.open(directory, 16);
+
+			fail();
+		} catch (IllegalArgumentException e) {
+
+			// Expected
+		}
+	}
+
+	private Path copy(Path directory, String name) throws IOException {
+
+		Path target = folder.newFolder(name).toPath();
+
+		for (String file : new String[] { "utxo.dat", "owners.dat" }) {
+
+			Files.copy(directory.resolve(file), target.resolve(file));
+		}
+
+		return target;
+	}
+}
@@ -0,0 +1,134 @@
+package org.anirudh.redquark.quarkchain.utxo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Security;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link OffHeapUTXOStore}.
+ */
+public class OffHeapUTXOStoreTest {
+
+	private Wallet alice;
+
+	private Wallet bob;
+
+	@Before
+	public void setUp() {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		alice = new Wallet();
+		bob = new Wallet();
+	}
+
+	@Test
+	public void outputsAndBalances() {
+
+		OffHeapUTXOStore store = new OffHeapUTXOStore(8, 4);
+
+		TransactionOutput first = output(alice, 1, 0);
+		TransactionOutput second = output(alice, 2, 1);
+		TransactionOutput third = output(bob, 5, 2);
+
+		store.put(first);
+		store.put(second);
+		store.put(third);
+
+		assertEquals(3, store.size());
+		assertEquals(Amount.coins(3), store.getBalance(alice.publicKey));
+		assertEquals(Amount.coins(5), store.getBalance(bob.publicKey));
+		assertEquals(2, store.getOutputs(alice.publicKey).size());
+
+		assertEquals(first.id, store.remove(first.id).id);
+		assertNull(store.remove(first.id));
+		assertFalse(store.contains(first.id));
+		assertEquals(Amount.coins(2), store.getBalance(alice.publicKey));
+
+		/**
+		 * Putting an id again replaces the value in the balance
+		 */
+		store.put(new TransactionOutput(second.id, alice.publicKey, Amount.coins(4), second.parentTransactionId));
+
+		assertEquals(Amount.coins(4), store.getBalance(alice.publicKey));
+		assertEquals(2, store.size());
+	}
+
+	/**
+	 * With a cache of two outputs, most lookups rebuild the output from the
+	 * table after it grew several times and reused its deleted slots
+	 */
+	@Test
+	public void outputsSurviveGrowthAndChurn() {
+
+		OffHeapUTXOStore store = new OffHeapUTXOStore(4, 2);
+
+		TransactionOutput[] outputs = new TransactionOutput[200];
+
+		for (int i = 0; i < outputs.length; i++) {
+
+			outputs[i] = output(i % 2 == 0 ? alice : bob, 1, i);
+
+			store.put(outputs[i]);
+
+			if (i % 3 == 0) {
+
+				store.remove(outputs[i].id);
+			}
+		}
+
+		Set<Hash256> owned = new HashSet<>();
+
+		long balance = 0;
+
+		for (int i = 0; i < outputs.length; i++) {
+
+			TransactionOutput found = store.get(outputs[i].id);
+
+			if (i % 3 == 0) {
+
+				assertNull(found);
+			} else {
+
+				assertEquals(outputs[i].receiver, found.receiver);
+				assertEquals(outputs[i].value, found.value);
+				assertEquals(outputs[i].parentTransactionId, found.parentTransactionId);
+
+				if (i % 2 == 0) {
+
+					owned.add(outputs[i].id);
+					balance += found.value;
+				}
+			}
+		}
+
+		assertEquals(200 - 67, store.size());
+		assertEquals(balance, store.getBalance(alice.publicKey));
+
+		for (TransactionOutput output : store.getOutputs(alice.publicKey)) {
+
+			assertTrue(owned.remove(output.id));
+		}
+
+		assertTrue(owned.isEmpty());
+	}
+
+	static TransactionOutput output(Wallet owner, long coins, int parent) {
+
+		return new TransactionOutput(owner.publicKey, Amount.coins(coins),
+				Hash256.sha256(new byte[] { (byte) (parent >>> 8), (byte) parent }));
+	}
+}
@@ -0,0 +1,246 @@
+package org.anirudh.redquark.quarkchain.utxo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link OutputTable}.
+ */
+public class OutputTableTest {
+
+	private static final byte[] OWNER = filled(7);
+
+	private static final byte[] PARENT = filled(9);
+
+	@Test
+	public void entriesRoundTrip() {
+
+		OutputTable table = OutputTable.allocateDirect(8);
+
+		int slot = table.put(key(3), OWNER, PARENT, 42);
+
+		assertEquals(slot, table.find(key(3)));
+		assertEquals(-1, table.find(key(4)));
+		assertEquals(42, table.getValue(slot));
+		assertTrue(table.isOwnedBy(slot, OWNER));
+		assertFalse(table.isOwnedBy(slot, PARENT));
+
+		byte[] out = new byte[32];
+
+		table.getKey(slot, out);
+		assertArrayEquals(key(3), out);
+
+		table.getOwner(slot, out);
+		assertArrayEquals(OWNER, out);
+
+		table.getParent(slot, out);
+		assertArrayEquals(PARENT, out);
+
+		assertEquals(slot, table.put(key(3), OWNER, PARENT, 43));
+		assertEquals(43, table.getValue(slot));
+		assertEquals(1, table.size());
+	}
+
+	/**
+	 * A removed slot keeps the probe path of the keys after it, and is the first
+	 * slot reused by a key probing through it
+	 */
+	@Test
+	public void deletedSlotIsReused() {
+
+		OutputTable table = OutputTable.allocateDirect(8);
+
+		/**
+		 * Keys 0, 8 and 16 all start probing at slot 0
+		 */
+		assertEquals(0, table.put(key(0), OWNER, PARENT, 1));
+		assertEquals(1, table.put(key(8), OWNER, PARENT, 2));
+
+		table.removeAt(0);
+
+		assertEquals(-1, table.find(key(0)));
+		assertEquals(1, table.find(key(8)));
+
+		assertEquals(0, table.put(key(16), OWNER, PARENT, 3));
+		assertEquals(2, table.size());
+		assertEquals(8, table.capacity());
+	}
+
+	/**
+	 * Deleted slots count towards the three quarters load; the table is then
+	 * rewritten, at the same size while at most half of it is used
+	 */
+	@Test
+	public void deletedSlotsTriggerGrowth() {
+
+		OutputTable table = OutputTable.allocateDirect(8);
+
+		for (int i = 0; i < 5; i++) {
+
+			table.put(key(i), OWNER, PARENT, i);
+		}
+
+		for (int i = 0; i < 3; i++) {
+
+			table.removeAt(table.find(key(i)));
+		}
+
+		ByteBuffer before = table.buffer();
+
+		/**
+		 * 3 used and 3 deleted slots reach six of eight
+		 */
+		table.put(key(5), OWNER, PARENT, 5);
+
+		assertSame(before, table.buffer());
+
+		table.put(key(6), OWNER, PARENT, 6);
+
+		assertNotSame(before, table.buffer());
+		assertEquals(8, table.capacity());
+		assertEquals(4, table.size());
+
+		for (int i = 3; i < 7; i++) {
+
+			assertEquals(i, table.getValue(table.find(key(i))));
+		}
+
+		assertEquals(-1, table.find(key(0)));
+
+		for (int i = 7; i < 10; i++) {
+
+			table.put(key(i), OWNER, PARENT, i);
+		}
+
+		assertEquals(16, table.capacity());
+		assertEquals(7, table.size());
+
+		for (int i = 3; i < 10; i++) {
+
+			assertEquals(i, table.getValue(table.find(key(i))));
+		}
+	}
+
+	/**
+	 * A table opened again over its buffer finds its entries and counts
+	 */
+	@Test
+	public void reopenedTableKeepsItsEntries() {
+
+		OutputTable table = OutputTable.allocateDirect(8);
+
+		table.put(key(1), OWNER, PARENT, 1);
+		table.put(key(2), OWNER, PARENT, 2);
+		table.removeAt(table.find(key(1)));
+
+		OutputTable reopened = new OutputTable(table.buffer(), OutputTable.DIRECT);
+
+		assertEquals(1, reopened.size());
+		assertEquals(8, reopened.capacity());
+		assertEquals(-1, reopened.find(key(1)));
+		assertEquals(2, reopened.getValue(reopened.find(key(2))));
+	}
+
+	/**
+	 * A seal holds until the next change, and only while the slots match it
+	 */
+	@Test
+	public void sealCoversTheSlots() {
+
+		OutputTable table = OutputTable.allocateDirect(8);
+
+		assertFalse(table.isSealed());
+
+		table.put(key(1), OWNER, PARENT, 1);
+		table.seal();
+
+		assertTrue(table.isSealed());
+		assertTrue(new OutputTable(table.buffer(), OutputTable.DIRECT).isSealed());
+
+		table.put(key(2), OWNER, PARENT, 2);
+
+		assertFalse(new OutputTable(table.buffer(), OutputTable.DIRECT).isSealed());
+
+		table.seal();
+
+		/**
+		 * A slot changed behind the table's back
+		 */
+		ByteBuffer buffer = table.buffer();
+
+		buffer.put(OutputTable.HEADER_SIZE + 5, (byte) (buffer.get(OutputTable.HEADER_SIZE + 5) ^ 1));
+
+		assertFalse(new OutputTable(buffer, OutputTable.DIRECT).isSealed());
+	}
+
+	@Test
+	public void foreignBuffersAreRefused() {
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) OutputTable.bufferSize(8));
+
+		new OutputTable(buffer, OutputTable.DIRECT);
+
+		assertEquals(OutputTable.MAGIC, buffer.getInt(0));
+		assertEquals(OutputTable.VERSION, buffer.getInt(4));
+
+		buffer.putInt(4, OutputTable.VERSION + 1);
+
+		assertRefused(buffer);
+
+		buffer.putInt(0, 0x12345678);
+
+		assertRefused(buffer);
+
+		/**
+		 * Slots without a header
+		 */
+		assertRefused(ByteBuffer.allocate(8 * OutputTable.SLOT_SIZE));
+	}
+
+	private static void assertRefused(ByteBuffer buffer) {
+
+		try {
+
+			new OutputTable(buffer, OutputTable.DIRECT);
+
+			fail();
+		} catch (IllegalArgumentException e) {
+
+			// Expected
+		}
+	}
+
+	/**
+	 * Returns a key whose first 8 bytes, and so its first slot, are the given
+	 * number
+	 */
+	private static byte[] key(int first) {
+
+		byte[] key = filled(0xff);
+
+		ByteBuffer.wrap(key).putLong(first);
+
+		return key;
+	}
+
+	private static byte[] filled(int value) {
+
+		byte[] bytes = new byte[32];
+
+		for (int i = 0; i < bytes.length; i++) {
+
+			bytes[i] = (byte) value;
+		}
+
+		return bytes;
+	}
+}
@@ -0,0 +1,128 @@
+package org.anirudh.redquark.quarkchain.utxo;
+
+import static org.anirudh.redquark.quarkchain.utxo.OffHeapUTXOStoreTest.output;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link UTXOSet}.
+ */
+public class UTXOSetTest {
+
+	private final UTXOSet utxos = new UTXOSet();
+
+	private Wallet alice;
+
+	private Wallet bob;
+
+	@Before
+	public void setUp() {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		alice = new Wallet();
+		bob = new Wallet();
+	}
+
+	@Test
+	public void balancesFollowAddAndRemove() {
+
+		TransactionOutput first = output(alice, 1, 0);
+		TransactionOutput second = output(alice, 2, 1);
+		TransactionOutput third = output(bob, 5, 2);
+
+		utxos.put(first);
+		utxos.put(second);
+		utxos.put(third);
+
+		assertEquals(3, utxos.size());
+		assertEquals(Amount.coins(3), utxos.getBalance(alice.publicKey));
+		assertEquals(Amount.coins(5), utxos.getBalance(bob.publicKey));
+		assertEquals(2, utxos.getOutputs(alice.publicKey).size());
+
+		assertSame(first, utxos.remove(first.id));
+		assertNull(utxos.remove(first.id));
+		assertFalse(utxos.contains(first.id));
+
+		assertEquals(2, utxos.size());
+		assertEquals(Amount.coins(2), utxos.getBalance(alice.publicKey));
+		assertEquals(Amount.coins(5), utxos.getBalance(bob.publicKey));
+	}
+
+	/**
+	 * Putting an id again replaces the output, in the balance of its old owner
+	 * as well as of its new one
+	 */
+	@Test
+	public void replacedOutputIsNotCountedTwice() {
+
+		TransactionOutput output = output(alice, 2, 0);
+
+		utxos.put(output);
+		utxos.put(output(alice, 1, 1));
+
+		utxos.put(new TransactionOutput(output.id, alice.publicKey, Amount.coins(4), output.parentTransactionId));
+
+		assertEquals(2, utxos.size());
+		assertEquals(Amount.coins(5), utxos.getBalance(alice.publicKey));
+		assertEquals(2, utxos.getOutputs(alice.publicKey).size());
+
+		utxos.put(new TransactionOutput(output.id, bob.publicKey, Amount.coins(3), output.parentTransactionId));
+
+		assertEquals(2, utxos.size());
+		assertEquals(Amount.coins(1), utxos.getBalance(alice.publicKey));
+		assertEquals(Amount.coins(3), utxos.getBalance(bob.publicKey));
+		assertEquals(1, utxos.getOutputs(alice.publicKey).size());
+	}
+
+	/**
+	 * An owner whose last output goes is dropped from the indexes, by a single
+	 * remove as by a batch
+	 */
+	@Test
+	public void ownerIsDroppedWithItsLastOutput() {
+
+		TransactionOutput first = output(alice, 1, 0);
+		TransactionOutput second = output(alice, 2, 1);
+
+		utxos.put(first);
+		utxos.put(second);
+
+		utxos.remove(first.id);
+
+		assertEquals(1, utxos.getOutputs(alice.publicKey).size());
+
+		utxos.remove(second.id);
+
+		assertEquals(0, utxos.getBalance(alice.publicKey));
+		assertSame(Collections.emptyList(), utxos.getOutputs(alice.publicKey));
+
+		/**
+		 * A batch spending alice's output and paying bob
+		 */
+		utxos.put(first);
+
+		TransactionOutput payment = output(bob, 1, 2);
+
+		utxos.applyBatch(Arrays.<Hash256>asList(first.id), Arrays.asList(payment));
+
+		assertEquals(1, utxos.size());
+		assertEquals(0, utxos.getBalance(alice.publicKey));
+		assertSame(Collections.emptyList(), utxos.getOutputs(alice.publicKey));
+		assertEquals(Amount.coins(1), utxos.getBalance(bob.publicKey));
+	}
+}
@@ -0,0 +1,131 @@
+package org.anirudh.redquark.quarkchain.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import org.anirudh.redquark.quarkchain.TestChain;
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.chain.ChainState;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the checkpoints of {@link ChainValidator}.
+ */
+public class ChainValidatorTest {
+
+	private TestChain test;
+
+	private ChainState chain;
+
+	private Wallet walletA;
+
+	private Wallet walletB;
+
+	private Transaction genesisTransaction;
+
+	private Path checkpointFile;
+
+	@Before
+	public void setUp() throws IOException {
+
+		test = new TestChain();
+		chain = test.chain;
+
+		walletA = test.walletA;
+		walletB = test.walletB;
+		genesisTransaction = test.genesisTransaction;
+
+		checkpointFile = Files.createTempDirectory("checkpoint").resolve("checkpoint.dat");
+	}
+
+	@Test
+	public void checkpointFollowsTheTip() throws IOException {
+
+		ChainValidator validator = new ChainValidator(ForkJoinPool.commonPool(), checkpointFile);
+
+		addPayments(3);
+
+		assertTrue(validate(validator));
+		assertEquals(4, validator.getCheckpoint().getHeight());
+
+		addPayments(2);
+
+		assertTrue(validate(validator));
+		assertEquals(6, validator.getCheckpoint().getHeight());
+		assertEquals(chain.getTip().hash, Checkpoint.read(checkpointFile).getTipHash());
+	}
+
+	/**
+	 * Blocks before the checkpoint are trusted, an audit checks them again
+	 */
+	@Test
+	public void auditChecksBlocksBeforeTheCheckpoint() throws IOException {
+
+		ChainValidator validator = new ChainValidator(ForkJoinPool.commonPool(), checkpointFile);
+
+		addPayments(3);
+
+		assertTrue(validate(validator));
+
+		byte[] signature = chain.getBlocks().get(1).transactions.get(0).getSignature();
+
+		signature[signature.length - 1] ^= 1;
+
+		assertTrue(validate(validator));
+		assertFalse(validator.audit(chain.getBlocks(), chain.getDifficulty(), genesisTransaction));
+	}
+
+	/**
+	 * A restarted validator rebuilds the outputs up to the checkpoint and only
+	 * accepts them if they match its commitment
+	 */
+	@Test
+	public void restartReplaysUpToTheCheckpoint() throws IOException {
+
+		addPayments(3);
+
+		assertTrue(validate(new ChainValidator(ForkJoinPool.commonPool(), checkpointFile)));
+
+		addPayments(1);
+
+		assertTrue(validate(new ChainValidator(ForkJoinPool.commonPool(), checkpointFile)));
+		assertEquals(5, Checkpoint.read(checkpointFile).getHeight());
+
+		/**
+		 * Change an output without touching any hash
+		 */
+		chain.getBlocks().get(2).transactions.get(0).outputs.get(0).value++;
+
+		assertFalse(validate(new ChainValidator(ForkJoinPool.commonPool(), checkpointFile)));
+	}
+
+	private boolean validate(ChainValidator validator) {
+
+		return validator.isChainValid(chain.getBlocks(), chain.getDifficulty(), genesisTransaction);
+	}
+
+	/**
+	 * Adds blocks where walletA pays walletB one coin
+	 */
+	private void addPayments(int count) {
+
+		for (int i = 0; i < count; i++) {
+
+			Block block = new Block(chain.getTip().hash);
+
+			block.addTransaction(walletA.sendFunds(walletB.publicKey, Amount.coins(1)), chain.getUTXOs());
+
+			assertTrue(test.addBlock(block));
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package org.anirudh.redquark.quarkchain.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.anirudh.redquark.quarkchain.wallet.Wallet;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link SignatureBatchVerifier}.
+ */
+public class SignatureBatchVerifierTest {
+
+	/**
+	 * Enough transactions per block for a segment of two blocks to be split
+	 */
+	private static final int TRANSACTIONS = 10;
+
+	private ForkJoinPool pool;
+
+	private Wallet wallet;
+
+	private List<Block> blocks;
+
+	@Before
+	public void setUp() {
+
+		Security.addProvider(new BouncyCastleProvider());
+
+		pool = new ForkJoinPool(4);
+
+		wallet = new Wallet();
+
+		blocks = new ArrayList<>();
+
+		for (int i = 0; i < 4; i++) {
+
+			Block block = new Block(Hash256.ZERO);
+
+			for (int t = 0; t < TRANSACTIONS; t++) {
+
+				Transaction transaction = new Transaction(wallet.publicKey, new Wallet().publicKey,
+						Amount.coins(i * TRANSACTIONS + t + 1), new ArrayList<TransactionInput>());
+
+				transaction.generateSignature(wallet.privateKey);
+
+				block.transactions.add(transaction);
+			}
+
+			blocks.add(block);
+		}
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+
+		pool.shutdownNow();
+
+		pool.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * A segment covers only its own blocks, and its results are read by the
+	 * height of the block in the chain
+	 */
+	@Test
+	public void segmentsAreReadByHeight() {
+
+		SignatureBatchVerifier verifier = new SignatureBatchVerifier(pool);
+
+		/**
+		 * A bad signature outside the segments does not matter to them
+		 */
+		tamper(0, 0);
+
+		SignatureBatchVerifier.Batch first = verifier.submit(blocks, 1, 3);
+		SignatureBatchVerifier.Batch second = verifier.submit(blocks, 3, 4);
+
+		assertTrue(first.await());
+		assertTrue(second.await());
+
+		for (int i = 1; i < 4; i++) {
+
+			SignatureBatchVerifier.Batch batch = i < 3 ? first : second;
+
+			for (int t = 0; t < TRANSACTIONS; t++) {
+
+				assertTrue(batch.isValid(i, t));
+			}
+		}
+
+		assertFalse(verifier.verify(blocks, 0, 1).isValid(0, 0));
+	}
+
+	/**
+	 * One bad signature fails its own slot and no other
+	 */
+	@Test
+	public void badSignatureFailsOnlyItsTransaction() {
+
+		tamper(2, 7);
+
+		SignatureBatchVerifier.Batch batch = new SignatureBatchVerifier(pool).verify(blocks, 0, blocks.size());
+
+		int invalid = 0;
+
+		for (int i = 0; i < blocks.size(); i++) {
+
+			for (int t = 0; t < TRANSACTIONS; t++) {
+
+				if (!batch.isValid(i, t)) {
+
+					invalid++;
+				}
+			}
+		}
+
+		assertEquals(1, invalid);
+		assertFalse(batch.isValid(2, 7));
+	}
+
+	/**
+	 * An interrupted caller stops waiting, keeps its interrupt status and reads
+	 * the unverified signatures as invalid
+	 */
+	@Test
+	public void interruptedWaitGivesUp() throws InterruptedException {
+
+		ForkJoinPool busy = new ForkJoinPool(1);
+
+		final CountDownLatch release = new CountDownLatch(1);
+
+		try {
+
+			/**
+			 * Keep the only worker busy so the batch cannot start
+			 */
+			busy.execute(new Runnable() {
+
+				@Override
+				public void run() {
+
+					try {
+
+						release.await();
+					} catch (InterruptedException e) {
+
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+
+			SignatureBatchVerifier.Batch batch = new SignatureBatchVerifier(busy).submit(blocks, 0, blocks.size());
+
+			Thread.currentThread().interrupt();
+
+			try {
+
+				assertFalse(batch.await());
+				assertTrue(Thread.currentThread().isInterrupted());
+			} finally {
+
+				Thread.interrupted();
+			}
+
+			release.countDown();
+
+			busy.shutdown();
+
+			assertTrue(busy.awaitTermination(10, TimeUnit.SECONDS));
+
+			assertFalse(batch.isValid(0, 0));
+
+			/**
+			 * Waiting again without the interrupt does not hang on the cancelled
+			 * batch
+			 */
+			assertFalse(batch.await());
+
+		} finally {
+
+			release.countDown();
+
+			busy.shutdownNow();
+		}
+	}
+
+	/**
+	 * Flips the last byte of the signature of a transaction
+	 */
+	private void tamper(int block, int transaction) {
+
+		byte[] signature = blocks.get(block).transactions.get(transaction).getSignature();
+
+		signature[signature.length - 1] ^= 1;
+	}
+}
@@ -0,0 +1,167 @@
+package org.anirudh.redquark.quarkchain.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.anirudh.redquark.quarkchain.transaction.TransactionOutput;
+import org.anirudh.redquark.quarkchain.util.Hash256;
+import org.junit.Test;
+
+/**
+ * Unit test for the {@link CoinSelector}s and their {@link CoinSet}.
+ */
+public class CoinSelectorTest {
+
+	private final LargestFirstSelector largestFirst = new LargestFirstSelector();
+
+	private final BranchAndBoundSelector branchAndBound = new BranchAndBoundSelector(largestFirst);
+
+	private int outputs;
+
+	@Test
+	public void coinSetIsOrderedByValue() {
+
+		CoinSet coins = coins(5, 3, 7, 3, 2);
+
+		assertEquals(20, coins.getTotal());
+		assertEquals(5, coins.ceiling(4).value);
+		assertEquals(7, coins.ceiling(7).value);
+		assertNull(coins.ceiling(8));
+		assertEquals(7, coins.largestFirst().first().value);
+		assertEquals(2, coins.smallestFirst().first().value);
+		assertEquals(3, coins.atMost(4).first().value);
+		assertEquals(3, coins.atMost(4).size());
+
+		coins.remove(coins.ceiling(7).id);
+
+		assertEquals(13, coins.getTotal());
+		assertEquals(4, coins.size());
+	}
+
+	@Test
+	public void largestFirstUsesTheFewestInputs() {
+
+		List<TransactionOutput> selected = largestFirst.select(coins(1, 1, 1, 1, 6, 5), 10);
+
+		assertEquals(2, selected.size());
+		assertEquals(11, sum(selected));
+		assertNull(largestFirst.select(coins(1, 2), 4));
+	}
+
+	@Test
+	public void branchAndBoundFindsAnExactMatch() {
+
+		assertEquals(10, sum(branchAndBound.select(coins(5, 3, 8, 4, 1), 10)));
+		assertEquals(1, branchAndBound.select(coins(5, 3, 8, 4, 1), 8).size());
+
+		/**
+		 * Nothing adds up to 10, the fallback takes the largest outputs
+		 */
+		assertEquals(12, sum(branchAndBound.select(coins(4, 4, 4), 10)));
+
+		/**
+		 * Change up to the tolerance is accepted
+		 */
+		BranchAndBoundSelector tolerant = new BranchAndBoundSelector(1, largestFirst);
+
+		assertEquals(11, sum(tolerant.select(coins(6, 5, 9), 10)));
+	}
+
+	/**
+	 * Only the largest outputs which fit are searched, the fallback decides when
+	 * the match needs smaller ones
+	 */
+	@Test
+	public void branchAndBoundSearchesABoundedWindow() {
+
+		BranchAndBoundSelector narrow = new BranchAndBoundSelector(0, 1, largestFirst);
+
+		assertEquals(9, sum(narrow.select(coins(9, 8, 6, 2, 1), 3)));
+
+		BranchAndBoundSelector wider = new BranchAndBoundSelector(0, 2, largestFirst);
+
+		assertEquals(3, sum(wider.select(coins(9, 8, 6, 2, 1), 3)));
+	}
+
+	/**
+	 * Whenever a subset of a small wallet adds up to the value, the search finds
+	 * one
+	 */
+	@Test
+	public void branchAndBoundMatchesBruteForce() {
+
+		Random random = new Random(42);
+
+		for (int round = 0; round < 200; round++) {
+
+			long[] values = new long[12];
+
+			for (int i = 0; i < values.length; i++) {
+
+				values[i] = 1 + random.nextInt(50);
+			}
+
+			CoinSet coins = coins(values);
+
+			long value = 1 + random.nextInt(150);
+
+			List<TransactionOutput> selected = branchAndBound.select(coins, value);
+
+			assertEquals(exactSubsetExists(values, value), sum(selected) == value);
+			assertEquals(selected.size(), new HashSet<>(selected).size());
+		}
+	}
+
+	private CoinSet coins(long... values) {
+
+		CoinSet coins = new CoinSet();
+
+		for (long value : values) {
+
+			coins.add(new TransactionOutput(Hash256.sha256(new byte[] { (byte) ++outputs }), null, value,
+					Hash256.ZERO));
+		}
+
+		return coins;
+	}
+
+	private static long sum(List<TransactionOutput> outputs) {
+
+		long sum = 0;
+
+		for (TransactionOutput output : outputs) {
+
+			sum += output.value;
+		}
+
+		return sum;
+	}
+
+	private static boolean exactSubsetExists(long[] values, long value) {
+
+		for (int mask = 1; mask < 1 << values.length; mask++) {
+
+			long sum = 0;
+
+			for (int i = 0; i < values.length; i++) {
+
+				if ((mask & 1 << i) != 0) {
+
+					sum += values[i];
+				}
+			}
+
+			if (sum == value) {
+
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
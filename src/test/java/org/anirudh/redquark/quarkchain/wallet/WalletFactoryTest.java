@@ -0,0 +1,68 @@
+package org.anirudh.redquark.quarkchain.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.security.PublicKey;
+import java.security.Security;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link WalletFactory} and {@link KeyPool}.
+ */
+public class WalletFactoryTest {
+
+	@BeforeClass
+	public static void setUp() {
+
+		Security.addProvider(new BouncyCastleProvider());
+	}
+
+	@Test
+	public void batchesHaveDistinctKeys() {
+
+		List<Wallet> wallets = new WalletFactory(new ForkJoinPool(4)).createWallets(200);
+
+		Set<PublicKey> keys = new HashSet<>();
+
+		for (Wallet wallet : wallets) {
+
+			assertNotNull(wallet.privateKey);
+
+			keys.add(wallet.publicKey);
+		}
+
+		assertEquals(200, keys.size());
+	}
+
+	/**
+	 * An empty pool still hands out keys, generated on the calling thread
+	 */
+	@Test
+	public void poolNeverRunsDry() {
+
+		KeyPool pool = new KeyPool(4, 1);
+
+		try {
+
+			Set<PublicKey> keys = new HashSet<>();
+
+			for (int i = 0; i < 50; i++) {
+
+				keys.add(pool.newWallet().publicKey);
+			}
+
+			assertEquals(50, keys.size());
+		} finally {
+
+			pool.close();
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package org.anirudh.redquark.quarkchain.wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.anirudh.redquark.quarkchain.TestChain;
+import org.anirudh.redquark.quarkchain.block.Block;
+import org.anirudh.redquark.quarkchain.chain.ChainState;
+import org.anirudh.redquark.quarkchain.transaction.Amount;
+import org.anirudh.redquark.quarkchain.transaction.Transaction;
+import org.anirudh.redquark.quarkchain.transaction.TransactionInput;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the coins a {@link Wallet} reserves for its payments.
+ */
+public class WalletTest {
+
+	private TestChain test;
+
+	private ChainState chain;
+
+	private Wallet walletA;
+
+	private Wallet walletB;
+
+	@Before
+	public void setUp() {
+
+		test = new TestChain();
+		chain = test.chain;
+
+		walletA = test.walletA;
+		walletB = test.walletB;
+	}
+
+	/**
+	 * Two payments made before a block connects spend different outputs, so
+	 * both fit in the same block
+	 */
+	@Test
+	public void twoSendsFitInOneBlock() {
+
+		Block block = new Block(chain.getTip().hash);
+
+		assertTrue(block.addTransaction(walletA.sendFunds(walletB.publicKey, Amount.coins(40)), chain.getUTXOs()));
+		assertTrue(test.addBlock(block));
+
+		block = new Block(chain.getTip().hash);
+
+		assertTrue(block.addTransaction(walletB.sendFunds(walletA.publicKey, Amount.coins(10)), chain.getUTXOs()));
+		assertTrue(test.addBlock(block));
+
+		Transaction first = walletA.sendFunds(walletB.publicKey, Amount.coins(5));
+		Transaction second = walletA.sendFunds(walletB.publicKey, Amount.coins(5));
+
+		assertNotNull(first);
+		assertNotNull(second);
+
+		Set<Object> spent = new HashSet<>();
+
+		for (Transaction transaction : new Transaction[] { first, second }) {
+
+			for (TransactionInput input : transaction.getInputs()) {
+
+				assertTrue(spent.add(input.transactionOutputId));
+			}
+		}
+
+		/**
+		 * Reserved coins are still on the chain
+		 */
+		assertEquals(Amount.coins(70), walletA.getBalance());
+
+		block = new Block(chain.getTip().hash);
+
+		assertTrue(block.addTransaction(first, chain.getUTXOs()));
+		assertTrue(block.addTransaction(second, chain.getUTXOs()));
+		assertTrue(test.addBlock(block));
+
+		assertEquals(Amount.coins(60), walletA.getBalance());
+		assertEquals(Amount.coins(40), walletB.getBalance());
+		assertEquals(0, walletA.getReserved());
+	}
+
+	/**
+	 * A payment which is dropped gives its coins back
+	 */
+	@Test
+	public void droppedSendIsReleased() {
+
+		Transaction dropped = walletA.sendFunds(walletB.publicKey, Amount.coins(5));
+
+		assertNotNull(dropped);
+		assertEquals(Amount.coins(100), walletA.getReserved());
+		assertNull(walletA.sendFunds(walletB.publicKey, Amount.coins(5)));
+
+		walletA.release(dropped);
+
+		assertEquals(0, walletA.getReserved());
+
+		Block block = new Block(chain.getTip().hash);
+
+		assertTrue(block.addTransaction(walletA.sendFunds(walletB.publicKey, Amount.coins(5)), chain.getUTXOs()));
+		assertTrue(test.addBlock(block));
+
+		/**
+		 * Its input is spent now, releasing it again gives nothing back
+		 */
+		walletA.release(dropped);
+
+		assertEquals(Amount.coins(95), walletA.getBalance());
+		assertEquals(0, walletA.getReserved());
+		assertFalse(walletA.UTXOs.contains(dropped.getInputs().get(0).transactionOutputId));
+	}
+}